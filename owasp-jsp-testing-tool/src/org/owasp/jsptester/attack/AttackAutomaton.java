@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.attack;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton that finds every attack string of a set of
+ * attacks in a single pass over a stream of bytes. Attack strings are matched
+ * byte for byte in the ISO-8859-1 encoding the test cases are rendered in.
+ * Once built the automaton is never modified, so one instance may be shared
+ * by any number of threads, each keeping its own current state.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class AttackAutomaton
+{
+
+    /**
+     * The encoding the attack strings are matched in
+     */
+    private static final String ENCODING = "ISO-8859-1";
+
+    /**
+     * Returned for states that do not complete any attack string
+     */
+    private static final int[] NO_MATCHES = new int[0];
+
+    /**
+     * The attacks searched for
+     */
+    private final Attack[] attacks;
+
+    /**
+     * The length in bytes of each attack string
+     */
+    private final int[] lengths;
+
+    /**
+     * The length in bytes of the longest attack string
+     */
+    private final int maxLength;
+
+    /**
+     * Maps each byte value to its column of the transition table; every byte
+     * that appears in no attack string shares column zero
+     */
+    private final int[] byteClasses = new int[256];
+
+    /**
+     * The next state for each state and byte class, with the failure links
+     * already followed
+     */
+    private final int[][] transitions;
+
+    /**
+     * The indices of the attacks whose strings end at each state
+     */
+    private final int[][] matches;
+
+    /**
+     * Builds an automaton that searches for the attack strings of the given
+     * attacks. Attacks with an empty attack string are never matched.
+     * 
+     * @param attacks
+     *            the attacks to search for
+     */
+    public AttackAutomaton( Attack[] attacks )
+    {
+        this.attacks = (Attack[]) attacks.clone();
+        this.lengths = new int[attacks.length];
+
+        byte[][] patterns = new byte[attacks.length][];
+        int classCount = 1;
+        int longest = 0;
+
+        for ( int i = 0; i < attacks.length; i++ )
+        {
+            patterns[i] = getBytes( attacks[i].getAttackString() );
+            lengths[i] = patterns[i].length;
+            longest = Math.max( longest, lengths[i] );
+
+            for ( int j = 0; j < patterns[i].length; j++ )
+            {
+                int b = patterns[i][j] & 0xff;
+                if ( byteClasses[b] == 0 )
+                {
+                    byteClasses[b] = classCount++;
+                }
+            }
+        }
+
+        maxLength = longest;
+
+        // build the trie of attack strings, where -1 marks a missing edge
+        List/* <int[]> */trie = new ArrayList();
+        List/* <List<Integer>> */output = new ArrayList();
+        trie.add( newRow( classCount ) );
+        output.add( new ArrayList() );
+
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            if ( patterns[i].length == 0 )
+            {
+                continue;
+            }
+
+            int state = 0;
+            for ( int j = 0; j < patterns[i].length; j++ )
+            {
+                int[] row = (int[]) trie.get( state );
+                int column = byteClasses[patterns[i][j] & 0xff];
+
+                if ( row[column] < 0 )
+                {
+                    row[column] = trie.size();
+                    trie.add( newRow( classCount ) );
+                    output.add( new ArrayList() );
+                }
+
+                state = row[column];
+            }
+
+            ( (List) output.get( state ) ).add( new Integer( i ) );
+        }
+
+        // turn the trie into a complete transition table, breadth first so
+        // that each failure state is finished before it is needed
+        int stateCount = trie.size();
+        int[] failure = new int[stateCount];
+        transitions = new int[stateCount][];
+        matches = new int[stateCount][];
+
+        LinkedList/* <Integer> */queue = new LinkedList();
+        queue.add( new Integer( 0 ) );
+
+        while ( !queue.isEmpty() )
+        {
+            int state = ( (Integer) queue.removeFirst() ).intValue();
+            int[] row = (int[]) trie.get( state );
+
+            for ( int column = 0; column < classCount; column++ )
+            {
+                int child = row[column];
+
+                if ( child < 0 )
+                {
+                    row[column] = ( state == 0 ? 0
+                            : transitions[failure[state]][column] );
+                    continue;
+                }
+
+                failure[child] = ( state == 0 ? 0
+                        : transitions[failure[state]][column] );
+
+                // a state also completes every string its failure state
+                // completes
+                ( (List) output.get( child ) ).addAll( (List) output
+                        .get( failure[child] ) );
+                queue.add( new Integer( child ) );
+            }
+
+            transitions[state] = row;
+            matches[state] = toArray( (List) output.get( state ) );
+        }
+    }
+
+    /**
+     * Returns the state to start each stream in
+     * 
+     * @return the initial state
+     */
+    public int getInitialState()
+    {
+        return 0;
+    }
+
+    /**
+     * Returns the state reached by reading the given byte in the given state
+     * 
+     * @param state
+     *            the current state
+     * @param b
+     *            the byte read
+     * @return the next state
+     */
+    public int next( int state, int b )
+    {
+        return transitions[state][byteClasses[b & 0xff]];
+    }
+
+    /**
+     * Returns the indices of the attacks whose strings end with the byte that
+     * led to the given state
+     * 
+     * @param state
+     *            the current state
+     * @return the indices of the matched attacks; empty if none match. The
+     *         array must not be modified.
+     */
+    public int[] getMatches( int state )
+    {
+        return matches[state];
+    }
+
+    /**
+     * Returns the attack with the given index
+     * 
+     * @param index
+     *            the index of the attack, as returned by
+     *            {@link #getMatches(int)}
+     * @return the attack
+     */
+    public Attack getAttack( int index )
+    {
+        return attacks[index];
+    }
+
+    /**
+     * Returns the length in bytes of the attack string of the attack with
+     * the given index
+     * 
+     * @param index
+     *            the index of the attack
+     * @return the length in bytes of its attack string
+     */
+    public int getLength( int index )
+    {
+        return lengths[index];
+    }
+
+    /**
+     * Returns the length in bytes of the longest attack string
+     * 
+     * @return the length in bytes of the longest attack string
+     */
+    public int getMaxLength()
+    {
+        return maxLength;
+    }
+
+    /**
+     * Returns the number of states of the automaton
+     * 
+     * @return the number of states
+     */
+    public int getStateCount()
+    {
+        return transitions.length;
+    }
+
+    /**
+     * Creates a trie row with no edges
+     * 
+     * @param columns
+     *            the number of byte classes
+     * @return the new row
+     */
+    private static int[] newRow( int columns )
+    {
+        int[] row = new int[columns];
+        for ( int i = 0; i < columns; i++ )
+        {
+            row[i] = -1;
+        }
+        return row;
+    }
+
+    /**
+     * Converts a list of attack indices to an array
+     * 
+     * @param indices
+     *            the list of indices
+     * @return the indices as an array
+     */
+    private static int[] toArray( List/* <Integer> */indices )
+    {
+        if ( indices.isEmpty() )
+        {
+            return NO_MATCHES;
+        }
+
+        int[] array = new int[indices.size()];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            array[i] = ( (Integer) indices.get( i ) ).intValue();
+        }
+        return array;
+    }
+
+    /**
+     * Encodes the given attack string in the encoding test cases are
+     * rendered in
+     * 
+     * @param attackString
+     *            the attack string
+     * @return the encoded bytes
+     */
+    private static byte[] getBytes( String attackString )
+    {
+        try
+        {
+            return attackString.getBytes( ENCODING );
+        }
+        catch ( UnsupportedEncodingException uee )
+        {
+            // every JVM supports ISO-8859-1
+            throw new IllegalStateException( uee.getMessage() );
+        }
+    }
+}
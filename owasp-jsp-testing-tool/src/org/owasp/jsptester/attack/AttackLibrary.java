@@ -27,17 +27,23 @@
  */
 package org.owasp.jsptester.attack;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
 import org.owasp.jsptester.conf.Configuration;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -48,6 +54,12 @@ import org.xml.sax.SAXException;
 /**
  * Loads the set of XSS attack test cases from an XML filed to be used to test a
  * tag library as instances of the Attack class.
+ * <p>
+ * An attack library is parsed once per attack file and shared by every caller;
+ * instances are immutable. If enabled by the
+ * <code>ATTACK_LIBRARY_RELOAD</code> configuration value, the file's
+ * modification time and length are checked on each lookup and the file is
+ * reparsed if its content hash has changed.
  * 
  * @author Jason Li
  * 
@@ -62,15 +74,31 @@ public class AttackLibrary
             .getName() );
 
     /**
-     * Map*lt;String, Attack&gt; of name of attack to Attack instance
+     * Map&lt;String, CacheEntry&gt; of attack file to its parsed library;
+     * also guards the parse count
      */
-    private final Map/* <String, Attack> */attacks = new HashMap();
+    private static final Map/* <String, CacheEntry> */CACHE = new HashMap();
+
+    /**
+     * Number of times an attack file has been parsed
+     */
+    private static int parseCount = 0;
+
+    /**
+     * Map&lt;String, Attack&gt; of name of attack to Attack instance
+     */
+    private final Map/* <String, Attack> */attacks;
 
     /**
      * Constructs an instance of an AttackLibrary
+     * 
+     * @param attacks
+     *            Map&lt;String, Attack&gt; of name of attack to Attack
+     *            instance
      */
-    private AttackLibrary()
+    private AttackLibrary( Map/* <String, Attack> */attacks )
     {
+        this.attacks = Collections.unmodifiableMap( attacks );
     }
 
     /**
@@ -97,8 +125,41 @@ public class AttackLibrary
      */
     public static AttackLibrary getInstance( String attackFile )
     {
+        synchronized ( CACHE )
+        {
+            CacheEntry entry = (CacheEntry) CACHE.get( attackFile );
 
-        return parseAttackFile( attackFile );
+            if ( entry == null )
+            {
+                entry = loadAttackFile( attackFile, null );
+                CACHE.put( attackFile, entry );
+            }
+            else if ( Configuration.getInstance().getBooleanProperty(
+                    Configuration.ATTACK_LIBRARY_RELOAD, true )
+                    && entry.isModified( new File( attackFile ) ) )
+            {
+                LOGGER.fine( "Attack file modified: " + attackFile );
+
+                entry = loadAttackFile( attackFile, entry );
+                CACHE.put( attackFile, entry );
+            }
+
+            return entry.library;
+        }
+    }
+
+    /**
+     * Returns the number of times an attack file has been parsed, which is
+     * once per attack file unless it has been changed and reloaded
+     * 
+     * @return the number of times an attack file has been parsed
+     */
+    public static int getParseCount()
+    {
+        synchronized ( CACHE )
+        {
+            return parseCount;
+        }
     }
 
     /**
@@ -140,21 +201,112 @@ public class AttackLibrary
     }
 
     /**
-     * Returns an instance of AttackLibrary created from the specified file.
-     * This method parses the specified XML file and creates instances of the
-     * Attack class to populate the Map of attacks
+     * Returns a cache entry for the specified file. The file is parsed unless
+     * its content hash matches that of the previous entry, in which case the
+     * previous library is kept. The previous entry is also returned, and the
+     * file checked again on the next lookup, if the file cannot be read or
+     * does not parse into any attacks, so a file caught half written does not
+     * replace a good library.
      * 
      * @param attackFile
      *            the file to load
-     * @return an instance of AttackLibrary created from the specified file.
+     * @param previous
+     *            the previous cache entry for the file, or null if none
+     * @return a cache entry for the specified file
      */
-    private static AttackLibrary parseAttackFile( String attackFile )
+    private static CacheEntry loadAttackFile( String attackFile,
+            CacheEntry previous )
+    {
+        LOGGER.entering( AttackLibrary.class.getName(), "loadAttackFile",
+                new Object[]
+                    { attackFile, previous } );
+
+        File file = new File( attackFile );
+
+        // stat before reading so a change during the read is seen next time
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        byte[] content = null;
+        String digest = null;
+
+        try
+        {
+            content = FileUtils.readFileToByteArray( file );
+            digest = DigestUtils.shaHex( content );
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.throwing( AttackLibrary.class.getName(),
+                    "loadAttackFile(String, CacheEntry)", ioe );
+
+            if ( previous != null )
+            {
+                LOGGER.log( Level.WARNING, "Unable to read attack file "
+                        + attackFile + ", keeping the previous attacks", ioe );
+                return previous;
+            }
+        }
+
+        AttackLibrary library;
+        if ( previous != null && digest != null
+                && digest.equals( previous.digest ) )
+        {
+            LOGGER.fine( "Attack file unchanged: " + attackFile );
+            library = previous.library;
+        }
+        else if ( content != null )
+        {
+            Map/* <String, Attack> */attacks = new HashMap();
+            boolean parsed = parseAttackFile( content, file.toURI()
+                    .toString(), attacks );
+
+            if ( previous != null && ( !parsed || attacks.isEmpty() ) )
+            {
+                LOGGER.warning( "Unable to parse attack file " + attackFile
+                        + ", keeping the previous attacks" );
+                return previous;
+            }
+
+            library = new AttackLibrary( attacks );
+        }
+        else
+        {
+            library = new AttackLibrary( new HashMap() );
+        }
+
+        CacheEntry toReturn = new CacheEntry( library, lastModified, length,
+                digest );
+
+        LOGGER.exiting( AttackLibrary.class.getName(), "loadAttackFile",
+                toReturn );
+
+        return toReturn;
+    }
+
+    /**
+     * Parses the specified file content into the given map of attacks. This
+     * method parses the XML and creates instances of the Attack class to
+     * populate the Map of attacks; the attacks before any parsing error are
+     * still added.
+     * 
+     * @param content
+     *            the content of the file to load
+     * @param systemId
+     *            the system id of the file, for resolving relative URIs
+     * @param attacks
+     *            Map&lt;String, Attack&gt; to place the parsed attacks in
+     * @return true if the whole file was parsed
+     */
+    private static boolean parseAttackFile( byte[] content, String systemId,
+            Map/* <String, Attack> */attacks )
     {
         LOGGER.entering( AttackLibrary.class.getName(), "parseAttackFile",
-                attackFile );
+                systemId );
+
+        parseCount++;
 
-        // Create a new instance of the attack library
-        AttackLibrary toReturn = new AttackLibrary();
+        boolean parsed = false;
 
         try
         {
@@ -167,7 +319,7 @@ public class AttackLibrary
             Document dom = null;
 
             // Load and parse the file.
-            dom = db.parse( attackFile );
+            dom = db.parse( new ByteArrayInputStream( content ), systemId );
 
             // Get the root element
             Element attackNodes = dom.getDocumentElement();
@@ -191,35 +343,36 @@ public class AttackLibrary
                 if ( "attack".equals( childNode.getNodeName() ) )
                 {
                     Attack attack = parseAttackNode( childNode );
-                    toReturn.attacks.put( attack.getName(), attack );
+                    attacks.put( attack.getName(), attack );
                 }
                 else
                 {
                     throw new SAXException( "Unknown element encounterd" );
                 }
             }
+
+            parsed = true;
         }
         catch ( ParserConfigurationException pce )
         {
             LOGGER.throwing( AttackLibrary.class.getName(),
-                    "parseAttackFile(String)", pce );
+                    "parseAttackFile(byte[], String)", pce );
         }
         catch ( SAXException se )
         {
             LOGGER.throwing( AttackLibrary.class.getName(),
-                    "parseAttackFile(String)", se );
+                    "parseAttackFile(byte[], String)", se );
         }
         catch ( IOException ioe )
         {
             LOGGER.throwing( AttackLibrary.class.getName(),
-                    "parseAttackFile(String)", ioe );
+                    "parseAttackFile(byte[], String)", ioe );
         }
 
         LOGGER.exiting( AttackLibrary.class.getName(), "parseAttackFile",
-                toReturn );
+                Boolean.valueOf( parsed ) );
 
-        // return the created instance of the attack library
-        return toReturn;
+        return parsed;
     }
 
     /**
@@ -307,6 +460,67 @@ public class AttackLibrary
         return toReturn;
     }
 
+    /**
+     * A parsed attack library and the state of the file it was parsed from
+     */
+    private static class CacheEntry
+    {
+        /**
+         * The parsed attack library
+         */
+        private final AttackLibrary library;
+
+        /**
+         * The modification time of the file when it was read
+         */
+        private final long lastModified;
+
+        /**
+         * The length of the file when it was read
+         */
+        private final long length;
+
+        /**
+         * The SHA-1 hash of the file, or null if it could not be read
+         */
+        private final String digest;
+
+        /**
+         * Creates a cache entry
+         * 
+         * @param library
+         *            the parsed attack library
+         * @param lastModified
+         *            the modification time of the file
+         * @param length
+         *            the length of the file
+         * @param digest
+         *            the SHA-1 hash of the file
+         */
+        private CacheEntry( AttackLibrary library, long lastModified,
+                long length, String digest )
+        {
+            this.library = library;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns true if the given file's modification time or length
+         * differs from when it was read
+         * 
+         * @param file
+         *            the attack file
+         * @return true if the file may have changed
+         */
+        private boolean isModified( File file )
+        {
+            return file.lastModified() != lastModified
+                    || file.length() != length;
+        }
+    }
+
     /**
      * Test code to verify correct parsing of an attack XML file
      * 
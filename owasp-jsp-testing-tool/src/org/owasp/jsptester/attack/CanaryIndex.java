@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.attack;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each test case a short canary token and maps the tokens found in
+ * rendered output back to their test cases. A token is the {@link #PREFIX}
+ * followed by {@link #DIGITS} base 32 digits derived from a hash of the test
+ * case name, so the same test case is given the same token on every run and
+ * regenerated pages do not change. Tokens only contain letters and digits,
+ * which no encoder changes, so a token still identifies its test case where
+ * the rest of the attack has been encoded.
+ * <p>
+ * The index is thread safe.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class CanaryIndex
+{
+
+    /**
+     * The characters every token starts with
+     */
+    public static final String PREFIX = "jspt";
+
+    /**
+     * The number of digits following the prefix
+     */
+    public static final int DIGITS = 8;
+
+    /**
+     * The length of a token
+     */
+    public static final int TOKEN_LENGTH = PREFIX.length() + DIGITS;
+
+    /**
+     * The digits of a token
+     */
+    private static final String BASE32 = "0123456789abcdefghijklmnopqrstuv";
+
+    /**
+     * Map&lt;String, String&gt; of token to test case name
+     */
+    private final Map/* <String, String> */testCases = new HashMap();
+
+    /**
+     * Map&lt;String, String&gt; of test case name to token
+     */
+    private final Map/* <String, String> */tokens = new HashMap();
+
+    /**
+     * Returns the token of the given test case, assigning one if the test
+     * case does not have one yet. Should two test cases hash to the same
+     * token, the one registered later is given the next free token.
+     * 
+     * @param testCaseName
+     *            the name of the test case
+     * @return the token of the test case
+     */
+    public synchronized String register( String testCaseName )
+    {
+        String token = (String) tokens.get( testCaseName );
+        if ( token != null )
+        {
+            return token;
+        }
+
+        for ( int salt = 0;; salt++ )
+        {
+            token = createToken( testCaseName, salt );
+            if ( !testCases.containsKey( token ) )
+            {
+                break;
+            }
+        }
+
+        tokens.put( testCaseName, token );
+        testCases.put( token, testCaseName );
+
+        return token;
+    }
+
+    /**
+     * Returns the test case with the given token
+     * 
+     * @param token
+     *            the token
+     * @return the name of the test case or null if the token was never
+     *         assigned
+     */
+    public synchronized String getTestCase( String token )
+    {
+        return (String) testCases.get( token );
+    }
+
+    /**
+     * Returns the number of test cases with a token
+     * 
+     * @return the number of test cases with a token
+     */
+    public synchronized int size()
+    {
+        return tokens.size();
+    }
+
+    /**
+     * Finds the tokens in the given output in a single pass, in the order
+     * they appear
+     * 
+     * @param output
+     *            the rendered output
+     * @return <code>List&lt;String&gt;</code> of the names of the test cases
+     *         whose tokens were found; tokens never assigned are skipped
+     */
+    public List/* <String> */find( CharSequence output )
+    {
+        List/* <String> */found = new ArrayList();
+
+        int matched = 0;
+        for ( int i = 0; i < output.length(); i++ )
+        {
+            matched = advance( matched, output.charAt( i ) );
+
+            if ( matched == TOKEN_LENGTH )
+            {
+                String testCase = getTestCase( output.subSequence(
+                        i - TOKEN_LENGTH + 1, i + 1 ).toString() );
+                if ( testCase != null )
+                {
+                    found.add( testCase );
+                }
+                matched = 0;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Advances the recognition of a token by one character. Callers track
+     * the returned count and read the token once it reaches
+     * {@link #TOKEN_LENGTH}.
+     * 
+     * @param matched
+     *            the number of characters of a token matched before the
+     *            given character
+     * @param c
+     *            the next character
+     * @return the number of characters of a token matched including the
+     *         given character
+     */
+    public static int advance( int matched, int c )
+    {
+        if ( matched < PREFIX.length() )
+        {
+            if ( c == PREFIX.charAt( matched ) )
+            {
+                return matched + 1;
+            }
+        }
+        else if ( BASE32.indexOf( c ) >= 0 )
+        {
+            return matched + 1;
+        }
+
+        // the prefix does not overlap itself, so only its first character
+        // can start a new token
+        return ( c == PREFIX.charAt( 0 ) ? 1 : 0 );
+    }
+
+    /**
+     * Derives a token from the given test case name
+     * 
+     * @param testCaseName
+     *            the name of the test case
+     * @param salt
+     *            zero, or the number of tokens already taken by other test
+     *            cases
+     * @return the token
+     */
+    private static String createToken( String testCaseName, int salt )
+    {
+        byte[] hash;
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "MD5" );
+            hash = digest.digest( ( salt == 0 ? testCaseName : testCaseName
+                    + "#" + salt ).getBytes( "UTF-8" ) );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // every JVM supports MD5
+            throw new IllegalStateException( nsae.getMessage() );
+        }
+        catch ( UnsupportedEncodingException uee )
+        {
+            // every JVM supports UTF-8
+            throw new IllegalStateException( uee.getMessage() );
+        }
+
+        // five bytes give the eight digits of five bits each
+        long bits = 0;
+        for ( int i = 0; i < 5; i++ )
+        {
+            bits = ( bits << 8 ) | ( hash[i] & 0xff );
+        }
+
+        StringBuffer token = new StringBuffer( TOKEN_LENGTH );
+        token.append( PREFIX );
+        for ( int i = DIGITS - 1; i >= 0; i-- )
+        {
+            token.append( BASE32.charAt( (int) ( ( bits >> ( i * 5 ) ) & 0x1f ) ) );
+        }
+
+        return token.toString();
+    }
+}
@@ -75,6 +75,33 @@ public class Configuration
      */
     public static final String ATTACK_LIBRARY = "ATTACK_LIBRARY";
 
+    /**
+     * Whether to reparse the attack library XML file when it changes
+     */
+    public static final String ATTACK_LIBRARY_RELOAD = "ATTACK_LIBRARY_RELOAD";
+
+    /**
+     * How TLD files are parsed: <code>stax</code> to stream them with a pull
+     * parser or <code>dom</code> to load them into a DOM first
+     */
+    public static final String TLD_PARSER = "TLD_PARSER";
+
+    /**
+     * Whether to reuse parsed tag libraries across runs
+     */
+    public static final String TLD_CACHE_ENABLED = "TLD_CACHE_ENABLED";
+
+    /**
+     * The directory holding parsed tag libraries between runs
+     */
+    public static final String TLD_CACHE_DIR = "TLD_CACHE_DIR";
+
+    /**
+     * The number of worker threads to use when parsing the TLD files found
+     * in tag library jars
+     */
+    public static final String TLD_DISCOVERY_THREADS = "TLD_DISCOVERY_THREADS";
+
     /**
      * The location where the document base for the embedded Tomcat instance
      */
@@ -86,10 +113,84 @@ public class Configuration
     public static final String EMBEDDED_WEB_ROOT = "EMBEDDED_WEB_ROOT";
 
     /**
-     * The port number to use for the embedded Tomcat instance
+     * The port number to use for the embedded Tomcat instance; zero picks a
+     * free port for each instance
      */
     public static final String EMBEDDED_PORT_NUM = "EMBEDDED_PORT_NUM";
 
+    /**
+     * The loopback port the tester daemon listens on for test jobs; must not
+     * be one of the embedded servers' ports, which run upwards from
+     * <code>EMBEDDED_PORT_NUM</code>
+     */
+    public static final String DAEMON_PORT = "DAEMON_PORT";
+
+    /**
+     * Whether generated test cases are held in memory and served from there
+     * rather than written to the web root on disk
+     */
+    public static final String EMBEDDED_IN_MEMORY_WEB_ROOT = "EMBEDDED_IN_MEMORY_WEB_ROOT";
+
+    /**
+     * Whether test cases held in memory are also written to disk, for
+     * debugging
+     */
+    public static final String EMBEDDED_SPILL_TO_DISK = "EMBEDDED_SPILL_TO_DISK";
+
+    /**
+     * Whether each run uses its own directory under the document base, so
+     * that concurrent runs on one machine do not share files
+     */
+    public static final String EMBEDDED_UNIQUE_DOC_BASE = "EMBEDDED_UNIQUE_DOC_BASE";
+
+    /**
+     * The number of embedded Tomcat instances to spread the test cases across
+     */
+    public static final String EMBEDDED_SERVER_INSTANCES = "EMBEDDED_SERVER_INSTANCES";
+
+    /**
+     * The work directory where the embedded Tomcat instance writes compiled
+     * JSPs
+     */
+    public static final String EMBEDDED_WORK_DIR = "EMBEDDED_WORK_DIR";
+
+    /**
+     * The number of test cases an embedded Tomcat instance renders before it
+     * is replaced; zero or less means unlimited. Compile requests are not
+     * counted.
+     */
+    public static final String RECYCLE_MAX_REQUESTS = "RECYCLE_MAX_REQUESTS";
+
+    /**
+     * The percentage of the old generation or class metadata memory pool at
+     * which the embedded Tomcat instance is replaced
+     */
+    public static final String RECYCLE_MEMORY_THRESHOLD = "RECYCLE_MEMORY_THRESHOLD";
+
+    /**
+     * The number of test cases rendered after a memory triggered recycle
+     * before a pool still over its threshold triggers another one
+     */
+    public static final String RECYCLE_MIN_REQUESTS = "RECYCLE_MIN_REQUESTS";
+
+    /**
+     * Whether to reuse compiled test case JSPs across runs; off by default,
+     * since the cached classes are loaded into the embedded server
+     */
+    public static final String COMPILE_CACHE_ENABLED = "COMPILE_CACHE_ENABLED";
+
+    /**
+     * The directory holding compiled test case JSPs between runs, which must
+     * not be writable by other users; defaults to a directory under the
+     * user's home directory
+     */
+    public static final String COMPILE_CACHE_DIR = "COMPILE_CACHE_DIR";
+
+    /**
+     * The maximum size of the compile cache, in megabytes
+     */
+    public static final String COMPILE_CACHE_MAX_SIZE = "COMPILE_CACHE_MAX_SIZE";
+
     /**
      * The library report template file
      */
@@ -105,6 +206,17 @@ public class Configuration
      */
     public static final String TEMPLATE_TEST_CASE = "REPORT_TEST_CASE_TEMPLATE";
 
+    /**
+     * The template file for pages holding a batch of test cases
+     */
+    public static final String TEMPLATE_TEST_CASE_BATCH = "REPORT_TEST_CASE_BATCH_TEMPLATE";
+
+    /**
+     * The template file for the index of a batch run over several tag
+     * libraries
+     */
+    public static final String TEMPLATE_BATCH_INDEX = "REPORT_BATCH_INDEX_TEMPLATE";
+
     /**
      * The index.jsp file for the test site
      */
@@ -147,6 +259,124 @@ public class Configuration
      */
     public static final String REPORT_FILE_NAME = "REPORT_FILE_NAME";
 
+    /**
+     * The name of the index file of a batch run, linking to the report of
+     * each tag library
+     */
+    public static final String BATCH_INDEX_FILE_NAME = "BATCH_INDEX_FILE_NAME";
+
+    /**
+     * The name of the file listing the verdict of each test case
+     */
+    public static final String VERDICT_FILE_NAME = "VERDICT_FILE_NAME";
+
+    /**
+     * The number of threads deciding the verdicts of the serialized test
+     * cases; zero leaves the verdicts to the report pages
+     */
+    public static final String VERDICT_THREADS = "VERDICT_THREADS";
+
+    /**
+     * Whether to scan each response for attack strings reflected unencoded
+     * as it is serialized
+     */
+    public static final String REFLECTION_SCAN_ENABLED = "REFLECTION_SCAN_ENABLED";
+
+    /**
+     * The name of the file listing the attack strings found in the responses
+     */
+    public static final String REFLECTION_FILE_NAME = "REFLECTION_FILE_NAME";
+
+    /**
+     * Whether to append a canary token unique to each test case to its
+     * attack, so that reflections can be traced to the test case that
+     * injected them
+     */
+    public static final String CANARY_TOKENS_ENABLED = "CANARY_TOKENS_ENABLED";
+
+    /**
+     * Comma separated list of the formats to write the result of each test
+     * case in as it completes: <code>jsonl</code>, <code>csv</code> and
+     * <code>junit</code>; empty to write no results
+     */
+    public static final String RESULT_FORMATS = "RESULT_FORMATS";
+
+    /**
+     * The name, without extension, of the files the results are written to
+     */
+    public static final String RESULT_FILE_NAME = "RESULT_FILE_NAME";
+
+    /**
+     * The number of worker threads to use when serializing test cases
+     */
+    public static final String SERIALIZER_THREADS = "SERIALIZER_THREADS";
+
+    /**
+     * The maximum number of persistent connections the serializer keeps open
+     * to the embedded Tomcat instance
+     */
+    public static final String SERIALIZER_MAX_CONNECTIONS_PER_HOST = "SERIALIZER_MAX_CONNECTIONS_PER_HOST";
+
+    /**
+     * The time (in milliseconds) the serializer waits to establish a
+     * connection
+     */
+    public static final String SERIALIZER_CONNECTION_TIMEOUT = "SERIALIZER_CONNECTION_TIMEOUT";
+
+    /**
+     * The time (in milliseconds) the serializer waits for data on an open
+     * connection
+     */
+    public static final String SERIALIZER_SOCKET_TIMEOUT = "SERIALIZER_SOCKET_TIMEOUT";
+
+    /**
+     * How test cases are rendered: <code>http</code> to request them through
+     * the embedded server's connector or <code>in-process</code> to dispatch
+     * them directly into the web application
+     */
+    public static final String TEST_CASE_EXECUTOR = "TEST_CASE_EXECUTOR";
+
+    /**
+     * Whether to compile all the test case JSPs in one batch before
+     * serializing them
+     */
+    public static final String PRECOMPILE_TEST_CASES = "PRECOMPILE_TEST_CASES";
+
+    /**
+     * Whether every base file of the web application is verified by
+     * checksum before it is considered already deployed
+     */
+    public static final String BASE_VERIFY_CHECKSUMS = "BASE_VERIFY_CHECKSUMS";
+
+    /**
+     * The number of threads generating test cases; one generates them
+     * sequentially
+     */
+    public static final String GENERATOR_THREADS = "GENERATOR_THREADS";
+
+    /**
+     * The number of seconds between checks for modified report templates;
+     * zero loads each template once and never checks it again
+     */
+    public static final String TEMPLATE_MODIFICATION_CHECK_INTERVAL = "TEMPLATE_MODIFICATION_CHECK_INTERVAL";
+
+    /**
+     * Whether attribute test cases share one page per attribute, with the
+     * attack supplied as a request parameter, instead of one page per attack
+     */
+    public static final String PARAMETERISED_TEST_CASES = "PARAMETERISED_TEST_CASES";
+
+    /**
+     * The number of test cases for the same tag rendered by a single page;
+     * one renders every test case on a page of its own
+     */
+    public static final String TEST_CASE_BATCH_SIZE = "TEST_CASE_BATCH_SIZE";
+
+    /**
+     * The number of threads to use when precompiling test case JSPs
+     */
+    public static final String PRECOMPILE_THREADS = "PRECOMPILE_THREADS";
+
     /*
      * Default configuration properties
      */
@@ -163,6 +393,14 @@ public class Configuration
         DEFAULTS.setProperty( ABOUT_ICON, "resources/owasp_logo.gif" );
         
         DEFAULTS.setProperty( ATTACK_LIBRARY, "resources/attacks.xml" );
+        DEFAULTS.setProperty( ATTACK_LIBRARY_RELOAD, "true" );
+        DEFAULTS.setProperty( TLD_PARSER, "stax" );
+        DEFAULTS.setProperty( TLD_CACHE_ENABLED, "true" );
+        DEFAULTS.setProperty( TLD_CACHE_DIR, System
+                .getProperty( "java.io.tmpdir" )
+                + File.separatorChar + "JSP Testing Tool TLD Cache" );
+        DEFAULTS.setProperty( TLD_DISCOVERY_THREADS, String.valueOf( Runtime
+                .getRuntime().availableProcessors() ) );
 
         DEFAULTS.setProperty( EMBEDDED_DOC_BASE, System
                 .getProperty( "java.io.tmpdir" )
@@ -175,10 +413,35 @@ public class Configuration
                 + File.separatorChar + "report" );
         DEFAULTS.setProperty( EMBEDDED_PORT_NUM, String
                 .valueOf( EmbeddedServer.DEFAULT_PORT ) );
+        DEFAULTS.setProperty( EMBEDDED_UNIQUE_DOC_BASE, "false" );
+        DEFAULTS.setProperty( EMBEDDED_IN_MEMORY_WEB_ROOT, "false" );
+        DEFAULTS.setProperty( EMBEDDED_SPILL_TO_DISK, "false" );
+        DEFAULTS.setProperty( DAEMON_PORT, "8095" );
+        DEFAULTS.setProperty( EMBEDDED_SERVER_INSTANCES, "1" );
+        DEFAULTS.setProperty( EMBEDDED_WORK_DIR, System
+                .getProperty( "java.io.tmpdir" )
+                + File.separatorChar
+                + "JSP Testing Tool Output"
+                + File.separatorChar + "work" );
+
+        DEFAULTS.setProperty( RECYCLE_MAX_REQUESTS, "10000" );
+        DEFAULTS.setProperty( RECYCLE_MEMORY_THRESHOLD, "85" );
+        DEFAULTS.setProperty( RECYCLE_MIN_REQUESTS, "1000" );
+
+        DEFAULTS.setProperty( COMPILE_CACHE_ENABLED, "false" );
+        DEFAULTS.setProperty( COMPILE_CACHE_DIR, System
+                .getProperty( "user.home" )
+                + File.separatorChar
+                + ".jsptester"
+                + File.separatorChar + "compile-cache" );
+        DEFAULTS.setProperty( COMPILE_CACHE_MAX_SIZE, "256" );
 
         DEFAULTS.setProperty( TEMPLATE_LIBRARY_REPORT, "template/report.vm" );
         DEFAULTS.setProperty( TEMPLATE_TAG_REPORT, "template/tag-report.vm" );
         DEFAULTS.setProperty( TEMPLATE_TEST_CASE, "template/testcase.vm" );
+        DEFAULTS.setProperty( TEMPLATE_TEST_CASE_BATCH,
+                "template/testcase-batch.vm" );
+        DEFAULTS.setProperty( TEMPLATE_BATCH_INDEX, "template/batch-index.vm" );
         DEFAULTS.setProperty( TEMPLATE_INDEX_JSP, "template/index.jsp" );
         DEFAULTS.setProperty( TEMPLATE_ERROR_JSP, "template/error.jsp" );
         DEFAULTS.setProperty( TEMPLATE_META_INF, "template/META-INF/" );
@@ -188,6 +451,31 @@ public class Configuration
         DEFAULTS.setProperty( REPORT_FILE_EXTENSION, ".jsp" );
         DEFAULTS.setProperty( REPORT_FRAME_NAMESPACE, "frame" );
         DEFAULTS.setProperty( REPORT_FILE_NAME, "report.html" );
+        DEFAULTS.setProperty( BATCH_INDEX_FILE_NAME, "index.html" );
+        DEFAULTS.setProperty( VERDICT_FILE_NAME, "verdicts.txt" );
+        DEFAULTS.setProperty( VERDICT_THREADS, String.valueOf( Runtime
+                .getRuntime().availableProcessors() ) );
+        DEFAULTS.setProperty( REFLECTION_SCAN_ENABLED, "true" );
+        DEFAULTS.setProperty( REFLECTION_FILE_NAME, "reflections.txt" );
+        DEFAULTS.setProperty( CANARY_TOKENS_ENABLED, "false" );
+        DEFAULTS.setProperty( RESULT_FORMATS, "" );
+        DEFAULTS.setProperty( RESULT_FILE_NAME, "results" );
+
+        DEFAULTS.setProperty( SERIALIZER_THREADS, String.valueOf( Runtime
+                .getRuntime().availableProcessors() ) );
+        DEFAULTS.setProperty( SERIALIZER_MAX_CONNECTIONS_PER_HOST, String
+                .valueOf( Runtime.getRuntime().availableProcessors() ) );
+        DEFAULTS.setProperty( SERIALIZER_CONNECTION_TIMEOUT, "10000" );
+        DEFAULTS.setProperty( SERIALIZER_SOCKET_TIMEOUT, "60000" );
+        DEFAULTS.setProperty( TEST_CASE_EXECUTOR, "http" );
+        DEFAULTS.setProperty( PRECOMPILE_TEST_CASES, "true" );
+        DEFAULTS.setProperty( PARAMETERISED_TEST_CASES, "false" );
+        DEFAULTS.setProperty( TEST_CASE_BATCH_SIZE, "1" );
+        DEFAULTS.setProperty( TEMPLATE_MODIFICATION_CHECK_INTERVAL, "0" );
+        DEFAULTS.setProperty( GENERATOR_THREADS, "1" );
+        DEFAULTS.setProperty( BASE_VERIFY_CHECKSUMS, "false" );
+        DEFAULTS.setProperty( PRECOMPILE_THREADS, String.valueOf( Runtime
+                .getRuntime().availableProcessors() ) );
 
     }
 
@@ -234,6 +522,78 @@ public class Configuration
         return this.config.getProperty( key, DEFAULTS.getProperty( key ) );
     }
 
+    /**
+     * Sets the configuration value for the given key, overriding any loaded
+     * or default value
+     * 
+     * @param key
+     *            the key to set
+     * @param value
+     *            the value to use
+     * @see java.util.Properties#setProperty(java.lang.String,
+     *      java.lang.String)
+     */
+    public void setProperty( String key, String value )
+    {
+        this.config.setProperty( key, value );
+    }
+
+    /**
+     * Returns the configuration value for the given key as an
+     * <code>int</code>, using the given default value if the configured value
+     * is unavailable or is not a valid integer
+     * 
+     * @param key
+     *            the key to lookup
+     * @param defaultValue
+     *            the value to use if the configured value cannot be used
+     * @return the configuration value for the given key as an
+     *         <code>int</code>
+     */
+    public int getIntProperty( String key, int defaultValue )
+    {
+        String value = getProperty( key );
+
+        if ( value != null )
+        {
+            try
+            {
+                return Integer.parseInt( value.trim() );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall through to the default value
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Returns the configuration value for the given key as a
+     * <code>boolean</code>, using the given default value if the value is
+     * unavailable. The values "true" and "yes" are considered true.
+     * 
+     * @param key
+     *            the key to lookup
+     * @param defaultValue
+     *            the value to use if the configured value is unavailable
+     * @return the configuration value for the given key as a
+     *         <code>boolean</code>
+     */
+    public boolean getBooleanProperty( String key, boolean defaultValue )
+    {
+        String value = getProperty( key );
+
+        if ( value == null || value.trim().length() == 0 )
+        {
+            return defaultValue;
+        }
+
+        return "true".equalsIgnoreCase( value.trim() )
+                || "yes".equalsIgnoreCase( value.trim() );
+    }
+
     /**
      * Load the configuration from the given
      * 
@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.catalina.util.ServerInfo;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.jasper.compiler.JspUtil;
+
+/**
+ * A content addressed cache of compiled test case JSPs that survives between
+ * runs. Each entry is keyed by a hash of the generated JSP source, its file
+ * name, the server version and the names, sizes and modification times of
+ * the web application's jars, so a test case is only reused when neither it
+ * nor the tag library it exercises has changed.
+ * <p>
+ * As each test case is generated, and before it is compiled or requested,
+ * its cached classes are restored into the server's work directory with the
+ * same modification time as the JSP, which is what the JSP engine checks to
+ * decide whether a page is out of date. After the run, newly compiled classes are copied into the cache, and the least
+ * recently used entries are evicted once the cache grows beyond its size
+ * limit.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class CompileCache
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( CompileCache.class
+            .getName() );
+
+    /**
+     * The package JSPs at the root of the web application are compiled into
+     */
+    private static final String JSP_PACKAGE_DIR = "org" + File.separatorChar
+            + "apache" + File.separatorChar + "jsp";
+
+    /**
+     * Suffix of compiled class files
+     */
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * The directory holding the cache entries
+     */
+    private final File cacheDir;
+
+    /**
+     * The work directory of the embedded server
+     */
+    private final File workDir;
+
+    /**
+     * The maximum size of the cache, in bytes
+     */
+    private final long maxBytes;
+
+    /**
+     * The web root of the web application under test
+     */
+    private final File webRoot;
+
+    /**
+     * Fingerprint of the server version and web application jars, computed
+     * on first use since the web application may not be in place yet when
+     * the cache is created
+     */
+    private String libraryFingerprint = null;
+
+    /**
+     * Map&lt;File, String&gt; of JSP file to cache key for the JSPs that
+     * were not found in the cache and have not been stored yet
+     */
+    private final Map/* <File, String> */misses = new HashMap();
+
+    /**
+     * Number of JSPs restored from the cache
+     */
+    private int hits = 0;
+
+    /**
+     * Number of JSPs not found in the cache
+     */
+    private int missCount = 0;
+
+    /**
+     * Number of entries added to the cache
+     */
+    private int stored = 0;
+
+    /**
+     * Number of entries evicted from the cache
+     */
+    private int evicted = 0;
+
+    /**
+     * Creates a cache in the given directory for the web application at the
+     * given web root
+     * 
+     * @param cacheDir
+     *            the directory holding the cache entries
+     * @param workDir
+     *            the work directory of the embedded server
+     * @param webRoot
+     *            the web root of the web application under test
+     * @param maxBytes
+     *            the maximum size of the cache, in bytes
+     * @throws IOException
+     *             if the cache directory cannot be created
+     */
+    public CompileCache( File cacheDir, File workDir, File webRoot,
+            long maxBytes ) throws IOException
+    {
+        this.cacheDir = cacheDir;
+        this.workDir = workDir;
+        this.maxBytes = maxBytes;
+        this.webRoot = webRoot;
+
+        if ( !cacheDir.isDirectory() )
+        {
+            if ( !cacheDir.mkdirs() )
+            {
+                throw new IOException(
+                        "Unable to create compile cache directory " + cacheDir );
+            }
+
+            // the cached classes are loaded into the server, so only the
+            // owner may add entries
+            cacheDir.setWritable( false, false );
+            cacheDir.setWritable( true, true );
+        }
+
+        LOGGER.fine( "Using compile cache " + cacheDir.getAbsolutePath() );
+    }
+
+    /**
+     * Builds a fingerprint of the server version and the jars in the web
+     * application's library directory
+     * 
+     * @param webRoot
+     *            the web root of the web application under test
+     * @return the fingerprint
+     */
+    private static String fingerprint( File webRoot )
+    {
+        StringBuffer fingerprint = new StringBuffer( ServerInfo
+                .getServerInfo() );
+
+        File[] jars = new File( webRoot, "WEB-INF" + File.separatorChar
+                + "lib" ).listFiles();
+
+        if ( jars != null )
+        {
+            // sort for a stable fingerprint
+            Arrays.sort( jars );
+
+            for ( int jarIdx = 0; jarIdx < jars.length; jarIdx++ )
+            {
+                fingerprint.append( '\n' ).append( jars[jarIdx].getName() )
+                        .append( ':' ).append( jars[jarIdx].length() ).append(
+                                ':' ).append( jars[jarIdx].lastModified() );
+            }
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Returns the cache key for the given JSP
+     * 
+     * @param jsp
+     *            the JSP file
+     * @return the cache key
+     * @throws IOException
+     *             if the JSP cannot be read
+     */
+    private String key( File jsp ) throws IOException
+    {
+        String fingerprint;
+        synchronized ( this )
+        {
+            if ( libraryFingerprint == null )
+            {
+                libraryFingerprint = fingerprint( webRoot );
+            }
+
+            fingerprint = libraryFingerprint;
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write( readSource( jsp ) );
+        content.write( 0 );
+        content.write( jsp.getName().getBytes( "UTF-8" ) );
+        content.write( 0 );
+        content.write( fingerprint.getBytes( "UTF-8" ) );
+
+        return DigestUtils.shaHex( content.toByteArray() );
+    }
+
+    /**
+     * Returns the content of the given JSP, which may be held in memory
+     * 
+     * @param jsp
+     *            the JSP file
+     * @return the content of the JSP
+     * @throws IOException
+     *             if the JSP cannot be read
+     */
+    private static byte[] readSource( File jsp ) throws IOException
+    {
+        MemoryWebRoot memoryWebRoot = MemoryWebRoot.forDirectory( jsp
+                .getParentFile() );
+        if ( memoryWebRoot == null )
+        {
+            return FileUtils.readFileToByteArray( jsp );
+        }
+
+        byte[] content = memoryWebRoot.read( jsp.getName() );
+        if ( content == null )
+        {
+            throw new IOException( "No such file: " + jsp );
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the modification time of the given JSP, which may be held in
+     * memory
+     * 
+     * @param jsp
+     *            the JSP file
+     * @return the modification time of the JSP
+     */
+    private static long sourceModified( File jsp )
+    {
+        MemoryWebRoot memoryWebRoot = MemoryWebRoot.forDirectory( jsp
+                .getParentFile() );
+
+        return ( memoryWebRoot == null ? jsp.lastModified() : memoryWebRoot
+                .lastModified( jsp.getName() ) );
+    }
+
+    /**
+     * Returns the class files in the given directory compiled from the given
+     * JSP, including any inner classes
+     * 
+     * @param dir
+     *            the directory to search
+     * @param jsp
+     *            the JSP file
+     * @return the class files compiled from the JSP
+     */
+    private static File[] classFiles( File dir, File jsp )
+    {
+        final String className = JspUtil.makeJavaIdentifier( jsp.getName() );
+
+        File[] classes = dir.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                return file.getName().equals( className + CLASS_SUFFIX )
+                        || ( file.getName().startsWith( className + "$" ) && file
+                                .getName().endsWith( CLASS_SUFFIX ) );
+            }
+        } );
+
+        return ( classes == null ? new File[0] : classes );
+    }
+
+    /**
+     * Restores the compiled classes of the given JSP into the work directory
+     * if it is in the cache. May be called while the server is running, as
+     * long as the JSP has not been compiled or requested yet. If the classes
+     * cannot be restored, any that were copied are removed again and the JSP
+     * is recorded as a miss, so that it can still be compiled and cached.
+     * 
+     * @param jsp
+     *            the JSP file
+     * @return true if the JSP was restored from the cache
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public boolean restore( File jsp ) throws IOException
+    {
+        String key = key( jsp );
+        File entry = new File( cacheDir, key );
+
+        File[] classes = classFiles( entry, jsp );
+        if ( classes.length == 0 )
+        {
+            synchronized ( this )
+            {
+                misses.put( jsp, key );
+                missCount++;
+            }
+
+            return false;
+        }
+
+        File packageDir = new File( workDir, JSP_PACKAGE_DIR );
+        try
+        {
+            for ( int classIdx = 0; classIdx < classes.length; classIdx++ )
+            {
+                File target = new File( packageDir, classes[classIdx]
+                        .getName() );
+                FileUtils.copyFile( classes[classIdx], target );
+
+                // the JSP engine treats a class with any other time as stale
+                target.setLastModified( sourceModified( jsp ) );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            // a partial restore would look up to date to the JSP engine
+            for ( int classIdx = 0; classIdx < classes.length; classIdx++ )
+            {
+                new File( packageDir, classes[classIdx].getName() ).delete();
+            }
+
+            synchronized ( this )
+            {
+                misses.put( jsp, key );
+                missCount++;
+            }
+
+            throw ioe;
+        }
+
+        // mark the entry as recently used
+        entry.setLastModified( System.currentTimeMillis() );
+
+        synchronized ( this )
+        {
+            hits++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the compiled classes of the JSPs that were not in the cache from
+     * the work directory into the cache, then evicts the least recently used
+     * entries if the cache is over its size limit
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public synchronized void store() throws IOException
+    {
+        LOGGER.entering( CompileCache.class.getName(), "store" );
+
+        File packageDir = new File( workDir, JSP_PACKAGE_DIR );
+
+        for ( Iterator/* <Map.Entry> */itr = misses.entrySet().iterator(); itr
+                .hasNext(); )
+        {
+            Map.Entry miss = (Map.Entry) itr.next();
+            File jsp = (File) miss.getKey();
+
+            // pages that failed to compile have nothing to cache
+            File[] classes = classFiles( packageDir, jsp );
+            if ( classes.length == 0 )
+            {
+                continue;
+            }
+
+            // write to a temporary entry first so a partial entry is never
+            // visible to a later run
+            File entry = new File( cacheDir, (String) miss.getValue() );
+            File partial = new File( cacheDir, miss.getValue() + ".tmp" );
+
+            try
+            {
+                for ( int classIdx = 0; classIdx < classes.length; classIdx++ )
+                {
+                    FileUtils.copyFileToDirectory( classes[classIdx], partial );
+                }
+
+                if ( !entry.exists() && partial.renameTo( entry ) )
+                {
+                    stored++;
+                }
+            }
+            finally
+            {
+                FileUtils.deleteQuietly( partial );
+            }
+        }
+
+        misses.clear();
+
+        evict();
+
+        LOGGER.exiting( CompileCache.class.getName(), "store" );
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is no larger
+     * than its size limit
+     */
+    private void evict()
+    {
+        File[] entries = cacheDir.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                return file.isDirectory();
+            }
+        } );
+
+        if ( entries == null )
+        {
+            return;
+        }
+
+        long size = 0;
+        final Map/* <File, Long> */lastUsed = new HashMap();
+        for ( int entryIdx = 0; entryIdx < entries.length; entryIdx++ )
+        {
+            size += FileUtils.sizeOfDirectory( entries[entryIdx] );
+            lastUsed.put( entries[entryIdx], new Long( entries[entryIdx]
+                    .lastModified() ) );
+        }
+
+        if ( size <= maxBytes )
+        {
+            return;
+        }
+
+        // oldest first
+        Arrays.sort( entries, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                return ( (Long) lastUsed.get( o1 ) )
+                        .compareTo( (Long) lastUsed.get( o2 ) );
+            }
+        } );
+
+        for ( int entryIdx = 0; entryIdx < entries.length && size > maxBytes; entryIdx++ )
+        {
+            long entrySize = FileUtils.sizeOfDirectory( entries[entryIdx] );
+
+            try
+            {
+                FileUtils.deleteDirectory( entries[entryIdx] );
+                size -= entrySize;
+                evicted++;
+            }
+            catch ( IOException ioe )
+            {
+                LOGGER.log( Level.FINE, "Unable to evict "
+                        + entries[entryIdx], ioe );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of JSPs restored from the cache
+     * 
+     * @return the number of JSPs restored from the cache
+     */
+    public synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of JSPs not found in the cache
+     * 
+     * @return the number of JSPs not found in the cache
+     */
+    public synchronized int getMisses()
+    {
+        return missCount;
+    }
+
+    /**
+     * Logs the hit, miss, store and eviction counts of this cache
+     */
+    public synchronized void logStatistics()
+    {
+        LOGGER.info( "Compile cache: " + hits + " hits, " + missCount
+                + " misses, " + stored + " stored, " + evicted + " evicted" );
+    }
+}
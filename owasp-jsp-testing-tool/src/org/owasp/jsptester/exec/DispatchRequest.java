@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Synthetic GET request used to dispatch a test case directly into the
+ * embedded web application without going through the HTTP connector.
+ * 
+ * @author Jason Li
+ * 
+ */
+class DispatchRequest implements HttpServletRequest
+{
+
+    /**
+     * The default character encoding for request parameters, matching the
+     * Tomcat connector default
+     */
+    private static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+    /**
+     * The servlet context the request is dispatched into
+     */
+    private final ServletContext servletContext;
+
+    /**
+     * The context path of the web application
+     */
+    private final String contextPath;
+
+    /**
+     * The context relative path of the requested resource
+     */
+    private final String servletPath;
+
+    /**
+     * The query string, or null if there is none
+     */
+    private final String queryString;
+
+    /**
+     * Map&lt;String, Object&gt; of request attributes
+     */
+    private final Map/* <String, Object> */attributes = new HashMap();
+
+    /**
+     * Map&lt;String, String[]&gt; of request parameters, parsed on first use
+     */
+    private Map/* <String, String[]> */parameters = null;
+
+    /**
+     * The character encoding of the request
+     */
+    private String characterEncoding = null;
+
+    /**
+     * The session, created on demand
+     */
+    private HttpSession session = null;
+
+    /**
+     * Creates a GET request for the given context relative path
+     * 
+     * @param servletContext
+     *            the servlet context the request is dispatched into
+     * @param contextPath
+     *            the context path of the web application
+     * @param path
+     *            the context relative path, optionally followed by a query
+     *            string
+     */
+    DispatchRequest( ServletContext servletContext, String contextPath,
+            String path )
+    {
+        this.servletContext = servletContext;
+        this.contextPath = contextPath;
+
+        int queryIdx = path.indexOf( '?' );
+        String resource = ( queryIdx < 0 ? path : path.substring( 0,
+                queryIdx ) );
+
+        this.servletPath = ( resource.startsWith( "/" ) ? resource : "/"
+                + resource );
+        this.queryString = ( queryIdx < 0 ? null : path
+                .substring( queryIdx + 1 ) );
+    }
+
+    /**
+     * Parses the query string into the parameter map
+     * 
+     * @return the <code>Map&lt;String, String[]&gt;</code> of parameters
+     */
+    private synchronized Map/* <String, String[]> */parameters()
+    {
+        if ( parameters != null )
+        {
+            return parameters;
+        }
+
+        Map/* <String, List<String>> */values = new LinkedHashMap();
+
+        if ( queryString != null )
+        {
+            String[] pairs = queryString.split( "&" );
+            for ( int pairIdx = 0; pairIdx < pairs.length; pairIdx++ )
+            {
+                if ( pairs[pairIdx].length() == 0 )
+                {
+                    continue;
+                }
+
+                int eqIdx = pairs[pairIdx].indexOf( '=' );
+                String name = decode( eqIdx < 0 ? pairs[pairIdx]
+                        : pairs[pairIdx].substring( 0, eqIdx ) );
+                String value = ( eqIdx < 0 ? "" : decode( pairs[pairIdx]
+                        .substring( eqIdx + 1 ) ) );
+
+                List/* <String> */list = (List) values.get( name );
+                if ( list == null )
+                {
+                    list = new ArrayList();
+                    values.put( name, list );
+                }
+                list.add( value );
+            }
+        }
+
+        parameters = new LinkedHashMap();
+        for ( Iterator/* <Map.Entry> */itr = values.entrySet().iterator(); itr
+                .hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) itr.next();
+            List/* <String> */list = (List) entry.getValue();
+            parameters.put( entry.getKey(), list.toArray( new String[list
+                    .size()] ) );
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Decodes a URL encoded query string component
+     * 
+     * @param value
+     *            the value to decode
+     * @return the decoded value
+     */
+    private String decode( String value )
+    {
+        try
+        {
+            return URLDecoder.decode( value, getCharacterEncoding() );
+        }
+        catch ( UnsupportedEncodingException uee )
+        {
+            throw new IllegalStateException( uee.getMessage() );
+        }
+    }
+
+    public synchronized Object getAttribute( String name )
+    {
+        return attributes.get( name );
+    }
+
+    public synchronized Enumeration getAttributeNames()
+    {
+        return Collections.enumeration( new HashMap( attributes ).keySet() );
+    }
+
+    public synchronized void setAttribute( String name, Object value )
+    {
+        if ( value == null )
+        {
+            attributes.remove( name );
+        }
+        else
+        {
+            attributes.put( name, value );
+        }
+    }
+
+    public synchronized void removeAttribute( String name )
+    {
+        attributes.remove( name );
+    }
+
+    public String getCharacterEncoding()
+    {
+        return ( characterEncoding == null ? DEFAULT_ENCODING
+                : characterEncoding );
+    }
+
+    public void setCharacterEncoding( String env )
+            throws UnsupportedEncodingException
+    {
+        // verify the encoding is supported
+        "".getBytes( env );
+        this.characterEncoding = env;
+    }
+
+    public int getContentLength()
+    {
+        return -1;
+    }
+
+    public String getContentType()
+    {
+        return null;
+    }
+
+    public ServletInputStream getInputStream() throws IOException
+    {
+        final ByteArrayInputStream empty = new ByteArrayInputStream(
+                new byte[0] );
+
+        return new ServletInputStream()
+        {
+            public int read() throws IOException
+            {
+                return empty.read();
+            }
+        };
+    }
+
+    public BufferedReader getReader() throws IOException
+    {
+        return new BufferedReader( new InputStreamReader( getInputStream(),
+                getCharacterEncoding() ) );
+    }
+
+    public String getParameter( String name )
+    {
+        String[] values = getParameterValues( name );
+        return ( values == null || values.length == 0 ? null : values[0] );
+    }
+
+    public Enumeration getParameterNames()
+    {
+        return Collections.enumeration( parameters().keySet() );
+    }
+
+    public String[] getParameterValues( String name )
+    {
+        return (String[]) parameters().get( name );
+    }
+
+    public Map getParameterMap()
+    {
+        return Collections.unmodifiableMap( parameters() );
+    }
+
+    public String getProtocol()
+    {
+        return "HTTP/1.1";
+    }
+
+    public String getScheme()
+    {
+        return "http";
+    }
+
+    public String getServerName()
+    {
+        return "localhost";
+    }
+
+    public int getServerPort()
+    {
+        return 80;
+    }
+
+    public String getRemoteAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    public String getRemoteHost()
+    {
+        return "localhost";
+    }
+
+    public int getRemotePort()
+    {
+        return 0;
+    }
+
+    public String getLocalName()
+    {
+        return "localhost";
+    }
+
+    public String getLocalAddr()
+    {
+        return "127.0.0.1";
+    }
+
+    public int getLocalPort()
+    {
+        return 80;
+    }
+
+    public Locale getLocale()
+    {
+        return Locale.getDefault();
+    }
+
+    public Enumeration getLocales()
+    {
+        return Collections.enumeration( Collections.singleton( getLocale() ) );
+    }
+
+    public boolean isSecure()
+    {
+        return false;
+    }
+
+    public RequestDispatcher getRequestDispatcher( String path )
+    {
+        return servletContext.getRequestDispatcher( path.startsWith( "/" )
+                ? path : "/" + path );
+    }
+
+    /**
+     * @deprecated
+     */
+    public String getRealPath( String path )
+    {
+        return servletContext.getRealPath( path );
+    }
+
+    public String getAuthType()
+    {
+        return null;
+    }
+
+    public Cookie[] getCookies()
+    {
+        return null;
+    }
+
+    public long getDateHeader( String name )
+    {
+        return -1;
+    }
+
+    public String getHeader( String name )
+    {
+        return null;
+    }
+
+    public Enumeration getHeaders( String name )
+    {
+        return Collections.enumeration( Collections.EMPTY_LIST );
+    }
+
+    public Enumeration getHeaderNames()
+    {
+        return Collections.enumeration( Collections.EMPTY_LIST );
+    }
+
+    public int getIntHeader( String name )
+    {
+        return -1;
+    }
+
+    public String getMethod()
+    {
+        return "GET";
+    }
+
+    public String getPathInfo()
+    {
+        return null;
+    }
+
+    public String getPathTranslated()
+    {
+        return null;
+    }
+
+    public String getContextPath()
+    {
+        return contextPath;
+    }
+
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+    public String getRemoteUser()
+    {
+        return null;
+    }
+
+    public boolean isUserInRole( String role )
+    {
+        return false;
+    }
+
+    public Principal getUserPrincipal()
+    {
+        return null;
+    }
+
+    public String getRequestedSessionId()
+    {
+        return null;
+    }
+
+    public String getRequestURI()
+    {
+        return contextPath + servletPath;
+    }
+
+    public StringBuffer getRequestURL()
+    {
+        return new StringBuffer( getScheme() + "://" + getServerName()
+                + getRequestURI() );
+    }
+
+    public String getServletPath()
+    {
+        return servletPath;
+    }
+
+    public synchronized HttpSession getSession( boolean create )
+    {
+        if ( session == null && create )
+        {
+            session = new DispatchSession( servletContext );
+        }
+
+        return session;
+    }
+
+    public HttpSession getSession()
+    {
+        return getSession( true );
+    }
+
+    public boolean isRequestedSessionIdValid()
+    {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromCookie()
+    {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromURL()
+    {
+        return false;
+    }
+
+    /**
+     * @deprecated
+     */
+    public boolean isRequestedSessionIdFromUrl()
+    {
+        return false;
+    }
+}
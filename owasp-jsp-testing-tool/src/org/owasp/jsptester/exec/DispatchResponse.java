@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Synthetic response that captures the body of an in-process dispatch into a
+ * memory buffer.
+ * 
+ * @author Jason Li
+ * 
+ */
+class DispatchResponse implements HttpServletResponse
+{
+
+    /**
+     * The default character encoding, as mandated by the servlet
+     * specification
+     */
+    private static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+    /**
+     * The buffer capturing the response body
+     */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(
+            8192 );
+
+    /**
+     * Map&lt;String, List&lt;String&gt;&gt; of response headers
+     */
+    private final Map/* <String, List<String>> */headers = new HashMap();
+
+    /**
+     * The output stream, if obtained
+     */
+    private ServletOutputStream outputStream = null;
+
+    /**
+     * The writer, if obtained
+     */
+    private PrintWriter writer = null;
+
+    /**
+     * The status code of the response
+     */
+    private int status = SC_OK;
+
+    /**
+     * The error message passed to <code>sendError</code>, if any
+     */
+    private String errorMessage = null;
+
+    /**
+     * Whether <code>sendError</code> has been called
+     */
+    private boolean error = false;
+
+    /**
+     * Whether the response has been committed
+     */
+    private boolean committed = false;
+
+    /**
+     * The content type of the response
+     */
+    private String contentType = null;
+
+    /**
+     * The character encoding of the response
+     */
+    private String characterEncoding = null;
+
+    /**
+     * The locale of the response
+     */
+    private Locale locale = Locale.getDefault();
+
+    /**
+     * The requested buffer size
+     */
+    private int bufferSize = 8192;
+
+    /**
+     * Returns the captured response body
+     * 
+     * @return the captured response body
+     */
+    byte[] getBody()
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+
+        return body.toByteArray();
+    }
+
+    /**
+     * Returns the status code of the response
+     * 
+     * @return the status code of the response
+     */
+    int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns true if <code>sendError</code> has been called
+     * 
+     * @return true if <code>sendError</code> has been called
+     */
+    boolean isError()
+    {
+        return error;
+    }
+
+    /**
+     * Returns the message passed to <code>sendError</code>, if any
+     * 
+     * @return the message passed to <code>sendError</code>, if any
+     */
+    String getErrorMessage()
+    {
+        return errorMessage;
+    }
+
+    /**
+     * Clears the body, status and error state so the response can be reused
+     * for dispatching to an error page
+     */
+    void resetForError()
+    {
+        writer = null;
+        outputStream = null;
+        committed = false;
+        error = false;
+        body.reset();
+    }
+
+    public String getCharacterEncoding()
+    {
+        return ( characterEncoding == null ? DEFAULT_ENCODING
+                : characterEncoding );
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        if ( writer != null )
+        {
+            throw new IllegalStateException( "getWriter() already called" );
+        }
+
+        if ( outputStream == null )
+        {
+            outputStream = new ServletOutputStream()
+            {
+                public void write( int b ) throws IOException
+                {
+                    body.write( b );
+                }
+
+                public void write( byte[] b, int off, int len )
+                        throws IOException
+                {
+                    body.write( b, off, len );
+                }
+            };
+        }
+
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws IOException
+    {
+        if ( outputStream != null )
+        {
+            throw new IllegalStateException(
+                    "getOutputStream() already called" );
+        }
+
+        if ( writer == null )
+        {
+            writer = new PrintWriter( new OutputStreamWriter( body,
+                    getCharacterEncoding() ) );
+        }
+
+        return writer;
+    }
+
+    public void setCharacterEncoding( String charset )
+    {
+        if ( writer == null && !committed )
+        {
+            this.characterEncoding = charset;
+        }
+    }
+
+    public void setContentLength( int len )
+    {
+        setIntHeader( "Content-Length", len );
+    }
+
+    public void setContentType( String type )
+    {
+        this.contentType = type;
+
+        // pick up the charset parameter the way a container would
+        if ( type != null )
+        {
+            int charsetIdx = type.toLowerCase().indexOf( "charset=" );
+            if ( charsetIdx >= 0 )
+            {
+                setCharacterEncoding( type.substring( charsetIdx + 8 )
+                        .trim() );
+            }
+        }
+    }
+
+    public void setBufferSize( int size )
+    {
+        this.bufferSize = size;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    public void flushBuffer() throws IOException
+    {
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+
+        committed = true;
+    }
+
+    public void resetBuffer()
+    {
+        if ( committed )
+        {
+            throw new IllegalStateException( "Response already committed" );
+        }
+
+        if ( writer != null )
+        {
+            writer.flush();
+        }
+
+        body.reset();
+    }
+
+    public boolean isCommitted()
+    {
+        return committed;
+    }
+
+    public void reset()
+    {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentType = null;
+    }
+
+    public void setLocale( Locale loc )
+    {
+        this.locale = loc;
+    }
+
+    public Locale getLocale()
+    {
+        return locale;
+    }
+
+    public void addCookie( Cookie cookie )
+    {
+        addHeader( "Set-Cookie", cookie.getName() + "=" + cookie.getValue() );
+    }
+
+    public boolean containsHeader( String name )
+    {
+        return headers.containsKey( name.toLowerCase() );
+    }
+
+    public String encodeURL( String url )
+    {
+        return url;
+    }
+
+    public String encodeRedirectURL( String url )
+    {
+        return url;
+    }
+
+    /**
+     * @deprecated
+     */
+    public String encodeUrl( String url )
+    {
+        return url;
+    }
+
+    /**
+     * @deprecated
+     */
+    public String encodeRedirectUrl( String url )
+    {
+        return url;
+    }
+
+    public void sendError( int sc, String msg ) throws IOException
+    {
+        if ( committed )
+        {
+            throw new IllegalStateException( "Response already committed" );
+        }
+
+        this.status = sc;
+        this.errorMessage = msg;
+        this.error = true;
+        this.committed = true;
+    }
+
+    public void sendError( int sc ) throws IOException
+    {
+        sendError( sc, null );
+    }
+
+    public void sendRedirect( String location ) throws IOException
+    {
+        if ( committed )
+        {
+            throw new IllegalStateException( "Response already committed" );
+        }
+
+        setStatus( SC_MOVED_TEMPORARILY );
+        setHeader( "Location", location );
+        committed = true;
+    }
+
+    public void setDateHeader( String name, long date )
+    {
+        setHeader( name, formatDate( date ) );
+    }
+
+    public void addDateHeader( String name, long date )
+    {
+        addHeader( name, formatDate( date ) );
+    }
+
+    /**
+     * Formats the given date as an HTTP date
+     * 
+     * @param date
+     *            the date to format
+     * @return the HTTP formatted date
+     */
+    private String formatDate( long date )
+    {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+        format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+        return format.format( new Date( date ) );
+    }
+
+    public void setHeader( String name, String value )
+    {
+        List/* <String> */values = new ArrayList();
+        values.add( value );
+        headers.put( name.toLowerCase(), values );
+    }
+
+    public void addHeader( String name, String value )
+    {
+        List/* <String> */values = (List) headers.get( name.toLowerCase() );
+        if ( values == null )
+        {
+            values = new ArrayList();
+            headers.put( name.toLowerCase(), values );
+        }
+        values.add( value );
+    }
+
+    public void setIntHeader( String name, int value )
+    {
+        setHeader( name, String.valueOf( value ) );
+    }
+
+    public void addIntHeader( String name, int value )
+    {
+        addHeader( name, String.valueOf( value ) );
+    }
+
+    public void setStatus( int sc )
+    {
+        this.status = sc;
+    }
+
+    /**
+     * @deprecated
+     */
+    public void setStatus( int sc, String sm )
+    {
+        this.status = sc;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionContext;
+
+/**
+ * Minimal <code>HttpSession</code> that lives for a single in-process
+ * dispatch. Session listeners are not notified.
+ * 
+ * @author Jason Li
+ * 
+ */
+class DispatchSession implements HttpSession
+{
+
+    /**
+     * Counter used to create unique session identifiers
+     */
+    private static int counter = 0;
+
+    /**
+     * Map&lt;String, Object&gt; of session attributes
+     */
+    private final Map/* <String, Object> */attributes = new HashMap();
+
+    /**
+     * The servlet context the session belongs to
+     */
+    private final ServletContext servletContext;
+
+    /**
+     * The session identifier
+     */
+    private final String id;
+
+    /**
+     * The time the session was created
+     */
+    private final long creationTime = System.currentTimeMillis();
+
+    /**
+     * The maximum time (in seconds) between accesses
+     */
+    private int maxInactiveInterval = -1;
+
+    /**
+     * Creates a new session for the given servlet context
+     * 
+     * @param servletContext
+     *            the servlet context the session belongs to
+     */
+    DispatchSession( ServletContext servletContext )
+    {
+        this.servletContext = servletContext;
+
+        synchronized ( DispatchSession.class )
+        {
+            this.id = "in-process-" + ( ++counter );
+        }
+    }
+
+    public long getCreationTime()
+    {
+        return creationTime;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public long getLastAccessedTime()
+    {
+        return creationTime;
+    }
+
+    public ServletContext getServletContext()
+    {
+        return servletContext;
+    }
+
+    public void setMaxInactiveInterval( int interval )
+    {
+        this.maxInactiveInterval = interval;
+    }
+
+    public int getMaxInactiveInterval()
+    {
+        return maxInactiveInterval;
+    }
+
+    /**
+     * @deprecated
+     */
+    public HttpSessionContext getSessionContext()
+    {
+        return null;
+    }
+
+    public synchronized Object getAttribute( String name )
+    {
+        return attributes.get( name );
+    }
+
+    /**
+     * @deprecated
+     */
+    public Object getValue( String name )
+    {
+        return getAttribute( name );
+    }
+
+    public synchronized Enumeration getAttributeNames()
+    {
+        return Collections.enumeration( new HashMap( attributes ).keySet() );
+    }
+
+    /**
+     * @deprecated
+     */
+    public synchronized String[] getValueNames()
+    {
+        return (String[]) attributes.keySet().toArray(
+                new String[attributes.size()] );
+    }
+
+    public synchronized void setAttribute( String name, Object value )
+    {
+        if ( value == null )
+        {
+            attributes.remove( name );
+        }
+        else
+        {
+            attributes.put( name, value );
+        }
+    }
+
+    /**
+     * @deprecated
+     */
+    public void putValue( String name, Object value )
+    {
+        setAttribute( name, value );
+    }
+
+    public synchronized void removeAttribute( String name )
+    {
+        attributes.remove( name );
+    }
+
+    /**
+     * @deprecated
+     */
+    public void removeValue( String name )
+    {
+        removeAttribute( name );
+    }
+
+    public synchronized void invalidate()
+    {
+        attributes.clear();
+    }
+
+    public boolean isNew()
+    {
+        return true;
+    }
+}
@@ -28,19 +28,36 @@
 package org.owasp.jsptester.exec;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.Engine;
 import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Embedded;
 import org.owasp.jsptester.conf.Configuration;
 
 /**
- * Encapsulates operations involving the embedded Tomcat server
+ * Encapsulates operations involving the embedded Tomcat server. Several
+ * servers can run side by side as shards; shard zero uses the configured
+ * port and directories, and every other shard uses the next port up and its
+ * own document base, web root and work directory under the configured
+ * document base. When the configured port is zero, every server binds to a
+ * free port of its own, available from <code>getPort</code>. The generated
+ * test cases may be served from an in-memory web root rather than from disk.
+ * A server shared by several runs, which rewrite the same test case pages,
+ * can be made to check every JSP for changes on every request.
  * 
  * @author Jason Li
  * 
@@ -53,6 +70,12 @@ public class EmbeddedServer
      */
     public static final int DEFAULT_PORT = 8096;
 
+    /**
+     * The number of free ports to try before giving up on starting a server
+     * with an ephemeral port
+     */
+    private static final int MAX_BIND_ATTEMPTS = 5;
+
     /**
      * Logger
      */
@@ -64,6 +87,47 @@ public class EmbeddedServer
      */
     private Embedded server;
 
+    /**
+     * The web application context serving the test cases
+     */
+    private Context context;
+
+    /**
+     * The port number of the server
+     */
+    private volatile int port;
+
+    /**
+     * Whether the server binds to a free port rather than a configured one
+     */
+    private final boolean ephemeral;
+
+    /**
+     * Whether the server is running
+     */
+    private volatile boolean started = false;
+
+    /**
+     * Whether the JSP engine checks every JSP for changes on every request
+     * rather than at most once per its modification test interval
+     */
+    private volatile boolean checkModifiedEveryRequest = false;
+
+    /**
+     * The document base of the server
+     */
+    private final String docBase;
+
+    /**
+     * The web root of the server
+     */
+    private final String webRoot;
+
+    /**
+     * The work directory of the server
+     */
+    private final String workDir;
+
     /**
      * Returns the document base for the server
      * 
@@ -86,6 +150,17 @@ public class EmbeddedServer
                 Configuration.EMBEDDED_WEB_ROOT ) ).getAbsolutePath();
     }
 
+    /**
+     * Returns the work directory to use for the server
+     * 
+     * @return the work directory to use for the server
+     */
+    private static String getWorkDirPath()
+    {
+        return new File( Configuration.getInstance().getProperty(
+                Configuration.EMBEDDED_WORK_DIR ) ).getAbsolutePath();
+    }
+
     /**
      * Returns the port number to use for the embedded Tomcat server
      * 
@@ -109,11 +184,81 @@ public class EmbeddedServer
         return port;
     }
 
+    /**
+     * Finds a port that is currently free on the loopback interface. The
+     * connector in this version of Tomcat does not report the port it bound
+     * to, so the port is chosen up front; another process may take it before
+     * the server binds, which <code>start</code> recovers from.
+     * 
+     * @return a free port number
+     */
+    private static int allocatePort()
+    {
+        ServerSocket probe = null;
+        try
+        {
+            probe = new ServerSocket( 0, 1, InetAddress
+                    .getByName( "127.0.0.1" ) );
+            return probe.getLocalPort();
+        }
+        catch ( IOException ioe )
+        {
+            IllegalStateException ise = new IllegalStateException(
+                    "Unable to allocate a free port" );
+            ise.initCause( ioe );
+            throw ise;
+        }
+        finally
+        {
+            if ( probe != null )
+            {
+                try
+                {
+                    probe.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOGGER.log( Level.FINE, "Unable to close port probe", ioe );
+                }
+            }
+        }
+    }
+
     /**
      * Creates an instance of <code>EmbeddedServer</code>
      */
     public EmbeddedServer()
     {
+        this( 0 );
+    }
+
+    /**
+     * Creates an instance of <code>EmbeddedServer</code> for the given shard
+     * 
+     * @param shard
+     *            the shard number, starting from zero
+     */
+    public EmbeddedServer( int shard )
+    {
+        this.ephemeral = ( getPortNum() == 0 );
+
+        if ( shard == 0 )
+        {
+            this.port = ( ephemeral ? allocatePort() : getPortNum() );
+            this.docBase = getDocBaseDir();
+            this.webRoot = getWebRoot();
+            this.workDir = getWorkDirPath();
+        }
+        else
+        {
+            File shardBase = new File( getDocBaseDir(), "shard-" + shard );
+
+            this.port = ( ephemeral ? allocatePort() : getPortNum() + shard );
+            this.docBase = shardBase.getAbsolutePath();
+            this.webRoot = new File( shardBase, "report" ).getAbsolutePath();
+            this.workDir = new File( shardBase, "work" ).getAbsolutePath();
+        }
+
         init();
     }
 
@@ -132,17 +277,55 @@ public class EmbeddedServer
         // call create engine
         Engine engine = server.createEngine();
 
+        // distinct names keep the servers' JMX registrations apart
+        engine.setName( "jsptester-" + port );
+
         // TODO: set relevant engine properties
 
         // Create host
-        Host host = server.createHost( "localhost", getDocBaseDir() );
+        Host host = server.createHost( "localhost", docBase );
 
         // Add host to engine
         engine.addChild( host );
         engine.setDefaultHost( "localhost" );
 
         // create server context
-        Context context = server.createContext( "", getWebRoot() );
+        context = server.createContext( "", webRoot );
+
+        // use a known work directory so compiled JSPs can be cached
+        if ( context instanceof StandardContext )
+        {
+            ( (StandardContext) context ).setWorkDir( workDir );
+
+            // the JSP servlet is declared by the default web.xml, which is
+            // only read once the context starts
+            ( (StandardContext) context )
+                    .addLifecycleListener( new LifecycleListener()
+                    {
+                        public void lifecycleEvent( LifecycleEvent event )
+                        {
+                            if ( Lifecycle.START_EVENT.equals( event
+                                    .getType() )
+                                    && checkModifiedEveryRequest )
+                            {
+                                configureJspServlet();
+                            }
+                        }
+                    } );
+
+            // serve the generated test cases from memory
+            if ( Configuration.getInstance().getBooleanProperty(
+                    Configuration.EMBEDDED_IN_MEMORY_WEB_ROOT, false ) )
+            {
+                MemoryWebRoot memoryWebRoot = MemoryWebRoot.mount( new File(
+                        webRoot ), Configuration.getInstance()
+                        .getBooleanProperty(
+                                Configuration.EMBEDDED_SPILL_TO_DISK, false ) );
+
+                ( (StandardContext) context )
+                        .setResources( new MemoryDirContext( memoryWebRoot ) );
+            }
+        }
 
         // add context to host
         host.addChild( context );
@@ -151,8 +334,11 @@ public class EmbeddedServer
         server.addEngine( engine );
 
         // create net connector
-        Connector connector = server.createConnector( "127.0.0.1",
-                getPortNum(), false );
+        Connector connector = server.createConnector( "127.0.0.1", port,
+                false );
+
+        // keep serializer connections open for the whole run
+        connector.setProperty( "maxKeepAliveRequests", "-1" );
 
         // add connector
         server.addConnector( connector );
@@ -160,6 +346,46 @@ public class EmbeddedServer
         LOGGER.exiting( EmbeddedServer.class.getName(), "init" );
     }
 
+    /**
+     * Sets the JSP servlet of the web application to check every JSP for
+     * changes on every request. The servlet is loaded when the context
+     * starts, after its declaration has been read from the default web.xml
+     * and before any test case is requested.
+     */
+    private void configureJspServlet()
+    {
+        Container jspServlet = context.findChild( "jsp" );
+
+        if ( jspServlet instanceof Wrapper )
+        {
+            ( (Wrapper) jspServlet ).addInitParameter( "development", "true" );
+            ( (Wrapper) jspServlet ).addInitParameter(
+                    "modificationTestInterval", "0" );
+
+            LOGGER.fine( "Checking JSPs for changes on every request" );
+        }
+        else
+        {
+            LOGGER.warning( "No JSP servlet found; rewritten test cases may"
+                    + " be served from stale compiled classes" );
+        }
+    }
+
+    /**
+     * Sets whether the JSP engine checks every JSP for changes on every
+     * request. The JSP engine otherwise checks a page at most once every few
+     * seconds, so a server shared by runs that rewrite the same test case
+     * pages in quick succession could serve a page compiled for an earlier
+     * run. Takes effect the next time the server is started.
+     * 
+     * @param checkModifiedEveryRequest
+     *            true to check every JSP for changes on every request
+     */
+    public void setCheckModifiedEveryRequest( boolean checkModifiedEveryRequest )
+    {
+        this.checkModifiedEveryRequest = checkModifiedEveryRequest;
+    }
+
     /**
      * Starts the embedded Tomcat server
      * 
@@ -169,10 +395,43 @@ public class EmbeddedServer
     public void start() throws LifecycleException
     {
         LOGGER.fine( "Starting embedded Tomcat server" );
-        
-        this.server.start();
-        
-        LOGGER.fine( "Started embedded Tomcat server" );
+
+        for ( int attempt = 1;; attempt++ )
+        {
+            try
+            {
+                this.server.start();
+                break;
+            }
+            catch ( LifecycleException le )
+            {
+                // a configured port is the user's to fix
+                if ( !ephemeral || attempt >= MAX_BIND_ATTEMPTS )
+                {
+                    throw le;
+                }
+
+                LOGGER.log( Level.FINE, "Unable to start on port " + port
+                        + ", trying another", le );
+
+                try
+                {
+                    this.server.stop();
+                }
+                catch ( LifecycleException stopException )
+                {
+                    LOGGER.log( Level.FINE, "Unable to stop failed server",
+                            stopException );
+                }
+
+                port = allocatePort();
+                init();
+            }
+        }
+
+        started = true;
+
+        LOGGER.fine( "Started embedded Tomcat server on port " + port );
     }
 
     /**
@@ -185,11 +444,89 @@ public class EmbeddedServer
     {
         LOGGER.fine( "Stopping embedded Tomcat server" );
         
+        started = false;
         this.server.stop();
         
         LOGGER.fine( "Stopped embedded Tomcat server" );
     }
 
+    /**
+     * Stops the embedded Tomcat server and starts a freshly initialized
+     * instance in its place
+     * 
+     * @throws LifecycleException
+     *             if an error occurs stopping or starting the server
+     */
+    public void restart() throws LifecycleException
+    {
+        LOGGER.fine( "Restarting embedded Tomcat server" );
+
+        stop();
+
+        // drop the old server, its web application class loader and the
+        // compiled JSPs it loaded so the collection can reclaim them
+        server = null;
+        context = null;
+
+        // hint the JVM to garbage collect the old server
+        System.gc();
+
+        init();
+        start();
+
+        LOGGER.fine( "Restarted embedded Tomcat server" );
+    }
+
+    /**
+     * Returns true if the server has been started and not stopped since
+     * 
+     * @return true if the server is running
+     */
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+    /**
+     * Returns the web application context serving the test cases
+     * 
+     * @return the web application context serving the test cases
+     */
+    public Context getContext()
+    {
+        return context;
+    }
+
+    /**
+     * Returns the work directory where compiled JSPs are written
+     * 
+     * @return the work directory where compiled JSPs are written
+     */
+    public File getWorkDir()
+    {
+        return new File( workDir );
+    }
+
+    /**
+     * Returns the web root of the web application serving the test cases
+     * 
+     * @return the web root of the web application serving the test cases
+     */
+    public File getWebRootDir()
+    {
+        return new File( webRoot );
+    }
+
+    /**
+     * Returns the port number of the server
+     * 
+     * @return the port number of the server
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
     /**
      * Test code
      * 
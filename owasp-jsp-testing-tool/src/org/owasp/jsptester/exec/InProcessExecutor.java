@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.core.ApplicationFilterFactory;
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.conf.Configuration;
+
+/**
+ * Renders test cases by dispatching a synthetic request directly into the
+ * embedded web application, bypassing the HTTP connector. The response body
+ * is captured in memory and then written to the output file, through the
+ * serializer's output stream when one is given. Errors are
+ * handled the way the container would, by dispatching to the configured
+ * error page.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class InProcessExecutor implements TestCaseExecutor
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( InProcessExecutor.class.getName() );
+
+    /**
+     * The embedded server to dispatch into
+     */
+    private final EmbeddedServer server;
+
+    /**
+     * The executor used when the web application cannot be dispatched into
+     */
+    private final TestCaseExecutor fallback;
+
+    /**
+     * The serializer opening the output files, or null to write them
+     * directly
+     */
+    private final TestCaseSerializer serializer;
+
+    /**
+     * The context relative path of the error page
+     */
+    private final String errorPage;
+
+    /**
+     * Creates an executor that dispatches into the given server, falling
+     * back to the given executor if the web application is unavailable
+     * 
+     * @param server
+     *            the embedded server to dispatch into
+     * @param fallback
+     *            the executor to use when the web application cannot be
+     *            dispatched into
+     */
+    public InProcessExecutor( EmbeddedServer server, TestCaseExecutor fallback )
+    {
+        this( server, fallback, null );
+    }
+
+    /**
+     * Creates an executor that dispatches into the given server, writing the
+     * responses through the given serializer's output streams and falling
+     * back to requesting test cases from the server with the serializer
+     * 
+     * @param server
+     *            the embedded server to dispatch into
+     * @param serializer
+     *            the serializer to open output files with and to fall back
+     *            to when the web application cannot be dispatched into
+     */
+    public InProcessExecutor( EmbeddedServer server,
+            TestCaseSerializer serializer )
+    {
+        this( server, serializer.forServer( server ), serializer );
+    }
+
+    /**
+     * Creates an executor that dispatches into the given server
+     * 
+     * @param server
+     *            the embedded server to dispatch into
+     * @param fallback
+     *            the executor to use when the web application cannot be
+     *            dispatched into
+     * @param serializer
+     *            the serializer to open output files with, or null
+     */
+    private InProcessExecutor( EmbeddedServer server,
+            TestCaseExecutor fallback, TestCaseSerializer serializer )
+    {
+        this.server = server;
+        this.fallback = fallback;
+        this.serializer = serializer;
+        this.errorPage = "/"
+                + new File( Configuration.getInstance().getProperty(
+                        Configuration.TEMPLATE_ERROR_JSP ) ).getName();
+    }
+
+    /**
+     * Dispatches the test case at the given path into the web application
+     * and writes the captured response body to the given output file
+     * 
+     * @see org.owasp.jsptester.exec.TestCaseExecutor#execute(java.lang.String,
+     *      java.io.File)
+     */
+    public int execute( String path, File outputFile ) throws IOException
+    {
+        LOGGER.entering( InProcessExecutor.class.getName(), "execute",
+                new Object[]
+                    { path, outputFile } );
+
+        DispatchResponse response = render( path, true );
+
+        // the web application is not available, so go over HTTP instead
+        if ( response == null )
+        {
+            LOGGER.fine( "Unable to dispatch " + path
+                    + " in process, using fallback" );
+            return fallback.execute( path, outputFile );
+        }
+
+        OutputStream output = ( serializer == null ? new FileOutputStream(
+                outputFile ) : serializer.openOutput( outputFile ) );
+        try
+        {
+            output.write( response.getBody() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+        }
+
+        LOGGER.exiting( InProcessExecutor.class.getName(), "execute",
+                new Integer( response.getStatus() ) );
+
+        return response.getStatus();
+    }
+
+    /**
+     * Dispatches the JSP at the given path into the web application with the
+     * <code>jsp_precompile</code> parameter so that it is compiled but not
+     * executed
+     * 
+     * @see org.owasp.jsptester.exec.TestCaseExecutor#precompile(java.lang.String)
+     */
+    public boolean precompile( String path ) throws IOException
+    {
+        LOGGER.entering( InProcessExecutor.class.getName(), "precompile",
+                path );
+
+        DispatchResponse response = render( path + "?jsp_precompile=true",
+                false );
+
+        if ( response == null )
+        {
+            LOGGER.fine( "Unable to precompile " + path
+                    + " in process, using fallback" );
+            return fallback.precompile( path );
+        }
+
+        boolean compiled = !response.isError();
+
+        LOGGER.exiting( InProcessExecutor.class.getName(), "precompile",
+                Boolean.valueOf( compiled ) );
+
+        return compiled;
+    }
+
+    /**
+     * Dispatches a synthetic request for the given path into the web
+     * application
+     * 
+     * @param path
+     *            the context relative path, including any query string
+     * @param useErrorPage
+     *            whether failures should be rendered by the error page
+     * @return the captured response or null if the web application is not
+     *         available
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private DispatchResponse render( String path, boolean useErrorPage )
+            throws IOException
+    {
+        Context context = server.getContext();
+        ServletContext servletContext = ( context == null ? null : context
+                .getServletContext() );
+
+        DispatchRequest request = ( servletContext == null ? null
+                : new DispatchRequest( servletContext, context.getPath(), path ) );
+        RequestDispatcher dispatcher = ( request == null ? null
+                : servletContext.getRequestDispatcher( request
+                        .getServletPath() ) );
+
+        if ( dispatcher == null )
+        {
+            return null;
+        }
+
+        DispatchResponse response = new DispatchResponse();
+
+        // run with the web application's class loader, as the container
+        // would, so that JSF finds its per-application factories
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader( context.getLoader().getClassLoader() );
+
+        try
+        {
+            // without an error page, dispatch as though already handling an
+            // error so that failures are recorded on the response only
+            dispatch( dispatcher, request, response,
+                    useErrorPage ? ApplicationFilterFactory.REQUEST_INTEGER
+                            : ApplicationFilterFactory.ERROR_INTEGER );
+        }
+        finally
+        {
+            current.setContextClassLoader( previous );
+        }
+
+        return response;
+    }
+
+    /**
+     * Dispatches the request, forwarding to the error page if the resource
+     * fails with an exception or an internal server error
+     * 
+     * @param dispatcher
+     *            the dispatcher for the requested resource
+     * @param request
+     *            the synthetic request
+     * @param response
+     *            the synthetic response
+     * @param dispatcherType
+     *            the container dispatcher type of the request
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void dispatch( RequestDispatcher dispatcher,
+            DispatchRequest request, DispatchResponse response,
+            Integer dispatcherType ) throws IOException
+    {
+        request.setAttribute( ApplicationFilterFactory.DISPATCHER_TYPE_ATTR,
+                dispatcherType );
+        request.setAttribute(
+                ApplicationFilterFactory.DISPATCHER_REQUEST_PATH_ATTR,
+                request.getServletPath() );
+
+        Throwable error = null;
+
+        try
+        {
+            dispatcher.forward( request, response );
+        }
+        catch ( ServletException se )
+        {
+            error = ( se.getRootCause() == null ? se : se.getRootCause() );
+        }
+        catch ( RuntimeException re )
+        {
+            error = re;
+        }
+
+        boolean serverError = response.isError()
+                && response.getStatus() == HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+
+        // only dispatch to the error page once
+        if ( ( error != null || serverError )
+                && !ApplicationFilterFactory.ERROR_INTEGER
+                        .equals( dispatcherType ) )
+        {
+            LOGGER.log( Level.FINE, "Dispatching " + request.getServletPath()
+                    + " to error page", error );
+
+            request.setAttribute( "javax.servlet.error.status_code",
+                    new Integer( HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) );
+            request.setAttribute( "javax.servlet.error.request_uri", request
+                    .getRequestURI() );
+
+            if ( error != null )
+            {
+                request.setAttribute( "javax.servlet.error.exception", error );
+                request.setAttribute( "javax.servlet.error.exception_type",
+                        error.getClass() );
+                request.setAttribute( "javax.servlet.error.message", error
+                        .getMessage() );
+            }
+            else
+            {
+                request.setAttribute( "javax.servlet.error.message", response
+                        .getErrorMessage() );
+            }
+
+            response.resetForError();
+
+            dispatch( request.getRequestDispatcher( errorPage ), request,
+                    response, ApplicationFilterFactory.ERROR_INTEGER );
+        }
+        else if ( error != null && !response.isError() )
+        {
+            // no error page to render the exception, so record it on the
+            // response as the container would
+            response.resetForError();
+            response.sendError(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR, error
+                            .getMessage() );
+        }
+    }
+}
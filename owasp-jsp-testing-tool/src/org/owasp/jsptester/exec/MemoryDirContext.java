@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.apache.naming.resources.FileDirContext;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+
+/**
+ * Web application resources that serve the files held by a
+ * <code>MemoryWebRoot</code> and everything else from the document base on
+ * disk. The JSP engine reads the test cases and checks their modification
+ * times through these resources, so pages held in memory are compiled and
+ * recompiled just like pages on disk. Files held in memory are not included
+ * in directory listings.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class MemoryDirContext extends FileDirContext
+{
+
+    /**
+     * The files held in memory
+     */
+    private final MemoryWebRoot webRoot;
+
+    /**
+     * Creates resources serving the given in-memory web root over the
+     * context's document base
+     * 
+     * @param webRoot
+     *            the files held in memory
+     */
+    public MemoryDirContext( MemoryWebRoot webRoot )
+    {
+        this.webRoot = webRoot;
+    }
+
+    /**
+     * Returns the file held in memory under the given name, or looks the name
+     * up on disk
+     * 
+     * @see org.apache.naming.resources.FileDirContext#lookup(java.lang.String)
+     */
+    public Object lookup( String name ) throws NamingException
+    {
+        byte[] content = webRoot.read( fileName( name ) );
+
+        if ( content != null )
+        {
+            return new Resource( content );
+        }
+
+        return super.lookup( name );
+    }
+
+    /**
+     * Returns the attributes of the file held in memory under the given name,
+     * or looks the name up on disk
+     * 
+     * @see org.apache.naming.resources.FileDirContext#getAttributes(java.lang.String,
+     *      java.lang.String[])
+     */
+    public Attributes getAttributes( String name, String[] attrIds )
+            throws NamingException
+    {
+        String fileName = fileName( name );
+        byte[] content = webRoot.read( fileName );
+
+        if ( content != null )
+        {
+            long lastModified = webRoot.lastModified( fileName );
+
+            ResourceAttributes attrs = new ResourceAttributes();
+            attrs.setName( fileName );
+            attrs.setContentLength( content.length );
+            attrs.setCreation( lastModified );
+            attrs.setLastModified( lastModified );
+
+            return attrs;
+        }
+
+        return super.getAttributes( name, attrIds );
+    }
+
+    /**
+     * Returns the name of the file the given resource name refers to, if the
+     * file is directly in the web root
+     * 
+     * @param name
+     *            the resource name, relative to the document base
+     * @return the file name or null if the resource is not directly in the
+     *         web root
+     */
+    private static String fileName( String name )
+    {
+        String fileName = ( name.startsWith( "/" ) ? name.substring( 1 )
+                : name );
+
+        return ( fileName.length() == 0 || fileName.indexOf( '/' ) >= 0 ? null
+                : fileName );
+    }
+}
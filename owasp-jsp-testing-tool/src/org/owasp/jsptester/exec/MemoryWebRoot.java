@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Holds the generated test case files of a web root in memory, so that
+ * writing, serving and deleting thousands of small pages does not touch the
+ * file system. Only files directly in the web root are held; everything
+ * else, such as the base files of the web application, stays on disk.
+ * <p>
+ * Web roots are mounted by directory. Code that writes or reads test case
+ * files looks up the mount for the file's directory and falls back to the
+ * file system if there is none. When spilling is enabled, every file
+ * written is also written to disk, for debugging, but is still served from
+ * memory.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class MemoryWebRoot
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( MemoryWebRoot.class
+            .getName() );
+
+    /**
+     * Map&lt;String, MemoryWebRoot&gt; of absolute directory path to the web
+     * root mounted there
+     */
+    private static final Map/* <String, MemoryWebRoot> */MOUNTS = new HashMap();
+
+    /**
+     * The directory the web root is mounted at
+     */
+    private final File dir;
+
+    /**
+     * Whether files are also written to disk
+     */
+    private final boolean spill;
+
+    /**
+     * Map&lt;String, Entry&gt; of file name to content
+     */
+    private final Map/* <String, Entry> */entries = new HashMap();
+
+    /**
+     * Mounts an in-memory web root at the given directory, or returns the one
+     * already mounted there
+     * 
+     * @param dir
+     *            the directory of the web root
+     * @param spill
+     *            whether files are also written to disk
+     * @return the web root mounted at the directory
+     */
+    public static MemoryWebRoot mount( File dir, boolean spill )
+    {
+        String path = dir.getAbsolutePath();
+
+        synchronized ( MOUNTS )
+        {
+            MemoryWebRoot root = (MemoryWebRoot) MOUNTS.get( path );
+
+            if ( root == null )
+            {
+                root = new MemoryWebRoot( dir.getAbsoluteFile(), spill );
+                MOUNTS.put( path, root );
+
+                LOGGER.fine( "Mounted in-memory web root at " + path );
+            }
+
+            return root;
+        }
+    }
+
+    /**
+     * Returns the web root mounted at the given directory
+     * 
+     * @param dir
+     *            the directory
+     * @return the web root mounted at the directory, or null if the directory
+     *         is served from disk
+     */
+    public static MemoryWebRoot forDirectory( File dir )
+    {
+        if ( dir == null )
+        {
+            return null;
+        }
+
+        synchronized ( MOUNTS )
+        {
+            return (MemoryWebRoot) MOUNTS.get( dir.getAbsolutePath() );
+        }
+    }
+
+    /**
+     * Discards every web root mounted at or below the given directory
+     * 
+     * @param dir
+     *            the directory
+     */
+    public static void unmountAll( File dir )
+    {
+        String path = dir.getAbsolutePath();
+
+        synchronized ( MOUNTS )
+        {
+            for ( Iterator/* <String> */itr = MOUNTS.keySet().iterator(); itr
+                    .hasNext(); )
+            {
+                String mount = (String) itr.next();
+
+                if ( mount.equals( path )
+                        || mount.startsWith( path + File.separatorChar ) )
+                {
+                    itr.remove();
+
+                    LOGGER.fine( "Unmounted in-memory web root at " + mount );
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an empty web root
+     * 
+     * @param dir
+     *            the directory of the web root
+     * @param spill
+     *            whether files are also written to disk
+     */
+    private MemoryWebRoot( File dir, boolean spill )
+    {
+        this.dir = dir;
+        this.spill = spill;
+    }
+
+    /**
+     * Returns the directory the web root is mounted at
+     * 
+     * @return the directory of the web root
+     */
+    public File getDirectory()
+    {
+        return dir;
+    }
+
+    /**
+     * Stores the given content under the given file name unless the file
+     * already holds exactly that content, in which case its modification
+     * time is kept
+     * 
+     * @param name
+     *            the file name
+     * @param content
+     *            the content of the file
+     * @return true if the file was written
+     * @throws IOException
+     *             if the file cannot be spilled to disk
+     */
+    public boolean write( String name, byte[] content ) throws IOException
+    {
+        synchronized ( entries )
+        {
+            Entry entry = (Entry) entries.get( name );
+
+            if ( entry != null && Arrays.equals( entry.content, content ) )
+            {
+                return false;
+            }
+
+            // never let a changed file look older than the version it
+            // replaces
+            long lastModified = System.currentTimeMillis();
+            if ( entry != null && lastModified <= entry.lastModified )
+            {
+                lastModified = entry.lastModified + 1;
+            }
+
+            entries.put( name, new Entry( content, lastModified ) );
+        }
+
+        if ( spill )
+        {
+            FileUtils.writeByteArrayToFile( new File( dir, name ), content );
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves the given file to the given web root, keeping its modification
+     * time. If the target already holds the same content, it is left as it
+     * is.
+     * 
+     * @param name
+     *            the file name
+     * @param target
+     *            the web root to move the file to
+     * @throws IOException
+     *             if the file does not exist or cannot be spilled to disk
+     */
+    public void moveTo( String name, MemoryWebRoot target ) throws IOException
+    {
+        Entry entry;
+        synchronized ( entries )
+        {
+            entry = (Entry) entries.remove( name );
+        }
+
+        if ( entry == null )
+        {
+            throw new IOException( "No such file: " + new File( dir, name ) );
+        }
+
+        synchronized ( target.entries )
+        {
+            Entry existing = (Entry) target.entries.get( name );
+
+            if ( existing == null
+                    || !Arrays.equals( existing.content, entry.content ) )
+            {
+                target.entries.put( name, entry );
+            }
+        }
+
+        if ( spill )
+        {
+            FileUtils.deleteQuietly( new File( dir, name ) );
+        }
+
+        if ( target.spill )
+        {
+            FileUtils.writeByteArrayToFile( new File( target.dir, name ),
+                    entry.content );
+        }
+    }
+
+    /**
+     * Returns the content of the given file
+     * 
+     * @param name
+     *            the file name
+     * @return the content of the file, which must not be modified, or null
+     *         if it does not exist
+     */
+    public byte[] read( String name )
+    {
+        synchronized ( entries )
+        {
+            Entry entry = (Entry) entries.get( name );
+            return ( entry == null ? null : entry.content );
+        }
+    }
+
+    /**
+     * Returns the modification time of the given file
+     * 
+     * @param name
+     *            the file name
+     * @return the modification time of the file, or zero if it does not
+     *         exist
+     */
+    public long lastModified( String name )
+    {
+        synchronized ( entries )
+        {
+            Entry entry = (Entry) entries.get( name );
+            return ( entry == null ? 0 : entry.lastModified );
+        }
+    }
+
+    /**
+     * Returns the number of files held
+     * 
+     * @return the number of files held
+     */
+    public int size()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The content and modification time of a file. Entries are never
+     * modified once stored.
+     */
+    private static class Entry
+    {
+        /**
+         * The content of the file
+         */
+        private final byte[] content;
+
+        /**
+         * The modification time of the file
+         */
+        private final long lastModified;
+
+        /**
+         * Creates an entry
+         * 
+         * @param content
+         *            the content of the file
+         * @param lastModified
+         *            the modification time of the file
+         */
+        Entry( byte[] content, long lastModified )
+        {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+}
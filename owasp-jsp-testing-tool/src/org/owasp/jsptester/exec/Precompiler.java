@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Compiles test case JSPs before they are rendered. Each page is compiled by
+ * the running embedded server using the JSP engine's
+ * <code>jsp_precompile</code> request parameter, so every page shares the
+ * server's single JSP runtime and compiler instead of each test case paying
+ * for translation and compilation on its first request. Compile time is
+ * recorded per group, typically the tag under test, so that it can be
+ * reported separately from render time. Callers compile pages one at a time
+ * as they become available, from as many threads as they like.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class Precompiler
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( Precompiler.class
+            .getName() );
+
+    /**
+     * The executor used to issue the compile requests
+     */
+    private final TestCaseExecutor testCaseExecutor;
+
+    /**
+     * Map&lt;String, CompileStats&gt; of group name to compile statistics,
+     * in the order the groups were first seen
+     */
+    private final Map/* <String, CompileStats> */groupStats = new LinkedHashMap();
+
+    /**
+     * Creates a precompiler that compiles pages using the given executor
+     * 
+     * @param testCaseExecutor
+     *            the executor used to issue the compile requests
+     */
+    public Precompiler( TestCaseExecutor testCaseExecutor )
+    {
+        this.testCaseExecutor = testCaseExecutor;
+    }
+
+    /**
+     * Compiles a single page on the calling thread, recording the compile
+     * time against the given group
+     * 
+     * @param group
+     *            the group, such as the tag under test, to record the
+     *            compile time against
+     * @param page
+     *            the context relative path of the JSP
+     * @return true if the page compiled
+     * @throws IOException
+     *             if the compile request could not be issued
+     */
+    public boolean compile( String group, String page ) throws IOException
+    {
+        CompileStats stats;
+        synchronized ( groupStats )
+        {
+            stats = (CompileStats) groupStats.get( group );
+            if ( stats == null )
+            {
+                stats = new CompileStats( group );
+                groupStats.put( group, stats );
+            }
+        }
+
+        long start = System.nanoTime();
+        boolean compiled = false;
+
+        try
+        {
+            compiled = testCaseExecutor.precompile( page );
+
+            if ( !compiled )
+            {
+                LOGGER.fine( "Unable to compile " + page );
+            }
+        }
+        finally
+        {
+            stats.record( compiled, System.nanoTime() - start );
+        }
+
+        return compiled;
+    }
+
+    /**
+     * Logs the compile time of each group
+     */
+    public void logStatistics()
+    {
+        synchronized ( groupStats )
+        {
+            for ( Iterator/* <CompileStats> */itr = groupStats.values()
+                    .iterator(); itr.hasNext(); )
+            {
+                LOGGER.info( "Compile time for " + itr.next() );
+            }
+        }
+    }
+
+    /**
+     * Compile statistics for a group of pages
+     */
+    private static class CompileStats
+    {
+        /**
+         * The name of the group
+         */
+        private final String name;
+
+        /**
+         * The number of pages compiled
+         */
+        private int compiled = 0;
+
+        /**
+         * The number of pages that failed to compile
+         */
+        private int failed = 0;
+
+        /**
+         * The cumulative compile time, in nanoseconds
+         */
+        private long nanos = 0;
+
+        /**
+         * Creates statistics for the given group
+         * 
+         * @param name
+         *            the name of the group
+         */
+        CompileStats( String name )
+        {
+            this.name = name;
+        }
+
+        /**
+         * Records the outcome of compiling a single page
+         * 
+         * @param succeeded
+         *            whether the page compiled
+         * @param nanos
+         *            the time spent compiling the page
+         */
+        synchronized void record( boolean succeeded, long nanos )
+        {
+            if ( succeeded )
+            {
+                this.compiled++;
+            }
+            else
+            {
+                this.failed++;
+            }
+
+            this.nanos += nanos;
+        }
+
+        /**
+         * Returns a summary of this group's compile time
+         * 
+         * @return a summary of this group's compile time
+         * @see java.lang.Object#toString()
+         */
+        public synchronized String toString()
+        {
+            return name + ": " + compiled + " pages (" + failed
+                    + " failed) in " + ( nanos / 1000000 ) + " ms";
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.catalina.LifecycleException;
+
+/**
+ * Decides when the embedded server should be replaced with a fresh instance
+ * and records the cost of doing so. Every test case JSP is loaded as its own
+ * servlet class, so a long run steadily fills the permanent generation (or
+ * metaspace) and the old generation until the web application's class
+ * loader is discarded.
+ * <p>
+ * The server is recycled when a monitored memory pool crosses its usage
+ * threshold, or when the server has handled its budget of requests. The
+ * thresholds are set on the pools' <code>MemoryPoolMXBean</code>s as a
+ * percentage of their maximum size; for pools that support it, the
+ * threshold is checked against the usage after the last collection so
+ * garbage that is about to be collected does not trigger a restart.
+ * <p>
+ * The pools are shared by every server in the JVM, so a crossing recycles
+ * only the first server to see it. Memory triggered recycling then pauses
+ * until usage drops back below the threshold or a minimum number of
+ * requests has been handled, so live data above the threshold, or a flag
+ * that is only cleared by the next old generation collection, does not
+ * restart the servers over and over.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class RecyclePolicy
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( RecyclePolicy.class
+            .getName() );
+
+    /**
+     * Name fragments of the non-heap pools holding class metadata
+     */
+    private static final String[] CLASS_POOLS =
+        { "Perm Gen", "Metaspace" };
+
+    /**
+     * Name fragments of the heap pools holding long lived objects
+     */
+    private static final String[] OLD_POOLS =
+        { "Old Gen", "Tenured Gen" };
+
+    /**
+     * The maximum number of requests per server instance; zero or less means
+     * unlimited
+     */
+    private final int maxRequests;
+
+    /**
+     * The number of requests after a memory triggered recycle before a pool
+     * still over its threshold triggers another one
+     */
+    private final int minRequests;
+
+    /**
+     * Guards the memory recycle state, which is shared because the monitored
+     * pools are shared by every server in the JVM
+     */
+    private static final Object MEMORY_LOCK = new Object();
+
+    /**
+     * Whether a pool over its threshold triggers a recycle
+     */
+    private static boolean memoryArmed = true;
+
+    /**
+     * The number of requests handled by any server since the last memory
+     * triggered recycle
+     */
+    private static int requestsSinceMemoryRecycle = 0;
+
+    /**
+     * List&lt;MemoryPoolMXBean&gt; of the monitored pools
+     */
+    private final List/* <MemoryPoolMXBean> */pools = new ArrayList();
+
+    /**
+     * The number of requests handled by the current server instance
+     */
+    private int requests = 0;
+
+    /**
+     * The number of times the server has been recycled
+     */
+    private int restarts = 0;
+
+    /**
+     * The total time spent recycling, in nanoseconds
+     */
+    private long pauseNanos = 0;
+
+    /**
+     * Creates a policy that recycles the server after the given number of
+     * requests or when a monitored pool exceeds the given percentage of its
+     * maximum size
+     * 
+     * @param maxRequests
+     *            the maximum number of requests per server instance; zero
+     *            or less means unlimited
+     * @param thresholdPercent
+     *            the percentage of a pool's maximum size at which to recycle;
+     *            zero or less disables the memory check
+     * @param minRequests
+     *            the number of requests after a memory triggered recycle
+     *            before a pool still over its threshold triggers another
+     *            one; zero or less waits for usage to drop below the
+     *            threshold
+     */
+    public RecyclePolicy( int maxRequests, int thresholdPercent,
+            int minRequests )
+    {
+        this.maxRequests = maxRequests;
+        this.minRequests = minRequests;
+
+        if ( thresholdPercent > 0 )
+        {
+            for ( Iterator/* <MemoryPoolMXBean> */itr = ManagementFactory
+                    .getMemoryPoolMXBeans().iterator(); itr.hasNext(); )
+            {
+                MemoryPoolMXBean pool = (MemoryPoolMXBean) itr.next();
+
+                if ( isMonitored( pool ) && monitor( pool, thresholdPercent ) )
+                {
+                    pools.add( pool );
+                }
+            }
+        }
+
+        LOGGER.fine( "Recycling after " + maxRequests + " requests or at "
+                + thresholdPercent + "% of " + pools.size() + " memory pools" );
+    }
+
+    /**
+     * Returns true if the given pool holds class metadata or long lived
+     * objects
+     * 
+     * @param pool
+     *            the memory pool
+     * @return true if the pool should be monitored
+     */
+    private static boolean isMonitored( MemoryPoolMXBean pool )
+    {
+        String[] names = ( pool.getType() == MemoryType.HEAP ? OLD_POOLS
+                : CLASS_POOLS );
+
+        for ( int nameIdx = 0; nameIdx < names.length; nameIdx++ )
+        {
+            if ( pool.getName().indexOf( names[nameIdx] ) >= 0 )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the threshold of the given pool to the given percentage of its
+     * maximum size
+     * 
+     * @param pool
+     *            the memory pool
+     * @param thresholdPercent
+     *            the percentage of the pool's maximum size
+     * @return true if a threshold could be set
+     */
+    private static boolean monitor( MemoryPoolMXBean pool, int thresholdPercent )
+    {
+        long max = pool.getUsage().getMax();
+
+        // without a maximum there is nothing to take a percentage of
+        if ( max <= 0 )
+        {
+            return false;
+        }
+
+        long threshold = max / 100 * thresholdPercent;
+
+        if ( pool.isCollectionUsageThresholdSupported() )
+        {
+            pool.setCollectionUsageThreshold( threshold );
+        }
+        else if ( pool.isUsageThresholdSupported() )
+        {
+            pool.setUsageThreshold( threshold );
+        }
+        else
+        {
+            return false;
+        }
+
+        LOGGER.fine( "Monitoring " + pool.getName() + " at " + threshold
+                + " bytes" );
+
+        return true;
+    }
+
+    /**
+     * Records a request handled by the current server instance
+     */
+    public synchronized void recordRequest()
+    {
+        requests++;
+
+        synchronized ( MEMORY_LOCK )
+        {
+            requestsSinceMemoryRecycle++;
+        }
+    }
+
+    /**
+     * Returns true if the server should be recycled, because it has handled
+     * its budget of requests or a monitored pool has crossed its threshold
+     * 
+     * @return true if the server should be recycled
+     */
+    public synchronized boolean shouldRecycle()
+    {
+        if ( maxRequests > 0 && requests >= maxRequests )
+        {
+            LOGGER.fine( "Request budget of " + maxRequests + " reached" );
+            return true;
+        }
+
+        if ( pools.isEmpty() )
+        {
+            return false;
+        }
+
+        synchronized ( MEMORY_LOCK )
+        {
+            MemoryPoolMXBean exceeded = getExceededPool();
+
+            if ( !memoryArmed )
+            {
+                boolean waited = ( minRequests > 0
+                        && requestsSinceMemoryRecycle >= minRequests );
+
+                if ( exceeded != null && !waited )
+                {
+                    return false;
+                }
+
+                LOGGER.fine( "Memory recycling resumed after "
+                        + requestsSinceMemoryRecycle + " requests" );
+                memoryArmed = true;
+            }
+
+            if ( exceeded != null )
+            {
+                LOGGER.fine( exceeded.getName() + " over threshold: "
+                        + exceeded.getUsage() );
+
+                // claim the crossing so the other servers do not recycle too
+                memoryArmed = false;
+                requestsSinceMemoryRecycle = 0;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the first monitored pool over its threshold
+     * 
+     * @return the first monitored pool over its threshold or null if none
+     */
+    private MemoryPoolMXBean getExceededPool()
+    {
+        for ( Iterator/* <MemoryPoolMXBean> */itr = pools.iterator(); itr
+                .hasNext(); )
+        {
+            MemoryPoolMXBean pool = (MemoryPoolMXBean) itr.next();
+
+            boolean exceeded = ( pool.isCollectionUsageThresholdSupported() ? pool
+                    .isCollectionUsageThresholdExceeded()
+                    : pool.isUsageThresholdExceeded() );
+
+            if ( exceeded )
+            {
+                return pool;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Restarts the given server, recording the heap usage before and after
+     * and the time taken. The caller must ensure no requests are in flight.
+     * 
+     * @param server
+     *            the server to recycle
+     * @throws LifecycleException
+     *             if an error occurs stopping or starting the server
+     */
+    public synchronized void recycle( EmbeddedServer server )
+            throws LifecycleException
+    {
+        long heapBefore = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+
+        server.restart();
+
+        long pause = System.nanoTime() - start;
+        long heapAfter = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage().getUsed();
+
+        restarts++;
+        pauseNanos += pause;
+
+        LOGGER.info( "Recycled server after " + requests + " requests: heap "
+                + heapBefore / 1024 + " KB before, " + heapAfter / 1024
+                + " KB after, paused " + pause / 1000000 + " ms" );
+
+        logPoolUsage();
+
+        requests = 0;
+    }
+
+    /**
+     * Logs the usage of each monitored pool after a recycle, warning about
+     * pools still over their threshold
+     */
+    private void logPoolUsage()
+    {
+        for ( Iterator/* <MemoryPoolMXBean> */itr = pools.iterator(); itr
+                .hasNext(); )
+        {
+            MemoryPoolMXBean pool = (MemoryPoolMXBean) itr.next();
+
+            boolean collection = pool.isCollectionUsageThresholdSupported();
+            MemoryUsage usage = ( collection ? pool.getCollectionUsage()
+                    : pool.getUsage() );
+            long threshold = ( collection ? pool.getCollectionUsageThreshold()
+                    : pool.getUsageThreshold() );
+
+            if ( usage == null )
+            {
+                continue;
+            }
+
+            if ( usage.getUsed() >= threshold )
+            {
+                LOGGER.warning( pool.getName() + " still over threshold after"
+                        + " recycling: " + usage.getUsed() / 1024 + " KB of "
+                        + threshold / 1024 + " KB; waiting " + minRequests
+                        + " requests before recycling for memory again" );
+            }
+            else
+            {
+                LOGGER.fine( pool.getName() + " after recycling: "
+                        + usage.getUsed() / 1024 + " KB of " + threshold
+                        / 1024 + " KB" );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times the server has been recycled
+     * 
+     * @return the number of times the server has been recycled
+     */
+    public synchronized int getRestarts()
+    {
+        return restarts;
+    }
+
+    /**
+     * Logs the number of restarts and the total time spent recycling
+     */
+    public synchronized void logStatistics()
+    {
+        LOGGER.info( "Server recycled " + restarts + " times, paused "
+                + pauseNanos / 1000000 + " ms in total" );
+    }
+}
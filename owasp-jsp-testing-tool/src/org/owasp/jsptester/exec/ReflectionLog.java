@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.attack.Attack;
+import org.owasp.jsptester.attack.AttackAutomaton;
+import org.owasp.jsptester.attack.CanaryIndex;
+import org.owasp.jsptester.exec.ReflectionScanner.Reflection;
+
+/**
+ * Collects the attack strings found unencoded in the rendered test cases of a
+ * run. The automaton is built once from the attacks and shared by the
+ * {@link ReflectionScanner} of every response, so a log may be used by any
+ * number of serializer threads at once. Given the index of the canary tokens
+ * injected with the attacks, each reflection is also traced back to the test
+ * case that injected it.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class ReflectionLog
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( ReflectionLog.class
+            .getName() );
+
+    /**
+     * Orders reflections by test case and then by offset
+     */
+    private static final Comparator/* <Reflection> */BY_POSITION = new Comparator()
+    {
+        public int compare( Object o1, Object o2 )
+        {
+            Reflection r1 = (Reflection) o1;
+            Reflection r2 = (Reflection) o2;
+
+            int order = r1.getTestCaseName().compareTo( r2.getTestCaseName() );
+            if ( order == 0 )
+            {
+                order = ( r1.getOffset() < r2.getOffset() ? -1 : ( r1
+                        .getOffset() == r2.getOffset() ? 0 : 1 ) );
+            }
+            return order;
+        }
+    };
+
+    /**
+     * The automaton searching for the attack strings
+     */
+    private final AttackAutomaton automaton;
+
+    /**
+     * The index of the canary tokens injected with the attacks, or null
+     */
+    private final CanaryIndex canaries;
+
+    /**
+     * The reflections recorded so far
+     */
+    private final List/* <Reflection> */reflections = new ArrayList();
+
+    /**
+     * The number of responses scanned so far
+     */
+    private int scanned = 0;
+
+    /**
+     * The number of responses with at least one reflection
+     */
+    private int reflected = 0;
+
+    /**
+     * Creates a log of the reflections of the given attacks
+     * 
+     * @param attacks
+     *            the attacks to search the responses for
+     */
+    public ReflectionLog( Attack[] attacks )
+    {
+        this( attacks, null );
+    }
+
+    /**
+     * Creates a log of the reflections of the given attacks, tracing each
+     * reflection back to its test case by the canary token following it
+     * 
+     * @param attacks
+     *            the attacks to search the responses for
+     * @param canaries
+     *            the index of the canary tokens injected with the attacks, or
+     *            null if the attacks carry no tokens
+     */
+    public ReflectionLog( Attack[] attacks, CanaryIndex canaries )
+    {
+        this.automaton = new AttackAutomaton( attacks );
+        this.canaries = canaries;
+
+        LOGGER.fine( "Built reflection scanner with "
+                + automaton.getStateCount() + " states for "
+                + attacks.length + " attacks" );
+    }
+
+    /**
+     * Wraps the given stream so that the response written to it is scanned
+     * and its reflections recorded to this log when it is closed
+     * 
+     * @param out
+     *            the stream the response is written to
+     * @param testCaseName
+     *            the name of the test case being written
+     * @return the scanning stream
+     */
+    public OutputStream scan( OutputStream out, String testCaseName )
+    {
+        return new ReflectionScanner( out, automaton, this, testCaseName,
+                canaries );
+    }
+
+    /**
+     * Records the reflections found in a response
+     * 
+     * @param testCaseName
+     *            the name of the test case
+     * @param found
+     *            <code>List&lt;Reflection&gt;</code> of the reflections found
+     *            in its response
+     */
+    public synchronized void record( String testCaseName,
+            List/* <Reflection> */found )
+    {
+        scanned++;
+        if ( !found.isEmpty() )
+        {
+            reflected++;
+            reflections.addAll( found );
+        }
+    }
+
+    /**
+     * Returns the reflections recorded so far, ordered by test case and
+     * offset
+     * 
+     * @return <code>List&lt;Reflection&gt;</code> of the reflections
+     */
+    public synchronized List/* <Reflection> */getReflections()
+    {
+        List/* <Reflection> */sorted = new ArrayList( reflections );
+        Collections.sort( sorted, BY_POSITION );
+        return sorted;
+    }
+
+    /**
+     * Forgets the reflections recorded so far
+     */
+    public synchronized void clear()
+    {
+        reflections.clear();
+        scanned = 0;
+        reflected = 0;
+    }
+
+    /**
+     * Writes the reflections to the given file, one per line with the test
+     * case, attack, offset, context, the test case that injected the attack
+     * and snippet separated by tabs. The file is encoded in UTF-8, like the
+     * result files, whatever the platform's default encoding.
+     * 
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write( File file ) throws IOException
+    {
+        PrintWriter writer = null;
+        try
+        {
+            writer = new PrintWriter( new OutputStreamWriter(
+                    new FileOutputStream( file ), "UTF-8" ) );
+
+            for ( Iterator/* <Reflection> */itr = getReflections().iterator(); itr
+                    .hasNext(); )
+            {
+                Reflection reflection = (Reflection) itr.next();
+
+                writer.println( reflection.getTestCaseName() + "\t"
+                        + reflection.getAttackName() + "\t"
+                        + reflection.getOffset() + "\t"
+                        + reflection.getContext() + "\t"
+                        + ( reflection.getInjectedBy() == null ? ""
+                                : reflection.getInjectedBy() ) + "\t"
+                        + reflection.getSnippet().replaceAll( "\\s+", " " ) );
+            }
+
+            if ( writer.checkError() )
+            {
+                throw new IOException( "Unable to write reflections to "
+                        + file );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+    /**
+     * Logs the number of responses scanned and the number of reflections in
+     * each context
+     */
+    public synchronized void logStatistics()
+    {
+        // Map<String, int[]> of context to count
+        Map/* <String, int[]> */counts = new TreeMap();
+
+        for ( Iterator/* <Reflection> */itr = reflections.iterator(); itr
+                .hasNext(); )
+        {
+            String context = ( (Reflection) itr.next() ).getContext();
+
+            int[] count = (int[]) counts.get( context );
+            if ( count == null )
+            {
+                count = new int[1];
+                counts.put( context, count );
+            }
+            count[0]++;
+        }
+
+        StringBuffer summary = new StringBuffer( "Scanned " + scanned
+                + " responses, " + reflected + " reflected attacks unencoded" );
+        for ( Iterator/* <Map.Entry<String, int[]>> */itr = counts.entrySet()
+                .iterator(); itr.hasNext(); )
+        {
+            Map.Entry/* <String, int[]> */count = (Map.Entry) itr.next();
+            summary.append( ", " ).append( ( (int[]) count.getValue() )[0] )
+                    .append( " in " ).append( count.getKey() );
+        }
+
+        LOGGER.info( summary.toString() );
+    }
+}
@@ -0,0 +1,942 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.owasp.jsptester.attack.AttackAutomaton;
+import org.owasp.jsptester.attack.CanaryIndex;
+
+/**
+ * An output stream that searches the bytes written through it for the attack
+ * strings of an {@link AttackAutomaton} while passing them on unchanged. The
+ * HTML context of every byte is tracked as it goes by, so each match is
+ * recorded with its offset, the context the attack string started in and a
+ * snippet of the preceding markup. Only the last few bytes are kept, however
+ * large the response. The matches are handed to the {@link ReflectionLog}
+ * when the stream is closed.
+ * <p>
+ * Given a {@link CanaryIndex}, the canary tokens in the response are
+ * recognized in the same pass, and each match is attributed to the test case
+ * whose token follows it. This tells apart the test cases of a batch page,
+ * which all inject the same attack strings.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class ReflectionScanner extends FilterOutputStream
+{
+
+    /**
+     * An attack string in the body of an element such as a div
+     */
+    public static final String TEXT = "text";
+
+    /**
+     * An attack string inside a tag but outside of any attribute value
+     */
+    public static final String MARKUP = "markup";
+
+    /**
+     * An attack string inside an ordinary attribute value
+     */
+    public static final String ATTRIBUTE = "attribute";
+
+    /**
+     * An attack string inside an attribute value holding a URL
+     */
+    public static final String URL = "url";
+
+    /**
+     * An attack string inside a style element or attribute
+     */
+    public static final String CSS = "css";
+
+    /**
+     * An attack string inside a script element or event handler attribute
+     */
+    public static final String SCRIPT = "script";
+
+    /**
+     * An attack string inside a comment or other markup declaration
+     */
+    public static final String COMMENT = "comment";
+
+    /**
+     * The number of bytes preceding an attack string included in its snippet
+     */
+    private static final int SNIPPET_PREFIX = 40;
+
+    /**
+     * The number of bytes allowed between the end of an attack string and
+     * the canary token following it
+     */
+    private static final int CANARY_GAP = 4;
+
+    /**
+     * The automaton searching for attack strings
+     */
+    private final AttackAutomaton automaton;
+
+    /**
+     * The log the matches are recorded to on close
+     */
+    private final ReflectionLog log;
+
+    /**
+     * The name of the test case being written
+     */
+    private final String testCaseName;
+
+    /**
+     * The index of canary tokens, or null if tokens are not recognized
+     */
+    private final CanaryIndex canaries;
+
+    /**
+     * The tracker of the HTML context of each byte
+     */
+    private final ContextTracker tracker = new ContextTracker();
+
+    /**
+     * The most recent bytes written
+     */
+    private final byte[] recentBytes;
+
+    /**
+     * The HTML context of each of the most recent bytes
+     */
+    private final String[] recentContexts;
+
+    /**
+     * The reflections found so far
+     */
+    private final List/* <Reflection> */reflections = new ArrayList();
+
+    /**
+     * The reflections that may still be followed by a canary token
+     */
+    private final LinkedList/* <Reflection> */unattributed = new LinkedList();
+
+    /**
+     * The most recent characters of a possible canary token
+     */
+    private final char[] token = new char[CanaryIndex.TOKEN_LENGTH];
+
+    /**
+     * The number of characters of a canary token matched so far
+     */
+    private int tokenMatched = 0;
+
+    /**
+     * The current state of the automaton
+     */
+    private int state;
+
+    /**
+     * The number of bytes written so far
+     */
+    private long offset = 0;
+
+    /**
+     * Whether the matches have been recorded to the log
+     */
+    private boolean recorded = false;
+
+    /**
+     * Creates a scanner that writes to the given stream
+     * 
+     * @param out
+     *            the stream to pass the bytes on to
+     * @param automaton
+     *            the automaton searching for attack strings
+     * @param log
+     *            the log to record the matches to on close
+     * @param testCaseName
+     *            the name of the test case being written
+     * @param canaries
+     *            the index of canary tokens, or null to not recognize tokens
+     */
+    public ReflectionScanner( OutputStream out, AttackAutomaton automaton,
+            ReflectionLog log, String testCaseName, CanaryIndex canaries )
+    {
+        super( out );
+        this.automaton = automaton;
+        this.log = log;
+        this.testCaseName = testCaseName;
+        this.canaries = canaries;
+        this.state = automaton.getInitialState();
+
+        int window = automaton.getMaxLength() + SNIPPET_PREFIX;
+        this.recentBytes = new byte[window];
+        this.recentContexts = new String[window];
+    }
+
+    /**
+     * Scans the byte and writes it to the underlying stream
+     * 
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    public void write( int b ) throws IOException
+    {
+        scan( (byte) b );
+        out.write( b );
+    }
+
+    /**
+     * Scans the bytes and writes them to the underlying stream in one call
+     * 
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    public void write( byte[] b, int off, int len ) throws IOException
+    {
+        for ( int i = off; i < off + len; i++ )
+        {
+            scan( b[i] );
+        }
+        out.write( b, off, len );
+    }
+
+    /**
+     * Closes the underlying stream and records the matches to the log
+     * 
+     * @see java.io.FilterOutputStream#close()
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if ( !recorded )
+            {
+                recorded = true;
+                log.record( testCaseName, getReflections() );
+            }
+        }
+    }
+
+    /**
+     * Returns the reflections found so far
+     * 
+     * @return the reflections found so far, in the order their attack strings
+     *         ended
+     */
+    public List/* <Reflection> */getReflections()
+    {
+        return Collections.unmodifiableList( reflections );
+    }
+
+    /**
+     * Feeds a byte through the automaton and the context tracker, recording
+     * any attack strings that end with it
+     * 
+     * @param b
+     *            the byte written
+     */
+    private void scan( byte b )
+    {
+        int slot = (int) ( offset % recentBytes.length );
+        recentBytes[slot] = b;
+        recentContexts[slot] = tracker.getContext();
+
+        state = automaton.next( state, b );
+
+        int[] matches = automaton.getMatches( state );
+        for ( int i = 0; i < matches.length; i++ )
+        {
+            record( matches[i] );
+        }
+
+        if ( canaries != null )
+        {
+            scanCanary( b & 0xff );
+        }
+
+        tracker.consume( b & 0xff );
+        offset++;
+    }
+
+    /**
+     * Feeds a byte through the canary token recognizer, attributing the
+     * reflections just before a complete token to its test case
+     * 
+     * @param c
+     *            the byte written, as an unsigned value
+     */
+    private void scanCanary( int c )
+    {
+        tokenMatched = CanaryIndex.advance( tokenMatched, c );
+        if ( tokenMatched == 0 )
+        {
+            return;
+        }
+
+        token[tokenMatched - 1] = (char) c;
+        if ( tokenMatched < token.length )
+        {
+            return;
+        }
+
+        tokenMatched = 0;
+
+        String injectedBy = canaries.getTestCase( new String( token ) );
+        if ( injectedBy == null )
+        {
+            return;
+        }
+
+        long tokenStart = offset - token.length + 1;
+        for ( Iterator/* <Reflection> */itr = unattributed.iterator(); itr
+                .hasNext(); )
+        {
+            Reflection reflection = (Reflection) itr.next();
+            long distance = tokenStart - reflection.getOffset();
+
+            if ( distance > automaton.getMaxLength() + CANARY_GAP )
+            {
+                // too far back to be followed by this or any later token
+                itr.remove();
+            }
+            else if ( distance > 0 )
+            {
+                reflection.setInjectedBy( injectedBy );
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Records the match of the attack with the given index that ends with
+     * the current byte
+     * 
+     * @param attackIndex
+     *            the index of the matched attack
+     */
+    private void record( int attackIndex )
+    {
+        long start = offset - automaton.getLength( attackIndex ) + 1;
+        long first = Math.max( 0, start - SNIPPET_PREFIX );
+
+        char[] snippet = new char[(int) ( offset - first + 1 )];
+        for ( long i = first; i <= offset; i++ )
+        {
+            // the bytes are ISO-8859-1, so each maps to the same character
+            snippet[(int) ( i - first )] = (char) ( recentBytes[(int) ( i % recentBytes.length )] & 0xff );
+        }
+
+        Reflection reflection = new Reflection( testCaseName, automaton
+                .getAttack( attackIndex ).getName(), start,
+                recentContexts[(int) ( start % recentContexts.length )],
+                new String( snippet ) );
+        reflections.add( reflection );
+
+        if ( canaries != null )
+        {
+            unattributed.add( reflection );
+        }
+    }
+
+    /**
+     * An attack string found in a rendered test case
+     */
+    public static class Reflection
+    {
+        /**
+         * The name of the test case
+         */
+        private final String testCaseName;
+
+        /**
+         * The name of the attack
+         */
+        private final String attackName;
+
+        /**
+         * The offset of the first byte of the attack string
+         */
+        private final long offset;
+
+        /**
+         * The HTML context the attack string started in
+         */
+        private final String context;
+
+        /**
+         * The attack string and the markup preceding it
+         */
+        private final String snippet;
+
+        /**
+         * The test case whose canary token follows the attack string
+         */
+        private String injectedBy = null;
+
+        /**
+         * Creates a reflection
+         * 
+         * @param testCaseName
+         *            the name of the test case
+         * @param attackName
+         *            the name of the attack
+         * @param offset
+         *            the offset of the first byte of the attack string
+         * @param context
+         *            the HTML context the attack string started in
+         * @param snippet
+         *            the attack string and the markup preceding it
+         */
+        public Reflection( String testCaseName, String attackName,
+                long offset, String context, String snippet )
+        {
+            this.testCaseName = testCaseName;
+            this.attackName = attackName;
+            this.offset = offset;
+            this.context = context;
+            this.snippet = snippet;
+        }
+
+        /**
+         * Returns the name of the test case
+         * 
+         * @return the name of the test case
+         */
+        public String getTestCaseName()
+        {
+            return testCaseName;
+        }
+
+        /**
+         * Returns the name of the attack
+         * 
+         * @return the name of the attack
+         */
+        public String getAttackName()
+        {
+            return attackName;
+        }
+
+        /**
+         * Returns the offset of the first byte of the attack string
+         * 
+         * @return the offset of the first byte of the attack string
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Returns the HTML context the attack string started in
+         * 
+         * @return one of the context constants of {@link ReflectionScanner}
+         */
+        public String getContext()
+        {
+            return context;
+        }
+
+        /**
+         * Returns the attack string and the markup preceding it
+         * 
+         * @return the attack string and the markup preceding it
+         */
+        public String getSnippet()
+        {
+            return snippet;
+        }
+
+        /**
+         * Returns the test case whose canary token follows the attack string
+         * 
+         * @return the name of the test case that injected the attack string
+         *         or null if no canary token followed it
+         */
+        public String getInjectedBy()
+        {
+            return injectedBy;
+        }
+
+        /**
+         * Sets the test case whose canary token follows the attack string
+         * 
+         * @param injectedBy
+         *            the name of the test case that injected the attack string
+         */
+        void setInjectedBy( String injectedBy )
+        {
+            this.injectedBy = injectedBy;
+        }
+
+        /**
+         * Returns a description of the reflection
+         * 
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            return testCaseName + "@" + offset + ": " + attackName + " in "
+                    + context;
+        }
+    }
+
+    /**
+     * A small HTML lexer that only tracks which context the next byte falls
+     * in. It follows the tokenizing rules closely enough for the markup the
+     * test case templates produce and never looks back at earlier bytes.
+     */
+    private static class ContextTracker
+    {
+        /**
+         * Lexer states
+         */
+        private static final int DATA = 0, TAG_OPEN = 1, TAG_NAME = 2,
+                BEFORE_ATTRIBUTE = 3, ATTRIBUTE_NAME = 4,
+                AFTER_ATTRIBUTE_NAME = 5, BEFORE_VALUE = 6,
+                DOUBLE_QUOTED_VALUE = 7, SINGLE_QUOTED_VALUE = 8,
+                UNQUOTED_VALUE = 9, DECLARATION = 10, COMMENT_BODY = 11,
+                RAW_TEXT = 12;
+
+        /**
+         * The longest tag or attribute name worth remembering
+         */
+        private static final int MAX_NAME = 32;
+
+        /**
+         * The attributes whose values are URLs
+         */
+        private static final String[] URL_ATTRIBUTES =
+            { "action", "background", "cite", "codebase", "data",
+                    "formaction", "href", "longdesc", "poster", "src",
+                    "usemap" };
+
+        /**
+         * The current lexer state
+         */
+        private int state = DATA;
+
+        /**
+         * The name of the current tag, in lower case
+         */
+        private final StringBuffer tagName = new StringBuffer();
+
+        /**
+         * Whether the current tag is an end tag
+         */
+        private boolean endTag = false;
+
+        /**
+         * The name of the current attribute, in lower case
+         */
+        private final StringBuffer attributeName = new StringBuffer();
+
+        /**
+         * The context of the current attribute value
+         */
+        private String valueContext = ATTRIBUTE;
+
+        /**
+         * The context of the current script or style element body
+         */
+        private String rawContext = SCRIPT;
+
+        /**
+         * The end tag closing the current script or style element body
+         */
+        private String rawEnd = "";
+
+        /**
+         * The number of bytes of the end tag matched so far
+         */
+        private int rawMatched = 0;
+
+        /**
+         * The number of bytes of the current declaration read so far
+         */
+        private int declarationLength = 0;
+
+        /**
+         * The number of consecutive dashes read
+         */
+        private int dashes = 0;
+
+        /**
+         * Returns the context of the next byte
+         * 
+         * @return the context of the next byte
+         */
+        String getContext()
+        {
+            switch ( state )
+            {
+            case DATA:
+                return TEXT;
+            case DOUBLE_QUOTED_VALUE:
+            case SINGLE_QUOTED_VALUE:
+            case UNQUOTED_VALUE:
+                return valueContext;
+            case DECLARATION:
+            case COMMENT_BODY:
+                return COMMENT;
+            case RAW_TEXT:
+                return rawContext;
+            default:
+                return MARKUP;
+            }
+        }
+
+        /**
+         * Advances the lexer past the given byte
+         * 
+         * @param c
+         *            the byte, as an unsigned value
+         */
+        void consume( int c )
+        {
+            switch ( state )
+            {
+            case DATA:
+                if ( c == '<' )
+                {
+                    state = TAG_OPEN;
+                    endTag = false;
+                }
+                break;
+
+            case TAG_OPEN:
+                if ( isLetter( c ) )
+                {
+                    state = TAG_NAME;
+                    tagName.setLength( 0 );
+                    append( tagName, c );
+                }
+                else if ( c == '/' && !endTag )
+                {
+                    endTag = true;
+                }
+                else if ( ( c == '!' || c == '?' ) && !endTag )
+                {
+                    state = DECLARATION;
+                    declarationLength = 0;
+                    dashes = 0;
+                }
+                else
+                {
+                    // not a tag after all
+                    state = ( c == '<' ? TAG_OPEN : DATA );
+                    endTag = false;
+                }
+                break;
+
+            case TAG_NAME:
+                if ( isSpace( c ) || c == '/' )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                else if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                else
+                {
+                    append( tagName, c );
+                }
+                break;
+
+            case BEFORE_ATTRIBUTE:
+                if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                else if ( !isSpace( c ) && c != '/' )
+                {
+                    startAttribute( c );
+                }
+                break;
+
+            case ATTRIBUTE_NAME:
+                if ( c == '=' )
+                {
+                    startValue();
+                }
+                else if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                else if ( isSpace( c ) )
+                {
+                    state = AFTER_ATTRIBUTE_NAME;
+                }
+                else if ( c == '/' )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                else
+                {
+                    append( attributeName, c );
+                }
+                break;
+
+            case AFTER_ATTRIBUTE_NAME:
+                if ( c == '=' )
+                {
+                    startValue();
+                }
+                else if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                else if ( c == '/' )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                else if ( !isSpace( c ) )
+                {
+                    startAttribute( c );
+                }
+                break;
+
+            case BEFORE_VALUE:
+                if ( c == '"' )
+                {
+                    state = DOUBLE_QUOTED_VALUE;
+                }
+                else if ( c == '\'' )
+                {
+                    state = SINGLE_QUOTED_VALUE;
+                }
+                else if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                else if ( !isSpace( c ) )
+                {
+                    state = UNQUOTED_VALUE;
+                }
+                break;
+
+            case DOUBLE_QUOTED_VALUE:
+                if ( c == '"' )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                break;
+
+            case SINGLE_QUOTED_VALUE:
+                if ( c == '\'' )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                break;
+
+            case UNQUOTED_VALUE:
+                if ( isSpace( c ) )
+                {
+                    state = BEFORE_ATTRIBUTE;
+                }
+                else if ( c == '>' )
+                {
+                    endOfTag();
+                }
+                break;
+
+            case DECLARATION:
+                // "<!--" opens a comment, anything else ends at '>'
+                if ( c == '-' && dashes == declarationLength )
+                {
+                    dashes++;
+                    if ( dashes == 2 )
+                    {
+                        state = COMMENT_BODY;
+                        dashes = 0;
+                    }
+                }
+                else if ( c == '>' )
+                {
+                    state = DATA;
+                }
+                declarationLength++;
+                break;
+
+            case COMMENT_BODY:
+                if ( c == '-' )
+                {
+                    dashes++;
+                }
+                else
+                {
+                    if ( c == '>' && dashes >= 2 )
+                    {
+                        state = DATA;
+                    }
+                    dashes = 0;
+                }
+                break;
+
+            case RAW_TEXT:
+                if ( Character.toLowerCase( (char) c ) == rawEnd
+                        .charAt( rawMatched ) )
+                {
+                    rawMatched++;
+                    if ( rawMatched == rawEnd.length() )
+                    {
+                        // continue as the name of the end tag
+                        state = TAG_NAME;
+                        endTag = true;
+                        tagName.setLength( 0 );
+                        tagName.append( rawEnd.substring( 2 ) );
+                    }
+                }
+                else
+                {
+                    rawMatched = ( c == '<' ? 1 : 0 );
+                }
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        /**
+         * Starts an attribute whose name begins with the given byte
+         * 
+         * @param c
+         *            the first byte of the name
+         */
+        private void startAttribute( int c )
+        {
+            state = ATTRIBUTE_NAME;
+            attributeName.setLength( 0 );
+            append( attributeName, c );
+        }
+
+        /**
+         * Starts the value of the current attribute, deciding its context
+         * from the attribute name
+         */
+        private void startValue()
+        {
+            state = BEFORE_VALUE;
+
+            String name = attributeName.toString();
+            if ( name.startsWith( "on" ) )
+            {
+                valueContext = SCRIPT;
+            }
+            else if ( "style".equals( name ) )
+            {
+                valueContext = CSS;
+            }
+            else
+            {
+                valueContext = ATTRIBUTE;
+                for ( int i = 0; i < URL_ATTRIBUTES.length; i++ )
+                {
+                    if ( URL_ATTRIBUTES[i].equals( name ) )
+                    {
+                        valueContext = URL;
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Ends the current tag, entering the body of a script or style
+         * element as raw text
+         */
+        private void endOfTag()
+        {
+            String name = tagName.toString();
+
+            if ( !endTag && ( "script".equals( name ) || "style".equals( name ) ) )
+            {
+                state = RAW_TEXT;
+                rawContext = ( "script".equals( name ) ? SCRIPT : CSS );
+                rawEnd = "</" + name;
+                rawMatched = 0;
+            }
+            else
+            {
+                state = DATA;
+            }
+        }
+
+        /**
+         * Appends the given byte in lower case to the given name, ignoring
+         * anything past the longest name worth remembering
+         * 
+         * @param name
+         *            the name being read
+         * @param c
+         *            the byte to append
+         */
+        private static void append( StringBuffer name, int c )
+        {
+            if ( name.length() < MAX_NAME )
+            {
+                name.append( Character.toLowerCase( (char) c ) );
+            }
+        }
+
+        /**
+         * Returns whether the given byte is an ASCII letter
+         * 
+         * @param c
+         *            the byte
+         * @return true if the byte is an ASCII letter
+         */
+        private static boolean isLetter( int c )
+        {
+            return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+        }
+
+        /**
+         * Returns whether the given byte is HTML white space
+         * 
+         * @param c
+         *            the byte
+         * @return true if the byte is white space
+         */
+        private static boolean isSpace( int c )
+        {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r'
+                    || c == '\f';
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of worker threads that serializes test cases concurrently.
+ * At most a fixed number of test cases are queued at any time; callers
+ * submitting beyond that limit block until a worker becomes available. Each
+ * worker keeps track of its own throughput so the pool can be sized to the
+ * machine it runs on.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class SerializationPool
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( SerializationPool.class.getName() );
+
+    /**
+     * Number of test cases that may be queued per worker before submitting
+     * blocks
+     */
+    private static final int QUEUE_DEPTH_PER_WORKER = 4;
+
+    /**
+     * The executor running the workers
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The executor rendering test cases, shared by all workers
+     */
+    private final TestCaseExecutor testCaseExecutor;
+
+    /**
+     * Limits the number of queued and running test cases
+     */
+    private final Semaphore slots;
+
+    /**
+     * Map&lt;String, WorkerStats&gt; of worker thread name to statistics
+     */
+    private final Map/* <String, WorkerStats> */workerStats = new TreeMap();
+
+    /**
+     * Map&lt;String, WorkerStats&gt; of group name, such as the tag under
+     * test, to render statistics
+     */
+    private final Map/* <String, WorkerStats> */groupStats = new TreeMap();
+
+    /**
+     * The number of test cases submitted but not yet completed
+     */
+    private int pending = 0;
+
+    /**
+     * The first error encountered by a worker since the last call to
+     * <code>awaitCompletion</code>
+     */
+    private IOException failure = null;
+
+    /**
+     * The number of worker threads
+     */
+    private final int workers;
+
+    /**
+     * Creates a pool with the given number of worker threads that serializes
+     * test cases using the given executor
+     * 
+     * @param testCaseExecutor
+     *            the executor shared by all workers
+     * @param workers
+     *            the number of worker threads; must be at least one
+     */
+    public SerializationPool( TestCaseExecutor testCaseExecutor, int workers )
+    {
+        if ( workers < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "At least one serializer thread is required" );
+        }
+
+        this.testCaseExecutor = testCaseExecutor;
+        this.workers = workers;
+        this.slots = new Semaphore( workers * QUEUE_DEPTH_PER_WORKER );
+        this.executor = Executors.newFixedThreadPool( workers,
+                new ThreadFactory()
+                {
+                    private int count = 0;
+
+                    public synchronized Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "serializer-"
+                                + ( ++count ) );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+
+        LOGGER.fine( "Created serialization pool with " + workers
+                + " workers" );
+    }
+
+    /**
+     * Returns the number of worker threads in this pool
+     * 
+     * @return the number of worker threads in this pool
+     */
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * Queues the test case at the given context relative path to be
+     * serialized to the given output file. Blocks if the queue is full.
+     * 
+     * @param page
+     *            the context relative path of the test case
+     * @param outputFile
+     *            the output file
+     * @throws IOException
+     *             if interrupted while waiting for space in the queue
+     */
+    public void submit( String page, File outputFile ) throws IOException
+    {
+        submit( null, page, outputFile );
+    }
+
+    /**
+     * Queues the test case at the given context relative path to be
+     * serialized to the given output file, recording its render time against
+     * the given group. Blocks if the queue is full.
+     * 
+     * @param group
+     *            the group, such as the tag under test, to record the render
+     *            time against; may be null
+     * @param page
+     *            the context relative path of the test case
+     * @param outputFile
+     *            the output file
+     * @throws IOException
+     *             if interrupted while waiting for space in the queue, or if
+     *             the pool has been shut down
+     */
+    public void submit( final String group, final String page,
+            final File outputFile ) throws IOException
+    {
+        try
+        {
+            slots.acquire();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while queueing " + page );
+        }
+
+        synchronized ( this )
+        {
+            pending++;
+        }
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                long start = System.nanoTime();
+                boolean succeeded = false;
+
+                try
+                {
+                    testCaseExecutor.execute( page, outputFile );
+                    succeeded = true;
+                }
+                catch ( IOException ioe )
+                {
+                    LOGGER.log( Level.WARNING, "Unable to serialize " + page,
+                            ioe );
+                    fail( ioe );
+                }
+                catch ( RuntimeException re )
+                {
+                    LOGGER.log( Level.WARNING, "Unable to serialize " + page,
+                            re );
+                    IOException ioe = new IOException( "Unable to serialize "
+                            + page );
+                    ioe.initCause( re );
+                    fail( ioe );
+                }
+                finally
+                {
+                    record( group, succeeded, outputFile.length(), System
+                            .nanoTime()
+                            - start );
+                    complete();
+                }
+            }
+        };
+
+        try
+        {
+            executor.execute( task );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // give back the slot so awaitCompletion does not wait on a task
+            // that will never run
+            complete();
+
+            IOException ioe = new IOException( "Unable to queue " + page );
+            ioe.initCause( ree );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Records the given error if it is the first one since the last call to
+     * <code>awaitCompletion</code>
+     * 
+     * @param ioe
+     *            the error
+     */
+    private synchronized void fail( IOException ioe )
+    {
+        if ( failure == null )
+        {
+            failure = ioe;
+        }
+    }
+
+    /**
+     * Marks a submitted test case as complete and frees up its queue slot
+     */
+    private void complete()
+    {
+        slots.release();
+
+        synchronized ( this )
+        {
+            pending--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records the outcome of a test case for the current worker thread and
+     * the given group
+     * 
+     * @param group
+     *            the group of the test case; may be null
+     * @param succeeded
+     *            whether the test case was serialized
+     * @param bytes
+     *            the number of bytes written
+     * @param nanos
+     *            the time spent serializing the test case
+     */
+    private void record( String group, boolean succeeded, long bytes,
+            long nanos )
+    {
+        record( workerStats, Thread.currentThread().getName(), succeeded,
+                bytes, nanos );
+
+        if ( group != null )
+        {
+            record( groupStats, group, succeeded, bytes, nanos );
+        }
+    }
+
+    /**
+     * Records the outcome of a test case in the given statistics map
+     * 
+     * @param statsMap
+     *            Map&lt;String, WorkerStats&gt; to record in
+     * @param name
+     *            the key of the statistics to update
+     * @param succeeded
+     *            whether the test case was serialized
+     * @param bytes
+     *            the number of bytes written
+     * @param nanos
+     *            the time spent serializing the test case
+     */
+    private static void record( Map/* <String, WorkerStats> */statsMap,
+            String name, boolean succeeded, long bytes, long nanos )
+    {
+        synchronized ( statsMap )
+        {
+            WorkerStats stats = (WorkerStats) statsMap.get( name );
+            if ( stats == null )
+            {
+                stats = new WorkerStats( name );
+                statsMap.put( name, stats );
+            }
+
+            stats.record( succeeded, bytes, nanos );
+        }
+    }
+
+    /**
+     * Waits until every submitted test case has been serialized
+     * 
+     * @throws IOException
+     *             if any test case failed to serialize since the last call,
+     *             or if interrupted while waiting
+     */
+    public void awaitCompletion() throws IOException
+    {
+        IOException toThrow = null;
+
+        synchronized ( this )
+        {
+            while ( pending > 0 )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(
+                            "Interrupted while waiting for serialization" );
+                }
+            }
+
+            toThrow = failure;
+            failure = null;
+        }
+
+        if ( toThrow != null )
+        {
+            throw toThrow;
+        }
+    }
+
+    /**
+     * Stops the worker threads and logs the throughput of each worker. Test
+     * cases still queued are abandoned.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+
+        try
+        {
+            executor.awaitTermination( 30, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        logStatistics();
+    }
+
+    /**
+     * Logs the throughput of each worker and the render time of each group
+     */
+    public void logStatistics()
+    {
+        synchronized ( workerStats )
+        {
+            for ( Iterator/* <WorkerStats> */itr = workerStats.values()
+                    .iterator(); itr.hasNext(); )
+            {
+                LOGGER.info( itr.next().toString() );
+            }
+        }
+
+        synchronized ( groupStats )
+        {
+            for ( Iterator/* <WorkerStats> */itr = groupStats.values()
+                    .iterator(); itr.hasNext(); )
+            {
+                LOGGER.info( "Render time for " + itr.next() );
+            }
+        }
+    }
+
+    /**
+     * Throughput statistics for an individual worker thread
+     */
+    private static class WorkerStats
+    {
+        /**
+         * The name of the worker thread
+         */
+        private final String name;
+
+        /**
+         * The number of test cases serialized
+         */
+        private int serialized = 0;
+
+        /**
+         * The number of test cases that failed
+         */
+        private int failed = 0;
+
+        /**
+         * The number of bytes written
+         */
+        private long bytes = 0;
+
+        /**
+         * The time spent serializing, in nanoseconds
+         */
+        private long nanos = 0;
+
+        /**
+         * Creates statistics for the given worker thread
+         * 
+         * @param name
+         *            the name of the worker thread
+         */
+        WorkerStats( String name )
+        {
+            this.name = name;
+        }
+
+        /**
+         * Records the outcome of a single test case
+         * 
+         * @param succeeded
+         *            whether the test case was serialized
+         * @param bytes
+         *            the number of bytes written
+         * @param nanos
+         *            the time spent serializing the test case
+         */
+        void record( boolean succeeded, long bytes, long nanos )
+        {
+            if ( succeeded )
+            {
+                this.serialized++;
+                this.bytes += bytes;
+            }
+            else
+            {
+                this.failed++;
+            }
+
+            this.nanos += nanos;
+        }
+
+        /**
+         * Returns a summary of this worker's throughput
+         * 
+         * @return a summary of this worker's throughput
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            long millis = nanos / 1000000;
+            double perSecond = ( nanos == 0 ? 0 : serialized * 1e9 / nanos );
+
+            return name + ": " + serialized + " test cases (" + failed
+                    + " failed, " + bytes + " bytes) in " + millis + " ms, "
+                    + Math.round( perSecond * 10 ) / 10.0
+                    + " test cases/sec";
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.exec;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Renders test cases deployed in the embedded web application and writes the
+ * rendered output to disk.
+ * 
+ * @author Jason Li
+ * 
+ */
+public interface TestCaseExecutor
+{
+
+    /**
+     * Renders the test case at the given context relative path and writes
+     * the response body to the given output file
+     * 
+     * @param path
+     *            the context relative path of the test case, optionally
+     *            followed by a query string
+     * @param outputFile
+     *            the output file
+     * @return the HTTP status of the response
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    int execute( String path, File outputFile ) throws IOException;
+
+    /**
+     * Asks the JSP engine to translate and compile the JSP at the given
+     * context relative path without rendering it
+     * 
+     * @param path
+     *            the context relative path of the JSP
+     * @return true if the page compiled; false if compilation failed
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    boolean precompile( String path ) throws IOException;
+}
@@ -37,12 +37,26 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.logging.Logger;
 
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.conf.Configuration;
 
 /**
- * Encapsulates the process of serializing a test case.
+ * Encapsulates the process of serializing a test case. A single instance
+ * shares one pool of persistent connections across all the threads that use
+ * it, so a run should create one serializer and call {@link #shutdown()} once
+ * it is finished. Test cases are requested through the executor returned by
+ * {@link #forServer(EmbeddedServer)}, which knows the port the server is
+ * actually listening on. Given a {@link ReflectionLog}, each response is
+ * scanned for unencoded attack strings as it is copied to its output file.
  * 
  * @author Jason Li
  * 
@@ -56,6 +70,80 @@ public class TestCaseSerializer
     private static final Logger LOGGER = Logger
             .getLogger( TestCaseSerializer.class.getName() );
 
+    /**
+     * The connection manager pooling connections to the embedded server
+     */
+    private final CountingConnectionManager connectionManager;
+
+    /**
+     * The HTTP client used to download test cases
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * The log recording the attack strings reflected by each response, or
+     * null if responses are not scanned
+     */
+    private volatile ReflectionLog reflectionLog = null;
+
+    /**
+     * Creates an instance of <code>TestCaseSerializer</code> using the
+     * connection settings from the configuration, with connections for each
+     * of the configured embedded server instances
+     */
+    public TestCaseSerializer()
+    {
+        this( Configuration.getInstance().getIntProperty(
+                Configuration.SERIALIZER_MAX_CONNECTIONS_PER_HOST,
+                MultiThreadedHttpConnectionManager.DEFAULT_MAX_HOST_CONNECTIONS ),
+                Math.max( 1, Configuration.getInstance().getIntProperty(
+                        Configuration.EMBEDDED_SERVER_INSTANCES, 1 ) ),
+                Configuration.getInstance().getIntProperty(
+                        Configuration.SERIALIZER_CONNECTION_TIMEOUT, 0 ),
+                Configuration.getInstance().getIntProperty(
+                        Configuration.SERIALIZER_SOCKET_TIMEOUT, 0 ) );
+    }
+
+    /**
+     * Creates an instance of <code>TestCaseSerializer</code> with the given
+     * connection settings
+     * 
+     * @param maxConnectionsPerHost
+     *            the maximum number of persistent connections to keep open to
+     *            a single host
+     * @param hosts
+     *            the number of hosts, one per embedded server port, that the
+     *            connections are shared between
+     * @param connectionTimeout
+     *            the time (in milliseconds) to wait to establish a
+     *            connection; zero waits indefinitely
+     * @param socketTimeout
+     *            the time (in milliseconds) to wait for data; zero waits
+     *            indefinitely
+     */
+    public TestCaseSerializer( int maxConnectionsPerHost, int hosts,
+            int connectionTimeout, int socketTimeout )
+    {
+        connectionManager = new CountingConnectionManager();
+
+        // each server port counts as a separate host, so every shard gets
+        // its own share of connections
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost( maxConnectionsPerHost );
+        params.setMaxTotalConnections( maxConnectionsPerHost * hosts );
+        params.setConnectionTimeout( connectionTimeout );
+        params.setSoTimeout( socketTimeout );
+        params.setStaleCheckingEnabled( true );
+
+        httpClient = new HttpClient( connectionManager );
+
+        // render every test case in a fresh session
+        httpClient.getParams().setCookiePolicy( CookiePolicy.IGNORE_COOKIES );
+
+        LOGGER.fine( "Created serializer with " + maxConnectionsPerHost
+                + " connections per host for " + hosts + " hosts" );
+    }
+
     /**
      * Serialize the test case by downloading the given URL and copying the
      * contents to the given output file.
@@ -64,14 +152,15 @@ public class TestCaseSerializer
      *            the page to download
      * @param outputFile
      *            the output file
+     * @return the HTTP status of the response
      * 
      * @throws IOException
      *             if an I/O error occurs
      * @throws URISyntaxException
      *             if the page URL is formatted incorrectly
      */
-    public static void serialize( URL page, File outputFile )
-            throws IOException, URISyntaxException
+    public int serialize( URL page, File outputFile ) throws IOException,
+            URISyntaxException
     {
         LOGGER.entering( TestCaseSerializer.class.getName(), "serialize",
                 new Object[]
@@ -83,32 +172,295 @@ public class TestCaseSerializer
                     "Only HTTP/S progocol is supported" );
         }
 
-        HttpClient httpClient = new HttpClient();
-
         URI pageUri = page.toURI();
 
         GetMethod pageRequest = new GetMethod( pageUri.toString() );
 
+        int status;
         InputStream responseBody = null;
         OutputStream output = null;
         try
         {
             // get test case from embedded server
-            httpClient.executeMethod( pageRequest );
+            status = httpClient.executeMethod( pageRequest );
             responseBody = pageRequest.getResponseBodyAsStream();
 
-            output = new FileOutputStream( outputFile );
+            output = openOutput( outputFile );
 
-            IOUtils.copy( responseBody, output );
+            // reading the entire body lets the connection be reused
+            if ( responseBody != null )
+            {
+                IOUtils.copy( responseBody, output );
+            }
         }
         finally
         {
-            pageRequest.releaseConnection();
             IOUtils.closeQuietly( responseBody );
             IOUtils.closeQuietly( output );
+            pageRequest.releaseConnection();
+        }
+
+        LOGGER.exiting( TestCaseSerializer.class.getName(), "serialize",
+                new Integer( status ) );
+
+        return status;
+    }
+
+    /**
+     * Sets the log recording the attack strings reflected by each response
+     * 
+     * @param reflectionLog
+     *            the log to record to, or null to stop scanning responses
+     */
+    public void setReflectionLog( ReflectionLog reflectionLog )
+    {
+        this.reflectionLog = reflectionLog;
+    }
+
+    /**
+     * Opens the given output file for a response, scanning the bytes written
+     * to it if a reflection log is set
+     * 
+     * @param outputFile
+     *            the output file
+     * @return the stream to write the response to
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public OutputStream openOutput( File outputFile ) throws IOException
+    {
+        OutputStream output = new FileOutputStream( outputFile );
+
+        ReflectionLog log = reflectionLog;
+        return ( log == null ? output : log.scan( output, outputFile
+                .getName() ) );
+    }
+
+    /**
+     * Serializes the test case at the given context relative path of the
+     * server listening on the given port
+     * 
+     * @param port
+     *            the port of the embedded server
+     * @param path
+     *            the context relative path of the test case
+     * @param outputFile
+     *            the output file
+     * @return the HTTP status of the response
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private int execute( String port, String path, File outputFile )
+            throws IOException
+    {
+        URL page = new URL( "http://localhost:" + port + "/" + path );
+
+        try
+        {
+            return serialize( page, outputFile );
+        }
+        catch ( URISyntaxException urise )
+        {
+            IOException ioe = new IOException( "Invalid test case URL: "
+                    + page );
+            ioe.initCause( urise );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Compiles the JSP at the given context relative path of the server
+     * listening on the given port by requesting it with the
+     * <code>jsp_precompile</code> parameter, so that it is compiled but not
+     * executed
+     * 
+     * @param port
+     *            the port of the embedded server
+     * @param path
+     *            the context relative path of the JSP
+     * @return true if the page compiled
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private boolean precompile( String port, String path ) throws IOException
+    {
+        LOGGER.entering( TestCaseSerializer.class.getName(), "precompile",
+                path );
+
+        GetMethod compileRequest = new GetMethod( "http://localhost:" + port
+                + "/" + path + "?jsp_precompile=true" );
+
+        int status;
+        byte[] body;
+        try
+        {
+            status = httpClient.executeMethod( compileRequest );
+
+            // consume the body so that the connection can be reused
+            body = compileRequest.getResponseBody();
+        }
+        finally
+        {
+            compileRequest.releaseConnection();
+        }
+
+        // a compile error is rendered by the error page, so any content
+        // other than an empty OK response is treated as a failure
+        boolean compiled = ( status == HttpStatus.SC_OK
+                && ( body == null || body.length == 0 ) );
+
+        LOGGER.exiting( TestCaseSerializer.class.getName(), "precompile",
+                Boolean.valueOf( compiled ) );
+
+        return compiled;
+    }
+
+    /**
+     * Returns an executor that requests test cases from the given server,
+     * sharing this serializer's connections
+     * 
+     * @param server
+     *            the embedded server to request test cases from
+     * @return an executor for the given server
+     */
+    public TestCaseExecutor forServer( final EmbeddedServer server )
+    {
+        return new TestCaseExecutor()
+        {
+            public int execute( String path, File outputFile )
+                    throws IOException
+            {
+                return TestCaseSerializer.this.execute( String.valueOf( server
+                        .getPort() ), path, outputFile );
+            }
+
+            public boolean precompile( String path ) throws IOException
+            {
+                return TestCaseSerializer.this.precompile( String
+                        .valueOf( server.getPort() ), path );
+            }
+        };
+    }
+
+    /**
+     * Closes any pooled connections that are no longer usable, such as after
+     * the embedded server has been restarted
+     */
+    public void closeIdleConnections()
+    {
+        connectionManager.closeIdleConnections( 0 );
+        connectionManager.deleteClosedConnections();
+    }
+
+    /**
+     * Returns the number of connections that have been opened
+     * 
+     * @return the number of connections that have been opened
+     */
+    public int getConnectionsOpened()
+    {
+        return connectionManager.getOpened();
+    }
+
+    /**
+     * Returns the number of requests that reused an already open connection
+     * 
+     * @return the number of requests that reused an already open connection
+     */
+    public int getConnectionsReused()
+    {
+        return connectionManager.getReused();
+    }
+
+    /**
+     * Logs the connection reuse statistics for this serializer
+     */
+    public void logStatistics()
+    {
+        int opened = getConnectionsOpened();
+        int reused = getConnectionsReused();
+        int requests = opened + reused;
+
+        LOGGER.info( "Serializer made " + requests + " requests using "
+                + opened + " connections (" + reused + " reused, "
+                + ( requests == 0 ? 0 : reused * 100 / requests )
+                + "% reuse)" );
+    }
+
+    /**
+     * Closes all pooled connections and logs the connection statistics. The
+     * serializer may not be used afterwards.
+     */
+    public void shutdown()
+    {
+        logStatistics();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Connection manager that keeps track of how often pooled connections are
+     * reused
+     */
+    private static class CountingConnectionManager extends
+            MultiThreadedHttpConnectionManager
+    {
+        /**
+         * The number of connections handed out that had to be opened
+         */
+        private int opened = 0;
+
+        /**
+         * The number of connections handed out that were already open
+         */
+        private int reused = 0;
+
+        /**
+         * Returns a pooled connection, counting whether it was already open
+         * 
+         * @see org.apache.commons.httpclient.MultiThreadedHttpConnectionManager#getConnectionWithTimeout(org.apache.commons.httpclient.HostConfiguration,
+         *      long)
+         */
+        public HttpConnection getConnectionWithTimeout(
+                HostConfiguration hostConfiguration, long timeout )
+                throws ConnectionPoolTimeoutException
+        {
+            HttpConnection connection = super.getConnectionWithTimeout(
+                    hostConfiguration, timeout );
+
+            synchronized ( this )
+            {
+                if ( connection.isOpen() )
+                {
+                    reused++;
+                }
+                else
+                {
+                    opened++;
+                }
+            }
+
+            return connection;
         }
 
-        LOGGER.exiting( TestCaseSerializer.class.getName(), "serialize" );
+        /**
+         * Returns the number of connections handed out that had to be opened
+         * 
+         * @return the number of connections handed out that had to be opened
+         */
+        synchronized int getOpened()
+        {
+            return opened;
+        }
+
+        /**
+         * Returns the number of connections handed out that were already open
+         * 
+         * @return the number of connections handed out that were already open
+         */
+        synchronized int getReused()
+        {
+            return reused;
+        }
     }
 
     /**
@@ -118,9 +470,16 @@ public class TestCaseSerializer
      */
     public static void main( String[] args ) throws Exception
     {
-        TestCaseSerializer.serialize( new URL(
-                "http://localhost:8096/test/outputLabel-raw.jsp" ), new File(
-                "./output/outputLabel-raw.html" ) );
-
+        TestCaseSerializer serializer = new TestCaseSerializer();
+        try
+        {
+            serializer.serialize( new URL(
+                    "http://localhost:8096/test/outputLabel-raw.jsp" ),
+                    new File( "./output/outputLabel-raw.html" ) );
+        }
+        finally
+        {
+            serializer.shutdown();
+        }
     }
 }
@@ -0,0 +1,867 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.jsp.tagext.TagAttributeInfo;
+import javax.servlet.jsp.tagext.TagInfo;
+import javax.servlet.jsp.tagext.TagLibraryInfo;
+import javax.servlet.jsp.tagext.TagVariableInfo;
+import javax.servlet.jsp.tagext.VariableInfo;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Parses a TLD file with a StAX pull parser and creates an instance of
+ * <code>TagLibraryInfoImpl</code> directly from the stream of events, without
+ * building a DOM of the whole file first. Apart from the result, memory use
+ * does not grow with the size of the TLD.
+ * <p>
+ * The result is identical to the one produced by <code>TagFileParser</code>:
+ * elements are matched on their qualified name, the text of an element is all
+ * of its descendant text trimmed, the last of a repeated element wins and
+ * unknown elements are ignored.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class StreamingTagFileParser
+{
+
+    /**
+     * Logger
+     */
+    private static Logger LOGGER = Logger
+            .getLogger( StreamingTagFileParser.class.getName() );
+
+    /**
+     * The factory shared by all parses. Like the DOM parser, it is not
+     * namespace aware so elements are matched on their qualified name.
+     */
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Constructs an instance of StreamingTagFileParser
+     */
+    private StreamingTagFileParser()
+    {
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by loading
+     * the given TLD file
+     * 
+     * @param tldFile
+     *            the TLD file to load
+     * @return an instance of TagLibraryInfo</code> created by loading the
+     *         given TLD file
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static TagLibraryInfo loadTagFile( File tldFile )
+            throws XMLStreamException, IOException
+    {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream( tldFile ) );
+
+        try
+        {
+            return loadTagFile( in, tldFile.toURI().toString() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by loading
+     * the TLD read from the given stream. The stream is not closed.
+     * 
+     * @param in
+     *            the stream to read the TLD from
+     * @param systemId
+     *            the location of the TLD, which relative DTD references are
+     *            resolved against, as they are by the DOM parser
+     * @return an instance of TagLibraryInfo</code> created by loading the
+     *         TLD
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    public static TagLibraryInfo loadTagFile( InputStream in, String systemId )
+            throws XMLStreamException
+    {
+        XMLStreamReader reader = null;
+
+        try
+        {
+            reader = FACTORY.createXMLStreamReader( systemId, in );
+
+            // move to the root (tag-lib) element of the XML document
+            while ( reader.next() != XMLStreamConstants.START_ELEMENT )
+            {
+                // skip the prolog
+            }
+
+            TagLibraryInfo tagLibraryInfo = parseTagLibElement( reader );
+
+            LOGGER.fine( "Parsed the TLD XML" );
+
+            return tagLibraryInfo;
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch ( XMLStreamException xse )
+                {
+                    LOGGER.fine( "Unable to close reader: " + xse );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created from parsing
+     * the tag-lib element the given reader is positioned on. The reader is
+     * left on the element's end tag.
+     * 
+     * @param reader
+     *            the reader positioned on the tag-lib element
+     * @return an instance of <code>TagLibraryInfo</code> created from parsing
+     *         the tag-lib element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static TagLibraryInfo parseTagLibElement( XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        LOGGER.entering( StreamingTagFileParser.class.getName(),
+                "parseTagLibElement" );
+
+        String tlibVersion = null;
+        String jspVersion = null;
+        String shortName = null;
+        String uri = null;
+        String info = null;
+
+        List tags = new ArrayList();
+
+        while ( nextChildElement( reader ) )
+        {
+            String name = getElementName( reader );
+
+            if ( "tlibversion".equals( name ) || "tlib-version".equals( name ) )
+            {
+                tlibVersion = readElementString( reader );
+            }
+            else if ( "jspversion".equals( name )
+                    || "jsp-version".equals( name ) )
+            {
+                jspVersion = readElementString( reader );
+            }
+            else if ( "shortname".equals( name ) || "short-name".equals( name ) )
+            {
+                shortName = readElementString( reader );
+            }
+            else if ( "uri".equals( name ) )
+            {
+                uri = readElementString( reader );
+            }
+            else if ( "info".equals( name ) )
+            {
+                info = readElementString( reader );
+            }
+            else if ( "tag".equals( name ) )
+            {
+                tags.add( parseTagElement( reader ) );
+            }
+            // the remaining JSP 1.2 and 2.1 elements are not part of
+            // TagLibraryInfo (the DOM parser reads and then discards them),
+            // so they are skipped without being read
+            else if ( "display-name".equals( name )
+                    || "small-icon".equals( name )
+                    || "large-icon".equals( name )
+                    || "description".equals( name ) || "icon".equals( name )
+                    || "validator".equals( name ) || "listener".equals( name )
+                    || "tag-file".equals( name ) || "function".equals( name )
+                    || "taglib-extension".equals( name ) )
+            {
+                skipElement( reader );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered: " + name );
+                skipElement( reader );
+            }
+        }
+
+        // Verify that the TLD file contained the required tlib version
+        if ( tlibVersion == null )
+        {
+            LOGGER.warning( "TagLib element without required tlibversion"
+                    + " element encountered" );
+        }
+
+        // Verify that the TLD file contained the required short name version
+        if ( shortName == null )
+        {
+            LOGGER.warning( "TagLib element without required shortname"
+                    + " element encountered" );
+        }
+
+        // Verify the TLD file contained at least one tag definition
+        if ( tags.size() < 1 )
+        {
+            LOGGER.warning( "TagLib element without required tag"
+                    + " element encountered" );
+        }
+
+        TagLibraryInfoImpl tagLibraryInfo = new TagLibraryInfoImpl( shortName,
+                uri );
+        tagLibraryInfo.setTlibVersion( tlibVersion );
+        tagLibraryInfo.setJspVersion( jspVersion );
+        tagLibraryInfo.setInfo( info );
+
+        // the short name and uri may follow the tags in the file, so the tags
+        // are only attached to their library once it has been created
+        TagInfo[] tagInfos = (TagInfo[]) tags.toArray( new TagInfo[tags
+                .size()] );
+        for ( int tagIdx = 0; tagIdx < tagInfos.length; tagIdx++ )
+        {
+            tagInfos[tagIdx].setTagLibrary( tagLibraryInfo );
+        }
+
+        tagLibraryInfo.setTags( tagInfos );
+
+        LOGGER.exiting( StreamingTagFileParser.class.getName(),
+                "parseTagLibElement", tagLibraryInfo );
+
+        return tagLibraryInfo;
+    }
+
+    /**
+     * Returns an instance of the <code>TagInfo</code> class created from the
+     * tag element the given reader is positioned on. The tag's library is
+     * set by the caller.
+     * 
+     * @param reader
+     *            the reader positioned on the tag element
+     * @return an instance of the <code>TagInfo</code> class created from the
+     *         tag element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static TagInfo parseTagElement( XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        String name = null;
+        String tagClass = null;
+        String bodyContent = "JSP"; // JSP is default value
+        String info = null;
+
+        List attributes = new ArrayList();
+
+        String displayName = null;
+        String smallIcon = null;
+        String largeIcon = null;
+
+        List variables = new ArrayList();
+
+        boolean dynamicAttributes = false; // false is default value
+
+        while ( nextChildElement( reader ) )
+        {
+            String elementName = getElementName( reader );
+
+            if ( "name".equals( elementName ) )
+            {
+                name = readElementString( reader );
+            }
+            else if ( "tagclass".equals( elementName )
+                    || "tag-class".equals( elementName ) )
+            {
+                tagClass = readElementString( reader );
+            }
+            else if ( "bodycontent".equals( elementName )
+                    || "body-content".equals( elementName ) )
+            {
+                bodyContent = readElementString( reader );
+            }
+            else if ( "info".equals( elementName ) )
+            {
+                info = readElementString( reader );
+            }
+            else if ( "attribute".equals( elementName ) )
+            {
+                attributes.add( parseAttributeElement( reader ) );
+            }
+            else if ( "display-name".equals( elementName ) )
+            {
+                displayName = readElementString( reader );
+            }
+            else if ( "small-icon".equals( elementName ) )
+            {
+                smallIcon = readElementString( reader );
+            }
+            else if ( "large-icon".equals( elementName ) )
+            {
+                largeIcon = readElementString( reader );
+            }
+            else if ( "variable".equals( elementName ) )
+            {
+                variables.add( parseVariableElement( reader ) );
+            }
+            else if ( "dynamic-attributes".equals( elementName ) )
+            {
+                dynamicAttributes = parseTldBoolean( readElementString( reader ) );
+            }
+            // the TEI class, description and example are not part of
+            // TagInfo as created by the DOM parser
+            else if ( "teiclass".equals( elementName )
+                    || "tei-class".equals( elementName )
+                    || "description".equals( elementName )
+                    || "example".equals( elementName ) )
+            {
+                skipElement( reader );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered" );
+                skipElement( reader );
+            }
+        }
+
+        if ( name == null )
+        {
+            LOGGER.warning( "Tag element without required name"
+                    + " element encountered" );
+        }
+
+        if ( tagClass == null )
+        {
+            LOGGER.warning( "Tag element without required tagclass"
+                    + " element encountered" );
+        }
+
+        return new TagInfo( name, tagClass, bodyContent, info, null, null,
+                (TagAttributeInfo[]) attributes
+                        .toArray( new TagAttributeInfo[attributes.size()] ),
+                displayName, smallIcon, largeIcon,
+                (TagVariableInfo[]) variables
+                        .toArray( new TagVariableInfo[variables.size()] ),
+                dynamicAttributes );
+    }
+
+    /**
+     * Returns an instance of the <code>TagAttributeInfo</code> class created
+     * from the attribute element the given reader is positioned on
+     * 
+     * @param reader
+     *            the reader positioned on the attribute element
+     * @return an instance of the <code>TagAttributeInfo</code> class created
+     *         from the attribute element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static TagAttributeInfo parseAttributeElement(
+            XMLStreamReader reader ) throws XMLStreamException
+    {
+        String name = null;
+        boolean required = false;
+        String type = "java.lang.String";
+        boolean rtexprvalue = false;
+
+        String description = null;
+
+        boolean deferredValue = false;
+        String expectedType = null;
+        boolean deferredMethod = false;
+        String methodSignature = null;
+
+        while ( nextChildElement( reader ) )
+        {
+            String elementName = getElementName( reader );
+
+            if ( "name".equals( elementName ) )
+            {
+                name = readElementString( reader );
+            }
+            else if ( "required".equals( elementName ) )
+            {
+                required = parseTldBoolean( readElementString( reader ) );
+            }
+            else if ( "rtexprvalue".equals( elementName ) )
+            {
+                rtexprvalue = parseTldBoolean( readElementString( reader ) );
+            }
+            else if ( "type".equals( elementName ) )
+            {
+                type = readElementString( reader );
+            }
+            else if ( "description".equals( elementName ) )
+            {
+                description = readElementString( reader );
+            }
+            else if ( "deferred-value".equals( elementName ) )
+            {
+                deferredValue = true;
+                expectedType = parseDeferredElement( reader, "type" );
+            }
+            else if ( "deferred-method".equals( elementName ) )
+            {
+                deferredMethod = true;
+                methodSignature = parseDeferredElement( reader,
+                        "method-signature" );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered: " + elementName );
+                skipElement( reader );
+            }
+        }
+
+        if ( name == null )
+        {
+            LOGGER.warning( "Attribute tag did not contain the required "
+                    + "name element" );
+        }
+
+        return new TagAttributeInfo( name, required, type, rtexprvalue, false,
+                description, deferredValue, deferredMethod, expectedType,
+                methodSignature );
+    }
+
+    /**
+     * Returns the content of the given child element of the deferred-value
+     * or deferred-method element the given reader is positioned on
+     * 
+     * @param reader
+     *            the reader positioned on the deferred-value or
+     *            deferred-method element
+     * @param childName
+     *            the name of the child element
+     * @return the content of the child element, or null if there is none
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static String parseDeferredElement( XMLStreamReader reader,
+            String childName ) throws XMLStreamException
+    {
+        String value = null;
+
+        while ( nextChildElement( reader ) )
+        {
+            String elementName = getElementName( reader );
+
+            if ( childName.equals( elementName ) )
+            {
+                value = readElementString( reader );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered: " + elementName );
+                skipElement( reader );
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns an instance of the <code>TagVariableInfo</code> class created
+     * from the variable element the given reader is positioned on
+     * 
+     * @param reader
+     *            the reader positioned on the variable element
+     * @return an instance of the <code>TagVariableInfo</code> class created
+     *         from the variable element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static TagVariableInfo parseVariableElement(
+            XMLStreamReader reader ) throws XMLStreamException
+    {
+        String nameGiven = null;
+        String nameFromAttribute = null;
+        String variableClass = "java.lang.String";
+        boolean declare = true;
+        String scope = "NESTED";
+
+        while ( nextChildElement( reader ) )
+        {
+            String elementName = getElementName( reader );
+
+            if ( "name-given".equals( elementName ) )
+            {
+                nameGiven = readElementString( reader );
+            }
+            else if ( "name-from-attribute".equals( elementName ) )
+            {
+                nameFromAttribute = readElementString( reader );
+            }
+            else if ( "variable-class".equals( elementName ) )
+            {
+                variableClass = readElementString( reader );
+            }
+            else if ( "declare".equals( elementName ) )
+            {
+                // Boolean.getBoolean, as used by the DOM parser
+                declare = Boolean.getBoolean( readElementString( reader ) );
+            }
+            else if ( "scope".equals( elementName ) )
+            {
+                scope = readElementString( reader );
+            }
+            else if ( "description".equals( elementName ) )
+            {
+                skipElement( reader );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered" );
+                skipElement( reader );
+            }
+        }
+
+        if ( nameGiven == null && nameFromAttribute == null )
+        {
+            LOGGER.warning( "Variable tag did not contain either "
+                    + "the name-given or name-from-attribute element" );
+        }
+
+        return new TagVariableInfo( nameGiven, nameFromAttribute,
+                variableClass, declare, parseScopeType( scope ) );
+    }
+
+    /**
+     * Advances the reader to the next child element of the current element.
+     * Text, comments and processing instructions between the children are
+     * skipped.
+     * 
+     * @param reader
+     *            the reader positioned on the current element or the end tag
+     *            of one of its children
+     * @return true if the reader is positioned on the next child element;
+     *         false if it is positioned on the end tag of the current element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static boolean nextChildElement( XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        while ( true )
+        {
+            int event = reader.next();
+
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                return true;
+            }
+
+            if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the trimmed text of the element the given reader is positioned
+     * on, including the text of any descendant elements. The reader is left
+     * on the element's end tag.
+     * 
+     * @param reader
+     *            the reader positioned on the element
+     * @return the trimmed text of the element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static String readElementString( XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        // an element's text is almost always a single event, so only
+        // allocate a buffer when there is more than one
+        String text = "";
+        StringBuffer buffer = null;
+
+        int depth = 1;
+        while ( depth > 0 )
+        {
+            switch ( reader.next() )
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if ( buffer != null )
+                    {
+                        buffer.append( reader.getTextCharacters(), reader
+                                .getTextStart(), reader.getTextLength() );
+                    }
+                    else if ( text.length() == 0 )
+                    {
+                        text = reader.getText();
+                    }
+                    else
+                    {
+                        buffer = new StringBuffer( text );
+                        buffer.append( reader.getTextCharacters(), reader
+                                .getTextStart(), reader.getTextLength() );
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return ( buffer == null ? text : buffer.toString() ).trim();
+    }
+
+    /**
+     * Skips the element the given reader is positioned on and all of its
+     * content. The reader is left on the element's end tag.
+     * 
+     * @param reader
+     *            the reader positioned on the element
+     * @throws XMLStreamException
+     *             if an error occurs parsing the XML
+     */
+    private static void skipElement( XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        int depth = 1;
+        while ( depth > 0 )
+        {
+            int event = reader.next();
+
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                depth++;
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Returns the qualified name of the element the given reader is
+     * positioned on, which is the name the DOM parser matches elements on
+     * 
+     * @param reader
+     *            the reader positioned on the element
+     * @return the qualified name of the element
+     */
+    private static String getElementName( XMLStreamReader reader )
+    {
+        String localName = reader.getLocalName();
+        String prefix = reader.getPrefix();
+
+        if ( prefix == null || prefix.length() == 0
+                || localName.indexOf( ':' ) >= 0 )
+        {
+            return localName;
+        }
+
+        return prefix + ':' + localName;
+    }
+
+    /**
+     * Returns true if the given value is "true" or "yes"; false otherwise
+     * 
+     * @param value
+     *            the value
+     * @return true if the given value is "true" or "yes"; false otherwise
+     */
+    private static boolean parseTldBoolean( String value )
+    {
+        return ( "true".equals( value ) || "yes".equals( value ) );
+    }
+
+    /**
+     * Returns the proper scope type corresponding to the given value
+     * 
+     * @param value
+     *            the value
+     * @return the proper scope type corresponding to the given value
+     */
+    private static int parseScopeType( String value )
+    {
+        if ( "AT_BEGIN".equals( value ) )
+        {
+            return VariableInfo.AT_BEGIN;
+        }
+
+        if ( "AT_END".equals( value ) )
+        {
+            return VariableInfo.AT_END;
+        }
+
+        return VariableInfo.NESTED;
+    }
+
+    /**
+     * Returns the factory the TLD files are parsed with
+     * 
+     * @return the factory the TLD files are parsed with
+     */
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE,
+                Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+        return factory;
+    }
+
+    /**
+     * Returns a description of every field of the given tag library, its
+     * tags, their attributes and variables, for comparing the results of
+     * the two parsers
+     * 
+     * @param tld
+     *            the tag library
+     * @return a description of every field of the given tag library
+     */
+    private static String describe( TagLibraryInfo tld )
+    {
+        StringBuffer description = new StringBuffer();
+        description.append( tld.getShortName() ).append( '|' ).append(
+                tld.getPrefixString() ).append( '|' ).append( tld.getURI() )
+                .append( '|' ).append(
+                        ( (TagLibraryInfoImpl) tld ).getTlibVersion() )
+                .append( '|' ).append( tld.getRequiredVersion() ).append(
+                        '|' ).append( tld.getInfoString() ).append( '\n' );
+
+        TagInfo[] tags = tld.getTags();
+        for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
+        {
+            TagInfo tag = tags[tagIdx];
+            description.append( tag.getTagName() ).append( '|' ).append(
+                    tag.getTagClassName() ).append( '|' ).append(
+                    tag.getBodyContent() ).append( '|' ).append(
+                    tag.getInfoString() ).append( '|' ).append(
+                    tag.getDisplayName() ).append( '|' ).append(
+                    tag.getSmallIcon() ).append( '|' ).append(
+                    tag.getLargeIcon() ).append( '|' ).append(
+                    tag.hasDynamicAttributes() ).append( '|' ).append(
+                    tag.getTagLibrary() == tld ).append( '\n' );
+
+            TagAttributeInfo[] attrs = tag.getAttributes();
+            for ( int attrIdx = 0; attrIdx < attrs.length; attrIdx++ )
+            {
+                TagAttributeInfo attr = attrs[attrIdx];
+                description.append( "  " ).append( attr.getName() ).append(
+                        '|' ).append( attr.isRequired() ).append( '|' )
+                        .append( attr.getTypeName() ).append( '|' ).append(
+                                attr.canBeRequestTime() ).append( '|' )
+                        .append( attr.isFragment() ).append( '|' ).append(
+                                attr.getDescription() ).append( '|' )
+                        .append( attr.isDeferredValue() ).append( '|' )
+                        .append( attr.isDeferredMethod() ).append( '|' )
+                        .append( attr.getExpectedTypeName() ).append( '|' )
+                        .append( attr.getMethodSignature() ).append( '\n' );
+            }
+
+            TagVariableInfo[] vars = tag.getTagVariableInfos();
+            for ( int varIdx = 0; varIdx < vars.length; varIdx++ )
+            {
+                TagVariableInfo var = vars[varIdx];
+                description.append( "  $" ).append( var.getNameGiven() )
+                        .append( '|' ).append( var.getNameFromAttribute() )
+                        .append( '|' ).append( var.getClassName() ).append(
+                                '|' ).append( var.getDeclare() ).append( '|' )
+                        .append( var.getScope() ).append( '\n' );
+            }
+        }
+
+        return description.toString();
+    }
+
+    /**
+     * Test code to confirm the streaming parser creates the same tag
+     * libraries as the DOM parser
+     * 
+     * @deprecated
+     * @param args
+     *            the TLD files to compare; the TLD files in resources if
+     *            none are given
+     * @throws Exception
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        String[] files = args;
+        if ( files.length == 0 )
+        {
+            files = new String[]
+                { "resources/html_basic.tld", "resources/jsf_core.tld",
+                        "resources/subset.tld" };
+        }
+
+        for ( int fileIdx = 0; fileIdx < files.length; fileIdx++ )
+        {
+            File f = new File( files[fileIdx] );
+
+            long start = System.currentTimeMillis();
+            String dom = describe( TagFileParser.loadDomTagFile( f ) );
+            long domTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            String stax = describe( loadTagFile( f ) );
+            long staxTime = System.currentTimeMillis() - start;
+
+            System.out.println( f + ": "
+                    + ( dom.equals( stax ) ? "identical" : "DIFFERENT" )
+                    + " (DOM " + domTime + "ms, StAX " + staxTime + "ms)" );
+        }
+    }
+}
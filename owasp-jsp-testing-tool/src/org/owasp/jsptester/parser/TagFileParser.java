@@ -27,8 +27,11 @@
  */
 package org.owasp.jsptester.parser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
@@ -42,7 +45,10 @@ import javax.servlet.jsp.tagext.VariableInfo;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.conf.Configuration;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -72,9 +78,21 @@ public class TagFileParser
     {
     }
 
+    /**
+     * The cache of parsed tag libraries, created on first use
+     */
+    private static TagLibraryCache cache = null;
+
+    /**
+     * Whether the cache has been created, or could not be
+     */
+    private static boolean cacheCreated = false;
+
     /**
      * Returns an instance of <code>TagLibraryInfo</code> created by loading
-     * the given TLD file
+     * the given TLD file. The tag library is taken from the TLD cache if it
+     * is enabled by the <code>TLD_CACHE_ENABLED</code> configuration value
+     * and the TLD has been parsed before.
      * 
      * @param tldFile
      *            the TLD file to load
@@ -87,6 +105,196 @@ public class TagFileParser
      */
     public static TagLibraryInfo loadTagFile( File tldFile )
             throws SAXException, IOException
+    {
+        TagLibraryCache tldCache = getCache();
+        if ( tldCache != null )
+        {
+            return tldCache.load( tldFile );
+        }
+
+        return parseTagFile( tldFile );
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by loading
+     * the TLD read from the given stream, such as an entry of a tag library
+     * jar. The tag library is taken from the TLD cache if it is enabled and
+     * the TLD has been parsed before. The stream is not closed.
+     * 
+     * @param in
+     *            the stream to read the TLD from
+     * @param systemId
+     *            the location of the TLD, which relative DTD references are
+     *            resolved against
+     * @return an instance of TagLibraryInfo</code> created by loading the
+     *         TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static TagLibraryInfo loadTagFile( InputStream in, String systemId )
+            throws SAXException, IOException
+    {
+        TagLibraryCache tldCache = getCache();
+        if ( tldCache != null )
+        {
+            return tldCache.load( IOUtils.toByteArray( in ), systemId );
+        }
+
+        return parseTagFile( in, systemId );
+    }
+
+    /**
+     * Returns the cache of parsed tag libraries, if enabled by the
+     * <code>TLD_CACHE_ENABLED</code> configuration value
+     * 
+     * @return the cache of parsed tag libraries or null if the cache is
+     *         disabled or unavailable
+     */
+    private static synchronized TagLibraryCache getCache()
+    {
+        if ( !cacheCreated )
+        {
+            cacheCreated = true;
+
+            if ( Configuration.getInstance().getBooleanProperty(
+                    Configuration.TLD_CACHE_ENABLED, true ) )
+            {
+                try
+                {
+                    cache = new TagLibraryCache( new File( Configuration
+                            .getInstance().getProperty(
+                                    Configuration.TLD_CACHE_DIR ) ) );
+                }
+                catch ( IOException ioe )
+                {
+                    LOGGER.warning( "TLD cache disabled: " + ioe.getMessage() );
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by parsing
+     * the given TLD file. The file is parsed with the
+     * <code>StreamingTagFileParser</code> unless the DOM parser is selected
+     * by the <code>TLD_PARSER</code> configuration value.
+     * 
+     * @param tldFile
+     *            the TLD file to parse
+     * @return an instance of TagLibraryInfo</code> created by parsing the
+     *         given TLD file
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    static TagLibraryInfo parseTagFile( File tldFile ) throws SAXException,
+            IOException
+    {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream( tldFile ) );
+
+        try
+        {
+            return parseTagFile( in, tldFile.toURI().toString() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by parsing
+     * the TLD read from the given stream with the parser selected by the
+     * <code>TLD_PARSER</code> configuration value. The stream is not closed.
+     * 
+     * @param in
+     *            the stream to read the TLD from
+     * @param systemId
+     *            the location of the TLD, which relative DTD references are
+     *            resolved against
+     * @return an instance of TagLibraryInfo</code> created by parsing the
+     *         TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    static TagLibraryInfo parseTagFile( InputStream in, String systemId )
+            throws SAXException, IOException
+    {
+        String parserType = Configuration.getInstance().getProperty(
+                Configuration.TLD_PARSER );
+
+        if ( "dom".equalsIgnoreCase( parserType ) )
+        {
+            LOGGER.fine( "Parsing the TLD with the DOM parser" );
+            return loadDomTagFile( in, systemId );
+        }
+
+        try
+        {
+            return StreamingTagFileParser.loadTagFile( in, systemId );
+        }
+        catch ( XMLStreamException xse )
+        {
+            throw new SAXException( xse );
+        }
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by loading
+     * the given TLD file into a DOM
+     * 
+     * @param tldFile
+     *            the TLD file to load
+     * @return an instance of TagLibraryInfo</code> created by loading the
+     *         given TLD file
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    static TagLibraryInfo loadDomTagFile( File tldFile ) throws SAXException,
+            IOException
+    {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream( tldFile ) );
+
+        try
+        {
+            return loadDomTagFile( in, tldFile.toURI().toString() );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Returns an instance of <code>TagLibraryInfo</code> created by loading
+     * the TLD read from the given stream into a DOM. The stream is not
+     * closed.
+     * 
+     * @param in
+     *            the stream to read the TLD from
+     * @param systemId
+     *            the location of the TLD, which relative DTD references are
+     *            resolved against
+     * @return an instance of TagLibraryInfo</code> created by loading the
+     *         TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static TagLibraryInfo loadDomTagFile( InputStream in,
+            String systemId ) throws SAXException, IOException
     {
         // Create a document parser
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -104,7 +312,7 @@ public class TagFileParser
         Document dom = null;
 
         // Load and parse the file.
-        dom = db.parse( tldFile );
+        dom = db.parse( in, systemId );
 
         LOGGER.fine( "Parsed the TLD XML" );
 
@@ -534,6 +742,12 @@ public class TagFileParser
         // JSP 1.2 attributes
         String description = null;
 
+        // JSP 2.1 attributes
+        boolean deferredValue = false;
+        String expectedType = null;
+        boolean deferredMethod = false;
+        String methodSignature = null;
+
         for ( int nodeIdx = 0; nodeIdx < nodes.getLength(); nodeIdx++ )
         {
             Node childNode = nodes.item( nodeIdx );
@@ -568,6 +782,17 @@ public class TagFileParser
                 description = parseElementString( parseElementString( childNode
                         .getTextContent() ) );
             }
+            else if ( "deferred-value".equals( childNode.getNodeName() ) )
+            {
+                deferredValue = true;
+                expectedType = parseDeferredElement( childNode, "type" );
+            }
+            else if ( "deferred-method".equals( childNode.getNodeName() ) )
+            {
+                deferredMethod = true;
+                methodSignature = parseDeferredElement( childNode,
+                        "method-signature" );
+            }
             else
             {
                 LOGGER.fine( "Unknown element encountered: "
@@ -582,7 +807,8 @@ public class TagFileParser
         }
 
         TagAttributeInfo toReturn = new TagAttributeInfo( name, required, type,
-                rtexprvalue );
+                rtexprvalue, false, description, deferredValue,
+                deferredMethod, expectedType, methodSignature );
 
         LOGGER.exiting( TagFileParser.class.getName(), "parseAttributeElement",
                 toReturn );
@@ -590,6 +816,54 @@ public class TagFileParser
         return toReturn;
     }
 
+    /**
+     * Returns the content of the given child element of the given
+     * deferred-value or deferred-method node
+     * 
+     * @param deferred
+     *            the deferred-value or deferred-method node to parse
+     * @param childName
+     *            the name of the child element
+     * @return the content of the child element, or null if there is none
+     */
+    private static String parseDeferredElement( Node deferred,
+            String childName )
+    {
+        LOGGER.entering( TagFileParser.class.getName(),
+                "parseDeferredElement", new Object[]
+                    { deferred, childName } );
+
+        NodeList nodes = deferred.getChildNodes();
+
+        String value = null;
+
+        for ( int nodeIdx = 0; nodeIdx < nodes.getLength(); nodeIdx++ )
+        {
+            Node childNode = nodes.item( nodeIdx );
+
+            if ( childNode.getNodeType() != Node.ELEMENT_NODE )
+            {
+                continue;
+            }
+
+            if ( childName.equals( childNode.getNodeName() ) )
+            {
+                value = parseElementString( parseElementString( childNode
+                        .getTextContent() ) );
+            }
+            else
+            {
+                LOGGER.fine( "Unknown element encountered: "
+                        + childNode.getNodeName() );
+            }
+        }
+
+        LOGGER.exiting( TagFileParser.class.getName(), "parseDeferredElement",
+                value );
+
+        return value;
+    }
+
     /**
      * Parses the given validator node
      * 
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.jsp.tagext.TagAttributeInfo;
+import javax.servlet.jsp.tagext.TagInfo;
+import javax.servlet.jsp.tagext.TagLibraryInfo;
+import javax.servlet.jsp.tagext.TagVariableInfo;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.SAXException;
+
+/**
+ * An on-disk cache of parsed tag libraries that survives between runs. Each
+ * entry holds the <code>TagLibraryInfo</code> model of a TLD (its tags,
+ * their attributes and variables) in a compact binary form and is keyed by a
+ * hash of the TLD's bytes, so an entry is only reused while the TLD is
+ * unchanged.
+ * <p>
+ * Entries are read through a memory mapped buffer. Strings are written once
+ * per entry and referred to by index afterwards, which keeps the entries of
+ * libraries that repeat the same descriptions and types on every attribute
+ * small, and lets the loaded tags share those strings.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TagLibraryCache
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( TagLibraryCache.class.getName() );
+
+    /**
+     * Marks the start of a cache entry
+     */
+    private static final int MAGIC = 0x544c4443;
+
+    /**
+     * Version of the entry format, increased whenever the format changes
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Suffix of cache entries
+     */
+    private static final String ENTRY_SUFFIX = ".tlc";
+
+    /**
+     * String code of a null string
+     */
+    private static final int NULL_STRING = -1;
+
+    /**
+     * String code of a string written for the first time, which follows it
+     */
+    private static final int NEW_STRING = -2;
+
+    /**
+     * The directory holding the cache entries
+     */
+    private final File cacheDir;
+
+    /**
+     * Number of tag libraries loaded from the cache
+     */
+    private int hits = 0;
+
+    /**
+     * Number of tag libraries not found in the cache
+     */
+    private int misses = 0;
+
+    /**
+     * Creates a cache in the given directory
+     * 
+     * @param cacheDir
+     *            the directory holding the cache entries
+     * @throws IOException
+     *             if the cache directory cannot be created
+     */
+    public TagLibraryCache( File cacheDir ) throws IOException
+    {
+        this.cacheDir = cacheDir;
+
+        if ( !cacheDir.isDirectory() && !cacheDir.mkdirs() )
+        {
+            throw new IOException( "Unable to create TLD cache directory "
+                    + cacheDir );
+        }
+
+        LOGGER.fine( "Using TLD cache " + cacheDir.getAbsolutePath() );
+    }
+
+    /**
+     * Returns the tag library of the given TLD file, from the cache if the
+     * TLD has been parsed before and otherwise by parsing it and adding it to
+     * the cache
+     * 
+     * @param tldFile
+     *            the TLD file to load
+     * @return the tag library of the given TLD file
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public TagLibraryInfo load( File tldFile ) throws SAXException,
+            IOException
+    {
+        return load( FileUtils.readFileToByteArray( tldFile ), tldFile
+                .toURI().toString() );
+    }
+
+    /**
+     * Returns the tag library of the given TLD content, from the cache if
+     * the TLD has been parsed before and otherwise by parsing it and adding
+     * it to the cache
+     * 
+     * @param content
+     *            the bytes of the TLD
+     * @param systemId
+     *            the location of the TLD, which relative DTD references are
+     *            resolved against
+     * @return the tag library of the given TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public TagLibraryInfo load( byte[] content, String systemId )
+            throws SAXException, IOException
+    {
+        LOGGER.entering( TagLibraryCache.class.getName(), "load", systemId );
+
+        File entry = new File( cacheDir, DigestUtils.shaHex( content )
+                + ENTRY_SUFFIX );
+
+        TagLibraryInfo tagLibraryInfo = null;
+
+        if ( entry.isFile() )
+        {
+            tagLibraryInfo = read( entry );
+        }
+
+        if ( tagLibraryInfo != null )
+        {
+            synchronized ( this )
+            {
+                hits++;
+            }
+
+            LOGGER.fine( "Loaded " + systemId + " from the TLD cache" );
+        }
+        else
+        {
+            synchronized ( this )
+            {
+                misses++;
+            }
+
+            tagLibraryInfo = TagFileParser.parseTagFile(
+                    new ByteArrayInputStream( content ), systemId );
+            write( entry, tagLibraryInfo );
+        }
+
+        LOGGER.exiting( TagLibraryCache.class.getName(), "load",
+                tagLibraryInfo );
+
+        return tagLibraryInfo;
+    }
+
+    /**
+     * Returns the tag library held in the given entry, or null if the entry
+     * cannot be read or was written in another format
+     * 
+     * @param entry
+     *            the cache entry
+     * @return the tag library held in the entry or null
+     */
+    private static TagLibraryInfo read( File entry )
+    {
+        FileInputStream in = null;
+
+        try
+        {
+            in = new FileInputStream( entry );
+            FileChannel channel = in.getChannel();
+
+            ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size() );
+
+            if ( buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION )
+            {
+                LOGGER.fine( "Ignoring TLD cache entry in another format: "
+                        + entry );
+                return null;
+            }
+
+            return new EntryReader( buffer ).readTagLibrary();
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.FINE, "Unable to read TLD cache entry " + entry,
+                    ioe );
+            return null;
+        }
+        catch ( BufferUnderflowException bue )
+        {
+            LOGGER.fine( "Ignoring truncated TLD cache entry " + entry );
+            return null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Writes the given tag library to the given entry. The entry is written
+     * to a temporary file first so that a concurrent or interrupted run never
+     * sees a partial entry. Failures are logged but not thrown, since the
+     * tag library has been parsed regardless.
+     * 
+     * @param entry
+     *            the cache entry
+     * @param tagLibraryInfo
+     *            the tag library
+     */
+    private void write( File entry, TagLibraryInfo tagLibraryInfo )
+    {
+        File temp = null;
+        FileOutputStream out = null;
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new EntryWriter( new DataOutputStream( bytes ) )
+                    .writeTagLibrary( tagLibraryInfo );
+
+            temp = File.createTempFile( "tld", ENTRY_SUFFIX, cacheDir );
+            out = new FileOutputStream( temp );
+            bytes.writeTo( out );
+            out.close();
+            out = null;
+
+            if ( !temp.renameTo( entry ) && !entry.isFile() )
+            {
+                throw new IOException( "Unable to rename " + temp + " to "
+                        + entry );
+            }
+
+            LOGGER.fine( "Added " + entry.getName() + " to the TLD cache" );
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.WARNING, "Unable to write TLD cache entry "
+                    + entry, ioe );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+
+            if ( temp != null && temp.exists() )
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tag libraries loaded from the cache
+     * 
+     * @return the number of tag libraries loaded from the cache
+     */
+    public synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of tag libraries not found in the cache
+     * 
+     * @return the number of tag libraries not found in the cache
+     */
+    public synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Writes the tag library model to a cache entry
+     */
+    private static class EntryWriter
+    {
+
+        /**
+         * The stream the entry is written to
+         */
+        private final DataOutputStream out;
+
+        /**
+         * Map&lt;String, Integer&gt; of each string written so far to its
+         * index
+         */
+        private final Map/* <String, Integer> */strings = new HashMap();
+
+        /**
+         * Creates a writer of an entry to the given stream
+         * 
+         * @param out
+         *            the stream the entry is written to
+         */
+        EntryWriter( DataOutputStream out )
+        {
+            this.out = out;
+        }
+
+        /**
+         * Writes the given tag library, its tags, their attributes and
+         * variables
+         * 
+         * @param tld
+         *            the tag library
+         * @throws IOException
+         *             if an I/O error occurs
+         */
+        void writeTagLibrary( TagLibraryInfo tld ) throws IOException
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( FORMAT_VERSION );
+
+            writeString( tld.getShortName() );
+            writeString( tld.getURI() );
+            writeString( ( (TagLibraryInfoImpl) tld ).getTlibVersion() );
+            writeString( tld.getRequiredVersion() );
+            writeString( tld.getInfoString() );
+
+            TagInfo[] tags = tld.getTags();
+            out.writeInt( tags.length );
+
+            for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
+            {
+                TagInfo tag = tags[tagIdx];
+
+                writeString( tag.getTagName() );
+                writeString( tag.getTagClassName() );
+                writeString( tag.getBodyContent() );
+                writeString( tag.getInfoString() );
+                writeString( tag.getDisplayName() );
+                writeString( tag.getSmallIcon() );
+                writeString( tag.getLargeIcon() );
+                out.writeBoolean( tag.hasDynamicAttributes() );
+
+                TagAttributeInfo[] attrs = tag.getAttributes();
+                out.writeInt( attrs.length );
+
+                for ( int attrIdx = 0; attrIdx < attrs.length; attrIdx++ )
+                {
+                    TagAttributeInfo attr = attrs[attrIdx];
+
+                    writeString( attr.getName() );
+                    out.writeBoolean( attr.isRequired() );
+                    writeString( attr.getTypeName() );
+                    out.writeBoolean( attr.canBeRequestTime() );
+                    out.writeBoolean( attr.isFragment() );
+                    writeString( attr.getDescription() );
+                    out.writeBoolean( attr.isDeferredValue() );
+                    out.writeBoolean( attr.isDeferredMethod() );
+                    writeString( attr.getExpectedTypeName() );
+                    writeString( attr.getMethodSignature() );
+                }
+
+                TagVariableInfo[] vars = tag.getTagVariableInfos();
+                out.writeInt( vars.length );
+
+                for ( int varIdx = 0; varIdx < vars.length; varIdx++ )
+                {
+                    TagVariableInfo var = vars[varIdx];
+
+                    writeString( var.getNameGiven() );
+                    writeString( var.getNameFromAttribute() );
+                    writeString( var.getClassName() );
+                    out.writeBoolean( var.getDeclare() );
+                    out.writeInt( var.getScope() );
+                }
+            }
+
+            out.flush();
+        }
+
+        /**
+         * Writes the given string, or the index of the string if it has been
+         * written before
+         * 
+         * @param value
+         *            the string, may be null
+         * @throws IOException
+         *             if an I/O error occurs
+         */
+        private void writeString( String value ) throws IOException
+        {
+            if ( value == null )
+            {
+                out.writeInt( NULL_STRING );
+                return;
+            }
+
+            Integer index = (Integer) strings.get( value );
+            if ( index != null )
+            {
+                out.writeInt( index.intValue() );
+                return;
+            }
+
+            strings.put( value, new Integer( strings.size() ) );
+
+            byte[] bytes = value.getBytes( "UTF-8" );
+            out.writeInt( NEW_STRING );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    /**
+     * Reads the tag library model from a cache entry
+     */
+    private static class EntryReader
+    {
+
+        /**
+         * The buffer holding the entry
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * List&lt;String&gt; of the strings read so far, in the order they
+         * were written
+         */
+        private final List/* <String> */strings = new ArrayList();
+
+        /**
+         * Scratch space the bytes of each string are copied into
+         */
+        private byte[] scratch = new byte[256];
+
+        /**
+         * Creates a reader of the entry in the given buffer, positioned after
+         * the entry's header
+         * 
+         * @param buffer
+         *            the buffer holding the entry
+         */
+        EntryReader( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reads the tag library, its tags, their attributes and variables
+         * 
+         * @return the tag library
+         * @throws IOException
+         *             if the entry is corrupt
+         */
+        TagLibraryInfo readTagLibrary() throws IOException
+        {
+            String shortName = readString();
+            String uri = readString();
+
+            TagLibraryInfoImpl tld = new TagLibraryInfoImpl( shortName, uri );
+            tld.setTlibVersion( readString() );
+            tld.setJspVersion( readString() );
+            tld.setInfo( readString() );
+
+            TagInfo[] tags = new TagInfo[readCount()];
+
+            for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
+            {
+                String name = readString();
+                String tagClass = readString();
+                String bodyContent = readString();
+                String info = readString();
+                String displayName = readString();
+                String smallIcon = readString();
+                String largeIcon = readString();
+                boolean dynamicAttributes = readBoolean();
+
+                TagAttributeInfo[] attrs = new TagAttributeInfo[readCount()];
+
+                for ( int attrIdx = 0; attrIdx < attrs.length; attrIdx++ )
+                {
+                    String attrName = readString();
+                    boolean required = readBoolean();
+                    String type = readString();
+                    boolean rtexprvalue = readBoolean();
+                    boolean fragment = readBoolean();
+                    String description = readString();
+                    boolean deferredValue = readBoolean();
+                    boolean deferredMethod = readBoolean();
+                    String expectedType = readString();
+                    String methodSignature = readString();
+
+                    attrs[attrIdx] = new TagAttributeInfo( attrName, required,
+                            type, rtexprvalue, fragment, description,
+                            deferredValue, deferredMethod, expectedType,
+                            methodSignature );
+                }
+
+                TagVariableInfo[] vars = new TagVariableInfo[readCount()];
+
+                for ( int varIdx = 0; varIdx < vars.length; varIdx++ )
+                {
+                    String nameGiven = readString();
+                    String nameFromAttribute = readString();
+                    String className = readString();
+                    boolean declare = readBoolean();
+                    int scope = buffer.getInt();
+
+                    vars[varIdx] = new TagVariableInfo( nameGiven,
+                            nameFromAttribute, className, declare, scope );
+                }
+
+                tags[tagIdx] = new TagInfo( name, tagClass, bodyContent, info,
+                        tld, null, attrs, displayName, smallIcon, largeIcon,
+                        vars, dynamicAttributes );
+            }
+
+            tld.setTags( tags );
+
+            return tld;
+        }
+
+        /**
+         * Reads a count of the elements that follow
+         * 
+         * @return the count
+         * @throws IOException
+         *             if the count is negative or larger than the entry
+         */
+        private int readCount() throws IOException
+        {
+            int count = buffer.getInt();
+            if ( count < 0 || count > buffer.remaining() )
+            {
+                throw new IOException( "Corrupt TLD cache entry" );
+            }
+
+            return count;
+        }
+
+        /**
+         * Reads a boolean
+         * 
+         * @return the boolean
+         */
+        private boolean readBoolean()
+        {
+            return buffer.get() != 0;
+        }
+
+        /**
+         * Reads a string, or looks it up if it was read before
+         * 
+         * @return the string, may be null
+         * @throws IOException
+         *             if the entry is corrupt
+         */
+        private String readString() throws IOException
+        {
+            int code = buffer.getInt();
+
+            if ( code == NULL_STRING )
+            {
+                return null;
+            }
+
+            if ( code == NEW_STRING )
+            {
+                int length = readCount();
+                if ( scratch.length < length )
+                {
+                    scratch = new byte[Math.max( length, scratch.length * 2 )];
+                }
+
+                buffer.get( scratch, 0, length );
+
+                String value = new String( scratch, 0, length, "UTF-8" );
+                strings.add( value );
+                return value;
+            }
+
+            if ( code < 0 || code >= strings.size() )
+            {
+                throw new IOException( "Corrupt TLD cache entry" );
+            }
+
+            return (String) strings.get( code );
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.parser;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.servlet.jsp.tagext.TagInfo;
+import javax.servlet.jsp.tagext.TagLibraryInfo;
+
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.conf.Configuration;
+import org.xml.sax.SAXException;
+
+/**
+ * Finds the TLD files packaged in tag library jars and parses them on a pool
+ * of threads. Only the central directory of each jar is read to find the
+ * <code>META-INF/**&#47;*.tld</code> entries; the TLDs are parsed straight
+ * from the jar without being extracted.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TagLibraryDiscovery
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( TagLibraryDiscovery.class.getName() );
+
+    /**
+     * The directory of a jar that TLD files are looked for in
+     */
+    private static final String TLD_DIRECTORY = "META-INF/";
+
+    /**
+     * Suffix of TLD files
+     */
+    private static final String TLD_SUFFIX = ".tld";
+
+    /**
+     * Suffix of jar files
+     */
+    private static final String JAR_SUFFIX = ".jar";
+
+    /**
+     * Separates the jar from the entry in the location of a TLD
+     */
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    /**
+     * The number of threads TLD files are parsed on
+     */
+    private final int threads;
+
+    /**
+     * Creates an instance that parses TLD files on the given number of
+     * threads
+     * 
+     * @param threads
+     *            the number of threads to parse TLD files on
+     */
+    public TagLibraryDiscovery( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Returns the tag libraries of the TLD files packaged in the jars in the
+     * given directory, or in the given jar. TLD files that cannot be parsed
+     * are logged and left out.
+     * 
+     * @param jarLocation
+     *            a directory of jars or a single jar
+     * @return <code>Map&lt;String, TagLibraryInfo&gt;</code> of the location
+     *         of each TLD (the jar and entry joined by
+     *         <code>ENTRY_SEPARATOR</code>) to its tag library, ordered by
+     *         jar and entry name
+     * @throws IOException
+     *             if the directory or a jar cannot be read
+     */
+    public Map/* <String, TagLibraryInfo> */discover( File jarLocation )
+            throws IOException
+    {
+        LOGGER.entering( TagLibraryDiscovery.class.getName(), "discover",
+                jarLocation );
+
+        File[] jars = listJars( jarLocation );
+
+        List/* <ZipFile> */openJars = new ArrayList();
+        ExecutorService executor = Executors.newFixedThreadPool( threads,
+                new ThreadFactory()
+                {
+                    private int count = 0;
+
+                    public synchronized Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "tld-discovery-"
+                                + ( ++count ) );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+
+        try
+        {
+            // Map<String, Future<TagLibraryInfo>> in jar and entry order
+            Map/* <String, Future> */tasks = new LinkedHashMap();
+
+            for ( int jarIdx = 0; jarIdx < jars.length; jarIdx++ )
+            {
+                final ZipFile jar = new ZipFile( jars[jarIdx] );
+                openJars.add( jar );
+
+                String[] entries = findTagFiles( jar );
+
+                LOGGER.fine( "Found " + entries.length + " TLD files in "
+                        + jars[jarIdx] );
+
+                for ( int entryIdx = 0; entryIdx < entries.length; entryIdx++ )
+                {
+                    final ZipEntry entry = jar.getEntry( entries[entryIdx] );
+                    final String systemId = "jar:" + jars[jarIdx].toURI()
+                            + ENTRY_SEPARATOR + entries[entryIdx];
+
+                    tasks.put( jars[jarIdx].getPath() + ENTRY_SEPARATOR
+                            + entries[entryIdx], executor.submit( new Callable()
+                    {
+                        public Object call() throws Exception
+                        {
+                            return parse( jar, entry, systemId );
+                        }
+                    } ) );
+                }
+            }
+
+            Map/* <String, TagLibraryInfo> */libraries = new LinkedHashMap();
+
+            for ( Iterator/* <Map.Entry> */itr = tasks.entrySet().iterator(); itr
+                    .hasNext(); )
+            {
+                Map.Entry task = (Map.Entry) itr.next();
+
+                TagLibraryInfo library = waitFor( (String) task.getKey(),
+                        (Future) task.getValue() );
+                if ( library != null )
+                {
+                    libraries.put( task.getKey(), library );
+                }
+            }
+
+            LOGGER.info( "Loaded " + libraries.size() + " of " + tasks.size()
+                    + " tag libraries from " + jars.length + " jars" );
+
+            LOGGER.exiting( TagLibraryDiscovery.class.getName(), "discover",
+                    libraries );
+
+            return libraries;
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            for ( Iterator/* <ZipFile> */itr = openJars.iterator(); itr
+                    .hasNext(); )
+            {
+                try
+                {
+                    ( (ZipFile) itr.next() ).close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOGGER.fine( "Unable to close jar: " + ioe );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the TLD entries under <code>META-INF</code> in
+     * the given jar, in name order
+     * 
+     * @param jar
+     *            the jar
+     * @return the names of the TLD entries in the jar
+     */
+    public static String[] findTagFiles( ZipFile jar )
+    {
+        List/* <String> */names = new ArrayList();
+
+        // only walks the central directory, nothing is decompressed
+        for ( Enumeration/* <ZipEntry> */entries = jar.entries(); entries
+                .hasMoreElements(); )
+        {
+            ZipEntry entry = (ZipEntry) entries.nextElement();
+
+            if ( !entry.isDirectory()
+                    && entry.getName().startsWith( TLD_DIRECTORY )
+                    && entry.getName().toLowerCase().endsWith( TLD_SUFFIX ) )
+            {
+                names.add( entry.getName() );
+            }
+        }
+
+        String[] toReturn = (String[]) names.toArray( new String[names
+                .size()] );
+        Arrays.sort( toReturn );
+        return toReturn;
+    }
+
+    /**
+     * Returns the tag library of the TLD at the given location in a jar, in
+     * the form returned by <code>discover</code>: the jar and the entry
+     * joined by <code>ENTRY_SEPARATOR</code>
+     * 
+     * @param location
+     *            the location of the TLD
+     * @return the tag library of the TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if the jar cannot be read or does not hold the entry
+     */
+    public static TagLibraryInfo load( String location ) throws SAXException,
+            IOException
+    {
+        int separator = location.indexOf( ENTRY_SEPARATOR );
+        if ( separator < 0 )
+        {
+            throw new IllegalArgumentException( "Not a jar entry: " + location );
+        }
+
+        File jarFile = new File( location.substring( 0, separator ) );
+        String entryName = location.substring( separator
+                + ENTRY_SEPARATOR.length() );
+
+        ZipFile jar = new ZipFile( jarFile );
+
+        try
+        {
+            ZipEntry entry = jar.getEntry( entryName );
+            if ( entry == null )
+            {
+                throw new IOException( "No such entry: " + location );
+            }
+
+            return parse( jar, entry, "jar:" + jarFile.toURI()
+                    + ENTRY_SEPARATOR + entryName );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+    /**
+     * Returns the jars in the given directory in name order, or the given
+     * file if it is a jar itself
+     * 
+     * @param jarLocation
+     *            a directory of jars or a single jar
+     * @return the jars
+     * @throws IOException
+     *             if the directory cannot be read
+     */
+    private static File[] listJars( File jarLocation ) throws IOException
+    {
+        if ( jarLocation.isFile() )
+        {
+            return new File[]
+                { jarLocation };
+        }
+
+        File[] jars = jarLocation.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                return file.isFile()
+                        && file.getName().toLowerCase().endsWith( JAR_SUFFIX );
+            }
+        } );
+
+        if ( jars == null )
+        {
+            throw new IOException( "Unable to list jars in " + jarLocation );
+        }
+
+        Arrays.sort( jars );
+        return jars;
+    }
+
+    /**
+     * Parses the given TLD entry of the given jar
+     * 
+     * @param jar
+     *            the jar
+     * @param entry
+     *            the TLD entry
+     * @param systemId
+     *            the URL of the entry
+     * @return the tag library of the TLD
+     * @throws SAXException
+     *             if an error occurs parsing the XML
+     * @throws IOException
+     *             if the TLD cannot be read
+     */
+    private static TagLibraryInfo parse( ZipFile jar, ZipEntry entry,
+            String systemId ) throws SAXException, IOException
+    {
+        InputStream in = jar.getInputStream( entry );
+
+        try
+        {
+            return TagFileParser.loadTagFile( in, systemId );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+    }
+
+    /**
+     * Waits for the given parse task and returns its tag library
+     * 
+     * @param location
+     *            the location of the TLD
+     * @param task
+     *            the task
+     * @return the tag library or null if the TLD could not be parsed
+     * @throws IOException
+     *             if the thread was interrupted
+     */
+    private static TagLibraryInfo waitFor( String location,
+            Future/* <TagLibraryInfo> */task ) throws IOException
+    {
+        try
+        {
+            return (TagLibraryInfo) task.get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while parsing TLD files" );
+        }
+        catch ( ExecutionException ee )
+        {
+            LOGGER.log( Level.WARNING, "Unable to parse " + location, ee
+                    .getCause() );
+            return null;
+        }
+    }
+
+    /**
+     * Test code to list the tag libraries found in a directory of jars
+     * 
+     * @deprecated
+     * @param args
+     *            the directory of jars or a single jar
+     * @throws Exception
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        Map libraries = new TagLibraryDiscovery( Configuration.getInstance()
+                .getIntProperty( Configuration.TLD_DISCOVERY_THREADS, 1 ) )
+                .discover( new File( args[0] ) );
+
+        for ( Iterator itr = libraries.entrySet().iterator(); itr.hasNext(); )
+        {
+            Map.Entry library = (Map.Entry) itr.next();
+            TagInfo[] tags = ( (TagLibraryInfo) library.getValue() )
+                    .getTags();
+
+            System.out.println( library.getKey() + ": "
+                    + ( (TagLibraryInfo) library.getValue() ).getShortName()
+                    + ", " + tags.length + " tags" );
+        }
+    }
+}
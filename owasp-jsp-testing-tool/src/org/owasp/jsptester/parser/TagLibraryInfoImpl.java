@@ -96,6 +96,16 @@ public class TagLibraryInfoImpl extends TagLibraryInfo
         tlibversion = newTlibVersion;
     }
 
+    /**
+     * Returns the version of the tag library
+     * 
+     * @return the tag library version
+     */
+    String getTlibVersion()
+    {
+        return tlibversion;
+    }
+
     /**
      * Sets the JSP version
      * 
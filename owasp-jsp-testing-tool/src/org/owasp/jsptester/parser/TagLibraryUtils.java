@@ -27,9 +27,9 @@
  */
 package org.owasp.jsptester.parser;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -78,11 +78,11 @@ public class TagLibraryUtils
      * @param tag
      *            the tag to obtain the required attributes for
      * @return a <code>Set&lt;TagAttributeInfo&gt;</code> of required
-     *         attributes for the given tag
+     *         attributes for the given tag, in declaration order
      */
     public static Set/* <TagAttributeInfo> */getRequiredAttributes( TagInfo tag )
     {
-        Set/* <TagAttributeInfo> */reqAttrs = new HashSet/* <TagAttributeInfo> */();
+        Set/* <TagAttributeInfo> */reqAttrs = new LinkedHashSet/* <TagAttributeInfo> */();
 
         TagAttributeInfo[] attrs = tag.getAttributes();
 
@@ -112,7 +112,7 @@ public class TagLibraryUtils
     public static Map/* <TagAttributeInfo, String> */getRequiredAttributesMap(
             TagInfo tag, TagProperties tagProperties )
     {
-        Map/* <TagAttributeInfo, String> */attrMap = new HashMap();
+        Map/* <TagAttributeInfo, String> */attrMap = new LinkedHashMap();
 
         Set/* <TagAttributeInfo> */reqAttrs = getRequiredAttributes( tag );
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Base class of the sinks writing results to a file. Each result is written
+ * through a fixed size buffer as it arrives, so the memory used does not grow
+ * with the size of the run.
+ * 
+ * @author Jason Li
+ * 
+ */
+public abstract class AbstractResultSink implements ResultSink
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( AbstractResultSink.class.getName() );
+
+    /**
+     * The size of the write buffer in characters
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The encoding of the results file
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The file the results are written to
+     */
+    private final File file;
+
+    /**
+     * The writer to the results file, or null once closed
+     */
+    private Writer writer;
+
+    /**
+     * The number of results written
+     */
+    private int count = 0;
+
+    /**
+     * Whether the header has been written
+     */
+    private boolean started = false;
+
+    /**
+     * Opens the given file for writing results, replacing any earlier
+     * results
+     * 
+     * @param file
+     *            the file to write the results to
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    protected AbstractResultSink( File file ) throws IOException
+    {
+        this.file = file;
+        this.writer = new BufferedWriter( new OutputStreamWriter(
+                new FileOutputStream( file ), ENCODING ), BUFFER_SIZE );
+    }
+
+    /**
+     * Writes the result to the file
+     * 
+     * @see org.owasp.jsptester.report.ResultSink#write(org.owasp.jsptester.report.TestResult)
+     */
+    public synchronized void write( TestResult result ) throws IOException
+    {
+        if ( writer == null )
+        {
+            throw new IOException( "Results file " + file + " is closed" );
+        }
+
+        start();
+        writeRecord( writer, result );
+        count++;
+    }
+
+    /**
+     * Writes the end of the file and closes it
+     * 
+     * @see org.owasp.jsptester.report.ResultSink#close()
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( writer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            start();
+            writeFooter( writer, count );
+            writer.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+            writer = null;
+        }
+
+        LOGGER.fine( "Wrote " + count + " results to " + file );
+    }
+
+    /**
+     * Writes the header if it has not been written yet. It is written with
+     * the first result, rather than on opening, so that subclasses are fully
+     * constructed by then.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private void start() throws IOException
+    {
+        if ( !started )
+        {
+            started = true;
+            writeHeader( writer );
+        }
+    }
+
+    /**
+     * Writes anything that comes before the first result. Does nothing
+     * unless overridden.
+     * 
+     * @param out
+     *            the writer to the results file
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected void writeHeader( Writer out ) throws IOException
+    {
+    }
+
+    /**
+     * Writes a single result
+     * 
+     * @param out
+     *            the writer to the results file
+     * @param result
+     *            the result to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected abstract void writeRecord( Writer out, TestResult result )
+            throws IOException;
+
+    /**
+     * Writes anything that comes after the last result. Does nothing unless
+     * overridden.
+     * 
+     * @param out
+     *            the writer to the results file
+     * @param count
+     *            the number of results written
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    protected void writeFooter( Writer out, int count ) throws IOException
+    {
+    }
+}
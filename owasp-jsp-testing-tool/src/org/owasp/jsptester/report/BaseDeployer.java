@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.owasp.jsptester.conf.Configuration;
+
+/**
+ * Lays down the base files of the report web application: index.jsp,
+ * error.jsp and the META-INF and WEB-INF folders. Files already deployed
+ * are left alone, so deploying the same directory again, for another tag,
+ * shard or run, only checks each file rather than copying it.
+ * <p>
+ * A deployed file is considered unchanged if it has the same length and
+ * modification time as its template, since copies keep the template's
+ * modification time. If the modification times differ, or checksum
+ * verification is enabled, the contents are compared by checksum instead.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class BaseDeployer
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( BaseDeployer.class
+            .getName() );
+
+    /**
+     * Name of the Subversion metadata folders, which are not deployed
+     */
+    private static final String SVN = ".svn";
+
+    /**
+     * Whether every file is verified by checksum
+     */
+    private final boolean verifyChecksums;
+
+    /**
+     * The number of files copied
+     */
+    private int copied = 0;
+
+    /**
+     * The number of files found already deployed
+     */
+    private int unchanged = 0;
+
+    /**
+     * Creates a deployer
+     * 
+     * @param verifyChecksums
+     *            whether to compare the checksum of every deployed file,
+     *            rather than only those whose modification time differs
+     */
+    public BaseDeployer( boolean verifyChecksums )
+    {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Deploys the base files to the given directory, copying only files that
+     * are missing or differ from their templates
+     * 
+     * @param outputDir
+     *            the directory to deploy the base files to
+     * @throws IOException
+     *             if an I/O error occurs during copying
+     */
+    public synchronized void deploy( File outputDir ) throws IOException
+    {
+        LOGGER.entering( BaseDeployer.class.getName(), "deploy", outputDir );
+
+        int copiedBefore = copied;
+        int unchangedBefore = unchanged;
+
+        // deploy the index.jsp
+        File indexJsp = new File( Configuration.getInstance().getProperty(
+                Configuration.TEMPLATE_INDEX_JSP ) );
+        deployFile( indexJsp, new File( outputDir, indexJsp.getName() ) );
+
+        // deploy the error handler (error.jsp)
+        File errorJsp = new File( Configuration.getInstance().getProperty(
+                Configuration.TEMPLATE_ERROR_JSP ) );
+        deployFile( errorJsp, new File( outputDir, errorJsp.getName() ) );
+
+        // deploy the META-INF folder
+        deployDirectory( new File( Configuration.getInstance().getProperty(
+                Configuration.TEMPLATE_META_INF ) ), new File( outputDir,
+                "META-INF" ) );
+
+        // deploy the WEB-INF folder
+        deployDirectory( new File( Configuration.getInstance().getProperty(
+                Configuration.TEMPLATE_WEB_INF ) ), new File( outputDir,
+                "WEB-INF" ) );
+
+        LOGGER.fine( "Deployed base files to " + outputDir + ": "
+                + ( copied - copiedBefore ) + " copied, "
+                + ( unchanged - unchangedBefore ) + " unchanged" );
+
+        LOGGER.exiting( BaseDeployer.class.getName(), "deploy" );
+    }
+
+    /**
+     * Deploys every file in the given template directory, other than
+     * Subversion metadata, to the given directory
+     * 
+     * @param templateDir
+     *            the template directory
+     * @param targetDir
+     *            the directory to deploy to
+     * @throws IOException
+     *             if an I/O error occurs during copying
+     */
+    private void deployDirectory( File templateDir, File targetDir )
+            throws IOException
+    {
+        File[] templates = templateDir.listFiles();
+
+        if ( templates == null )
+        {
+            throw new IOException( "Unable to list " + templateDir );
+        }
+
+        for ( int fileIdx = 0; fileIdx < templates.length; fileIdx++ )
+        {
+            File template = templates[fileIdx];
+            File target = new File( targetDir, template.getName() );
+
+            if ( template.isDirectory() )
+            {
+                if ( !SVN.equals( template.getName() ) )
+                {
+                    deployDirectory( template, target );
+                }
+            }
+            else
+            {
+                deployFile( template, target );
+            }
+        }
+    }
+
+    /**
+     * Copies the given template file to the given target unless the target
+     * already holds the same content
+     * 
+     * @param template
+     *            the template file
+     * @param target
+     *            the deployed file
+     * @throws IOException
+     *             if an I/O error occurs during copying
+     */
+    private void deployFile( File template, File target ) throws IOException
+    {
+        if ( isDeployed( template, target ) )
+        {
+            unchanged++;
+            return;
+        }
+
+        LOGGER.finer( "Copying " + template + " to " + target );
+
+        // keep the template's modification time so the next check is cheap
+        FileUtils.copyFile( template, target, true );
+        copied++;
+    }
+
+    /**
+     * Returns true if the given target already holds the content of the given
+     * template
+     * 
+     * @param template
+     *            the template file
+     * @param target
+     *            the deployed file
+     * @return true if the target does not need to be copied
+     * @throws IOException
+     *             if an I/O error occurs reading the files
+     */
+    private boolean isDeployed( File template, File target )
+            throws IOException
+    {
+        if ( !target.isFile() || target.length() != template.length() )
+        {
+            return false;
+        }
+
+        if ( !verifyChecksums
+                && target.lastModified() == template.lastModified() )
+        {
+            return true;
+        }
+
+        if ( FileUtils.checksumCRC32( target ) != FileUtils
+                .checksumCRC32( template ) )
+        {
+            return false;
+        }
+
+        // the content matches; record it so the next check is cheap
+        target.setLastModified( template.lastModified() );
+
+        return true;
+    }
+
+    /**
+     * Returns the number of files copied
+     * 
+     * @return the number of files copied
+     */
+    public synchronized int getCopied()
+    {
+        return copied;
+    }
+
+    /**
+     * Returns the number of files found already deployed
+     * 
+     * @return the number of files found already deployed
+     */
+    public synchronized int getUnchanged()
+    {
+        return unchanged;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes each result to several sinks, such as one for each configured
+ * format
+ * 
+ * @author Jason Li
+ * 
+ */
+public class CompositeResultSink implements ResultSink
+{
+
+    /**
+     * The sinks written to
+     */
+    private final List/* <ResultSink> */sinks;
+
+    /**
+     * Creates a sink writing to each of the given sinks
+     * 
+     * @param sinks
+     *            <code>List&lt;ResultSink&gt;</code> of the sinks to write to
+     */
+    public CompositeResultSink( List/* <ResultSink> */sinks )
+    {
+        this.sinks = new ArrayList( sinks );
+    }
+
+    /**
+     * Writes the result to each sink
+     * 
+     * @see org.owasp.jsptester.report.ResultSink#write(org.owasp.jsptester.report.TestResult)
+     */
+    public void write( TestResult result ) throws IOException
+    {
+        for ( Iterator/* <ResultSink> */itr = sinks.iterator(); itr.hasNext(); )
+        {
+            ( (ResultSink) itr.next() ).write( result );
+        }
+    }
+
+    /**
+     * Closes every sink, even if closing one of them fails
+     * 
+     * @see org.owasp.jsptester.report.ResultSink#close()
+     */
+    public void close() throws IOException
+    {
+        IOException failure = null;
+
+        for ( Iterator/* <ResultSink> */itr = sinks.iterator(); itr.hasNext(); )
+        {
+            try
+            {
+                ( (ResultSink) itr.next() ).close();
+            }
+            catch ( IOException ioe )
+            {
+                if ( failure == null )
+                {
+                    failure = ioe;
+                }
+            }
+        }
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+}
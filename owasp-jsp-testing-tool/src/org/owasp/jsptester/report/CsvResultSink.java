@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the results as comma separated values, one row per result below a
+ * header row. Fields are quoted as described by RFC 4180, and the attribute
+ * is empty for tests of the tag body.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class CsvResultSink extends AbstractResultSink
+{
+
+    /**
+     * The header row
+     */
+    private static final String HEADER = "test,tag,attribute,attack,verdict,detail,status,bytes,latency_ms\r\n";
+
+    /**
+     * Opens the given file for writing results
+     * 
+     * @param file
+     *            the file to write the results to
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public CsvResultSink( File file ) throws IOException
+    {
+        super( file );
+    }
+
+    /**
+     * Writes the header row
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeHeader(java.io.Writer)
+     */
+    protected void writeHeader( Writer out ) throws IOException
+    {
+        out.write( HEADER );
+    }
+
+    /**
+     * Writes the result as a row
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeRecord(java.io.Writer,
+     *      org.owasp.jsptester.report.TestResult)
+     */
+    protected void writeRecord( Writer out, TestResult result )
+            throws IOException
+    {
+        Verdict verdict = result.getVerdict();
+
+        StringBuffer row = new StringBuffer();
+        appendField( row, result.getTestId() ).append( ',' );
+        appendField( row, result.getTagName() ).append( ',' );
+        appendField( row, result.getAttributeName() ).append( ',' );
+        appendField( row, result.getAttackName() ).append( ',' );
+        appendField( row, verdict.getResult() ).append( ',' );
+        appendField( row, verdict.getDetail() ).append( ',' );
+        row.append( result.getStatus() ).append( ',' );
+        row.append( result.getBytes() ).append( ',' );
+        row.append( result.getLatency() ).append( "\r\n" );
+
+        out.write( row.toString() );
+    }
+
+    /**
+     * Appends a field to a row, quoting it if it contains a comma, quote or
+     * line break
+     * 
+     * @param row
+     *            the row being written
+     * @param value
+     *            the value of the field, or null for an empty field
+     * @return the row being written
+     */
+    private static StringBuffer appendField( StringBuffer row, String value )
+    {
+        if ( value == null )
+        {
+            return row;
+        }
+
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0
+                && value.indexOf( '\n' ) < 0 && value.indexOf( '\r' ) < 0 )
+        {
+            return row.append( value );
+        }
+
+        row.append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '"' )
+            {
+                row.append( '"' );
+            }
+            row.append( c );
+        }
+        return row.append( '"' );
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small, forgiving HTML tokenizer for reading serialized test cases. The
+ * page is returned as a sequence of start tags, end tags, text and comments.
+ * The content of <code>script</code> and <code>style</code> elements is
+ * returned as a single text token, and character references in text and
+ * attribute values are decoded. Malformed markup never causes an error; it
+ * is returned as text, much as a browser would display it.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class HtmlTokenizer
+{
+    /**
+     * Token type of a start tag
+     */
+    public static final int START_TAG = 1;
+
+    /**
+     * Token type of an end tag
+     */
+    public static final int END_TAG = 2;
+
+    /**
+     * Token type of text, including the content of script and style elements
+     */
+    public static final int TEXT = 3;
+
+    /**
+     * Token type of a comment, doctype or processing instruction
+     */
+    public static final int COMMENT = 4;
+
+    /**
+     * The page being tokenized
+     */
+    private final String page;
+
+    /**
+     * The page in lower case, for finding the end tags of raw text elements
+     */
+    private final String lowerCasePage;
+
+    /**
+     * The position of the next token
+     */
+    private int pos = 0;
+
+    /**
+     * The position of the current token
+     */
+    private int start = 0;
+
+    /**
+     * The name of the element whose raw text content is the next token, or
+     * null
+     */
+    private String rawTextElement = null;
+
+    /**
+     * The type of the current token
+     */
+    private int type;
+
+    /**
+     * The lower case name of the current tag
+     */
+    private String name;
+
+    /**
+     * The decoded text of the current text or comment token
+     */
+    private String text;
+
+    /**
+     * List&lt;String[]&gt; of the lower case name and decoded value of each
+     * attribute of the current start tag
+     */
+    private final List/* <String[]> */attributes = new ArrayList();
+
+    /**
+     * Creates a tokenizer for the given page
+     * 
+     * @param page
+     *            the page to tokenize
+     */
+    public HtmlTokenizer( String page )
+    {
+        this.page = page;
+        this.lowerCasePage = page.toLowerCase();
+    }
+
+    /**
+     * Moves to the next token
+     * 
+     * @return true if there is another token; false at the end of the page
+     */
+    public boolean next()
+    {
+        name = null;
+        text = null;
+        attributes.clear();
+        start = pos;
+
+        if ( pos >= page.length() )
+        {
+            return false;
+        }
+
+        if ( rawTextElement != null )
+        {
+            readRawText();
+            return true;
+        }
+
+        if ( page.startsWith( "<!--", pos ) )
+        {
+            int endIdx = page.indexOf( "-->", pos + 4 );
+            endIdx = ( endIdx < 0 ? page.length() : endIdx );
+
+            type = COMMENT;
+            text = page.substring( pos + 4, endIdx );
+            pos = Math.min( page.length(), endIdx + 3 );
+            return true;
+        }
+
+        if ( page.startsWith( "<!", pos ) || page.startsWith( "<?", pos ) )
+        {
+            int endIdx = page.indexOf( '>', pos );
+            endIdx = ( endIdx < 0 ? page.length() : endIdx );
+
+            type = COMMENT;
+            text = page.substring( pos + 2, endIdx );
+            pos = Math.min( page.length(), endIdx + 1 );
+            return true;
+        }
+
+        if ( page.charAt( pos ) == '<' && readTag() )
+        {
+            return true;
+        }
+
+        readText();
+        return true;
+    }
+
+    /**
+     * Returns the type of the current token
+     * 
+     * @return one of START_TAG, END_TAG, TEXT or COMMENT
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the position in the page where the current token starts
+     * 
+     * @return the position of the current token
+     */
+    public int getStart()
+    {
+        return start;
+    }
+
+    /**
+     * Returns the position in the page just after the current token
+     * 
+     * @return the position after the current token
+     */
+    public int getEnd()
+    {
+        return pos;
+    }
+
+    /**
+     * Returns the lower case name of the current start or end tag
+     * 
+     * @return the tag name, or null if the current token is not a tag
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the decoded text of the current text or comment token
+     * 
+     * @return the text, or null if the current token is a tag
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Returns the attributes of the current start tag
+     * 
+     * @return <code>List&lt;String[]&gt;</code> of the lower case name and
+     *         decoded value of each attribute, in page order
+     */
+    public List/* <String[]> */getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * Returns the decoded value of the given attribute of the current start
+     * tag
+     * 
+     * @param attrName
+     *            the lower case attribute name
+     * @return the value, or null if the tag has no such attribute
+     */
+    public String getAttribute( String attrName )
+    {
+        for ( int attrIdx = 0; attrIdx < attributes.size(); attrIdx++ )
+        {
+            String[] attr = (String[]) attributes.get( attrIdx );
+            if ( attr[0].equals( attrName ) )
+            {
+                return attr[1];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the tag at the current position
+     * 
+     * @return true if a tag was read; false if the '&lt;' does not start a
+     *         tag
+     */
+    private boolean readTag()
+    {
+        int idx = pos + 1;
+        boolean endTag = ( idx < page.length() && page.charAt( idx ) == '/' );
+        if ( endTag )
+        {
+            idx++;
+        }
+
+        int nameStart = idx;
+        while ( idx < page.length() && isNameChar( page.charAt( idx ) ) )
+        {
+            idx++;
+        }
+
+        if ( idx == nameStart || !Character.isLetter( page.charAt( nameStart ) ) )
+        {
+            return false;
+        }
+
+        type = ( endTag ? END_TAG : START_TAG );
+        name = page.substring( nameStart, idx ).toLowerCase();
+
+        // read the attributes up to the end of the tag
+        while ( idx < page.length() && page.charAt( idx ) != '>' )
+        {
+            char c = page.charAt( idx );
+            if ( Character.isWhitespace( c ) || c == '/' )
+            {
+                idx++;
+                continue;
+            }
+
+            int attrStart = idx;
+            while ( idx < page.length() && page.charAt( idx ) != '='
+                    && page.charAt( idx ) != '>'
+                    && !Character.isWhitespace( page.charAt( idx ) ) )
+            {
+                idx++;
+            }
+            String attrName = page.substring( attrStart, idx ).toLowerCase();
+
+            while ( idx < page.length()
+                    && Character.isWhitespace( page.charAt( idx ) ) )
+            {
+                idx++;
+            }
+
+            String value = "";
+            if ( idx < page.length() && page.charAt( idx ) == '=' )
+            {
+                idx++;
+                while ( idx < page.length()
+                        && Character.isWhitespace( page.charAt( idx ) ) )
+                {
+                    idx++;
+                }
+
+                int valueStart = idx;
+                if ( idx < page.length()
+                        && ( page.charAt( idx ) == '"' || page.charAt( idx ) == '\'' ) )
+                {
+                    char quote = page.charAt( idx );
+                    int valueEnd = page.indexOf( quote, idx + 1 );
+                    valueEnd = ( valueEnd < 0 ? page.length() : valueEnd );
+
+                    value = page.substring( valueStart + 1, valueEnd );
+                    idx = Math.min( page.length(), valueEnd + 1 );
+                }
+                else
+                {
+                    while ( idx < page.length() && page.charAt( idx ) != '>'
+                            && !Character.isWhitespace( page.charAt( idx ) ) )
+                    {
+                        idx++;
+                    }
+                    value = page.substring( valueStart, idx );
+                }
+            }
+
+            if ( !endTag )
+            {
+                attributes.add( new String[]
+                    { attrName, decode( value ) } );
+            }
+        }
+
+        pos = Math.min( page.length(), idx + 1 );
+
+        // the content of script and style elements is not markup
+        if ( !endTag && ( "script".equals( name ) || "style".equals( name ) ) )
+        {
+            rawTextElement = name;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the raw text content of a script or style element, up to its end
+     * tag
+     */
+    private void readRawText()
+    {
+        String endTag = "</" + rawTextElement;
+        int endIdx = lowerCasePage.indexOf( endTag, pos );
+        endIdx = ( endIdx < 0 ? page.length() : endIdx );
+
+        type = TEXT;
+        text = page.substring( pos, endIdx );
+        pos = endIdx;
+        rawTextElement = null;
+    }
+
+    /**
+     * Reads text up to the next tag
+     */
+    private void readText()
+    {
+        int endIdx = page.indexOf( '<', pos + 1 );
+        endIdx = ( endIdx < 0 ? page.length() : endIdx );
+
+        type = TEXT;
+        text = decode( page.substring( pos, endIdx ) );
+        pos = endIdx;
+    }
+
+    /**
+     * Returns whether the given character may appear in a tag name
+     * 
+     * @param c
+     *            the character
+     * @return true if the character may appear in a tag name
+     */
+    private static boolean isNameChar( char c )
+    {
+        return Character.isLetterOrDigit( c ) || c == ':' || c == '-'
+                || c == '_';
+    }
+
+    /**
+     * Decodes the character references in the given text
+     * 
+     * @param encoded
+     *            the text
+     * @return the decoded text
+     */
+    public static String decode( String encoded )
+    {
+        if ( encoded.indexOf( '&' ) < 0 )
+        {
+            return encoded;
+        }
+
+        StringBuffer decoded = new StringBuffer( encoded.length() );
+        for ( int idx = 0; idx < encoded.length(); idx++ )
+        {
+            char c = encoded.charAt( idx );
+            int endIdx = ( c == '&' ? encoded.indexOf( ';', idx ) : -1 );
+
+            // references are short; anything longer is a literal ampersand
+            if ( endIdx < 0 || endIdx - idx > 10 )
+            {
+                decoded.append( c );
+                continue;
+            }
+
+            String reference = encoded.substring( idx + 1, endIdx );
+            int codePoint = decodeReference( reference );
+            if ( codePoint < 0 )
+            {
+                decoded.append( c );
+                continue;
+            }
+
+            decoded.append( Character.toChars( codePoint ) );
+            idx = endIdx;
+        }
+
+        return decoded.toString();
+    }
+
+    /**
+     * Decodes a single character reference
+     * 
+     * @param reference
+     *            the reference, without the ampersand and semicolon
+     * @return the character or -1 if the reference is not recognized
+     */
+    private static int decodeReference( String reference )
+    {
+        if ( reference.startsWith( "#" ) )
+        {
+            try
+            {
+                int codePoint = ( reference.startsWith( "#x" )
+                        || reference.startsWith( "#X" ) ? Integer.parseInt(
+                        reference.substring( 2 ), 16 ) : Integer
+                        .parseInt( reference.substring( 1 ) ) );
+
+                return ( codePoint < 0 || codePoint > Character.MAX_CODE_POINT ? -1
+                        : codePoint );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                return -1;
+            }
+        }
+
+        if ( "lt".equals( reference ) )
+        {
+            return '<';
+        }
+        if ( "gt".equals( reference ) )
+        {
+            return '>';
+        }
+        if ( "amp".equals( reference ) )
+        {
+            return '&';
+        }
+        if ( "quot".equals( reference ) )
+        {
+            return '"';
+        }
+        if ( "apos".equals( reference ) )
+        {
+            return '\'';
+        }
+        if ( "nbsp".equals( reference ) )
+        {
+            return 160;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the results in the JUnit XML format understood by build servers. The
+ * test cases of each tag share a class name, failed test cases are reported
+ * as failures and test cases that could not be rendered as errors. As each
+ * result is written as soon as it arrives, the suite carries no totals; tools
+ * reading the format count the test cases themselves.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class JUnitResultSink extends AbstractResultSink
+{
+
+    /**
+     * The name of the test suite
+     */
+    private final String suiteName;
+
+    /**
+     * Opens the given file for writing results
+     * 
+     * @param file
+     *            the file to write the results to
+     * @param suiteName
+     *            the name of the test suite, such as the tag library tested
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public JUnitResultSink( File file, String suiteName ) throws IOException
+    {
+        super( file );
+        this.suiteName = suiteName;
+    }
+
+    /**
+     * Writes the XML declaration and opens the test suite
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeHeader(java.io.Writer)
+     */
+    protected void writeHeader( Writer out ) throws IOException
+    {
+        out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<testsuite name=\"" + escape( suiteName ) + "\">\n" );
+    }
+
+    /**
+     * Writes the result as a test case element
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeRecord(java.io.Writer,
+     *      org.owasp.jsptester.report.TestResult)
+     */
+    protected void writeRecord( Writer out, TestResult result )
+            throws IOException
+    {
+        Verdict verdict = result.getVerdict();
+
+        StringBuffer element = new StringBuffer();
+        element.append( "  <testcase classname=\"" ).append(
+                escape( result.getTagName() ) ).append( "\" name=\"" ).append(
+                escape( result.getAttributeName() == null ? result
+                        .getAttackName() : result.getAttributeName() + "-"
+                        + result.getAttackName() ) ).append( "\" time=\"" )
+                .append( formatSeconds( result.getLatency() ) ).append(
+                        "\">\n" );
+
+        if ( Verdict.FAIL.equals( verdict.getResult() ) )
+        {
+            appendProblem( element, "failure", verdict );
+        }
+        else if ( Verdict.NOT_TESTED.equals( verdict.getResult() ) )
+        {
+            appendProblem( element, "error", verdict );
+        }
+
+        element.append( "    <system-out>verdict=" ).append(
+                escape( verdict.getResult() ) ).append( " status=" ).append(
+                result.getStatus() ).append( " bytes=" ).append(
+                result.getBytes() ).append( "</system-out>\n" );
+        element.append( "  </testcase>\n" );
+
+        out.write( element.toString() );
+    }
+
+    /**
+     * Closes the test suite
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeFooter(java.io.Writer,
+     *      int)
+     */
+    protected void writeFooter( Writer out, int count ) throws IOException
+    {
+        out.write( "</testsuite>\n" );
+    }
+
+    /**
+     * Appends a failure or error element describing the verdict
+     * 
+     * @param element
+     *            the test case element being written
+     * @param type
+     *            the name of the element
+     * @param verdict
+     *            the verdict of the test case
+     */
+    private static void appendProblem( StringBuffer element, String type,
+            Verdict verdict )
+    {
+        element.append( "    <" ).append( type ).append( " type=\"" ).append(
+                escape( verdict.getResult() ) ).append( "\" message=\"" )
+                .append(
+                        escape( verdict.getDetail() == null ? "" : verdict
+                                .getDetail() ) ).append( "\"/>\n" );
+    }
+
+    /**
+     * Formats a duration in milliseconds as seconds
+     * 
+     * @param millis
+     *            the duration in milliseconds
+     * @return the duration in seconds with three decimals
+     */
+    private static String formatSeconds( long millis )
+    {
+        String fraction = String.valueOf( 1000 + millis % 1000 ).substring( 1 );
+        return ( millis / 1000 ) + "." + fraction;
+    }
+
+    /**
+     * Escapes text for use in XML content and attribute values, dropping
+     * the control characters XML does not allow
+     * 
+     * @param text
+     *            the text to escape
+     * @return the escaped text
+     */
+    private static String escape( String text )
+    {
+        StringBuffer escaped = new StringBuffer( text.length() );
+        for ( int i = 0; i < text.length(); i++ )
+        {
+            char c = text.charAt( i );
+            switch ( c )
+            {
+            case '&':
+                escaped.append( "&amp;" );
+                break;
+            case '<':
+                escaped.append( "&lt;" );
+                break;
+            case '>':
+                escaped.append( "&gt;" );
+                break;
+            case '"':
+                escaped.append( "&quot;" );
+                break;
+            case '\t':
+            case '\n':
+            case '\r':
+                escaped.append( "&#" ).append( (int) c ).append( ';' );
+                break;
+            default:
+                if ( c >= 0x20 )
+                {
+                    escaped.append( c );
+                }
+            }
+        }
+        return escaped.toString();
+    }
+}
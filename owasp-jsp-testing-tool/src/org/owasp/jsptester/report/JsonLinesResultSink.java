@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes each result as a JSON object on a line of its own, so that the file
+ * can be processed a line at a time, even while the run is still writing it.
+ * The attribute is <code>null</code> for tests of the tag body.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class JsonLinesResultSink extends AbstractResultSink
+{
+
+    /**
+     * Opens the given file for writing results
+     * 
+     * @param file
+     *            the file to write the results to
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public JsonLinesResultSink( File file ) throws IOException
+    {
+        super( file );
+    }
+
+    /**
+     * Writes the result as a single line JSON object
+     * 
+     * @see org.owasp.jsptester.report.AbstractResultSink#writeRecord(java.io.Writer,
+     *      org.owasp.jsptester.report.TestResult)
+     */
+    protected void writeRecord( Writer out, TestResult result )
+            throws IOException
+    {
+        Verdict verdict = result.getVerdict();
+
+        StringBuffer line = new StringBuffer( "{" );
+        appendField( line, "test", result.getTestId() ).append( ',' );
+        appendField( line, "tag", result.getTagName() ).append( ',' );
+        appendField( line, "attribute", result.getAttributeName() )
+                .append( ',' );
+        appendField( line, "attack", result.getAttackName() ).append( ',' );
+        appendField( line, "verdict", verdict.getResult() ).append( ',' );
+        appendField( line, "detail", verdict.getDetail() ).append( ',' );
+        line.append( "\"status\":" ).append( result.getStatus() ).append( ',' );
+        line.append( "\"bytes\":" ).append( result.getBytes() ).append( ',' );
+        line.append( "\"latency_ms\":" ).append( result.getLatency() );
+        line.append( "}\n" );
+
+        out.write( line.toString() );
+    }
+
+    /**
+     * Appends a string member to a JSON object
+     * 
+     * @param line
+     *            the object being written
+     * @param name
+     *            the name of the member
+     * @param value
+     *            the value of the member, or null
+     * @return the object being written
+     */
+    private static StringBuffer appendField( StringBuffer line, String name,
+            String value )
+    {
+        line.append( '"' ).append( name ).append( "\":" );
+
+        if ( value == null )
+        {
+            return line.append( "null" );
+        }
+
+        line.append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            switch ( c )
+            {
+            case '"':
+                line.append( "\\\"" );
+                break;
+            case '\\':
+                line.append( "\\\\" );
+                break;
+            case '\n':
+                line.append( "\\n" );
+                break;
+            case '\r':
+                line.append( "\\r" );
+                break;
+            case '\t':
+                line.append( "\\t" );
+                break;
+            default:
+                if ( c < 0x20 )
+                {
+                    String hex = Integer.toHexString( c );
+                    line.append( "\\u" ).append( "0000".substring( hex.length() ) )
+                            .append( hex );
+                }
+                else
+                {
+                    line.append( c );
+                }
+            }
+        }
+        return line.append( '"' );
+    }
+}
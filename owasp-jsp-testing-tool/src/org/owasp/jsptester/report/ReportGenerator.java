@@ -28,14 +28,24 @@
 package org.owasp.jsptester.report;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import javax.servlet.jsp.tagext.TagAttributeInfo;
@@ -44,7 +54,6 @@ import javax.servlet.jsp.tagext.TagLibraryInfo;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.VelocityException;
@@ -53,14 +62,22 @@ import org.apache.velocity.runtime.log.JdkLogChute;
 import org.owasp.esapi.codecs.JavaScriptCodec;
 import org.owasp.jsptester.attack.Attack;
 import org.owasp.jsptester.attack.AttackLibrary;
+import org.owasp.jsptester.attack.CanaryIndex;
 import org.owasp.jsptester.conf.Configuration;
 import org.owasp.jsptester.conf.TagProperties;
+import org.owasp.jsptester.exec.MemoryWebRoot;
 import org.owasp.jsptester.parser.TagLibraryUtils;
 
 /**
  * Class that encapsulates generating files related to the report web app,
  * including the individual test cases, the final summary and any other base
  * files necessary to deploy the web application
+ * <p>
+ * The generator is thread safe. When more than one generator thread is
+ * configured, the test cases of each tag, and of every few attributes of
+ * wide tags unless test cases are batched, are generated concurrently; the
+ * files written and the order in which listeners are notified are the same
+ * as for a sequential run.
  * 
  * @author Jason Li
  * 
@@ -73,39 +90,56 @@ public class ReportGenerator
     private static final Logger LOGGER = Logger
             .getLogger( ReportGenerator.class.getName() );
 
-    private static final FileFilter SVN_FILTER = new FileFilter()
-    {
-        private static final String SVN = ".svn";
-
-        private boolean containedInSVN( File file )
-        {
-            File parent = file.getParentFile();
-            return file.getName().equals( SVN )
-                    || ( parent != null && containedInSVN( parent ) );
-        }
+    /**
+     * Encoder to encode attack for test case
+     */
+    private static final JavaScriptCodec CODEC = new JavaScriptCodec();
 
-        public boolean accept( File pathname )
-        {
-            return !containedInSVN( pathname );
-        }
+    /**
+     * Appended to the name of a parameterised test case page, keeping it
+     * apart from the test case names
+     */
+    private static final String PARAMETERISED_SUFFIX = ".param";
 
-    };
+    /**
+     * Number of attributes whose test cases are generated by a single task
+     * when generating in parallel
+     */
+    private static final int ATTRIBUTES_PER_TASK = 8;
 
     /**
-     * Encoder to encode attack for test case
+     * Number of generator tasks per thread that may run ahead of the test
+     * cases passed on to the listener
      */
-    private static final JavaScriptCodec CODEC = new JavaScriptCodec();
+    private static final int TASKS_AHEAD_PER_THREAD = 2;
 
     /**
      * Singleton instance of the report generator
      */
-    private static ReportGenerator INSTANCE;
+    private static volatile ReportGenerator INSTANCE;
 
     /**
      * Velocity template engine
      */
     private final VelocityEngine engine = new VelocityEngine();
 
+    /**
+     * The parsed report templates
+     */
+    private final TemplateRegistry templates;
+
+    /**
+     * Deploys the base files of the web application
+     */
+    private final BaseDeployer deployer = new BaseDeployer( Configuration
+            .getInstance().getBooleanProperty(
+                    Configuration.BASE_VERIFY_CHECKSUMS, false ) );
+
+    /**
+     * The canary tokens given to the test cases
+     */
+    private final CanaryIndex canaries = new CanaryIndex();
+
     /**
      * Creates an instance of the report generator
      * 
@@ -118,6 +152,11 @@ public class ReportGenerator
         engine.setProperty( RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS,
                 JdkLogChute.class.getName() );
 
+        // keep the parsed templates for the whole run
+        templates = new TemplateRegistry( engine, Configuration.getInstance()
+                .getIntProperty(
+                        Configuration.TEMPLATE_MODIFICATION_CHECK_INTERVAL, 0 ) );
+
         try
         {
             // initialize the Velocity engine
@@ -136,15 +175,67 @@ public class ReportGenerator
      * @throws VelocityException
      *             if the Velocity engine cannot be initialized
      */
-    public synchronized static final ReportGenerator getInstance()
+    public static final ReportGenerator getInstance()
             throws VelocityException
     {
-        if ( INSTANCE == null )
+        ReportGenerator instance = INSTANCE;
+
+        // only lock while the instance is being created
+        if ( instance == null )
+        {
+            synchronized ( ReportGenerator.class )
+            {
+                instance = INSTANCE;
+                if ( instance == null )
+                {
+                    instance = new ReportGenerator();
+                    INSTANCE = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Logs the number of merges and time spent merging each report template
+     */
+    public void logStatistics()
+    {
+        templates.logStatistics();
+    }
+
+    /**
+     * Returns the index of the canary tokens given to the test cases, which
+     * is only filled when <code>CANARY_TOKENS_ENABLED</code> is configured
+     * 
+     * @return the index of the canary tokens
+     */
+    public CanaryIndex getCanaryIndex()
+    {
+        return canaries;
+    }
+
+    /**
+     * Returns the attack to inject in the given test case, decorated with
+     * the test case's canary token if <code>CANARY_TOKENS_ENABLED</code> is
+     * configured
+     * 
+     * @param attack
+     *            the attack from the library
+     * @param testId
+     *            the identifier of the test case
+     * @return the attack to inject
+     */
+    private Attack instrument( Attack attack, String testId )
+    {
+        if ( !Configuration.getInstance().getBooleanProperty(
+                Configuration.CANARY_TOKENS_ENABLED, false ) )
         {
-            INSTANCE = new ReportGenerator();
+            return attack;
         }
 
-        return INSTANCE;
+        return TestCase.decorate( attack, canaries.register( testId ) );
     }
 
     /**
@@ -155,37 +246,14 @@ public class ReportGenerator
      * @throws IOException
      *             if an I/O error occurs during copying
      */
-    private void copyBase( File outputDir ) throws IOException
+    public void copyBase( File outputDir ) throws IOException
     {
         LOGGER
                 .entering( ReportGenerator.class.getName(), "copyBase",
                         outputDir );
 
-        // copy the index.jsp
-        FileUtils.copyFileToDirectory( new File( Configuration.getInstance()
-                .getProperty( Configuration.TEMPLATE_INDEX_JSP ) ), outputDir );
-
-        LOGGER.fine( "Copied index.jsp" );
-
-        // copy the error handler (error.jsp)
-        FileUtils.copyFileToDirectory( new File( Configuration.getInstance()
-                .getProperty( Configuration.TEMPLATE_ERROR_JSP ) ), outputDir );
-
-        LOGGER.fine( "Copied error.jsp" );
-
-        // copy the META-INF folder
-        FileUtils.copyDirectory( new File( Configuration.getInstance()
-                .getProperty( Configuration.TEMPLATE_META_INF ) ), new File(
-                outputDir, "META-INF" ), SVN_FILTER );
-
-        LOGGER.fine( "Copied META-INF folder" );
-
-        // copy the WEB-INF folder
-        FileUtils.copyDirectory( new File( Configuration.getInstance()
-                .getProperty( Configuration.TEMPLATE_WEB_INF ) ), new File(
-                outputDir, "WEB-INF" ), SVN_FILTER );
-
-        LOGGER.fine( "Copied WEB-INF folder" );
+        // only files missing or changed since the last deployment are copied
+        deployer.deploy( outputDir );
 
         LOGGER.exiting( ReportGenerator.class.getName(), "copyBase" );
     }
@@ -210,16 +278,45 @@ public class ReportGenerator
             TagProperties tagProperties, Attack[] attacks, File outputDir )
             throws IOException
     {
+        // keep track of generated test case files
+        TestCaseCollector collector = new TestCaseCollector();
+
+        generateLibraryReport( tagLibrary, tagProperties, attacks, outputDir,
+                collector );
+
+        return collector.getTestCases();
+    }
+
+    /**
+     * Generates a report on the given tag library using the given attacks and
+     * places the output in the given outputDir, notifying the given listener
+     * of each test case as soon as it is written.
+     * 
+     * @param tagLibrary
+     *            the tag library to test
+     * @param tagProperties
+     *            the tag properties to use
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    public void generateLibraryReport( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, Attack[] attacks, File outputDir,
+            TestCaseListener listener ) throws IOException
+    {
 
         LOGGER.entering( ReportGenerator.class.getName(),
                 "generateLibraryReport", new Object[]
-                    { tagLibrary, tagProperties, attacks, outputDir } );
-
-        // keep track of generated test case files
-        List/* <File> */generatedTestCases = new ArrayList/* <File> */();
+                    { tagLibrary, tagProperties, attacks, outputDir, listener } );
 
         // Copy the base files over
         copyBase( outputDir );
+        listener.baseCopied( outputDir );
 
         LOGGER.fine( "Base files copied" );
 
@@ -230,20 +327,13 @@ public class ReportGenerator
         TagInfo[] tags = tagLibrary.getTags();
 
         // generate test case for each tag
-        for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
-        {
-            generatedTestCases.addAll( generateTagReport( tagLibrary,
-                    tagProperties, tags[tagIdx], attacks, outputDir ) );
-            LOGGER.finer( "Test case for " + tags[tagIdx].getTagName()
-                    + " generated" );
-        }
+        generateTagTestCases( tagLibrary, tagProperties, tags, attacks,
+                outputDir, listener );
 
         LOGGER.fine( "Test cases generated" );
 
         LOGGER.exiting( ReportGenerator.class.getName(),
-                "generateLibraryReport", generatedTestCases );
-
-        return generatedTestCases;
+                "generateLibraryReport" );
     }
 
     /**
@@ -269,103 +359,674 @@ public class ReportGenerator
             TagProperties tagProperties, TagInfo tag, Attack[] attacks,
             File outputDir ) throws IOException
     {
+        // keep track of the generated files
+        TestCaseCollector collector = new TestCaseCollector();
+
+        generateTagReport( tagLibrary, tagProperties, tag, attacks, outputDir,
+                collector );
+
+        return collector.getTestCases();
+    }
+
+    /**
+     * Generates a report on the given tag from the given tag library using the
+     * given attacks and places the output in the given outputDir, notifying
+     * the given listener of each test case as soon as it is written.
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag to be tested
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    public void generateTagReport( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, Attack[] attacks,
+            File outputDir, TestCaseListener listener ) throws IOException
+    {
 
         LOGGER.entering( ReportGenerator.class.getName(), "generateTagReport",
                 new Object[]
-                    { tagLibrary, tagProperties, tag, attacks, outputDir } );
-
-        // keep track of the generated files
-        List/* <File> */generatedTestCases = new ArrayList/* <File> */();
+                    { tagLibrary, tagProperties, tag, attacks, outputDir,
+                            listener } );
 
         // copy base files over
         copyBase( outputDir );
+        listener.baseCopied( outputDir );
 
         LOGGER.fine( "Base files copied" );
 
+        generateTagTestCases( tagLibrary, tagProperties, new TagInfo[]
+            { tag }, attacks, outputDir, listener );
+
+        LOGGER.exiting( ReportGenerator.class.getName(), "generateTagReport" );
+    }
+
+    /**
+     * Generates the test cases and report files for the given tags, notifying
+     * the given listener of each test case in the order they would be
+     * generated one at a time. The work is spread across the configured
+     * number of generator threads.
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tags
+     *            the tags to be tested
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateTagTestCases( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo[] tags, Attack[] attacks,
+            File outputDir, TestCaseListener listener ) throws IOException
+    {
+        int threads = Configuration.getInstance().getIntProperty(
+                Configuration.GENERATOR_THREADS, 1 );
+
+        if ( threads > 1 )
+        {
+            generateTagTestCasesInParallel( tagLibrary, tagProperties, tags,
+                    attacks, outputDir, listener, threads );
+            return;
+        }
+
+        for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
+        {
+            TagInfo tag = tags[tagIdx];
+
+            generateComponentTests( tagLibrary, tagProperties, tag, attacks,
+                    outputDir, listener );
+            generateAttributeTests( tagLibrary, tagProperties, tag, 0, tag
+                    .getAttributes().length, attacks, outputDir, listener );
+
+            // Generate the tag report file
+            generateTagReportFile( tagLibrary, tag, outputDir );
+
+            LOGGER.finer( "Test case for " + tag.getTagName() + " generated" );
+        }
+    }
+
+    /**
+     * Generates the test cases and report files for the given tags on a pool
+     * of generator threads. Each tag is split into a task for its component
+     * tests, a task for every few attributes and a task for its report file.
+     * The tasks record the test cases they generate, which are passed on to
+     * the given listener in task order, so the listener sees the same
+     * sequence as a sequential run. Only a few tasks per thread are
+     * submitted ahead of the task being passed on, so generation is held
+     * back by a listener that blocks rather than writing every page of the
+     * library up front.
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tags
+     *            the tags to be tested
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @param threads
+     *            the number of generator threads
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateTagTestCasesInParallel(
+            final TagLibraryInfo tagLibrary,
+            final TagProperties tagProperties, TagInfo[] tags,
+            final Attack[] attacks, final File outputDir,
+            TestCaseListener listener, int threads ) throws IOException
+    {
+        LOGGER.fine( "Generating test cases with " + threads + " threads" );
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads,
+                new ThreadFactory()
+                {
+                    private int count = 0;
+
+                    public synchronized Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "generator-"
+                                + ( ++count ) );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+
+        // batches run on across attribute boundaries, so splitting a tag's
+        // attributes between tasks would give different pages from a
+        // sequential run
+        boolean batched = ( Configuration.getInstance().getIntProperty(
+                Configuration.TEST_CASE_BATCH_SIZE, 1 ) > 1 );
+
+        try
+        {
+            // List<Callable<TestCaseRecorder>> in sequential generation order
+            List/* <Callable> */tasks = new ArrayList();
+
+            for ( int tagIdx = 0; tagIdx < tags.length; tagIdx++ )
+            {
+                final TagInfo tag = tags[tagIdx];
+
+                tasks.add( new Callable()
+                {
+                    public Object call() throws IOException
+                    {
+                        TestCaseRecorder recorder = new TestCaseRecorder();
+                        generateComponentTests( tagLibrary, tagProperties,
+                                tag, attacks, outputDir, recorder );
+                        return recorder;
+                    }
+                } );
+
+                // wide tags are split so their attributes are generated
+                // concurrently, unless their test cases are batched
+                int attrCount = tag.getAttributes().length;
+                int attrsPerTask = ( batched ? Math.max( 1, attrCount )
+                        : ATTRIBUTES_PER_TASK );
+                for ( int attrIdx = 0; attrIdx < attrCount;
+                        attrIdx += attrsPerTask )
+                {
+                    final int fromIdx = attrIdx;
+                    final int toIdx = Math.min( attrCount, attrIdx
+                            + attrsPerTask );
+
+                    tasks.add( new Callable()
+                    {
+                        public Object call() throws IOException
+                        {
+                            TestCaseRecorder recorder = new TestCaseRecorder();
+                            generateAttributeTests( tagLibrary, tagProperties,
+                                    tag, fromIdx, toIdx, attacks, outputDir,
+                                    recorder );
+                            return recorder;
+                        }
+                    } );
+                }
+
+                tasks.add( new Callable()
+                {
+                    public Object call() throws IOException
+                    {
+                        generateTagReportFile( tagLibrary, tag, outputDir );
+                        return new TestCaseRecorder();
+                    }
+                } );
+            }
+
+            // LinkedList<Future<TestCaseRecorder>> of the submitted tasks,
+            // in order
+            LinkedList/* <Future> */submitted = new LinkedList();
+            int tasksAhead = threads * TASKS_AHEAD_PER_THREAD;
+
+            // pass the test cases on in order as each task completes,
+            // submitting another task as each one is drained
+            Iterator/* <Callable> */itr = tasks.iterator();
+            while ( itr.hasNext() || !submitted.isEmpty() )
+            {
+                while ( itr.hasNext() && submitted.size() < tasksAhead )
+                {
+                    submitted.add( executor.submit( (Callable) itr.next() ) );
+                }
+
+                Future next = (Future) submitted.removeFirst();
+
+                TestCaseRecorder recorder = (TestCaseRecorder) waitFor( next );
+                recorder.replay( listener );
+            }
+        }
+        finally
+        {
+            // abandon the remaining tasks if any task failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the given generator task and returns its result
+     * 
+     * @param task
+     *            the task
+     * @return the result of the task
+     * @throws IOException
+     *             if the task failed or the thread is interrupted
+     */
+    private static Object waitFor( Future task ) throws IOException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while generating test cases" );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            IOException ioe = new IOException( "Unable to generate test cases" );
+            ioe.initCause( cause );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Generates a test case for each attack embedded inside the given tag,
+     * notifying the given listener of each test case as soon as it is written
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag to be tested
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateComponentTests( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, Attack[] attacks,
+            File outputDir, TestCaseListener listener ) throws IOException
+    {
+        int batchSize = Configuration.getInstance().getIntProperty(
+                Configuration.TEST_CASE_BATCH_SIZE, 1 );
+
+        // List<Map<String, String>> of test cases waiting to share a page
+        List/* <Map> */batch = new ArrayList();
+
         // For each tag, test each attack embedded inside the component
         for ( int attackIdx = 0; attackIdx < attacks.length; attackIdx++ )
         {
-            Attack attack = attacks[attackIdx];
-
-            FileWriter compFileWriter = null;
-
-            try
-            {
-                // Create a test case file [tagName-attackName.jsp]
-                File compFile = new File( outputDir, tag.getTagName()
-                        + "-"
-                        + attack.getName()
-                        + Configuration.getInstance().getProperty(
-                                Configuration.REPORT_FILE_EXTENSION ) );
-                compFileWriter = new FileWriter( compFile );
-
-                // generate the component test file
-                writeComponentTest( tagLibrary, tagProperties, tag, attack,
-                        compFileWriter );
-
-                LOGGER.finer( "Test file " + compFile.getCanonicalPath()
-                        + " generated" );
-
-                generatedTestCases.add( compFile );
-            }
-            finally
-            {
-                IOUtils.closeQuietly( compFileWriter );
-                compFileWriter = null;
-            }
+            TestCaseId testId = new TestCaseId( tag.getTagName(), null,
+                    attacks[attackIdx].getName() );
+            Attack attack = instrument( attacks[attackIdx], testId.toString() );
+
+            // several test cases share a page when batching
+            if ( batchSize > 1 )
+            {
+                verifyRequiredAttributes( tag, null, tagProperties );
+
+                batch.add( createBatchTestCase( testId, tag.getTagName()
+                        + " - " + attack.getDisplayName(), "", TestCase
+                        .generateTagTestCaseJspTag( tagLibrary, tag, attack,
+                                TagLibraryUtils.getRequiredAttributesMap( tag,
+                                        tagProperties ) ) ) );
+
+                if ( batch.size() >= batchSize )
+                {
+                    generateBatchTestCase( tagLibrary, tagProperties, tag,
+                            batch, outputDir, listener );
+                }
+                continue;
+            }
+
+            // Create a test case file [tagName-attackName.jsp]
+            File compFile = new File( outputDir, testId.getName() );
+            StringWriter compFileWriter = new StringWriter();
+
+            // generate the component test file
+            writeComponentTest( tagLibrary, tagProperties, tag, attack,
+                    compFileWriter );
+            writeIfChanged( compFile, compFileWriter.toString() );
+
+            LOGGER.finer( "Test file " + compFile.getCanonicalPath()
+                    + " generated" );
+
+            listener.testCaseGenerated( tag, compFile, testId );
+        }
+
+        // write any test cases left over from the last full batch
+        generateBatchTestCase( tagLibrary, tagProperties, tag, batch,
+                outputDir, listener );
+
+        LOGGER.fine( "Component tests generated." );
+    }
+
+    /**
+     * Generates a test case for each attack in each of the given range of the
+     * tag's attributes, notifying the given listener of each test case as
+     * soon as it is written
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag to be tested
+     * @param fromIdx
+     *            the index of the first attribute to test
+     * @param toIdx
+     *            the index after the last attribute to test
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the report in
+     * @param listener
+     *            the listener to notify of generated files
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateAttributeTests( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, int fromIdx, int toIdx,
+            Attack[] attacks, File outputDir, TestCaseListener listener )
+            throws IOException
+    {
+        boolean parameterised = Configuration.getInstance()
+                .getBooleanProperty( Configuration.PARAMETERISED_TEST_CASES,
+                        false );
+        int batchSize = Configuration.getInstance().getIntProperty(
+                Configuration.TEST_CASE_BATCH_SIZE, 1 );
+
+        // List<Map<String, String>> of test cases waiting to share a page
+        List/* <Map> */batch = new ArrayList();
+
+        // For each attribute, test each attack in the attribute
+        TagAttributeInfo[] attrs = tag.getAttributes();
+        for ( int attrIdx = fromIdx; attrIdx < toIdx; attrIdx++ )
+        {
+            TagAttributeInfo attr = attrs[attrIdx];
+
+            // a single page tests every attack if the attribute can take its
+            // value from the request
+            if ( parameterised && TestCase.isParameterisable( attr ) )
+            {
+                generateParameterisedTestCase( tagLibrary, tagProperties, tag,
+                        attr, attacks, outputDir, listener );
+                continue;
+            }
+
+            for ( int attackIdx = 0; attackIdx < attacks.length; attackIdx++ )
+            {
+                TestCaseId testId = new TestCaseId( tag.getTagName(), attr
+                        .getName(), attacks[attackIdx].getName() );
+                Attack attack = instrument( attacks[attackIdx], testId
+                        .toString() );
+
+                // several test cases share a page when batching
+                if ( batchSize > 1 )
+                {
+                    verifyRequiredAttributes( tag, attr, tagProperties );
+
+                    batch.add( createBatchTestCase( testId, tag.getTagName()
+                            + " - "
+                            + attr.getName()
+                            + " - "
+                            + attack.getDisplayName(), CODEC.encode( attack
+                            .getAttackString() ), TestCase
+                            .generateAttrTestCaseJspTag( tagLibrary, tag,
+                                    attr, attack, TagLibraryUtils
+                                            .getRequiredAttributesMap( tag,
+                                                    tagProperties ) ) ) );
+
+                    if ( batch.size() >= batchSize )
+                    {
+                        generateBatchTestCase( tagLibrary, tagProperties, tag,
+                                batch, outputDir, listener );
+                    }
+                    continue;
+                }
+
+                // Create a test case file
+                // [tagName-attrName-attackName.jsp]
+                File attrFile = new File( outputDir, testId.getName() );
+                StringWriter compFileWriter = new StringWriter();
+
+                writeAtrributeTest( tagLibrary, tagProperties, tag,
+                        attrs[attrIdx], attack, compFileWriter );
+                writeIfChanged( attrFile, compFileWriter.toString() );
+
+                LOGGER.finer( "Test file " + attrFile.getCanonicalPath()
+                        + " file generated" );
+
+                listener.testCaseGenerated( tag, attrFile, testId );
+            }
+        }
+
+        // write any test cases left over from the last full batch
+        generateBatchTestCase( tagLibrary, tagProperties, tag, batch,
+                outputDir, listener );
+
+        LOGGER.fine( "Attribute tests generated." );
+    }
+
+    /**
+     * Generates a single page testing the given attribute with an attack
+     * supplied in the request, notifying the given listener of the page and
+     * the query string for each attack
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag to be tested
+     * @param attr
+     *            the attribute to be tested
+     * @param attacks
+     *            the set of attacks to use
+     * @param outputDir
+     *            the output directory to place the page in
+     * @param listener
+     *            the listener to notify of the generated page
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateParameterisedTestCase( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, TagAttributeInfo attr,
+            Attack[] attacks, File outputDir, TestCaseListener listener )
+            throws IOException
+    {
+        String extension = Configuration.getInstance().getProperty(
+                Configuration.REPORT_FILE_EXTENSION );
+
+        // Create the page [tagName-attrName.param.jsp]
+        File pageFile = new File( outputDir, tag.getTagName() + "-"
+                + attr.getName() + PARAMETERISED_SUFFIX + extension );
+        StringWriter pageWriter = new StringWriter();
+
+        writeParameterisedAttributeTest( tagLibrary, tagProperties, tag, attr,
+                pageWriter );
+        writeIfChanged( pageFile, pageWriter.toString() );
+
+        LOGGER.finer( "Test file " + pageFile.getCanonicalPath()
+                + " generated" );
+
+        // Map<TestCaseId, String> of test case
+        // [tagName-attrName-attackName.jsp] to the query string rendering it
+        Map/* <TestCaseId, String> */testCases = new LinkedHashMap();
+        for ( int attackIdx = 0; attackIdx < attacks.length; attackIdx++ )
+        {
+            TestCaseId testId = new TestCaseId( tag.getTagName(), attr
+                    .getName(), attacks[attackIdx].getName() );
+            Attack attack = instrument( attacks[attackIdx], testId.toString() );
+            String testTitle = tag.getTagName() + " - " + attr.getName()
+                    + " - " + attack.getDisplayName();
+
+            testCases.put( testId, TestCase.encodeParameter(
+                    TestCase.ATTACK_PARAMETER, attack.getAttackString() )
+                    + "&"
+                    + TestCase.encodeParameter( TestCase.TEST_ID_PARAMETER,
+                            testId.toString() )
+                    + "&"
+                    + TestCase.encodeParameter( TestCase.TEST_TITLE_PARAMETER,
+                            testTitle )
+                    + "&"
+                    + TestCase.encodeParameter(
+                            TestCase.ENCODED_ATTACK_PARAMETER, CODEC
+                                    .encode( attack.getAttackString() ) ) );
+        }
+
+        listener.parameterisedTestCaseGenerated( tag, pageFile, testCases );
+    }
+
+    /**
+     * Creates the details of a test case to be written to a batch page
+     * 
+     * @param testId
+     *            the identifier of the test case
+     * @param testTitle
+     *            the title of the test case
+     * @param encodedAttack
+     *            the JavaScript encoded attack checked against event handlers
+     * @param tagTest
+     *            the tag under test
+     * @return <code>Map&lt;String, Object&gt;</code> of template attribute
+     *         to value
+     */
+    private static Map/* <String, Object> */createBatchTestCase(
+            TestCaseId testId, String testTitle, String encodedAttack,
+            String tagTest )
+    {
+        String name = testId.getName();
+
+        Map/* <String, Object> */testCase = new HashMap();
+        testCase.put( "id", testId );
+        testCase.put( "name", name );
+        testCase.put( "test_id", testId.toString() );
+        testCase.put( "test_title", testTitle );
+        testCase.put( "encoded_attack", encodedAttack );
+        testCase.put( "tag_test", tagTest );
+        testCase.put( "begin_marker", TestCaseBatch.getBeginMarker( name,
+                testTitle ) );
+        testCase.put( "tag_marker", TestCaseBatch.getTagMarker( name ) );
+        testCase.put( "end_marker", TestCaseBatch.getEndMarker( name ) );
+
+        return testCase;
+    }
+
+    /**
+     * Writes the given batch of test cases to a single page, notifying the
+     * given listener of the page and the test cases it holds. The batch is
+     * emptied once written; nothing is written for an empty batch.
+     * 
+     * @param tagLibrary
+     *            the tag library being used
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag to be tested
+     * @param batch
+     *            <code>List&lt;Map&lt;String, String&gt;&gt;</code> of the
+     *            test cases to write
+     * @param outputDir
+     *            the output directory to place the page in
+     * @param listener
+     *            the listener to notify of the generated page
+     * @throws IOException
+     *             if any I/O error occurs
+     */
+    private void generateBatchTestCase( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, List/* <Map> */batch,
+            File outputDir, TestCaseListener listener ) throws IOException
+    {
+        if ( batch.isEmpty() )
+        {
+            return;
         }
 
-        LOGGER.fine( "Component tests generated." );
+        // Create the page [firstTestId.batch.jsp]
+        File pageFile = new File( outputDir, ( (Map) batch.get( 0 ) )
+                .get( "test_id" )
+                + TestCaseBatch.BATCH_SUFFIX
+                + Configuration.getInstance().getProperty(
+                        Configuration.REPORT_FILE_EXTENSION ) );
+        StringWriter pageWriter = new StringWriter();
 
-        // For each attribute, test each attack in the attribute
-        TagAttributeInfo[] attrs = tag.getAttributes();
-        for ( int attrIdx = 0; attrIdx < attrs.length; attrIdx++ )
-        {
-            TagAttributeInfo attr = attrs[attrIdx];
-            for ( int attackIdx = 0; attackIdx < attacks.length; attackIdx++ )
-            {
-                Attack attack = attacks[attackIdx];
+        writeBatchTest( tagLibrary, tagProperties, tag, batch, pageWriter );
+        writeIfChanged( pageFile, pageWriter.toString() );
 
-                FileWriter compFileWriter = null;
-                try
-                {
-                    // Create a test case file
-                    // [tagName-attackName-attrName.jsp]
-                    File attrFile = new File( outputDir, tag.getTagName()
-                            + "-"
-                            + attr.getName()
-                            + "-"
-                            + attack.getName()
-                            + Configuration.getInstance().getProperty(
-                                    Configuration.REPORT_FILE_EXTENSION ) );
-                    compFileWriter = new FileWriter( attrFile );
+        LOGGER.finer( "Test file " + pageFile.getCanonicalPath()
+                + " generated with " + batch.size() + " test cases" );
 
-                    writeAtrributeTest( tagLibrary, tagProperties, tag,
-                            attrs[attrIdx], attacks[attackIdx], compFileWriter );
+        List/* <TestCaseId> */testCases = new ArrayList();
+        for ( Iterator/* <Map> */itr = batch.iterator(); itr.hasNext(); )
+        {
+            testCases.add( ( (Map) itr.next() ).get( "id" ) );
+        }
+        batch.clear();
 
-                    LOGGER.finer( "Test file " + attrFile.getCanonicalPath()
-                            + " file generated" );
+        listener.batchTestCaseGenerated( tag, pageFile, testCases );
+    }
 
-                    generatedTestCases.add( attrFile );
-                }
-                finally
-                {
-                    IOUtils.closeQuietly( compFileWriter );
-                }
+    /**
+     * Writes the given content to the given file unless the file already
+     * holds exactly that content. Leaving an unchanged test case untouched
+     * keeps its modification time, so a running JSP engine does not
+     * recompile it.
+     * 
+     * @param file
+     *            the file to write
+     * @param content
+     *            the content of the file
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private static void writeIfChanged( File file, String content )
+            throws IOException
+    {
+        // test cases in an in-memory web root never touch the disk
+        MemoryWebRoot memoryWebRoot = MemoryWebRoot.forDirectory( file
+                .getParentFile() );
+        if ( memoryWebRoot != null )
+        {
+            if ( !memoryWebRoot.write( file.getName(), content.getBytes() ) )
+            {
+                LOGGER.finer( "Test file " + file + " unchanged" );
             }
+            return;
         }
 
-        LOGGER.fine( "Attribute tests generated." );
-
-        // Generate the tag report file
-        generateTagReportFile( tagLibrary, tag, outputDir );
-
-        LOGGER.fine( "Tag report generated" );
-
-        LOGGER.exiting( ReportGenerator.class.getName(), "generateTagReport",
-                generatedTestCases );
+        if ( file.isFile() && file.length() >= content.length()
+                && content.equals( FileUtils.readFileToString( file ) ) )
+        {
+            LOGGER.finer( "Test file " + file + " unchanged" );
+            return;
+        }
 
-        return generatedTestCases;
+        FileWriter writer = null;
+        try
+        {
+            writer = new FileWriter( file );
+            writer.write( content );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
     }
 
     /**
@@ -394,22 +1055,6 @@ public class ReportGenerator
         {
             writer = new FileWriter( reportFile );
 
-            Template reportTemplate = null;
-
-            try
-            {
-                // Load the Velocity template
-                reportTemplate = engine.getTemplate( Configuration
-                        .getInstance().getProperty(
-                                Configuration.TEMPLATE_LIBRARY_REPORT ) );
-            }
-            catch ( Exception e )
-            {
-                throw new VelocityException( e );
-            }
-
-            LOGGER.fine( "Retrieved Velocity template" );
-
             VelocityContext context = new VelocityContext();
 
             // Set template properties
@@ -426,11 +1071,9 @@ public class ReportGenerator
 
             LOGGER.fine( "Placed attributes in Velocity conetxt" );
 
-            if ( reportTemplate != null )
-            {
-                // fill the template attributes
-                reportTemplate.merge( context, writer );
-            }
+            // fill the template attributes
+            templates.merge( Configuration.TEMPLATE_LIBRARY_REPORT, context,
+                    writer );
 
             LOGGER.fine( "Executed template merge" );
         }
@@ -448,6 +1091,58 @@ public class ReportGenerator
                 "generateLibraryReportFile" );
     }
 
+    /**
+     * Creates the index of a batch run, linking to the report of each tag
+     * library tested, from a Velocity report template
+     * 
+     * @param libraries
+     *            <code>List</code> of the tag libraries tested, in the order
+     *            they were tested
+     * @param outputDir
+     *            the output directory to place the index in
+     * @throws VelocityException
+     *             if an error using the Velocity engine occurs
+     */
+    public void generateBatchIndex( List libraries, File outputDir )
+            throws VelocityException
+    {
+        LOGGER.entering( ReportGenerator.class.getName(),
+                "generateBatchIndex", new Object[]
+                    { libraries, outputDir } );
+
+        File indexFile = new File( outputDir, Configuration.getInstance()
+                .getProperty( Configuration.BATCH_INDEX_FILE_NAME ) );
+        FileWriter writer = null;
+
+        try
+        {
+            writer = new FileWriter( indexFile );
+
+            VelocityContext context = new VelocityContext();
+
+            // Set template properties
+            context.put( "libraries", libraries );
+            context.put( "report_file", Configuration.getInstance()
+                    .getProperty( Configuration.REPORT_FILE_NAME ) );
+
+            templates.merge( Configuration.TEMPLATE_BATCH_INDEX, context,
+                    writer );
+
+            LOGGER.fine( "Executed template merge" );
+        }
+        catch ( IOException ioe )
+        {
+            throw new VelocityException( ioe );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+            writer = null;
+        }
+
+        LOGGER.exiting( ReportGenerator.class.getName(), "generateBatchIndex" );
+    }
+
     /**
      * Creates the report file for an individual tag from a Velocity report
      * template
@@ -476,22 +1171,6 @@ public class ReportGenerator
         {
             writer = new FileWriter( reportFile );
 
-            Template reportTemplate = null;
-
-            try
-            {
-                // Load the Velocity template
-                reportTemplate = engine.getTemplate( Configuration
-                        .getInstance().getProperty(
-                                Configuration.TEMPLATE_TAG_REPORT ) );
-            }
-            catch ( Exception e )
-            {
-                throw new VelocityException( e );
-            }
-
-            LOGGER.fine( "Retrieved Velocity template" );
-
             VelocityContext context = new VelocityContext();
 
             // Set template properties
@@ -509,11 +1188,9 @@ public class ReportGenerator
 
             LOGGER.fine( "Placed attributes in Velocity conetxt" );
 
-            if ( reportTemplate != null )
-            {
-                // fill the template attributes
-                reportTemplate.merge( context, writer );
-            }
+            // fill the template attributes
+            templates.merge( Configuration.TEMPLATE_TAG_REPORT, context,
+                    writer );
 
             LOGGER.fine( "Executed template merge" );
         }
@@ -560,21 +1237,6 @@ public class ReportGenerator
         // verify that required attributes are configured
         verifyRequiredAttributes( tag, attr, tagProperties );
 
-        Template reportTemplate = null;
-
-        try
-        {
-            // load the report test case Velocity template
-            reportTemplate = engine.getTemplate( Configuration.getInstance()
-                    .getProperty( Configuration.TEMPLATE_TEST_CASE ) );
-        }
-        catch ( Exception e )
-        {
-            throw new VelocityException( e );
-        }
-
-        LOGGER.fine( "Retrieved Velocity template" );
-
         VelocityContext context = new VelocityContext();
 
         // Create the JSP Tag test case
@@ -601,23 +1263,132 @@ public class ReportGenerator
 
         LOGGER.fine( "Placed attributes in Velocity conetxt" );
 
-        if ( reportTemplate != null )
-        {
-            try
-            {
-                // fill the attributes in the template
-                reportTemplate.merge( context, output );
-                LOGGER.fine( "Executed template merge" );
-            }
-            catch ( IOException ioe )
-            {
-                throw new VelocityException( ioe );
-            }
-        }
+        // fill the attributes in the template
+        templates.merge( Configuration.TEMPLATE_TEST_CASE, context, output );
+        LOGGER.fine( "Executed template merge" );
 
         LOGGER.exiting( ReportGenerator.class.getName(), "writeAttributeTest" );
     }
 
+    /**
+     * Writes a test case page for the given tag attribute that takes its
+     * attack, identifier and title from the request, using the given Writer
+     * 
+     * @param tagLibrary
+     *            the tag library being tested
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag being tested
+     * @param attr
+     *            the attribute being tested
+     * @param output
+     *            the output writer where the test case is written
+     * @throws VelocityException
+     *             if an error using the Velocity engine occurs
+     */
+    private void writeParameterisedAttributeTest( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, TagAttributeInfo attr,
+            Writer output ) throws VelocityException
+    {
+
+        LOGGER.entering( ReportGenerator.class.getName(),
+                "writeParameterisedAttributeTest", new Object[]
+                    { tagLibrary, tagProperties, tag, attr, output } );
+
+        // verify that required attributes are configured
+        verifyRequiredAttributes( tag, attr, tagProperties );
+
+        VelocityContext context = new VelocityContext();
+
+        // Create the JSP Tag test case
+        String testCase = TestCase.generateParameterisedAttrTestCaseJspTag(
+                tagLibrary, tag, attr, TagLibraryUtils
+                        .getRequiredAttributesMap( tag, tagProperties ) );
+
+        LOGGER.fine( "Created tag" );
+        LOGGER.finest( "\tTag: " + testCase );
+
+        // add the template attributes; the test case details come from the
+        // request
+        context.put( "tagLib", tagLibrary );
+        context.put( "tag", tag );
+        context.put( "attribute", attr );
+        context.put( "test_id", TestCase
+                .getParameterExpression( TestCase.TEST_ID_PARAMETER ) );
+        context.put( "test_title", TestCase
+                .getParameterExpression( TestCase.TEST_TITLE_PARAMETER ) );
+        context.put( "encoded_attack", TestCase
+                .getParameterExpression( TestCase.ENCODED_ATTACK_PARAMETER ) );
+        context.put( "tag_test", testCase );
+
+        context.put( "test_prefix", tagProperties.getTagPrefix( tag
+                .getTagName() ) );
+        context.put( "test_suffix", tagProperties.getTagSuffix( tag
+                .getTagName() ) );
+
+        LOGGER.fine( "Placed attributes in Velocity conetxt" );
+
+        // fill the attributes in the template
+        templates.merge( Configuration.TEMPLATE_TEST_CASE, context, output );
+        LOGGER.fine( "Executed template merge" );
+
+        LOGGER.exiting( ReportGenerator.class.getName(),
+                "writeParameterisedAttributeTest" );
+    }
+
+    /**
+     * Writes a page holding the given batch of test cases for the given tag
+     * using the given Writer
+     * 
+     * @param tagLibrary
+     *            the tag library being tested
+     * @param tagProperties
+     *            the tag properties to use
+     * @param tag
+     *            the tag being tested
+     * @param batch
+     *            <code>List&lt;Map&lt;String, String&gt;&gt;</code> of the
+     *            test cases to write
+     * @param output
+     *            the output writer where the page is written
+     * @throws VelocityException
+     *             if an error using the Velocity engine occurs
+     */
+    private void writeBatchTest( TagLibraryInfo tagLibrary,
+            TagProperties tagProperties, TagInfo tag, List/* <Map> */batch,
+            Writer output ) throws VelocityException
+    {
+
+        LOGGER.entering( ReportGenerator.class.getName(), "writeBatchTest",
+                new Object[]
+                    { tagLibrary, tagProperties, tag, batch, output } );
+
+        VelocityContext context = new VelocityContext();
+
+        // add the template attributes; the tag prefix and suffix are shared
+        // by every test case in the batch
+        context.put( "tagLib", tagLibrary );
+        context.put( "tag", tag );
+        context.put( "cases", batch );
+        context.put( "prefix_marker", TestCaseBatch.PREFIX_MARKER );
+        context.put( "suffix_marker", TestCaseBatch.SUFFIX_MARKER );
+
+        context.put( "test_prefix", tagProperties.getTagPrefix( tag
+                .getTagName() ) );
+        context.put( "test_suffix", tagProperties.getTagSuffix( tag
+                .getTagName() ) );
+
+        LOGGER.fine( "Placed attributes in Velocity conetxt" );
+
+        // fill the attributes in the template
+        templates.merge( Configuration.TEMPLATE_TEST_CASE_BATCH, context,
+                output );
+        LOGGER.fine( "Executed template merge" );
+
+        LOGGER.exiting( ReportGenerator.class.getName(), "writeBatchTest" );
+    }
+
     /**
      * Writes a test case for the given Attack embedded in the given tag using
      * the given Writer.
@@ -646,21 +1417,6 @@ public class ReportGenerator
         // verify that all required attributes are configured
         verifyRequiredAttributes( tag, null, tagProperties );
 
-        Template reportTemplate = null;
-
-        try
-        {
-            // load the Velocity template
-            reportTemplate = engine.getTemplate( Configuration.getInstance()
-                    .getProperty( Configuration.TEMPLATE_TEST_CASE ) );
-        }
-        catch ( Exception e )
-        {
-            throw new VelocityException( e );
-        }
-
-        LOGGER.fine( "Retrieved Velocity template" );
-
         VelocityContext context = new VelocityContext();
 
         // generate the JSP tag test case
@@ -685,19 +1441,9 @@ public class ReportGenerator
 
         LOGGER.fine( "Placed attributes in Velocity conetxt" );
 
-        if ( reportTemplate != null )
-        {
-            try
-            {
-                // fill the attributes in the template
-                reportTemplate.merge( context, output );
-                LOGGER.fine( "Executed template merge" );
-            }
-            catch ( IOException ioe )
-            {
-                throw new VelocityException( ioe );
-            }
-        }
+        // fill the attributes in the template
+        templates.merge( Configuration.TEMPLATE_TEST_CASE, context, output );
+        LOGGER.fine( "Executed template merge" );
 
         LOGGER.exiting( ReportGenerator.class.getName(), "writeComponentTest" );
     }
@@ -762,4 +1508,122 @@ public class ReportGenerator
         LOGGER.exiting( ReportGenerator.class.getName(),
                 "verifyRequiredAttributes" );
     }
+
+    /**
+     * Listener that records the test cases generated by a generator task so
+     * they can be passed on to the real listener in order
+     */
+    private static class TestCaseRecorder implements TestCaseListener
+    {
+        /**
+         * List&lt;Object[]&gt; of tag, file and test case identifier, map or
+         * list for each recorded test case
+         */
+        private final List/* <Object[]> */recorded = new ArrayList();
+
+        public void baseCopied( File outputDir )
+        {
+            // tasks never copy the base files
+        }
+
+        public void testCaseGenerated( TagInfo tag, File testCase,
+                TestCaseId testId )
+        {
+            recorded.add( new Object[]
+                { tag, testCase, testId } );
+        }
+
+        public void parameterisedTestCaseGenerated( TagInfo tag, File page,
+                Map/* <TestCaseId, String> */testCases )
+        {
+            recorded.add( new Object[]
+                { tag, page, testCases } );
+        }
+
+        public void batchTestCaseGenerated( TagInfo tag, File page,
+                List/* <TestCaseId> */testCases )
+        {
+            recorded.add( new Object[]
+                { tag, page, testCases } );
+        }
+
+        /**
+         * Notifies the given listener of every recorded test case
+         * 
+         * @param listener
+         *            the listener to notify
+         * @throws IOException
+         *             if the listener fails
+         */
+        void replay( TestCaseListener listener ) throws IOException
+        {
+            for ( Iterator/* <Object[]> */itr = recorded.iterator(); itr
+                    .hasNext(); )
+            {
+                Object[] testCase = (Object[]) itr.next();
+
+                if ( testCase[2] instanceof TestCaseId )
+                {
+                    listener.testCaseGenerated( (TagInfo) testCase[0],
+                            (File) testCase[1], (TestCaseId) testCase[2] );
+                }
+                else if ( testCase[2] instanceof List )
+                {
+                    listener.batchTestCaseGenerated( (TagInfo) testCase[0],
+                            (File) testCase[1], (List) testCase[2] );
+                }
+                else
+                {
+                    listener.parameterisedTestCaseGenerated(
+                            (TagInfo) testCase[0], (File) testCase[1],
+                            (Map) testCase[2] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener that collects the generated test case files into a list
+     */
+    private static class TestCaseCollector implements TestCaseListener
+    {
+        /**
+         * The generated test case files
+         */
+        private final List/* <File> */testCases = new ArrayList/* <File> */();
+
+        public void baseCopied( File outputDir )
+        {
+            // nothing to collect
+        }
+
+        public void testCaseGenerated( TagInfo tag, File testCase,
+                TestCaseId testId )
+        {
+            testCases.add( testCase );
+        }
+
+        public void parameterisedTestCaseGenerated( TagInfo tag, File page,
+                Map/* <TestCaseId, String> */pageTestCases )
+        {
+            testCases.add( page );
+        }
+
+        public void batchTestCaseGenerated( TagInfo tag, File page,
+                List/* <TestCaseId> */batchTestCases )
+        {
+            testCases.add( page );
+        }
+
+        /**
+         * Returns the generated test case files
+         * 
+         * @return a <code>List&lt;File&gt;</code> of the generated test case
+         *         files
+         */
+        List/* <File> */getTestCases()
+        {
+            return testCases;
+        }
+    }
 }
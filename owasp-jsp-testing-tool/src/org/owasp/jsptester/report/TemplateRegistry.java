@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.owasp.jsptester.conf.Configuration;
+
+/**
+ * Loads and parses each report template once and keeps it for the rest of
+ * the run, recording how often and for how long each template is merged.
+ * Templates are looked up by the configuration key naming their file.
+ * <p>
+ * Changes to the template files are ignored unless a modification check
+ * interval is configured, in which case Velocity reloads a template once the
+ * interval has passed and its file has changed. This is meant for template
+ * authors and costs a file check per merge.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TemplateRegistry
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( TemplateRegistry.class.getName() );
+
+    /**
+     * Velocity property holding the modification check interval of the file
+     * resource loader, in seconds
+     */
+    private static final String MODIFICATION_CHECK_INTERVAL = "file.resource.loader.modificationCheckInterval";
+
+    /**
+     * The Velocity engine loading the templates
+     */
+    private final VelocityEngine engine;
+
+    /**
+     * Whether templates are checked for modification
+     */
+    private final boolean checkModified;
+
+    /**
+     * Map&lt;String, Template&gt; of configuration key to loaded template
+     */
+    private final Map/* <String, Template> */templates = new HashMap();
+
+    /**
+     * Map&lt;String, MergeStats&gt; of configuration key to merge statistics
+     */
+    private final Map/* <String, MergeStats> */mergeStats = new TreeMap();
+
+    /**
+     * Creates a registry and configures the given engine, which must not yet
+     * be initialized, to cache the templates it loads
+     * 
+     * @param engine
+     *            the uninitialized Velocity engine
+     * @param checkInterval
+     *            the number of seconds between modification checks of a
+     *            template, or zero to never check
+     */
+    public TemplateRegistry( VelocityEngine engine, int checkInterval )
+    {
+        this.engine = engine;
+        this.checkModified = ( checkInterval > 0 );
+
+        engine.setProperty( RuntimeConstants.FILE_RESOURCE_LOADER_CACHE,
+                "true" );
+        engine.setProperty( MODIFICATION_CHECK_INTERVAL, String
+                .valueOf( Math.max( 0, checkInterval ) ) );
+    }
+
+    /**
+     * Returns the template named by the given configuration key, loading it
+     * on first use
+     * 
+     * @param templateKey
+     *            the configuration key naming the template file
+     * @return the template
+     * @throws VelocityException
+     *             if the template cannot be loaded or parsed
+     */
+    public synchronized Template getTemplate( String templateKey )
+            throws VelocityException
+    {
+        Template template = (Template) templates.get( templateKey );
+
+        if ( template == null || checkModified )
+        {
+            try
+            {
+                // the engine's resource cache reloads the template if it has
+                // been modified
+                template = engine.getTemplate( Configuration.getInstance()
+                        .getProperty( templateKey ) );
+            }
+            catch ( Exception e )
+            {
+                throw new VelocityException( e );
+            }
+
+            if ( templates.put( templateKey, template ) == null )
+            {
+                LOGGER.fine( "Loaded template " + template.getName() );
+            }
+        }
+
+        return template;
+    }
+
+    /**
+     * Merges the template named by the given configuration key with the
+     * given context into the given writer
+     * 
+     * @param templateKey
+     *            the configuration key naming the template file
+     * @param context
+     *            the context holding the template attributes
+     * @param output
+     *            the writer to merge the template into
+     * @throws VelocityException
+     *             if an error occurs loading or merging the template
+     */
+    public void merge( String templateKey, Context context, Writer output )
+            throws VelocityException
+    {
+        Template template = getTemplate( templateKey );
+
+        long start = System.nanoTime();
+
+        try
+        {
+            template.merge( context, output );
+        }
+        catch ( IOException ioe )
+        {
+            throw new VelocityException( ioe );
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        synchronized ( mergeStats )
+        {
+            MergeStats stats = (MergeStats) mergeStats.get( templateKey );
+            if ( stats == null )
+            {
+                stats = new MergeStats();
+                mergeStats.put( templateKey, stats );
+            }
+
+            stats.merges++;
+            stats.nanos += elapsed;
+        }
+    }
+
+    /**
+     * Returns the number of merges of all templates
+     * 
+     * @return the number of merges
+     */
+    public long getMerges()
+    {
+        long merges = 0;
+
+        synchronized ( mergeStats )
+        {
+            for ( Iterator/* <MergeStats> */itr = mergeStats.values()
+                    .iterator(); itr.hasNext(); )
+            {
+                merges += ( (MergeStats) itr.next() ).merges;
+            }
+        }
+
+        return merges;
+    }
+
+    /**
+     * Returns the time spent merging all templates, in milliseconds
+     * 
+     * @return the time spent merging
+     */
+    public long getMergeMillis()
+    {
+        long nanos = 0;
+
+        synchronized ( mergeStats )
+        {
+            for ( Iterator/* <MergeStats> */itr = mergeStats.values()
+                    .iterator(); itr.hasNext(); )
+            {
+                nanos += ( (MergeStats) itr.next() ).nanos;
+            }
+        }
+
+        return nanos / 1000000;
+    }
+
+    /**
+     * Logs the number of merges and time spent merging each template
+     */
+    public void logStatistics()
+    {
+        synchronized ( mergeStats )
+        {
+            for ( Iterator/* <Map.Entry<String, MergeStats>> */itr = mergeStats
+                    .entrySet().iterator(); itr.hasNext(); )
+            {
+                Map.Entry/* <String, MergeStats> */entry = (Map.Entry) itr
+                        .next();
+                MergeStats stats = (MergeStats) entry.getValue();
+
+                LOGGER.info( "Merged "
+                        + Configuration.getInstance().getProperty(
+                                (String) entry.getKey() ) + " "
+                        + stats.merges + " times in " + stats.nanos / 1000000
+                        + " ms" );
+            }
+        }
+    }
+
+    /**
+     * Merge statistics of a single template
+     */
+    private static class MergeStats
+    {
+        /**
+         * The number of merges
+         */
+        private long merges = 0;
+
+        /**
+         * The time spent merging, in nanoseconds
+         */
+        private long nanos = 0;
+    }
+}
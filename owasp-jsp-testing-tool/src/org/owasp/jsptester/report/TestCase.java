@@ -28,9 +28,14 @@
 package org.owasp.jsptester.report;
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.servlet.jsp.tagext.TagAttributeInfo;
@@ -53,6 +58,53 @@ public class TestCase
     private static final Logger LOGGER = Logger.getLogger( TestCase.class
             .getName() );
 
+    /**
+     * Request parameter holding the attack of a parameterised test case
+     */
+    public static final String ATTACK_PARAMETER = "attack";
+
+    /**
+     * Request parameter holding the identifier of a parameterised test case
+     */
+    public static final String TEST_ID_PARAMETER = "testId";
+
+    /**
+     * Request parameter holding the title of a parameterised test case
+     */
+    public static final String TEST_TITLE_PARAMETER = "testTitle";
+
+    /**
+     * Request parameter holding the JavaScript encoded attack of a
+     * parameterised test case
+     */
+    public static final String ENCODED_ATTACK_PARAMETER = "encodedAttack";
+
+    /**
+     * Separates an attack from its canary token. A line comment ends every
+     * attack in the library without changing what it executes.
+     */
+    public static final String CANARY_SEPARATOR = "//";
+
+    /**
+     * Name of the request scoped managed bean initialized with the attack
+     * parameter, as registered in faces-config.xml
+     */
+    private static final String ATTACK_BEAN = "AttackBean";
+
+    /**
+     * Encoding of the query strings of parameterised test cases, matching
+     * the Tomcat connector default
+     */
+    private static final String QUERY_ENCODING = "ISO-8859-1";
+
+    /**
+     * Set&lt;String&gt; of attributes that are always tested with the attack
+     * written into the page, since an expression would change their meaning
+     */
+    private static final Set/* <String> */LITERAL_ATTRIBUTES = Collections
+            .unmodifiableSet( new HashSet( Arrays.asList( new String[]
+                { "id", "binding" } ) ) );
+
     /**
      * Constructs an instance of <code>TestCase</code>
      */
@@ -61,6 +113,26 @@ public class TestCase
 
     }
 
+    /**
+     * Returns the given attack with the given canary token appended, so that
+     * its reflection can be traced back to the test case it was injected by.
+     * The attack string itself is left intact in front of the token.
+     * 
+     * @param attack
+     *            the attack to decorate
+     * @param canary
+     *            the canary token of the test case
+     * @return an attack with the same name and display name whose attack
+     *         string ends with the token
+     * @see org.owasp.jsptester.attack.CanaryIndex
+     */
+    public static Attack decorate( Attack attack, String canary )
+    {
+        return new Attack( attack.getName(), attack.getDisplayName(), attack
+                .getAttackString()
+                + CANARY_SEPARATOR + canary );
+    }
+
     /**
      * Create a proper JSP tag with the given attribute set to the given attack
      * 
@@ -106,6 +178,108 @@ public class TestCase
         return toReturn;
     }
 
+    /**
+     * Returns true if the given attribute can take its attack from the
+     * request, so that a single page tests the attribute with every attack.
+     * The attribute must accept a value expression or request time value;
+     * method expressions, the component id and binding are always tested
+     * with literal pages.
+     * 
+     * @param attr
+     *            the attribute being tested
+     * @return true if the attribute can be tested with a parameterised page
+     */
+    public static boolean isParameterisable( TagAttributeInfo attr )
+    {
+        return !LITERAL_ATTRIBUTES.contains( attr.getName() )
+                && !attr.isDeferredMethod() && !attr.isFragment()
+                && ( attr.isDeferredValue() || attr.canBeRequestTime() );
+    }
+
+    /**
+     * Create a proper JSP tag with the given attribute bound to the attack
+     * supplied in the request, through the request scoped attack bean
+     * 
+     * @param tagLibrary
+     *            the tagLibrary being tested
+     * @param tag
+     *            the tag being tested
+     * @param attr
+     *            the attribute being tested; must be parameterisable
+     * @return a String representing the valid JSP tag syntax for this test
+     *         case
+     * @see #isParameterisable(TagAttributeInfo)
+     */
+    public static String generateParameterisedAttrTestCaseJspTag(
+            TagLibraryInfo tagLibrary, TagInfo tag, TagAttributeInfo attr,
+            Map/* <TagAttributeInfo, String> */reqAttrs )
+    {
+        LOGGER.entering( TestCase.class.getName(),
+                "generateParameterisedAttrTestCaseJspTag", new Object[]
+                    { tagLibrary, tag, attr, reqAttrs } );
+
+        // create the tag
+        XML customTag = new XML( tagLibrary.getShortName() + ":"
+                + tag.getTagName() );
+
+        // bind the attribute to the attack bean; deferred values must use
+        // deferred syntax
+        customTag.addAttribute( attr.getName(), ( attr.isDeferredValue() ? "#{"
+                : "${" )
+                + ATTACK_BEAN + ".test}" );
+
+        // for any required attributes, add the attributes to the tag
+        for ( Iterator/* <TagAttributeInfo> */itr = reqAttrs.keySet()
+                .iterator(); itr.hasNext(); )
+        {
+            TagAttributeInfo reqAttr = (TagAttributeInfo) itr.next();
+            customTag.addAttribute( reqAttr.getName(), reqAttrs.get( reqAttr )
+                    .toString() );
+        }
+
+        String toReturn = customTag.toString();
+
+        LOGGER.exiting( TestCase.class.getName(),
+                "generateParameterisedAttrTestCaseJspTag", toReturn );
+
+        return toReturn;
+    }
+
+    /**
+     * Returns the expression that renders the given request parameter in a
+     * parameterised test case
+     * 
+     * @param parameter
+     *            the name of the request parameter
+     * @return the expression rendering the parameter
+     */
+    public static String getParameterExpression( String parameter )
+    {
+        return "${param." + parameter + "}";
+    }
+
+    /**
+     * Returns a query string parameter with the given name and value
+     * 
+     * @param parameter
+     *            the name of the parameter
+     * @param value
+     *            the value of the parameter
+     * @return the encoded <code>name=value</code> pair
+     */
+    public static String encodeParameter( String parameter, String value )
+    {
+        try
+        {
+            return parameter + "=" + URLEncoder.encode( value, QUERY_ENCODING );
+        }
+        catch ( UnsupportedEncodingException uee )
+        {
+            // every JVM supports ISO-8859-1
+            throw new IllegalStateException( uee.getMessage() );
+        }
+    }
+
     /**
      * Create a proper JSP tag with the given attack embedded in the tag
      * 
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Utility class describing the pages that hold a batch of test cases for the
+ * same tag. The tag prefix and suffix are rendered once for the whole batch,
+ * and every test case is delimited by markers carrying its name, so the
+ * rendered page can be split back into one page per test case, laid out like
+ * a page rendering a single test case.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TestCaseBatch
+{
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( TestCaseBatch.class
+            .getName() );
+
+    /**
+     * Appended to the name of a page holding a batch of test cases, keeping
+     * it apart from the test case names
+     */
+    public static final String BATCH_SUFFIX = ".batch";
+
+    /**
+     * Marks the end of the page header shared by every test case
+     */
+    public static final String PREFIX_MARKER = "<!--test-case-batch-prefix-->";
+
+    /**
+     * Marks the start of the page footer shared by every test case
+     */
+    public static final String SUFFIX_MARKER = "<!--test-case-batch-suffix-->";
+
+    /**
+     * Starts the marker preceding the details of a test case
+     */
+    private static final String BEGIN_MARKER = "<!--test-case-begin ";
+
+    /**
+     * Starts the marker preceding the tag under test of a test case
+     */
+    private static final String TAG_MARKER = "<!--test-case-tag ";
+
+    /**
+     * Starts the marker following the tag under test of a test case
+     */
+    private static final String END_MARKER = "<!--test-case-end ";
+
+    /**
+     * Closes each test case marker
+     */
+    private static final String MARKER_CLOSE = "-->";
+
+    /**
+     * Encoding of the rendered pages, as declared by the test case templates
+     */
+    private static final String PAGE_ENCODING = "ISO-8859-1";
+
+    /**
+     * Constructs an instance of <code>TestCaseBatch</code>
+     */
+    private TestCaseBatch()
+    {
+
+    }
+
+    /**
+     * Returns the marker preceding the details of the given test case
+     * 
+     * @param testCaseName
+     *            the name of the test case file
+     * @param testTitle
+     *            the title of the test case
+     * @return the marker
+     */
+    public static String getBeginMarker( String testCaseName, String testTitle )
+    {
+        return BEGIN_MARKER + testCaseName + " " + testTitle + MARKER_CLOSE;
+    }
+
+    /**
+     * Returns the marker preceding the tag under test of the given test case
+     * 
+     * @param testCaseName
+     *            the name of the test case file
+     * @return the marker
+     */
+    public static String getTagMarker( String testCaseName )
+    {
+        return TAG_MARKER + testCaseName + MARKER_CLOSE;
+    }
+
+    /**
+     * Returns the marker following the tag under test of the given test case
+     * 
+     * @param testCaseName
+     *            the name of the test case file
+     * @return the marker
+     */
+    public static String getEndMarker( String testCaseName )
+    {
+        return END_MARKER + testCaseName + MARKER_CLOSE;
+    }
+
+    /**
+     * Splits the given rendered batch page into a page for each of the given
+     * test cases. A test case whose markers are missing, as when rendering
+     * failed part way and an error page was returned instead, is given the
+     * whole rendered page.
+     * 
+     * @param page
+     *            the rendered batch page
+     * @param testCaseNames
+     *            <code>List&lt;String&gt;</code> of the names of the test
+     *            cases in the batch
+     * @return <code>Map&lt;String, String&gt;</code> of test case name to
+     *         page, in batch order
+     */
+    public static Map/* <String, String> */split( String page,
+            List/* <String> */testCaseNames )
+    {
+        Map/* <String, String> */pages = new LinkedHashMap();
+
+        int prefixIdx = page.indexOf( PREFIX_MARKER );
+        int suffixIdx = page.lastIndexOf( SUFFIX_MARKER );
+
+        // Map<String, int[]> of test case name to marker positions
+        Map/* <String, int[]> */cases = new LinkedHashMap();
+        int[] first = null;
+        int[] last = null;
+        int searchIdx = prefixIdx;
+        for ( Iterator/* <String> */itr = testCaseNames.iterator(); prefixIdx >= 0
+                && itr.hasNext(); )
+        {
+            String name = (String) itr.next();
+
+            int[] markers = findMarkers( page, name, searchIdx, suffixIdx );
+            if ( markers != null )
+            {
+                cases.put( name, markers );
+                searchIdx = markers[4];
+
+                first = ( first == null ? markers : first );
+                last = markers;
+            }
+        }
+
+        if ( cases.isEmpty() )
+        {
+            LOGGER.warning( "No test cases found in rendered batch "
+                    + testCaseNames );
+        }
+        else
+        {
+            // the prefix runs from the prefix marker to the first test case,
+            // the suffix from the last test case to the suffix marker
+            String head = page.substring( 0, prefixIdx );
+            String prefix = page.substring( prefixIdx
+                    + PREFIX_MARKER.length(), first[0] );
+            String suffix = page.substring( last[4], suffixIdx );
+            String tail = page.substring( suffixIdx + SUFFIX_MARKER.length() );
+
+            for ( Iterator/* <Map.Entry<String, int[]>> */itr = cases
+                    .entrySet().iterator(); itr.hasNext(); )
+            {
+                Map.Entry/* <String, int[]> */testCase = (Map.Entry) itr
+                        .next();
+                int[] markers = (int[]) testCase.getValue();
+
+                String title = page.substring( markers[1], markers[2] );
+                String details = page.substring( markers[2]
+                        + MARKER_CLOSE.length(), markers[3] );
+                String tag = page.substring( markers[3]
+                        + getTagMarker( (String) testCase.getKey() ).length(),
+                        markers[4]
+                                - getEndMarker( (String) testCase.getKey() )
+                                        .length() );
+
+                pages.put( testCase.getKey(), setTitle( head, title )
+                        + details + prefix + tag + suffix + tail );
+            }
+        }
+
+        // test cases without markers get the page as it was rendered
+        for ( Iterator/* <String> */itr = testCaseNames.iterator(); itr
+                .hasNext(); )
+        {
+            String name = (String) itr.next();
+
+            if ( !pages.containsKey( name ) )
+            {
+                LOGGER.fine( "Test case " + name
+                        + " not found in rendered batch" );
+                pages.put( name, page );
+            }
+        }
+
+        return pages;
+    }
+
+    /**
+     * Splits the given rendered batch page file into a file for each of the
+     * given test cases, written to the same directory
+     * 
+     * @param renderedBatch
+     *            the rendered batch page
+     * @param testCaseNames
+     *            <code>List&lt;String&gt;</code> of the names of the test
+     *            cases in the batch
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void split( File renderedBatch,
+            List/* <String> */testCaseNames ) throws IOException
+    {
+        Map/* <String, String> */pages = split( FileUtils.readFileToString(
+                renderedBatch, PAGE_ENCODING ), testCaseNames );
+
+        for ( Iterator/* <Map.Entry<String, String>> */itr = pages.entrySet()
+                .iterator(); itr.hasNext(); )
+        {
+            Map.Entry/* <String, String> */testCase = (Map.Entry) itr.next();
+
+            FileUtils.writeStringToFile( new File( renderedBatch
+                    .getParentFile(), (String) testCase.getKey() ),
+                    (String) testCase.getValue(), PAGE_ENCODING );
+        }
+    }
+
+    /**
+     * Finds the markers of the given test case between the given positions
+     * 
+     * @param page
+     *            the rendered batch page
+     * @param name
+     *            the name of the test case
+     * @param fromIdx
+     *            the position to start searching from
+     * @param toIdx
+     *            the position the markers must end before
+     * @return the start of the begin marker, the start and end of the title
+     *         in the begin marker, the start of the tag marker and the end of
+     *         the end marker; or null if any marker is missing
+     */
+    private static int[] findMarkers( String page, String name, int fromIdx,
+            int toIdx )
+    {
+        String begin = BEGIN_MARKER + name + " ";
+
+        int beginIdx = page.indexOf( begin, fromIdx );
+        int titleEndIdx = ( beginIdx < 0 ? -1 : page.indexOf( MARKER_CLOSE,
+                beginIdx ) );
+        int tagIdx = ( titleEndIdx < 0 ? -1 : page.indexOf(
+                getTagMarker( name ), titleEndIdx ) );
+        int endIdx = ( tagIdx < 0 ? -1 : page.indexOf( getEndMarker( name ),
+                tagIdx ) );
+
+        if ( endIdx < 0 || endIdx >= toIdx )
+        {
+            return null;
+        }
+
+        return new int[]
+            { beginIdx, beginIdx + begin.length(), titleEndIdx, tagIdx,
+                    endIdx + getEndMarker( name ).length() };
+    }
+
+    /**
+     * Replaces the title of the given page header
+     * 
+     * @param head
+     *            the page header
+     * @param title
+     *            the new title
+     * @return the page header with the new title
+     */
+    private static String setTitle( String head, String title )
+    {
+        int startIdx = head.indexOf( "<title>" );
+        int endIdx = head.indexOf( "</title>", startIdx );
+
+        if ( startIdx < 0 || endIdx < 0 )
+        {
+            return head;
+        }
+
+        return head.substring( 0, startIdx + "<title>".length() ) + title
+                + head.substring( endIdx );
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import org.owasp.jsptester.conf.Configuration;
+
+/**
+ * Identifies a generated test case by the tag, attribute and attack it
+ * tests. The identifier is passed along with the test case from the
+ * <code>ReportGenerator</code> to its results, so the parts never have to
+ * be recovered from the test case's name, which may contain hyphens in any
+ * of them.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TestCaseId
+{
+    /**
+     * The name of the tag tested
+     */
+    private final String tagName;
+
+    /**
+     * The name of the attribute tested, or null for a test of the tag body
+     */
+    private final String attributeName;
+
+    /**
+     * The name of the attack injected
+     */
+    private final String attackName;
+
+    /**
+     * Creates the identifier of a test case
+     * 
+     * @param tagName
+     *            the name of the tag tested
+     * @param attributeName
+     *            the name of the attribute tested, or null for a test of the
+     *            tag body
+     * @param attackName
+     *            the name of the attack injected
+     */
+    public TestCaseId( String tagName, String attributeName, String attackName )
+    {
+        this.tagName = tagName;
+        this.attributeName = attributeName;
+        this.attackName = attackName;
+    }
+
+    /**
+     * Returns the name of the tag tested
+     * 
+     * @return the name of the tag tested
+     */
+    public String getTagName()
+    {
+        return tagName;
+    }
+
+    /**
+     * Returns the name of the attribute tested
+     * 
+     * @return the name of the attribute tested, or null for a test of the
+     *         tag body
+     */
+    public String getAttributeName()
+    {
+        return attributeName;
+    }
+
+    /**
+     * Returns the name of the attack injected
+     * 
+     * @return the name of the attack injected
+     */
+    public String getAttackName()
+    {
+        return attackName;
+    }
+
+    /**
+     * Returns the name of the test case file [tagName-attackName.jsp] or
+     * [tagName-attrName-attackName.jsp]
+     * 
+     * @return the name of the test case file
+     */
+    public String getName()
+    {
+        return toString()
+                + Configuration.getInstance().getProperty(
+                        Configuration.REPORT_FILE_EXTENSION );
+    }
+
+    /**
+     * Returns the identifier of the test case, which is the tag name, the
+     * attribute name for attribute tests and the attack name joined by
+     * hyphens
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return tagName + "-"
+                + ( attributeName == null ? "" : attributeName + "-" )
+                + attackName;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.jsp.tagext.TagInfo;
+
+/**
+ * Receives the files produced by the <code>ReportGenerator</code> as they
+ * are generated, allowing test cases to be processed while generation is
+ * still running
+ * 
+ * @author Jason Li
+ * 
+ */
+public interface TestCaseListener
+{
+    /**
+     * Called once the base files of the web application have been copied to
+     * the output directory, before any test case is generated
+     * 
+     * @param outputDir
+     *            the output directory holding the web application
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    void baseCopied( File outputDir ) throws IOException;
+
+    /**
+     * Called after a test case file has been completely written
+     * 
+     * @param tag
+     *            the tag being tested
+     * @param testCase
+     *            the test case file
+     * @param testId
+     *            the identifier of the test case
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    void testCaseGenerated( TagInfo tag, File testCase, TestCaseId testId )
+            throws IOException;
+
+    /**
+     * Called after a parameterised test case page has been completely
+     * written. The page stands in for several test cases, each rendered by
+     * requesting the page with its own query string.
+     * 
+     * @param tag
+     *            the tag being tested
+     * @param page
+     *            the parameterised page
+     * @param testCases
+     *            <code>Map&lt;TestCaseId, String&gt;</code> of test case to
+     *            the query string rendering that test case, in generation
+     *            order
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    void parameterisedTestCaseGenerated( TagInfo tag, File page,
+            Map/* <TestCaseId, String> */testCases ) throws IOException;
+
+    /**
+     * Called after a page holding a batch of test cases has been completely
+     * written. The page is rendered once and the rendered page is split into
+     * a file for each of its test cases with <code>TestCaseBatch</code>.
+     * 
+     * @param tag
+     *            the tag being tested
+     * @param page
+     *            the batch page
+     * @param testCases
+     *            <code>List&lt;TestCaseId&gt;</code> of the test cases in the
+     *            batch, in generation order
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    void batchTestCaseGenerated( TagInfo tag, File page,
+            List/* <TestCaseId> */testCases ) throws IOException;
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+/**
+ * The result of a single rendered test case, as written to a
+ * {@link ResultSink}: the verdict together with the details of the response
+ * it was decided from.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TestResult
+{
+    /**
+     * The name of the tag tested
+     */
+    private final String tagName;
+
+    /**
+     * The name of the attribute tested, or null for a test of the tag body
+     */
+    private final String attributeName;
+
+    /**
+     * The name of the attack injected
+     */
+    private final String attackName;
+
+    /**
+     * The verdict of the test case
+     */
+    private final Verdict verdict;
+
+    /**
+     * The HTTP status of the response
+     */
+    private final int status;
+
+    /**
+     * The length of the response in bytes
+     */
+    private final long bytes;
+
+    /**
+     * The time (in milliseconds) taken to render the response
+     */
+    private final long latency;
+
+    /**
+     * Creates the result of the given test case
+     * 
+     * @param testId
+     *            the identifier of the test case
+     * @param verdict
+     *            the verdict of the test case
+     * @param status
+     *            the HTTP status of the response
+     * @param bytes
+     *            the length of the response in bytes
+     * @param latency
+     *            the time (in milliseconds) taken to render the response
+     */
+    public TestResult( TestCaseId testId, Verdict verdict, int status,
+            long bytes, long latency )
+    {
+        this.tagName = testId.getTagName();
+        this.attributeName = testId.getAttributeName();
+        this.attackName = testId.getAttackName();
+        this.verdict = verdict;
+        this.status = status;
+        this.bytes = bytes;
+        this.latency = latency;
+    }
+
+    /**
+     * Returns the identifier of the test case
+     * 
+     * @return the identifier of the test case
+     */
+    public String getTestId()
+    {
+        return verdict.getTestId();
+    }
+
+    /**
+     * Returns the name of the tag tested
+     * 
+     * @return the name of the tag tested
+     */
+    public String getTagName()
+    {
+        return tagName;
+    }
+
+    /**
+     * Returns the name of the attribute tested
+     * 
+     * @return the name of the attribute tested, or null for a test of the
+     *         tag body
+     */
+    public String getAttributeName()
+    {
+        return attributeName;
+    }
+
+    /**
+     * Returns the name of the attack injected
+     * 
+     * @return the name of the attack injected
+     */
+    public String getAttackName()
+    {
+        return attackName;
+    }
+
+    /**
+     * Returns the verdict of the test case
+     * 
+     * @return the verdict of the test case
+     */
+    public Verdict getVerdict()
+    {
+        return verdict;
+    }
+
+    /**
+     * Returns the HTTP status of the response
+     * 
+     * @return the HTTP status of the response
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns the length of the response in bytes
+     * 
+     * @return the length of the response in bytes
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns the time taken to render the response
+     * 
+     * @return the time (in milliseconds) taken to render the response
+     */
+    public long getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Returns a description of the result
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return verdict + " [" + status + ", " + bytes + " bytes, " + latency
+                + " ms]";
+    }
+}
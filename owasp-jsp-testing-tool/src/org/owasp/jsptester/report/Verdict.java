@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+/**
+ * The outcome of a single test case, as decided by the
+ * <code>VerdictEngine</code>. The results are named after the classes the
+ * report pages give to the test case cells.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class Verdict
+{
+    /**
+     * The attack was rendered but did not run
+     */
+    public static final String PASS = "pass";
+
+    /**
+     * The attack ran
+     */
+    public static final String FAIL = "fail";
+
+    /**
+     * The attack did not appear in the rendered test case at all
+     */
+    public static final String SAFE = "safe";
+
+    /**
+     * The test case could not be rendered
+     */
+    public static final String NOT_TESTED = "not-tested";
+
+    /**
+     * The identifier of the test case
+     */
+    private final String testId;
+
+    /**
+     * The result of the test case
+     */
+    private final String result;
+
+    /**
+     * Why the result was given, or null
+     */
+    private final String detail;
+
+    /**
+     * Creates a verdict
+     * 
+     * @param testId
+     *            the identifier of the test case
+     * @param result
+     *            one of PASS, FAIL, SAFE or NOT_TESTED
+     * @param detail
+     *            why the result was given, or null
+     */
+    public Verdict( String testId, String result, String detail )
+    {
+        this.testId = testId;
+        this.result = result;
+        this.detail = detail;
+    }
+
+    /**
+     * Returns the identifier of the test case
+     * 
+     * @return the identifier of the test case
+     */
+    public String getTestId()
+    {
+        return testId;
+    }
+
+    /**
+     * Returns the result of the test case
+     * 
+     * @return one of PASS, FAIL, SAFE or NOT_TESTED
+     */
+    public String getResult()
+    {
+        return result;
+    }
+
+    /**
+     * Returns why the result was given
+     * 
+     * @return the reason, or null
+     */
+    public String getDetail()
+    {
+        return detail;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return testId + ": " + result
+                + ( detail == null ? "" : " (" + detail + ")" );
+    }
+}
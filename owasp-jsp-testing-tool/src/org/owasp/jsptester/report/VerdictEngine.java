@@ -0,0 +1,717 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.report;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.conf.Configuration;
+
+/**
+ * Decides the outcome of serialized test cases without a browser. The report
+ * pages load every test case in a frame and read the result field the test
+ * case page leaves behind; the engine reproduces that logic on the
+ * serialized page instead:
+ * <ul>
+ * <li>a page holding the <code>error</code> field written by error.jsp was
+ * not tested;</li>
+ * <li>a script element in the test case that calls <code>x()</code> fails
+ * the test case, as the page's <code>x()</code> hook would;</li>
+ * <li>an event handler in the test case whose value is exactly the attack
+ * and calls <code>x()</code> fails the test case, as
+ * <code>checkEventHandlers()</code> would;</li>
+ * <li>a CSS expression in the test case that calls <code>x()</code> fails
+ * the test case, as Internet Explorer evaluates such expressions.</li>
+ * </ul>
+ * A test case that does not fail passes, unless the attack does not appear
+ * in the rendered tag at all, in which case it is safe.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class VerdictEngine
+{
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( VerdictEngine.class
+            .getName() );
+
+    /**
+     * The declaration of the attack checked against event handlers, holding
+     * the JavaScript encoded attack
+     */
+    private static final Pattern ATTACK_DECLARATION = Pattern
+            .compile( "var\\s+attack\\s*=\\s*\"((?:[^\"\\\\]|\\\\.)*)\"" );
+
+    /**
+     * The start of a CSS expression
+     */
+    private static final Pattern CSS_EXPRESSION = Pattern.compile(
+            "expression\\s*\\(", Pattern.CASE_INSENSITIVE );
+
+    /**
+     * Encoding of the serialized test cases, as declared by the test case
+     * templates
+     */
+    private static final String PAGE_ENCODING = "ISO-8859-1";
+
+    /**
+     * The number of threads evaluating test cases
+     */
+    private final int threads;
+
+    /**
+     * Creates an engine evaluating test cases on the given number of threads
+     * 
+     * @param threads
+     *            the number of threads; one evaluates test cases
+     *            sequentially
+     */
+    public VerdictEngine( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Evaluates every serialized test case in the given directory. Rendered
+     * batch pages are skipped, since their test cases have been split into
+     * files of their own.
+     * 
+     * @param dir
+     *            the directory holding the serialized test cases
+     * @return a <code>List&lt;Verdict&gt;</code> ordered by test case name
+     * @throws IOException
+     *             if a test case cannot be read
+     */
+    public List/* <Verdict> */evaluateAll( File dir ) throws IOException
+    {
+        LOGGER.entering( VerdictEngine.class.getName(), "evaluateAll", dir );
+
+        String extension = Configuration.getInstance().getProperty(
+                Configuration.REPORT_FILE_EXTENSION );
+
+        File[] files = dir.listFiles();
+        files = ( files == null ? new File[0] : files );
+        Arrays.sort( files );
+
+        // List<File> of serialized test cases
+        final List/* <File> */testCases = new ArrayList();
+        for ( int fileIdx = 0; fileIdx < files.length; fileIdx++ )
+        {
+            String name = files[fileIdx].getName();
+
+            if ( files[fileIdx].isFile() && name.endsWith( extension )
+                    && !name.endsWith( TestCaseBatch.BATCH_SUFFIX + extension ) )
+            {
+                testCases.add( files[fileIdx] );
+            }
+        }
+
+        List/* <Verdict> */verdicts = new ArrayList();
+
+        if ( threads == 1 )
+        {
+            for ( Iterator/* <File> */itr = testCases.iterator(); itr
+                    .hasNext(); )
+            {
+                verdicts.add( evaluate( (File) itr.next() ) );
+            }
+        }
+        else
+        {
+            verdicts = evaluateInParallel( testCases );
+        }
+
+        LOGGER.exiting( VerdictEngine.class.getName(), "evaluateAll" );
+
+        return verdicts;
+    }
+
+    /**
+     * Evaluates the given test cases on a pool of threads
+     * 
+     * @param testCases
+     *            <code>List&lt;File&gt;</code> of serialized test cases
+     * @return a <code>List&lt;Verdict&gt;</code> in test case order
+     * @throws IOException
+     *             if a test case cannot be read
+     */
+    private List/* <Verdict> */evaluateInParallel(
+            List/* <File> */testCases ) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( threads,
+                new ThreadFactory()
+                {
+                    private int count = 0;
+
+                    public synchronized Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "verdict-"
+                                + ( ++count ) );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+
+        try
+        {
+            // List<Future<Verdict>> in test case order
+            List/* <Future> */tasks = new ArrayList();
+            for ( Iterator/* <File> */itr = testCases.iterator(); itr
+                    .hasNext(); )
+            {
+                final File testCase = (File) itr.next();
+
+                tasks.add( executor.submit( new Callable()
+                {
+                    public Object call() throws IOException
+                    {
+                        return evaluate( testCase );
+                    }
+                } ) );
+            }
+
+            List/* <Verdict> */verdicts = new ArrayList();
+            for ( Iterator/* <Future> */itr = tasks.iterator(); itr.hasNext(); )
+            {
+                verdicts.add( waitFor( (Future) itr.next() ) );
+            }
+
+            return verdicts;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the given evaluation task and returns its verdict
+     * 
+     * @param task
+     *            the task
+     * @return the verdict
+     * @throws IOException
+     *             if the task failed or the thread was interrupted
+     */
+    private static Verdict waitFor( Future/* <Verdict> */task )
+            throws IOException
+    {
+        try
+        {
+            return (Verdict) task.get();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while evaluating test cases" );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            IOException ioe = new IOException( "Unable to evaluate test cases" );
+            ioe.initCause( cause );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Evaluates a serialized test case
+     * 
+     * @param testCase
+     *            the serialized test case
+     * @return the verdict
+     * @throws IOException
+     *             if the test case cannot be read
+     */
+    public Verdict evaluate( File testCase ) throws IOException
+    {
+        return evaluate( testCase.getName(), FileUtils.readFileToString(
+                testCase, PAGE_ENCODING ) );
+    }
+
+    /**
+     * Evaluates a serialized test case
+     * 
+     * @param testCaseName
+     *            the name of the test case file
+     * @param page
+     *            the serialized test case
+     * @return the verdict
+     */
+    public Verdict evaluate( String testCaseName, String page )
+    {
+        String testId = ( testCaseName.lastIndexOf( '.' ) > 0 ? testCaseName
+                .substring( 0, testCaseName.lastIndexOf( '.' ) )
+                : testCaseName );
+
+        Matcher declaration = ATTACK_DECLARATION.matcher( page );
+        String attack = ( declaration.find() ? decodeJavaScript( declaration
+                .group( 1 ) ) : "" );
+
+        HtmlTokenizer tokens = new HtmlTokenizer( page );
+
+        boolean hasResult = false;
+        String error = null;
+        String failure = null;
+        boolean rendered = false;
+
+        // the depth of nested div elements inside the test case
+        int testCaseDepth = 0;
+        int testCaseStart = -1;
+        int testCaseEnd = -1;
+
+        // the script or style element whose content is the next token
+        String rawTextElement = null;
+
+        while ( tokens.next() && failure == null )
+        {
+            String element = rawTextElement;
+            rawTextElement = null;
+
+            if ( tokens.getType() == HtmlTokenizer.START_TAG )
+            {
+                String name = tokens.getName();
+                String id = tokens.getAttribute( "id" );
+
+                if ( "input".equals( name ) && "result".equals( id ) )
+                {
+                    hasResult = true;
+                }
+                else if ( "input".equals( name ) && "error".equals( id )
+                        && error == null )
+                {
+                    error = tokens.getAttribute( "value" );
+                }
+
+                if ( testCaseDepth > 0 )
+                {
+                    testCaseDepth += ( "div".equals( name ) ? 1 : 0 );
+                    failure = checkAttributes( name, tokens.getAttributes(),
+                            attack );
+                    rendered |= attributesContain( tokens.getAttributes(),
+                            attack );
+                }
+                else if ( "div".equals( name ) && "test-case".equals( id ) )
+                {
+                    testCaseDepth = 1;
+                    testCaseStart = tokens.getEnd();
+                }
+
+                if ( "script".equals( name ) || "style".equals( name ) )
+                {
+                    rawTextElement = name;
+                }
+            }
+            else if ( tokens.getType() == HtmlTokenizer.END_TAG )
+            {
+                if ( testCaseDepth > 0 && "div".equals( tokens.getName() )
+                        && --testCaseDepth == 0 )
+                {
+                    testCaseEnd = tokens.getStart();
+                }
+            }
+            else if ( tokens.getType() == HtmlTokenizer.TEXT
+                    && testCaseDepth > 0 )
+            {
+                String text = tokens.getText();
+
+                if ( "script".equals( element ) && callsHook( text ) )
+                {
+                    failure = "A script element runs the attack";
+                }
+                else if ( "style".equals( element )
+                        && runsCssExpression( text ) )
+                {
+                    failure = "A style element runs the attack";
+                }
+
+                rendered |= ( attack.length() > 0 && text.indexOf( attack ) >= 0 );
+            }
+        }
+
+        // an attack that broke out of an attribute is split up once the
+        // markup is parsed, but is still in the markup as it was rendered
+        if ( !rendered && attack.length() > 0 && testCaseStart >= 0 )
+        {
+            rendered = ( page.substring( testCaseStart,
+                    testCaseEnd < 0 ? page.length() : testCaseEnd ).indexOf(
+                    attack ) >= 0 );
+        }
+
+        if ( error != null )
+        {
+            return new Verdict( testId, Verdict.NOT_TESTED, error );
+        }
+        if ( !hasResult )
+        {
+            return new Verdict( testId, Verdict.NOT_TESTED,
+                    "No result field in the rendered test case" );
+        }
+        if ( failure != null )
+        {
+            return new Verdict( testId, Verdict.FAIL, failure );
+        }
+        if ( attack.length() > 0 && !rendered )
+        {
+            return new Verdict( testId, Verdict.SAFE,
+                    "The attack was not rendered" );
+        }
+
+        return new Verdict( testId, Verdict.PASS, null );
+    }
+
+    /**
+     * Checks whether the attributes of an element in the test case run the
+     * attack
+     * 
+     * @param name
+     *            the element name
+     * @param attributes
+     *            <code>List&lt;String[]&gt;</code> of attribute name and
+     *            value
+     * @param attack
+     *            the attack checked against event handlers, or an empty
+     *            string
+     * @return why the attack runs, or null if it does not
+     */
+    private static String checkAttributes( String name,
+            List/* <String[]> */attributes, String attack )
+    {
+        for ( Iterator/* <String[]> */itr = attributes.iterator(); itr
+                .hasNext(); )
+        {
+            String[] attr = (String[]) itr.next();
+
+            // checkEventHandlers() evaluates handlers holding the attack
+            if ( attr[0].startsWith( "on" ) && attack.length() > 0
+                    && attr[1].equals( attack ) && callsHook( attr[1] ) )
+            {
+                return "The " + attr[0] + " handler of " + name
+                        + " runs the attack";
+            }
+
+            if ( "style".equals( attr[0] ) && runsCssExpression( attr[1] ) )
+            {
+                return "The style of " + name + " runs the attack";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether any of the given attribute values contains the attack
+     * 
+     * @param attributes
+     *            <code>List&lt;String[]&gt;</code> of attribute name and
+     *            value
+     * @param attack
+     *            the attack, or an empty string
+     * @return true if an attribute value contains the attack
+     */
+    private static boolean attributesContain( List/* <String[]> */attributes,
+            String attack )
+    {
+        for ( Iterator/* <String[]> */itr = attributes.iterator(); attack
+                .length() > 0
+                && itr.hasNext(); )
+        {
+            if ( ( (String[]) itr.next() )[1].indexOf( attack ) >= 0 )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given CSS holds an expression calling the test
+     * case's <code>x()</code> hook
+     * 
+     * @param css
+     *            the CSS
+     * @return true if an expression calls the hook
+     */
+    private static boolean runsCssExpression( String css )
+    {
+        Matcher expression = CSS_EXPRESSION.matcher( css );
+
+        while ( expression.find() )
+        {
+            if ( callsHook( css.substring( expression.end() ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given script calls the test case's
+     * <code>x()</code> hook, ignoring string literals, comments and the
+     * declaration of the hook itself
+     * 
+     * @param script
+     *            the script
+     * @return true if the script calls the hook
+     */
+    static boolean callsHook( String script )
+    {
+        int length = script.length();
+
+        for ( int idx = 0; idx < length; idx++ )
+        {
+            char c = script.charAt( idx );
+
+            if ( c == '"' || c == '\'' )
+            {
+                // skip the string literal
+                for ( idx++; idx < length && script.charAt( idx ) != c; idx++ )
+                {
+                    idx += ( script.charAt( idx ) == '\\' ? 1 : 0 );
+                }
+            }
+            else if ( script.startsWith( "//", idx ) )
+            {
+                int endIdx = script.indexOf( '\n', idx );
+                idx = ( endIdx < 0 ? length : endIdx );
+            }
+            else if ( script.startsWith( "/*", idx ) )
+            {
+                int endIdx = script.indexOf( "*/", idx + 2 );
+                idx = ( endIdx < 0 ? length : endIdx + 1 );
+            }
+            else if ( c == 'x'
+                    && ( idx == 0 || !isIdentifierPart( script.charAt( idx - 1 ) ) )
+                    && ( idx + 1 == length || !isIdentifierPart( script
+                            .charAt( idx + 1 ) ) ) )
+            {
+                int parenIdx = idx + 1;
+                while ( parenIdx < length
+                        && Character.isWhitespace( script.charAt( parenIdx ) ) )
+                {
+                    parenIdx++;
+                }
+
+                if ( parenIdx < length && script.charAt( parenIdx ) == '('
+                        && !script.substring( 0, idx ).trim().endsWith(
+                                "function" ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given character continues an identifier or member
+     * access
+     * 
+     * @param c
+     *            the character
+     * @return true if the character is part of an identifier or a dot
+     */
+    private static boolean isIdentifierPart( char c )
+    {
+        return Character.isJavaIdentifierPart( c ) || c == '.';
+    }
+
+    /**
+     * Decodes the escapes in the given JavaScript string literal content
+     * 
+     * @param encoded
+     *            the content of the string literal
+     * @return the decoded string
+     */
+    static String decodeJavaScript( String encoded )
+    {
+        StringBuffer decoded = new StringBuffer( encoded.length() );
+
+        for ( int idx = 0; idx < encoded.length(); idx++ )
+        {
+            char c = encoded.charAt( idx );
+            if ( c != '\\' || idx + 1 == encoded.length() )
+            {
+                decoded.append( c );
+                continue;
+            }
+
+            char escape = encoded.charAt( ++idx );
+            int digits = ( escape == 'x' ? 2 : ( escape == 'u' ? 4 : 0 ) );
+
+            if ( digits > 0 && idx + digits < encoded.length() )
+            {
+                try
+                {
+                    decoded.append( (char) Integer.parseInt( encoded
+                            .substring( idx + 1, idx + 1 + digits ), 16 ) );
+                    idx += digits;
+                    continue;
+                }
+                catch ( NumberFormatException nfe )
+                {
+                    // not an escape; keep the character as it is
+                }
+            }
+
+            switch ( escape )
+            {
+                case 'n':
+                    decoded.append( '\n' );
+                    break;
+                case 'r':
+                    decoded.append( '\r' );
+                    break;
+                case 't':
+                    decoded.append( '\t' );
+                    break;
+                default:
+                    decoded.append( escape );
+            }
+        }
+
+        return decoded.toString();
+    }
+
+    /**
+     * Writes the given verdicts to the given file, one tab separated line of
+     * test case identifier, result and detail per test case. The file is
+     * encoded in UTF-8, like the result files.
+     * 
+     * @param verdicts
+     *            <code>List&lt;Verdict&gt;</code> of the verdicts to write
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void write( List/* <Verdict> */verdicts, File file )
+            throws IOException
+    {
+        PrintWriter writer = null;
+        try
+        {
+            writer = new PrintWriter( new OutputStreamWriter(
+                    new FileOutputStream( file ), "UTF-8" ) );
+
+            for ( Iterator/* <Verdict> */itr = verdicts.iterator(); itr
+                    .hasNext(); )
+            {
+                Verdict verdict = (Verdict) itr.next();
+
+                writer.println( verdict.getTestId()
+                        + "\t"
+                        + verdict.getResult()
+                        + "\t"
+                        + ( verdict.getDetail() == null ? "" : verdict
+                                .getDetail().replaceAll( "\\s+", " " ) ) );
+            }
+
+            if ( writer.checkError() )
+            {
+                throw new IOException( "Unable to write verdicts to " + file );
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( writer );
+        }
+    }
+
+    /**
+     * Logs the number of test cases given each result
+     * 
+     * @param verdicts
+     *            <code>List&lt;Verdict&gt;</code> of the verdicts to count
+     */
+    public static void logStatistics( List/* <Verdict> */verdicts )
+    {
+        // Map<String, int[]> of result to count
+        Map/* <String, int[]> */counts = new TreeMap();
+
+        for ( Iterator/* <Verdict> */itr = verdicts.iterator(); itr.hasNext(); )
+        {
+            String result = ( (Verdict) itr.next() ).getResult();
+
+            int[] count = (int[]) counts.get( result );
+            if ( count == null )
+            {
+                count = new int[1];
+                counts.put( result, count );
+            }
+            count[0]++;
+        }
+
+        StringBuffer summary = new StringBuffer( "Evaluated "
+                + verdicts.size() + " test cases" );
+        for ( Iterator/* <Map.Entry<String, int[]>> */itr = counts.entrySet()
+                .iterator(); itr.hasNext(); )
+        {
+            Map.Entry/* <String, int[]> */count = (Map.Entry) itr.next();
+            summary.append( ", " ).append( ( (int[]) count.getValue() )[0] )
+                    .append( ' ' ).append( count.getKey() );
+        }
+
+        LOGGER.info( summary.toString() );
+    }
+}
@@ -29,9 +29,7 @@ package org.owasp.jsptester.tester;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
@@ -48,10 +46,22 @@ import org.owasp.jsptester.attack.Attack;
 import org.owasp.jsptester.attack.AttackLibrary;
 import org.owasp.jsptester.conf.Configuration;
 import org.owasp.jsptester.conf.TagProperties;
+import org.owasp.jsptester.exec.CompileCache;
 import org.owasp.jsptester.exec.EmbeddedServer;
+import org.owasp.jsptester.exec.InProcessExecutor;
+import org.owasp.jsptester.exec.MemoryWebRoot;
+import org.owasp.jsptester.exec.ReflectionLog;
+import org.owasp.jsptester.exec.TestCaseExecutor;
 import org.owasp.jsptester.exec.TestCaseSerializer;
 import org.owasp.jsptester.parser.TagFileParser;
+import org.owasp.jsptester.parser.TagLibraryDiscovery;
+import org.owasp.jsptester.report.CompositeResultSink;
+import org.owasp.jsptester.report.CsvResultSink;
+import org.owasp.jsptester.report.JUnitResultSink;
+import org.owasp.jsptester.report.JsonLinesResultSink;
 import org.owasp.jsptester.report.ReportGenerator;
+import org.owasp.jsptester.report.ResultSink;
+import org.owasp.jsptester.report.VerdictEngine;
 import org.xml.sax.SAXException;
 
 /**
@@ -91,6 +101,23 @@ public class JspTester
      */
     private ReportGenerator reportGenerator;
 
+    /**
+     * The serializer shared by every test case of a run
+     */
+    private TestCaseSerializer serializer;
+
+    /**
+     * The log of attack strings found in the responses, or null if responses
+     * are not scanned
+     */
+    private ReflectionLog reflectionLog;
+
+    /**
+     * Running servers shared with other runs, or null if each run starts
+     * its own
+     */
+    private EmbeddedServer[] sharedServers;
+
     /**
      * Creates an instance of the JSPTester with the given tag library and tag
      * property file locations
@@ -106,30 +133,69 @@ public class JspTester
      */
     public JspTester( String libraryFileLocation, String tagPropsFileLocation )
             throws SAXException, IOException
+    {
+        this( libraryFileLocation, tagPropsFileLocation, AttackLibrary
+                .getInstance().getAttacks(), null );
+    }
+
+    /**
+     * Creates an instance of the JSPTester with the given tag library and tag
+     * property file locations that tests with the given attacks on the given
+     * running servers. The servers are left running and their web roots in
+     * place when a test completes, so that later tests can reuse them.
+     * 
+     * @param libraryFileLocation
+     *            the location of the tag library file, or of a TLD packaged
+     *            in a jar as <code>jar!/entry</code>
+     * @param tagPropsFileLocation
+     *            the location of the tag property file
+     * @param attacks
+     *            the attacks to try
+     * @param sharedServers
+     *            running servers to test on, one per shard, or null to start
+     *            new servers for each test
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws SAXException
+     *             if an error occurs parsing the tag library file
+     */
+    public JspTester( String libraryFileLocation,
+            String tagPropsFileLocation, Attack[] attacks,
+            EmbeddedServer[] sharedServers ) throws SAXException, IOException
     {
         LOGGER.entering( JspTester.class.getName(), "JspTester", new Object[]
-            { libraryFileLocation, tagPropsFileLocation } );
+            { libraryFileLocation, tagPropsFileLocation, attacks,
+                    sharedServers } );
 
         LOGGER.fine( "Verifying existence of tag library file." );
         LOGGER.finer( "\tTag library file: " + libraryFileLocation );
 
-        // verify that if the tag library file exists, it's a file and not a
-        // directory
-        File libraryFile = new File( libraryFileLocation );
-        if ( !libraryFile.exists() || libraryFile.exists()
-                && !libraryFile.isFile() )
+        // a TLD packaged in a jar is parsed straight from the jar
+        if ( libraryFileLocation.indexOf( TagLibraryDiscovery.ENTRY_SEPARATOR ) > 0 )
         {
-            throw new IllegalArgumentException(
-                    "The specified TLD file does not exists" );
+            tagLibrary = TagLibraryDiscovery.load( libraryFileLocation );
+
+            LOGGER.fine( "Loaded tag library file from jar" );
         }
+        else
+        {
+            // verify that if the tag library file exists, it's a file and not
+            // a directory
+            File libraryFile = new File( libraryFileLocation );
+            if ( !libraryFile.exists() || libraryFile.exists()
+                    && !libraryFile.isFile() )
+            {
+                throw new IllegalArgumentException(
+                        "The specified TLD file does not exists" );
+            }
 
-        // parse the tag library file
-        tagLibrary = TagFileParser.loadTagFile( libraryFile );
+            // parse the tag library file
+            tagLibrary = TagFileParser.loadTagFile( libraryFile );
 
-        LOGGER.fine( "Loaded tag library file" );
-        LOGGER
-                .finer( "\tUsing library file: "
-                        + libraryFile.getCanonicalPath() );
+            LOGGER.fine( "Loaded tag library file" );
+            LOGGER.finer( "\tUsing library file: "
+                    + libraryFile.getCanonicalPath() );
+        }
 
         LOGGER.fine( "Verifying existence of tag properties file." );
         LOGGER.finer( "\tTag properties file: " + tagPropsFileLocation );
@@ -152,19 +218,50 @@ public class JspTester
         LOGGER.finer( "\tUsing properties file: "
                 + tagPropsFile.getCanonicalPath() );
 
-        // get the attack library
-        attacks = AttackLibrary.getInstance().getAttacks();
-
-        LOGGER.finer( "Obtained attack library" );
+        this.attacks = attacks;
+        this.sharedServers = sharedServers;
 
         // get the report generator
         reportGenerator = ReportGenerator.getInstance();
 
         LOGGER.finer( "Obtained report generator" );
 
+        // keep this run's files apart from any other run on the machine;
+        // shared servers already have their document base
+        if ( sharedServers == null
+                && Configuration.getInstance().getBooleanProperty(
+                        Configuration.EMBEDDED_UNIQUE_DOC_BASE, false ) )
+        {
+            initUniqueDocBase();
+        }
+
+        // create the serializer shared by the whole run
+        serializer = new TestCaseSerializer();
+
+        LOGGER.finer( "Created test case serializer" );
+
+        // the scanner is built once and shared by every response of the run
+        if ( Configuration.getInstance().getBooleanProperty(
+                Configuration.REFLECTION_SCAN_ENABLED, true ) )
+        {
+            reflectionLog = new ReflectionLog( attacks, reportGenerator
+                    .getCanaryIndex() );
+            serializer.setReflectionLog( reflectionLog );
+        }
+
         LOGGER.exiting( JspTester.class.getName(), "JspTester" );
     }
 
+    /**
+     * Returns the tag library being tested
+     * 
+     * @return the tag library being tested
+     */
+    public TagLibraryInfo getTagLibrary()
+    {
+        return tagLibrary;
+    }
+
     /**
      * Performs sanity checks on the output directory and creates the directory
      * if necessary
@@ -204,6 +301,54 @@ public class JspTester
         return outputDir;
     }
 
+    /**
+     * Moves the document base of the embedded Tomcat instance to a new,
+     * uniquely named directory under the configured document base. The web
+     * root and work directory follow it if they are inside the configured
+     * document base.
+     * 
+     * @throws IOException
+     *             if the directory cannot be created
+     */
+    private void initUniqueDocBase() throws IOException
+    {
+        Configuration config = Configuration.getInstance();
+        File sharedDocBase = new File( config
+                .getProperty( Configuration.EMBEDDED_DOC_BASE ) )
+                .getAbsoluteFile();
+
+        if ( !sharedDocBase.isDirectory() && !sharedDocBase.mkdirs() )
+        {
+            throw new IOException( "Unable to create document base" );
+        }
+
+        // reserve a unique name, then replace the file with a directory
+        File runDocBase = File.createTempFile( "run-", "", sharedDocBase );
+        if ( !runDocBase.delete() || !runDocBase.mkdir() )
+        {
+            throw new IOException( "Unable to create run document base" );
+        }
+
+        String[] nestedKeys =
+            { Configuration.EMBEDDED_WEB_ROOT, Configuration.EMBEDDED_WORK_DIR };
+        for ( int keyIdx = 0; keyIdx < nestedKeys.length; keyIdx++ )
+        {
+            String path = new File( config.getProperty( nestedKeys[keyIdx] ) )
+                    .getAbsolutePath();
+
+            if ( path.startsWith( sharedDocBase.getPath() + File.separator ) )
+            {
+                config.setProperty( nestedKeys[keyIdx], runDocBase.getPath()
+                        + path.substring( sharedDocBase.getPath().length() ) );
+            }
+        }
+
+        config.setProperty( Configuration.EMBEDDED_DOC_BASE, runDocBase
+                .getPath() );
+
+        LOGGER.fine( "Using document base " + runDocBase.getPath() );
+    }
+
     /**
      * Performs sanity checks on the build directory and creates the directory
      * if necessary
@@ -235,7 +380,7 @@ public class JspTester
     }
 
     /**
-     * Removes the build directory
+     * Removes the build directory and releases the serializer's connections
      * 
      * @throws IOException
      *             if an I/O error occurs
@@ -243,111 +388,265 @@ public class JspTester
     private void cleanup() throws IOException
     {
         LOGGER.entering( JspTester.class.getName(), "cleanup" );
-        FileUtils.deleteDirectory( new File( Configuration.getInstance()
-                .getProperty( Configuration.EMBEDDED_DOC_BASE ) ) );
+        serializer.shutdown();
+
+        // shared servers keep serving their web roots after this run
+        if ( sharedServers == null )
+        {
+            File docBase = new File( Configuration.getInstance().getProperty(
+                    Configuration.EMBEDDED_DOC_BASE ) );
+
+            MemoryWebRoot.unmountAll( docBase );
+            FileUtils.deleteDirectory( docBase );
+        }
 
         LOGGER.exiting( JspTester.class.getName(), "cleanup" );
     }
 
     /**
-     * Serializes the test cases by downloading the processed test cases from
-     * the embedded Tomcat instance to the given directory
+     * Returns the executor to render test cases with, based on the
+     * <code>TEST_CASE_EXECUTOR</code> configuration value. Test cases are
+     * requested over HTTP unless in-process dispatch is configured.
      * 
-     * @param files
-     *            the <code>List&lt;File&gt;</code> of files to serialize
-     * @param outputDir
-     *            the directory to download files to
-     * @throws IOException
-     *             if an I/O error occurs
-     * @throws LifecycleException
-     *             if an error occurs starting, stopping or restarting the
-     *             embedded Tomcat instance
+     * @param server
+     *            the embedded server the test cases are deployed to
+     * @return the executor to render test cases with
      */
-    private void serializeTests( List/* <File> */files, File outputDir )
-            throws IOException, LifecycleException
+    private TestCaseExecutor createExecutor( EmbeddedServer server )
     {
-        LOGGER.entering( JspTester.class.getName(), "serializeTests",
-                new Object[]
-                    { files, outputDir } );
+        String executorType = Configuration.getInstance().getProperty(
+                Configuration.TEST_CASE_EXECUTOR );
+
+        if ( "in-process".equalsIgnoreCase( executorType ) )
+        {
+            LOGGER.fine( "Dispatching test cases in process" );
+            return new InProcessExecutor( server, serializer );
+        }
+
+        LOGGER.fine( "Requesting test cases over HTTP" );
+        return serializer.forServer( server );
+    }
+
+    /**
+     * Creates the compile cache for the given server, if enabled by the
+     * <code>COMPILE_CACHE_ENABLED</code> configuration value
+     * 
+     * @param server
+     *            the embedded server whose work directory is cached
+     * @return the compile cache or null if the cache is disabled or
+     *         unavailable
+     */
+    private CompileCache createCompileCache( EmbeddedServer server )
+    {
+        if ( !Configuration.getInstance().getBooleanProperty(
+                Configuration.COMPILE_CACHE_ENABLED, false ) )
+        {
+            return null;
+        }
+
+        // the maximum size is configured in megabytes
+        long maxBytes = Configuration.getInstance().getIntProperty(
+                Configuration.COMPILE_CACHE_MAX_SIZE, 256 ) * 1024L * 1024L;
 
-        EmbeddedServer server = new EmbeddedServer();
         try
         {
-            // Start the embedded Tomcat instance
-            LOGGER.fine( "Starting server..." );
-            server.start();
+            return new CompileCache( new File( Configuration.getInstance()
+                    .getProperty( Configuration.COMPILE_CACHE_DIR ) ), server
+                    .getWorkDir(), server.getWebRootDir(), maxBytes );
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.WARNING,
+                    "Compile cache unavailable, compiling all test cases",
+                    ioe );
+            return null;
+        }
+    }
+
+    /**
+     * Creates a pipeline that renders the generated test cases on new
+     * embedded Tomcat instances and writes them to the given directory. The
+     * number of instances is set by the <code>EMBEDDED_SERVER_INSTANCES</code>
+     * configuration value, and the configured threads are divided between
+     * them.
+     * 
+     * @param outputDir
+     *            the directory to download files to
+     * @param results
+     *            the sink to write the result of each test case to, or null
+     * @return the pipeline, ready to be passed to the report generator
+     */
+    private ShardedPipeline createPipeline( File outputDir, ResultSink results )
+    {
+        int instances = ( sharedServers != null ? sharedServers.length : Math
+                .max( 1, Configuration.getInstance().getIntProperty(
+                        Configuration.EMBEDDED_SERVER_INSTANCES, 1 ) ) );
+        int compileThreads = Configuration.getInstance().getIntProperty(
+                Configuration.PRECOMPILE_THREADS,
+                Runtime.getRuntime().availableProcessors() )
+                / instances;
+        int serializerThreads = Configuration.getInstance().getIntProperty(
+                Configuration.SERIALIZER_THREADS,
+                Runtime.getRuntime().availableProcessors() )
+                / instances;
+
+        TestPipeline[] pipelines = new TestPipeline[instances];
+        File[] webRoots = new File[instances];
+
+        for ( int shard = 0; shard < instances; shard++ )
+        {
+            EmbeddedServer server = ( sharedServers != null ? sharedServers[shard]
+                    : new EmbeddedServer( shard ) );
+
+            // a running server may already have loaded an older version of a
+            // test case, which a restored class would hide from the JSP
+            // engine, so shared servers rely on the engine's own checks,
+            // which their owners make on every request
+            pipelines[shard] = new TestPipeline( server,
+                    createExecutor( server ), serializer,
+                    sharedServers != null ? null : createCompileCache( server ),
+                    outputDir, compileThreads, serializerThreads );
+            pipelines[shard].setResultSink( results );
+            webRoots[shard] = server.getWebRootDir();
+        }
 
-            LOGGER.fine( "Server started" );
+        LOGGER.fine( "Created " + instances + " embedded server instances" );
 
-            // create the context root directory for the test cases
-            File reportOut = new File( outputDir, Configuration.getInstance()
-                    .getProperty( Configuration.REPORT_CONTEXT_ROOT ) );
-            reportOut.mkdirs();
+        return new ShardedPipeline( pipelines, webRoots );
+    }
 
-            LOGGER.fine( "Created report output directory." );
+    /**
+     * Opens a sink writing the result of each test case to the output
+     * directory in every format listed by the <code>RESULT_FORMATS</code>
+     * configuration value
+     * 
+     * @param outputDir
+     *            the output directory
+     * @return the sink or null if no formats are configured
+     * @throws IOException
+     *             if a results file cannot be opened
+     */
+    private ResultSink createResultSink( File outputDir ) throws IOException
+    {
+        String[] formats = Configuration.getInstance().getProperty(
+                Configuration.RESULT_FORMATS ).split( "," );
+        String fileName = Configuration.getInstance().getProperty(
+                Configuration.RESULT_FILE_NAME );
 
-            int counter = 0;
+        // check every format before any file is opened
+        for ( int formatIdx = 0; formatIdx < formats.length; formatIdx++ )
+        {
+            String format = formats[formatIdx].trim();
+            if ( format.length() > 0 && !"jsonl".equalsIgnoreCase( format )
+                    && !"csv".equalsIgnoreCase( format )
+                    && !"junit".equalsIgnoreCase( format ) )
+            {
+                throw new IllegalArgumentException( "Unknown result format: "
+                        + format );
+            }
+        }
 
-            // loop over each of the files to be serialized
-            for ( Iterator/* <File> */i = files.iterator(); i.hasNext(); counter++ )
+        List/* <ResultSink> */sinks = new ArrayList();
+        try
+        {
+            for ( int formatIdx = 0; formatIdx < formats.length; formatIdx++ )
             {
-                try
+                String format = formats[formatIdx].trim();
+
+                if ( "jsonl".equalsIgnoreCase( format ) )
                 {
-                    File f = (File) i.next();
-
-                    // construct the URL for the test case
-                    URL test = new URL( "http://localhost:"
-                            + Configuration.getInstance().getProperty(
-                                    Configuration.EMBEDDED_PORT_NUM )
-                            + "/"
-                            + Configuration.getInstance().getProperty(
-                                    Configuration.REPORT_CONTEXT_ROOT )
-                            + f.getName() );
-                    LOGGER.finer( "Using URL: " + test );
-
-                    // serialize the URL
-                    TestCaseSerializer.serialize( test, new File( reportOut, f
-                            .getName() ) );
+                    sinks.add( new JsonLinesResultSink( new File( outputDir,
+                            fileName + ".jsonl" ) ) );
                 }
-                catch ( URISyntaxException urise )
+                else if ( "csv".equalsIgnoreCase( format ) )
                 {
-                    LOGGER.throwing( this.getClass().getName(),
-                            "testLibrary(String)", urise );
+                    sinks.add( new CsvResultSink( new File( outputDir,
+                            fileName + ".csv" ) ) );
                 }
-
-                /*
-                 * To ensure out of memory exceptions do not occur, whenever the
-                 * memory is getting low, restart the embedded Tomcat server
-                 */
-                LOGGER.finer( "Free Memory: "
-                        + Runtime.getRuntime().freeMemory() );
-                if ( Runtime.getRuntime().freeMemory() < 1000000 )
+                else if ( "junit".equalsIgnoreCase( format ) )
                 {
-                    LOGGER.info( "Memory level at: "
-                            + Runtime.getRuntime().freeMemory() + ". Made "
-                            + counter + " iterations. Server restarting..." );
-                    counter = 0;
-
-                    // stop the server
-                    server.stop();
-                    server = null;
-
-                    // hint the JVM to garbage collect
-                    System.gc();
-
-                    // start a new server
-                    server = new EmbeddedServer();
-                    server.start();
-                    LOGGER.info( "Restarted" );
+                    sinks.add( new JUnitResultSink( new File( outputDir,
+                            fileName + ".xml" ), tagLibrary.getShortName() ) );
                 }
             }
         }
-        finally
+        catch ( IOException ioe )
+        {
+            new CompositeResultSink( sinks ).close();
+            throw ioe;
+        }
+
+        if ( sinks.isEmpty() )
         {
-            server.stop();
+            return null;
         }
 
-        LOGGER.exiting( JspTester.class.getName(), "serializeTests" );
+        LOGGER.fine( "Writing results as " + Configuration.getInstance()
+                .getProperty( Configuration.RESULT_FORMATS ) );
+
+        return ( sinks.size() == 1 ? (ResultSink) sinks.get( 0 )
+                : new CompositeResultSink( sinks ) );
+    }
+
+    /**
+     * Decides the verdict of each serialized test case and writes the
+     * verdicts to the output directory, unless no verdict threads are
+     * configured. When results were written, the pipeline has already
+     * decided every verdict, so its verdicts are written instead of
+     * evaluating the test cases again.
+     * 
+     * @param outputDir
+     *            the output directory holding the serialized test cases
+     * @param pipeline
+     *            the pipeline that serialized the test cases
+     * @param results
+     *            the sink the pipeline wrote results to, or null
+     * @throws IOException
+     *             if a test case cannot be read or the verdicts written
+     */
+    private void evaluateTestCases( File outputDir, ShardedPipeline pipeline,
+            ResultSink results ) throws IOException
+    {
+        int threads = Configuration.getInstance().getIntProperty(
+                Configuration.VERDICT_THREADS,
+                Runtime.getRuntime().availableProcessors() );
+
+        if ( threads < 1 )
+        {
+            return;
+        }
+
+        List/* <Verdict> */verdicts = ( results != null ? pipeline
+                .getVerdicts() : new VerdictEngine( threads )
+                .evaluateAll( new File( outputDir, Configuration.getInstance()
+                        .getProperty( Configuration.REPORT_CONTEXT_ROOT ) ) ) );
+
+        VerdictEngine.write( verdicts, new File( outputDir, Configuration
+                .getInstance().getProperty( Configuration.VERDICT_FILE_NAME ) ) );
+        VerdictEngine.logStatistics( verdicts );
+    }
+
+    /**
+     * Writes the attack strings found in the responses to the output
+     * directory, unless responses are not scanned, and starts a new log for
+     * the next run
+     * 
+     * @param outputDir
+     *            the output directory
+     * @throws IOException
+     *             if the reflections cannot be written
+     */
+    private void writeReflections( File outputDir ) throws IOException
+    {
+        if ( reflectionLog == null )
+        {
+            return;
+        }
+
+        reflectionLog.write( new File( outputDir, Configuration.getInstance()
+                .getProperty( Configuration.REFLECTION_FILE_NAME ) ) );
+        reflectionLog.logStatistics();
+        reflectionLog.clear();
     }
 
     /**
@@ -379,19 +678,41 @@ public class JspTester
         LOGGER.info( "Initialized build directory." );
         LOGGER.fine( "\tBuild directory: " + buildDir.getCanonicalPath() );
 
-        // generate the test case files
-        List/* <File> */files = reportGenerator.generateLibraryReport(
-                tagLibrary, tagProperties, attacks, buildDir );
+        // generate the test case files, serializing each one through the
+        // embedded Tomcat instance as soon as it is written
+        ResultSink results = createResultSink( outputDir );
+        ShardedPipeline pipeline = createPipeline( outputDir, results );
+        try
+        {
+            reportGenerator.generateLibraryReport( tagLibrary, tagProperties,
+                    attacks, buildDir, pipeline );
 
-        LOGGER.info( "Generated test case files." );
-        LOGGER.fine( "\tTest case files: " + files );
+            LOGGER.info( "Generated test case files." );
+            reportGenerator.logStatistics();
 
-        // load the test cases into the embedded Tomcat instance and serialize
-        // them
-        serializeTests( files, outputDir );
+            pipeline.finish();
+        }
+        finally
+        {
+            try
+            {
+                pipeline.close();
+            }
+            finally
+            {
+                // the results are complete once the pipeline has drained
+                if ( results != null )
+                {
+                    results.close();
+                }
+            }
+        }
 
         LOGGER.info( "Serialized test cases" );
 
+        evaluateTestCases( outputDir, pipeline, results );
+        writeReflections( outputDir );
+
         // copy the report file to the output location
         FileUtils.copyFileToDirectory( new File( Configuration.getInstance()
                 .getProperty( Configuration.EMBEDDED_WEB_ROOT )
@@ -418,6 +739,9 @@ public class JspTester
 
         LOGGER.info( "Performed cleanup." );
 
+        LOGGER.fine( "Attack library parsed " + AttackLibrary.getParseCount()
+                + " times" );
+
         LOGGER.exiting( JspTester.class.getName(), "testLibrary" );
     }
 
@@ -464,19 +788,41 @@ public class JspTester
 
         LOGGER.fine( "Testing tag: " + tag );
 
-        // generate the test case files
-        List/* <File> */files = reportGenerator.generateTagReport( tagLibrary,
-                tagProperties, tag, attacks, buildDir );
+        // generate the test case files, serializing each one through the
+        // embedded Tomcat instance as soon as it is written
+        ResultSink results = createResultSink( outputDir );
+        ShardedPipeline pipeline = createPipeline( outputDir, results );
+        try
+        {
+            reportGenerator.generateTagReport( tagLibrary, tagProperties, tag,
+                    attacks, buildDir, pipeline );
 
-        LOGGER.fine( "Generated test case files." );
-        LOGGER.finer( "\tTest case files: " + files );
+            LOGGER.fine( "Generated test case files." );
+            reportGenerator.logStatistics();
 
-        // load the test cases into the embedded Tomcat instance and serialize
-        // them
-        serializeTests( files, outputDir );
+            pipeline.finish();
+        }
+        finally
+        {
+            try
+            {
+                pipeline.close();
+            }
+            finally
+            {
+                // the results are complete once the pipeline has drained
+                if ( results != null )
+                {
+                    results.close();
+                }
+            }
+        }
 
         LOGGER.fine( "Serialized test cases" );
 
+        evaluateTestCases( outputDir, pipeline, results );
+        writeReflections( outputDir );
+
         // copy the report file to the output location
         FileUtils.copyFileToDirectory( new File( Configuration.getInstance()
                 .getProperty( Configuration.EMBEDDED_WEB_ROOT )
@@ -0,0 +1,631 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.tester;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.jsp.tagext.TagLibraryInfo;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.attack.Attack;
+import org.owasp.jsptester.attack.AttackLibrary;
+import org.owasp.jsptester.conf.Configuration;
+import org.owasp.jsptester.parser.TagLibraryDiscovery;
+import org.owasp.jsptester.report.ReportGenerator;
+
+/**
+ * Tests several tag libraries in one run, so that the embedded servers are
+ * started, and the attack library and report templates loaded, once for all
+ * of them rather than once per library. The libraries are listed in a
+ * manifest, one per line with tab separated fields:
+ * 
+ * <pre>
+ * &lt;tld file&gt; &lt;tag properties file&gt; [&lt;name&gt;]
+ * </pre>
+ * 
+ * Blank lines and lines starting with <code>#</code> are ignored. Relative
+ * paths are resolved against the manifest's directory, and a TLD packaged in
+ * a jar is given as <code>jar!/entry</code>. The name defaults to the name of
+ * the TLD file.
+ * <p>
+ * A jar, or a directory of jars, given in place of a TLD file stands for
+ * every TLD file packaged in it, so a whole vendor distribution can be
+ * tested without unpacking it or listing its TLDs. Each TLD found becomes a
+ * library of its own, tested with the line's tag properties file and named
+ * after the TLD file, prefixed with the line's name if one is given.
+ * <p>
+ * The libraries are tested one after another on the same running servers.
+ * Each library's report and serialized test cases are written to a
+ * directory of the output directory named after the library, and an index
+ * linking to every library's report is written to the output directory
+ * itself. A library that fails is recorded in the index and does not stop
+ * the rest of the batch.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class JspTesterBatch
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( JspTesterBatch.class
+            .getName() );
+
+    /**
+     * Separator between the fields of a manifest line
+     */
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /**
+     * Starts a comment line in the manifest
+     */
+    private static final String COMMENT = "#";
+
+    /**
+     * Suffix of TLD files, dropped from the default library name
+     */
+    private static final String TLD_SUFFIX = ".tld";
+
+    /**
+     * Suffix of tag library jars, whose TLD files are discovered
+     */
+    private static final String JAR_SUFFIX = ".jar";
+
+    /**
+     * The servers shared by every library, one per shard
+     */
+    private final ServerGroup servers = new ServerGroup();
+
+    /**
+     * The attacks, parsed once for every library
+     */
+    private final Attack[] attacks;
+
+    /**
+     * Creates a batch with the configured number of embedded servers
+     */
+    public JspTesterBatch()
+    {
+        attacks = AttackLibrary.getInstance().getAttacks();
+    }
+
+    /**
+     * Returns the libraries listed in the given manifest
+     * 
+     * @param manifest
+     *            the manifest file
+     * @return <code>List&lt;Library&gt;</code> of the libraries in the
+     *         order they are listed
+     * @throws IOException
+     *             if the manifest cannot be read or a line is malformed
+     */
+    public static List/* <Library> */readManifest( File manifest )
+            throws IOException
+    {
+        LOGGER.entering( JspTesterBatch.class.getName(), "readManifest",
+                manifest );
+
+        File baseDir = manifest.getAbsoluteFile().getParentFile();
+
+        List/* <Library> */libraries = new ArrayList();
+        Set/* <String> */names = new HashSet();
+
+        // created the first time a line names a jar or directory of jars
+        TagLibraryDiscovery discovery = null;
+
+        BufferedReader in = new BufferedReader( new InputStreamReader(
+                new FileInputStream( manifest ), "UTF-8" ) );
+
+        try
+        {
+            int lineNumber = 0;
+            String line;
+            while ( ( line = in.readLine() ) != null )
+            {
+                lineNumber++;
+
+                if ( line.trim().length() == 0
+                        || line.trim().startsWith( COMMENT ) )
+                {
+                    continue;
+                }
+
+                String[] fields = line.split( FIELD_SEPARATOR );
+                if ( fields.length < 2 || fields.length > 3 )
+                {
+                    throw new IOException( manifest + ":" + lineNumber
+                            + ": expected a TLD file, a tag properties file"
+                            + " and an optional name" );
+                }
+
+                String tld = resolve( baseDir, fields[0].trim() );
+                String tagProps = resolve( baseDir, fields[1].trim() );
+                String name = ( fields.length > 2 ? fields[2].trim() : null );
+
+                if ( !isJarLocation( tld ) )
+                {
+                    libraries.add( new Library( uniqueName( names,
+                            name != null ? name : defaultName( tld ) ), tld,
+                            tagProps ) );
+                    continue;
+                }
+
+                if ( discovery == null )
+                {
+                    discovery = new TagLibraryDiscovery( Configuration
+                            .getInstance().getIntProperty(
+                                    Configuration.TLD_DISCOVERY_THREADS, 1 ) );
+                }
+
+                // TLDs that cannot be parsed are logged and left out
+                Map/* <String, TagLibraryInfo> */found = discovery
+                        .discover( new File( tld ) );
+                if ( found.isEmpty() )
+                {
+                    LOGGER.warning( manifest + ":" + lineNumber
+                            + ": no tag libraries found in " + tld );
+                }
+
+                for ( Iterator/* <String> */itr = found.keySet().iterator(); itr
+                        .hasNext(); )
+                {
+                    String location = (String) itr.next();
+                    String libraryName = defaultName( location );
+                    if ( name != null )
+                    {
+                        libraryName = name + "-" + libraryName;
+                    }
+
+                    libraries.add( new Library( uniqueName( names,
+                            libraryName ), location, tagProps ) );
+                }
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+
+        LOGGER.exiting( JspTesterBatch.class.getName(), "readManifest",
+                libraries );
+
+        return libraries;
+    }
+
+    /**
+     * Returns true if the given manifest location is a jar or a directory of
+     * jars whose TLD files are to be discovered, rather than a TLD file or
+     * jar entry
+     * 
+     * @param location
+     *            the resolved location
+     * @return true if the location is a jar or a directory
+     */
+    private static boolean isJarLocation( String location )
+    {
+        if ( location.indexOf( TagLibraryDiscovery.ENTRY_SEPARATOR ) > 0 )
+        {
+            return false;
+        }
+
+        return new File( location ).isDirectory()
+                || location.toLowerCase().endsWith( JAR_SUFFIX );
+    }
+
+    /**
+     * Resolves the given manifest location against the given directory
+     * unless it is absolute. Only the jar of a TLD packaged in a jar is
+     * resolved.
+     * 
+     * @param baseDir
+     *            the manifest's directory
+     * @param location
+     *            the location of a file or a jar entry
+     * @return the resolved location
+     */
+    private static String resolve( File baseDir, String location )
+    {
+        String entry = "";
+        String path = location;
+
+        int separator = location.indexOf( TagLibraryDiscovery.ENTRY_SEPARATOR );
+        if ( separator > 0 )
+        {
+            path = location.substring( 0, separator );
+            entry = location.substring( separator );
+        }
+
+        File file = new File( path );
+        if ( !file.isAbsolute() )
+        {
+            file = new File( baseDir, path );
+        }
+
+        return file.getPath() + entry;
+    }
+
+    /**
+     * Returns the name of the given TLD file, without its extension, as the
+     * default name of its library
+     * 
+     * @param tld
+     *            the location of the TLD file or jar entry
+     * @return the default library name
+     */
+    private static String defaultName( String tld )
+    {
+        String name = tld.substring( Math.max( tld.lastIndexOf( '/' ), tld
+                .lastIndexOf( File.separatorChar ) ) + 1 );
+
+        if ( name.toLowerCase().endsWith( TLD_SUFFIX ) )
+        {
+            name = name.substring( 0, name.length() - TLD_SUFFIX.length() );
+        }
+
+        return name;
+    }
+
+    /**
+     * Returns the given name made safe for use as a directory name and
+     * distinct from the names already used, which it is added to
+     * 
+     * @param names
+     *            <code>Set&lt;String&gt;</code> of the names already used
+     * @param name
+     *            the requested name
+     * @return the unique name
+     */
+    private static String uniqueName( Set/* <String> */names, String name )
+    {
+        String safeName = name.replaceAll( "[^A-Za-z0-9._-]", "_" );
+        if ( safeName.length() == 0 || safeName.startsWith( "." ) )
+        {
+            safeName = "library" + safeName;
+        }
+
+        String uniqueName = safeName;
+        for ( int suffix = 2; !names.add( uniqueName.toLowerCase() ); suffix++ )
+        {
+            uniqueName = safeName + "-" + suffix;
+        }
+
+        return uniqueName;
+    }
+
+    /**
+     * Deploys the base web application on each server, starts the servers,
+     * tests each of the given libraries in turn, stops the servers and
+     * writes the index of the batch
+     * 
+     * @param libraries
+     *            <code>List&lt;Library&gt;</code> of the libraries to test
+     * @param outputDir
+     *            the directory to write the reports to
+     * @return the number of libraries that failed
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws LifecycleException
+     *             if a server cannot be started
+     */
+    public int run( List/* <Library> */libraries, File outputDir )
+            throws IOException, LifecycleException
+    {
+        LOGGER.entering( JspTesterBatch.class.getName(), "run", new Object[]
+            { libraries, outputDir } );
+
+        if ( !outputDir.isDirectory() && !outputDir.mkdirs() )
+        {
+            throw new IOException( "Unable to create output directory "
+                    + outputDir );
+        }
+
+        int failed = 0;
+
+        try
+        {
+            servers.start();
+
+            for ( Iterator/* <Library> */itr = libraries.iterator(); itr
+                    .hasNext(); )
+            {
+                Library library = (Library) itr.next();
+
+                if ( !test( library, outputDir ) )
+                {
+                    failed++;
+                }
+            }
+        }
+        finally
+        {
+            servers.stop();
+        }
+
+        ReportGenerator.getInstance().generateBatchIndex( libraries,
+                outputDir );
+
+        LOGGER.info( "Tested " + ( libraries.size() - failed ) + " of "
+                + libraries.size() + " tag libraries" );
+
+        LOGGER.exiting( JspTesterBatch.class.getName(), "run", new Integer(
+                failed ) );
+
+        return failed;
+    }
+
+    /**
+     * Tests the given library on the running servers, recording its outcome
+     * 
+     * @param library
+     *            the library
+     * @param outputDir
+     *            the output directory of the batch
+     * @return true if the library was tested
+     */
+    private boolean test( Library library, File outputDir )
+    {
+        LOGGER.info( "Testing " + library.getName() );
+
+        long start = System.nanoTime();
+
+        try
+        {
+            JspTester tester = new JspTester( library.getTagLibraryLocation(),
+                    library.getTagPropertiesLocation(), attacks, servers
+                            .getServers() );
+            library.tagLibrary = tester.getTagLibrary();
+
+            tester.testLibrary( new File( outputDir, library.getName() )
+                    .getPath() );
+        }
+        catch ( Exception e )
+        {
+            LOGGER.log( Level.WARNING, "Testing " + library.getName()
+                    + " failed", e );
+            library.error = e.toString();
+        }
+
+        library.time = ( System.nanoTime() - start ) / 1000000;
+
+        LOGGER.info( "Tested " + library.getName() + " in " + library.time
+                + " ms" );
+
+        return !library.isFailed();
+    }
+
+    /**
+     * A tag library listed in the manifest and the outcome of testing it
+     */
+    public static class Library
+    {
+        /**
+         * The name of the library's output directory
+         */
+        private final String name;
+
+        /**
+         * The location of the TLD file or jar entry
+         */
+        private final String tagLibraryLocation;
+
+        /**
+         * The location of the tag properties file
+         */
+        private final String tagPropertiesLocation;
+
+        /**
+         * The parsed tag library; null until it has been loaded
+         */
+        private TagLibraryInfo tagLibrary = null;
+
+        /**
+         * The failure, or null if the library was tested
+         */
+        private String error = null;
+
+        /**
+         * How long testing the library took, in milliseconds
+         */
+        private long time = 0;
+
+        /**
+         * Creates a library to test
+         * 
+         * @param name
+         *            the name of the library's output directory
+         * @param tagLibraryLocation
+         *            the location of the TLD file or jar entry
+         * @param tagPropertiesLocation
+         *            the location of the tag properties file
+         */
+        Library( String name, String tagLibraryLocation,
+                String tagPropertiesLocation )
+        {
+            this.name = name;
+            this.tagLibraryLocation = tagLibraryLocation;
+            this.tagPropertiesLocation = tagPropertiesLocation;
+        }
+
+        /**
+         * Returns the name of the library's output directory
+         * 
+         * @return the name of the library's output directory
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the location of the TLD file or jar entry
+         * 
+         * @return the location of the TLD file or jar entry
+         */
+        public String getTagLibraryLocation()
+        {
+            return tagLibraryLocation;
+        }
+
+        /**
+         * Returns the location of the tag properties file
+         * 
+         * @return the location of the tag properties file
+         */
+        public String getTagPropertiesLocation()
+        {
+            return tagPropertiesLocation;
+        }
+
+        /**
+         * Returns the short name of the tag library
+         * 
+         * @return the short name or null if the library was not loaded
+         */
+        public String getShortName()
+        {
+            return ( tagLibrary == null ? null : tagLibrary.getShortName() );
+        }
+
+        /**
+         * Returns the URI of the tag library
+         * 
+         * @return the URI or null if the library was not loaded
+         */
+        public String getUri()
+        {
+            return ( tagLibrary == null ? null : tagLibrary.getURI() );
+        }
+
+        /**
+         * Returns the number of tags in the library
+         * 
+         * @return the number of tags or null if the library was not loaded
+         */
+        public Integer getTagCount()
+        {
+            return ( tagLibrary == null ? null : new Integer( tagLibrary
+                    .getTags().length ) );
+        }
+
+        /**
+         * Returns true if testing the library failed
+         * 
+         * @return true if testing the library failed
+         */
+        public boolean isFailed()
+        {
+            return error != null;
+        }
+
+        /**
+         * Returns the failure
+         * 
+         * @return the failure or null if the library was tested
+         */
+        public String getError()
+        {
+            return error;
+        }
+
+        /**
+         * Returns how long testing the library took
+         * 
+         * @return how long testing the library took, in milliseconds
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * Returns the name of the library
+         * 
+         * @return the name of the library
+         */
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * Tests the tag libraries listed in a manifest based on the command line
+     * arguments:
+     * <ol>
+     * <li>manifest file</li>
+     * <li>output directory; <code>output</code> if not given</li>
+     * </ol>
+     * 
+     * @param args
+     *            command line arguments
+     * @throws Exception
+     *             if the batch cannot be run or any library failed
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        if ( args.length < 1 )
+        {
+            throw new IllegalArgumentException(
+                    "A manifest file is a required argument" );
+        }
+
+        File outputDir = new File( args.length > 1 ? args[1] : "output" );
+
+        Handler handler = new ConsoleHandler();
+        handler.setLevel( Level.INFO );
+
+        Logger.getLogger( "" ).setLevel( Level.ALL );
+        Logger.getLogger( "" ).addHandler( handler );
+
+        List libraries = readManifest( new File( args[0] ) );
+
+        int failed = new JspTesterBatch().run( libraries, outputDir );
+        if ( failed > 0 )
+        {
+            throw new IOException( failed + " of " + libraries.size()
+                    + " tag libraries failed" );
+        }
+    }
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.tester;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.commons.io.IOUtils;
+import org.owasp.jsptester.attack.AttackLibrary;
+import org.owasp.jsptester.conf.Configuration;
+import org.owasp.jsptester.exec.EmbeddedServer;
+
+/**
+ * Runs the tester as a long lived process that keeps the embedded servers,
+ * the JSP engine, the report templates and the attack library warm between
+ * test jobs. Jobs are submitted over a loopback socket, one line per
+ * request with tab separated fields:
+ * 
+ * <pre>
+ * TEST &lt;tld file&gt; &lt;tag properties file&gt; &lt;output dir&gt; [&lt;tag name&gt;]
+ * STATUS
+ * SHUTDOWN
+ * </pre>
+ * 
+ * A <code>TEST</code> request is answered with <code>QUEUED &lt;job&gt;
+ * &lt;position&gt;</code> straight away and, once the job has run, with
+ * <code>DONE &lt;job&gt; waited=&lt;ms&gt; ran=&lt;ms&gt;</code> or
+ * <code>FAILED &lt;job&gt; &lt;message&gt;</code>. Jobs share the servers, so
+ * they are run one at a time in the order they are received.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class JspTesterDaemon
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( JspTesterDaemon.class.getName() );
+
+    /**
+     * Separator between the fields of a request
+     */
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /**
+     * Marks the end of the job queue
+     */
+    private static final Job END = new Job( 0, null );
+
+    /**
+     * The warm servers, one per shard
+     */
+    private final ServerGroup servers = new ServerGroup();
+
+    /**
+     * Queue&lt;Job&gt; of jobs waiting to run
+     */
+    private final BlockingQueue/* <Job> */jobs = new LinkedBlockingQueue();
+
+    /**
+     * The socket accepting requests
+     */
+    private ServerSocket listener;
+
+    /**
+     * The number of jobs received
+     */
+    private int jobCount = 0;
+
+    /**
+     * The number of jobs that completed successfully
+     */
+    private int completed = 0;
+
+    /**
+     * The number of jobs that failed
+     */
+    private int failed = 0;
+
+    /**
+     * Whether the daemon is shutting down
+     */
+    private volatile boolean shuttingDown = false;
+
+    /**
+     * Begins listening for requests on the given loopback port, deploys the
+     * base web application on each server and starts the servers
+     * 
+     * @param port
+     *            the port to listen on; zero picks a free port
+     * @return the port the daemon is listening on
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws LifecycleException
+     *             if a server cannot be started
+     * @throws IllegalArgumentException
+     *             if the port is one of the embedded servers' ports
+     */
+    public int start( int port ) throws IOException, LifecycleException
+    {
+        LOGGER.entering( JspTesterDaemon.class.getName(), "start",
+                new Integer( port ) );
+
+        EmbeddedServer[] shards = servers.getServers();
+        for ( int shard = 0; port != 0 && shard < shards.length; shard++ )
+        {
+            if ( shards[shard].getPort() == port )
+            {
+                throw new IllegalArgumentException( "Daemon port " + port
+                        + " is used by embedded server " + shard );
+            }
+        }
+
+        // bind first so a port in use does not leave the servers running
+        listener = new ServerSocket( port, 50, InetAddress
+                .getByName( "127.0.0.1" ) );
+
+        try
+        {
+            servers.start();
+        }
+        catch ( IOException ioe )
+        {
+            abortStart();
+            throw ioe;
+        }
+        catch ( LifecycleException le )
+        {
+            abortStart();
+            throw le;
+        }
+        catch ( RuntimeException re )
+        {
+            abortStart();
+            throw re;
+        }
+
+        Thread worker = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                runJobs();
+            }
+        }, "daemon-jobs" );
+        worker.start();
+
+        LOGGER.info( "Listening on port " + listener.getLocalPort() );
+
+        LOGGER.exiting( JspTesterDaemon.class.getName(), "start" );
+
+        return listener.getLocalPort();
+    }
+
+    /**
+     * Stops the servers and closes the listener after the servers could not
+     * all be started
+     */
+    private void abortStart()
+    {
+        servers.stop();
+
+        try
+        {
+            listener.close();
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.FINE, "Unable to close listener", ioe );
+        }
+    }
+
+    /**
+     * Accepts requests until the daemon is shut down
+     */
+    public void serve()
+    {
+        while ( !shuttingDown )
+        {
+            try
+            {
+                final Socket client = listener.accept();
+
+                Thread handler = new Thread( new Runnable()
+                {
+                    public void run()
+                    {
+                        handle( client );
+                    }
+                }, "daemon-client-" + client.getPort() );
+                handler.setDaemon( true );
+                handler.start();
+            }
+            catch ( SocketException se )
+            {
+                // the listener was closed by a shutdown request
+                LOGGER.log( Level.FINE, "Stopped accepting requests", se );
+            }
+            catch ( IOException ioe )
+            {
+                LOGGER.log( Level.WARNING, "Unable to accept request", ioe );
+            }
+        }
+    }
+
+    /**
+     * Reads requests from the given client until it disconnects
+     * 
+     * @param client
+     *            the client socket
+     */
+    private void handle( Socket client )
+    {
+        BufferedReader in = null;
+        PrintWriter out = null;
+
+        try
+        {
+            in = new BufferedReader( new InputStreamReader( client
+                    .getInputStream(), "UTF-8" ) );
+            out = new PrintWriter( new OutputStreamWriter( client
+                    .getOutputStream(), "UTF-8" ), true );
+
+            String request;
+            while ( ( request = in.readLine() ) != null )
+            {
+                String[] fields = request.split( FIELD_SEPARATOR );
+
+                if ( "TEST".equals( fields[0] )
+                        && ( fields.length == 4 || fields.length == 5 ) )
+                {
+                    Job job = submit( fields );
+                    if ( job == null )
+                    {
+                        out.println( "ERROR shutting down" );
+                        continue;
+                    }
+
+                    out.println( "QUEUED " + job.id + " " + job.position );
+                    job.done.await();
+                    out.println( job.result );
+                }
+                else if ( "STATUS".equals( fields[0] ) )
+                {
+                    out.println( status() );
+                }
+                else if ( "SHUTDOWN".equals( fields[0] ) )
+                {
+                    shutdown();
+                    out.println( "OK" );
+                }
+                else
+                {
+                    out.println( "ERROR unknown request: " + fields[0] );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.FINE, "Client disconnected", ioe );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+            IOUtils.closeQuietly( out );
+
+            try
+            {
+                client.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOGGER.log( Level.FINE, "Unable to close client", ioe );
+            }
+        }
+    }
+
+    /**
+     * Queues a job for the given <code>TEST</code> request
+     * 
+     * @param fields
+     *            the fields of the request
+     * @return the job or null if the daemon is shutting down
+     */
+    private synchronized Job submit( String[] fields )
+    {
+        if ( shuttingDown )
+        {
+            return null;
+        }
+
+        Job job = new Job( ++jobCount, fields );
+        job.position = jobs.size() + 1;
+        jobs.add( job );
+
+        LOGGER.fine( "Queued job " + job.id + " at position " + job.position );
+
+        return job;
+    }
+
+    /**
+     * Returns the status of the daemon
+     * 
+     * @return the status of the daemon
+     */
+    private synchronized String status()
+    {
+        return "OK queued=" + jobs.size() + " completed=" + completed
+                + " failed=" + failed;
+    }
+
+    /**
+     * Stops accepting requests; jobs already queued still run, then the
+     * servers are stopped
+     */
+    public synchronized void shutdown()
+    {
+        if ( shuttingDown )
+        {
+            return;
+        }
+
+        LOGGER.info( "Shutting down" );
+
+        shuttingDown = true;
+        jobs.add( END );
+
+        try
+        {
+            listener.close();
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.FINE, "Unable to close listener", ioe );
+        }
+    }
+
+    /**
+     * Runs queued jobs one at a time until the daemon is shut down, then
+     * stops the servers. If the worker stops for any other reason, such as
+     * an error thrown by a job, the daemon is shut down and the jobs still
+     * queued are failed so that their clients are answered.
+     */
+    private void runJobs()
+    {
+        try
+        {
+            for ( Job job = (Job) jobs.take(); job != END; job = (Job) jobs
+                    .take() )
+            {
+                run( job );
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            // stop taking jobs that would never run
+            shutdown();
+
+            for ( Job job = (Job) jobs.poll(); job != null; job = (Job) jobs
+                    .poll() )
+            {
+                if ( job != END )
+                {
+                    job.result = "FAILED " + job.id + " daemon stopped";
+                    job.done.countDown();
+                }
+            }
+
+            servers.stop();
+        }
+    }
+
+    /**
+     * Runs a single job on the warm servers, recording its timing
+     * 
+     * @param job
+     *            the job
+     */
+    private void run( Job job )
+    {
+        long start = System.nanoTime();
+        long waited = ( start - job.queued ) / 1000000;
+
+        LOGGER.info( "Running job " + job.id + " after waiting " + waited
+                + " ms" );
+
+        try
+        {
+            // the attack library is cached, and reparsed only if its file
+            // has changed since the last job
+            JspTester tester = new JspTester( job.fields[1], job.fields[2],
+                    AttackLibrary.getInstance().getAttacks(), servers
+                            .getServers() );
+
+            // if no tag name is provided, test whole library
+            if ( job.fields.length == 4 )
+            {
+                tester.testLibrary( job.fields[3] );
+            }
+            // otherwise, test individual tag
+            else
+            {
+                tester.testTag( job.fields[3], job.fields[4] );
+            }
+
+            long ran = ( System.nanoTime() - start ) / 1000000;
+            job.result = "DONE " + job.id + " waited=" + waited + " ran="
+                    + ran;
+
+            synchronized ( this )
+            {
+                completed++;
+            }
+        }
+        catch ( Exception e )
+        {
+            LOGGER.log( Level.WARNING, "Job " + job.id + " failed", e );
+            job.result = "FAILED " + job.id + " " + e;
+
+            synchronized ( this )
+            {
+                failed++;
+            }
+        }
+        catch ( Error err )
+        {
+            LOGGER.log( Level.SEVERE, "Job " + job.id + " failed", err );
+            job.result = "FAILED " + job.id + " " + err;
+
+            synchronized ( this )
+            {
+                failed++;
+            }
+
+            // the worker cannot be trusted to run further jobs
+            throw err;
+        }
+        finally
+        {
+            LOGGER.info( "Job " + job.id + ": " + job.result );
+
+            job.done.countDown();
+        }
+    }
+
+    /**
+     * A queued test job
+     */
+    private static class Job
+    {
+        /**
+         * The job number
+         */
+        private final int id;
+
+        /**
+         * The fields of the request
+         */
+        private final String[] fields;
+
+        /**
+         * When the job was queued, in nanoseconds
+         */
+        private final long queued = System.nanoTime();
+
+        /**
+         * Released once the job has run
+         */
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        /**
+         * The position of the job in the queue when it was received
+         */
+        private int position;
+
+        /**
+         * The response line describing the outcome of the job
+         */
+        private volatile String result;
+
+        /**
+         * Creates a job for the given request
+         * 
+         * @param id
+         *            the job number
+         * @param fields
+         *            the fields of the request
+         */
+        Job( int id, String[] fields )
+        {
+            this.id = id;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Starts the daemon on the port given as the first argument, or the
+     * configured <code>DAEMON_PORT</code>
+     * 
+     * @param args
+     *            the optional port number
+     * @throws Exception
+     *             if the daemon cannot be started
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        int port = Configuration.getInstance().getIntProperty(
+                Configuration.DAEMON_PORT, 0 );
+        if ( args.length > 0 )
+        {
+            port = Integer.parseInt( args[0] );
+        }
+
+        Handler handler = new ConsoleHandler();
+        handler.setLevel( Level.INFO );
+
+        Logger.getLogger( "" ).setLevel( Level.ALL );
+        Logger.getLogger( "" ).addHandler( handler );
+
+        JspTesterDaemon daemon = new JspTesterDaemon();
+        daemon.start( port );
+        daemon.serve();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.tester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.commons.io.FileUtils;
+import org.owasp.jsptester.conf.Configuration;
+import org.owasp.jsptester.exec.EmbeddedServer;
+import org.owasp.jsptester.exec.MemoryWebRoot;
+import org.owasp.jsptester.report.ReportGenerator;
+
+/**
+ * The warm embedded servers, one per shard, that several runs share. The
+ * base web application is deployed once when the group is started and the
+ * servers keep running between runs. Every run writes the same test case
+ * names, so the servers check every JSP for changes on every request.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class ServerGroup
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( ServerGroup.class
+            .getName() );
+
+    /**
+     * The servers, one per shard
+     */
+    private final EmbeddedServer[] servers;
+
+    /**
+     * Creates a group of the configured number of embedded servers
+     */
+    public ServerGroup()
+    {
+        int instances = Math.max( 1, Configuration.getInstance()
+                .getIntProperty( Configuration.EMBEDDED_SERVER_INSTANCES, 1 ) );
+
+        servers = new EmbeddedServer[instances];
+        for ( int shard = 0; shard < instances; shard++ )
+        {
+            servers[shard] = new EmbeddedServer( shard );
+
+            // a page must not be served from a class compiled for an
+            // earlier run
+            servers[shard].setCheckModifiedEveryRequest( true );
+        }
+    }
+
+    /**
+     * Returns the servers, one per shard
+     * 
+     * @return the servers
+     */
+    public EmbeddedServer[] getServers()
+    {
+        return servers;
+    }
+
+    /**
+     * Deploys the base web application on each server and starts the
+     * servers
+     * 
+     * @throws IOException
+     *             if the base web application cannot be deployed
+     * @throws LifecycleException
+     *             if a server cannot be started
+     */
+    public void start() throws IOException, LifecycleException
+    {
+        LOGGER.entering( ServerGroup.class.getName(), "start" );
+
+        long start = System.nanoTime();
+
+        for ( int shard = 0; shard < servers.length; shard++ )
+        {
+            ReportGenerator.getInstance().copyBase(
+                    servers[shard].getWebRootDir() );
+            servers[shard].start();
+        }
+
+        LOGGER.info( "Started " + servers.length + " servers in "
+                + ( System.nanoTime() - start ) / 1000000 + " ms" );
+
+        LOGGER.exiting( ServerGroup.class.getName(), "start" );
+    }
+
+    /**
+     * Stops the servers that are running and removes their document base.
+     * Failures are logged so that every server is stopped.
+     */
+    public void stop()
+    {
+        LOGGER.entering( ServerGroup.class.getName(), "stop" );
+
+        for ( int shard = 0; shard < servers.length; shard++ )
+        {
+            try
+            {
+                if ( servers[shard].isStarted() )
+                {
+                    servers[shard].stop();
+                }
+            }
+            catch ( LifecycleException le )
+            {
+                LOGGER.log( Level.WARNING, "Unable to stop server", le );
+            }
+        }
+
+        File docBase = new File( Configuration.getInstance().getProperty(
+                Configuration.EMBEDDED_DOC_BASE ) );
+
+        MemoryWebRoot.unmountAll( docBase );
+
+        try
+        {
+            FileUtils.deleteDirectory( docBase );
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.WARNING, "Unable to delete document base", ioe );
+        }
+
+        LOGGER.exiting( ServerGroup.class.getName(), "stop" );
+    }
+}
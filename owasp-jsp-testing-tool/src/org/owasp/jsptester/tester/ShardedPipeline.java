@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.tester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.servlet.jsp.tagext.TagInfo;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.commons.io.FileUtils;
+import org.owasp.jsptester.exec.MemoryWebRoot;
+import org.owasp.jsptester.report.ReportGenerator;
+import org.owasp.jsptester.report.TestCaseId;
+import org.owasp.jsptester.report.TestCaseListener;
+
+/**
+ * Spreads the generated test cases across several pipelines, each with its
+ * own embedded server and web root, so that class loading, compilation and
+ * rendering are not serialized through a single web application. Test cases
+ * are partitioned by tag: every test case for a tag goes to the same shard,
+ * and tags are assigned to shards in turn as they are first seen.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class ShardedPipeline implements TestCaseListener
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger
+            .getLogger( ShardedPipeline.class.getName() );
+
+    /**
+     * The pipeline of each shard
+     */
+    private final TestPipeline[] pipelines;
+
+    /**
+     * The web root of each shard
+     */
+    private final File[] webRoots;
+
+    /**
+     * Map&lt;String, Integer&gt; of tag name to the shard testing it
+     */
+    private final Map/* <String, Integer> */tagShards = new HashMap();
+
+    /**
+     * The directory the test cases are generated in
+     */
+    private File generatedDir = null;
+
+    /**
+     * Creates a pipeline that spreads test cases across the given pipelines,
+     * whose servers serve the given web roots
+     * 
+     * @param pipelines
+     *            the pipeline of each shard
+     * @param webRoots
+     *            the web root of each shard's server
+     */
+    public ShardedPipeline( TestPipeline[] pipelines, File[] webRoots )
+    {
+        if ( pipelines.length == 0 || pipelines.length != webRoots.length )
+        {
+            throw new IllegalArgumentException(
+                    "Each shard requires a pipeline and a web root" );
+        }
+
+        this.pipelines = pipelines;
+        this.webRoots = webRoots;
+    }
+
+    /**
+     * Copies the base files of the web application to each shard's web root
+     * and starts the shards
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#baseCopied(java.io.File)
+     */
+    public void baseCopied( File outputDir ) throws IOException
+    {
+        generatedDir = outputDir.getCanonicalFile();
+
+        for ( int shardIdx = 0; shardIdx < pipelines.length; shardIdx++ )
+        {
+            if ( !isGeneratedDir( shardIdx ) )
+            {
+                ReportGenerator.getInstance().copyBase( webRoots[shardIdx] );
+            }
+
+            pipelines[shardIdx].baseCopied( webRoots[shardIdx] );
+        }
+
+        LOGGER.fine( "Started " + pipelines.length + " shards" );
+    }
+
+    /**
+     * Moves the test case to the web root of the shard testing its tag and
+     * passes it to that shard's pipeline
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#testCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, org.owasp.jsptester.report.TestCaseId)
+     */
+    public void testCaseGenerated( TagInfo tag, File testCase,
+            TestCaseId testId ) throws IOException
+    {
+        int shard = shardFor( tag );
+
+        pipelines[shard].testCaseGenerated( tag, moveToShard( shard,
+                testCase ), testId );
+    }
+
+    /**
+     * Moves the parameterised page to the web root of the shard testing its
+     * tag and passes it to that shard's pipeline
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#parameterisedTestCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, java.util.Map)
+     */
+    public void parameterisedTestCaseGenerated( TagInfo tag, File page,
+            Map/* <TestCaseId, String> */testCases ) throws IOException
+    {
+        int shard = shardFor( tag );
+
+        pipelines[shard].parameterisedTestCaseGenerated( tag, moveToShard(
+                shard, page ), testCases );
+    }
+
+    /**
+     * Moves the batch page to the web root of the shard testing its tag and
+     * passes it to that shard's pipeline
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#batchTestCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, java.util.List)
+     */
+    public void batchTestCaseGenerated( TagInfo tag, File page,
+            List/* <TestCaseId> */testCases ) throws IOException
+    {
+        int shard = shardFor( tag );
+
+        pipelines[shard].batchTestCaseGenerated( tag, moveToShard( shard,
+                page ), testCases );
+    }
+
+    /**
+     * Moves the given generated file to the web root of the given shard,
+     * unless the shard serves the generated files directly
+     * 
+     * @param shard
+     *            the shard
+     * @param testCase
+     *            the generated file
+     * @return the file in the shard's web root
+     * @throws IOException
+     *             if the file cannot be moved
+     */
+    private File moveToShard( int shard, File testCase ) throws IOException
+    {
+        File shardTestCase = testCase;
+
+        if ( !isGeneratedDir( shard ) )
+        {
+            shardTestCase = new File( webRoots[shard], testCase.getName() );
+
+            MemoryWebRoot memoryWebRoot = MemoryWebRoot.forDirectory( testCase
+                    .getParentFile() );
+            if ( memoryWebRoot != null )
+            {
+                // an identical test case is kept by the shard's web root
+                memoryWebRoot.moveTo( testCase.getName(), MemoryWebRoot
+                        .forDirectory( webRoots[shard] ) );
+                return shardTestCase;
+            }
+
+            // keep an identical test case, and its modification time, so a
+            // running server does not recompile it
+            if ( shardTestCase.isFile()
+                    && FileUtils.contentEquals( testCase, shardTestCase ) )
+            {
+                testCase.delete();
+            }
+            else
+            {
+                FileUtils.deleteQuietly( shardTestCase );
+                if ( !testCase.renameTo( shardTestCase ) )
+                {
+                    FileUtils.copyFile( testCase, shardTestCase );
+                    testCase.delete();
+                }
+            }
+        }
+
+        return shardTestCase;
+    }
+
+    /**
+     * Returns the shard testing the given tag, assigning the next shard if
+     * the tag has not been seen before
+     * 
+     * @param tag
+     *            the tag being tested
+     * @return the shard testing the tag
+     */
+    private int shardFor( TagInfo tag )
+    {
+        Integer shard = (Integer) tagShards.get( tag.getTagName() );
+
+        if ( shard == null )
+        {
+            shard = new Integer( tagShards.size() % pipelines.length );
+            tagShards.put( tag.getTagName(), shard );
+
+            LOGGER.finer( "Testing " + tag.getTagName() + " on shard "
+                    + shard );
+        }
+
+        return shard.intValue();
+    }
+
+    /**
+     * Returns true if the given shard serves the directory the test cases
+     * are generated in
+     * 
+     * @param shard
+     *            the shard
+     * @return true if the shard serves the generated test cases directly
+     * @throws IOException
+     *             if the path of the shard's web root cannot be resolved
+     */
+    private boolean isGeneratedDir( int shard ) throws IOException
+    {
+        return webRoots[shard].getCanonicalFile().equals( generatedDir );
+    }
+
+    /**
+     * Signals that every test case has been generated and waits for every
+     * shard to drain
+     * 
+     * @throws IOException
+     *             if any shard failed
+     */
+    public void finish() throws IOException
+    {
+        for ( int shardIdx = 0; shardIdx < pipelines.length; shardIdx++ )
+        {
+            pipelines[shardIdx].finish();
+        }
+    }
+
+    /**
+     * Returns the verdicts of every shard's test cases whose results have
+     * been written to the result sink
+     * 
+     * @return a <code>List&lt;Verdict&gt;</code> ordered by test case name
+     */
+    public List/* <Verdict> */getVerdicts()
+    {
+        Map/* <String, Verdict> */verdicts = new TreeMap();
+
+        for ( int shardIdx = 0; shardIdx < pipelines.length; shardIdx++ )
+        {
+            verdicts.putAll( pipelines[shardIdx].getVerdicts() );
+        }
+
+        return new ArrayList( verdicts.values() );
+    }
+
+    /**
+     * Stops every shard
+     * 
+     * @throws LifecycleException
+     *             if an error occurs stopping any of the servers
+     */
+    public void close() throws LifecycleException
+    {
+        LifecycleException failure = null;
+
+        for ( int shardIdx = 0; shardIdx < pipelines.length; shardIdx++ )
+        {
+            try
+            {
+                pipelines[shardIdx].close();
+            }
+            catch ( LifecycleException le )
+            {
+                if ( failure == null )
+                {
+                    failure = le;
+                }
+            }
+        }
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+}
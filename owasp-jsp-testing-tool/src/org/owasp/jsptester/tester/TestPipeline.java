@@ -0,0 +1,991 @@
+/*
+ * Copyright (c) 2008, Jason Li
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer; (2) Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution; (3) Neither the name of OWASP nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.owasp.jsptester.tester;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.jsp.tagext.TagInfo;
+
+import org.apache.catalina.LifecycleException;
+import org.owasp.jsptester.conf.Configuration;
+import org.owasp.jsptester.exec.CompileCache;
+import org.owasp.jsptester.exec.EmbeddedServer;
+import org.owasp.jsptester.exec.Precompiler;
+import org.owasp.jsptester.exec.RecyclePolicy;
+import org.owasp.jsptester.exec.SerializationPool;
+import org.owasp.jsptester.exec.TestCaseExecutor;
+import org.owasp.jsptester.exec.TestCaseSerializer;
+import org.owasp.jsptester.report.ResultSink;
+import org.owasp.jsptester.report.TestCaseBatch;
+import org.owasp.jsptester.report.TestCaseId;
+import org.owasp.jsptester.report.TestCaseListener;
+import org.owasp.jsptester.report.TestResult;
+import org.owasp.jsptester.report.Verdict;
+import org.owasp.jsptester.report.VerdictEngine;
+
+/**
+ * Runs the test cases through a staged producer/consumer pipeline while they
+ * are still being generated. Test cases flow from the generator, through a
+ * pool of compile threads that restore cached classes and precompile each
+ * page, to a dispatcher that hands them to the serialization pool, which
+ * fetches each page and writes it to the output directory. The stages are
+ * connected by bounded queues, so a slow stage holds back the ones before it
+ * rather than letting work pile up in memory or on disk.
+ * <p>
+ * Unless it is already running, the embedded server is started as soon as
+ * the base files of the web application have been copied, so the first
+ * results are written while the rest of the test cases are still being
+ * generated. The server is replaced with a fresh instance whenever its
+ * <code>RecyclePolicy</code> says so.
+ * <p>
+ * A page holding a batch of test cases is rendered once, and the serializer
+ * thread that wrote it splits it into the files of its test cases.
+ * <p>
+ * Given a <code>ResultSink</code>, the serializer thread that wrote a test
+ * case also decides its verdict and writes its result to the sink straight
+ * away.
+ * 
+ * @author Jason Li
+ * 
+ */
+public class TestPipeline implements TestCaseListener
+{
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger( TestPipeline.class
+            .getName() );
+
+    /**
+     * Number of test cases that may wait in a queue per consuming thread
+     */
+    private static final int QUEUE_DEPTH_PER_THREAD = 4;
+
+    /**
+     * How long to wait on a queue before checking whether the pipeline has
+     * failed, in milliseconds
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * Marks the end of the test cases in a queue
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The embedded server rendering the test cases
+     */
+    private final EmbeddedServer server;
+
+    /**
+     * The serializer, whose connections must be dropped when the server is
+     * restarted
+     */
+    private final TestCaseSerializer serializer;
+
+    /**
+     * Compiles the test cases; null if precompilation is disabled
+     */
+    private final Precompiler precompiler;
+
+    /**
+     * Cache of compiled test cases; may be null
+     */
+    private final CompileCache compileCache;
+
+    /**
+     * Fetches and writes the test cases
+     */
+    private final SerializationPool pool;
+
+    /**
+     * Decides when the server is replaced with a fresh instance
+     */
+    private final RecyclePolicy recyclePolicy;
+
+    /**
+     * The directory the serialized test cases are written to
+     */
+    private final File reportOut;
+
+    /**
+     * The number of compile threads
+     */
+    private final int compileThreads;
+
+    /**
+     * Queue&lt;TestCaseItem&gt; of generated test cases waiting to be
+     * compiled
+     */
+    private final BlockingQueue/* <Object> */generated;
+
+    /**
+     * Queue&lt;TestCaseItem&gt; of compiled test cases waiting to be
+     * serialized
+     */
+    private final BlockingQueue/* <Object> */compiled;
+
+    /**
+     * Held for reading while a test case is compiled and for writing while the
+     * server is restarted
+     */
+    private final ReadWriteLock serverLock = new ReentrantReadWriteLock();
+
+    /**
+     * Map&lt;File, List&lt;TestCaseId&gt;&gt; of rendered batch page to its
+     * test cases, for the batches waiting to be serialized
+     */
+    private final Map/* <File, List<TestCaseId>> */batches = Collections
+            .synchronizedMap( new HashMap() );
+
+    /**
+     * Map&lt;File, TestCaseId&gt; of output file to the test case it renders,
+     * for the pages waiting to be serialized while results are written
+     */
+    private final Map/* <File, TestCaseId> */testIds = Collections
+            .synchronizedMap( new HashMap() );
+
+    /**
+     * Decides the verdicts of the results written to the sink
+     */
+    private final VerdictEngine verdictEngine = new VerdictEngine( 1 );
+
+    /**
+     * Map&lt;String, Verdict&gt; of test case file name to the verdict
+     * written to the sink, ordered by name
+     */
+    private final Map/* <String, Verdict> */verdicts = Collections
+            .synchronizedMap( new TreeMap() );
+
+    /**
+     * Receives the result of each test case; null if results are not written
+     */
+    private volatile ResultSink resultSink = null;
+
+    /**
+     * Released once the server has started, or failed to start
+     */
+    private final CountDownLatch started = new CountDownLatch( 1 );
+
+    /**
+     * The pipeline threads
+     */
+    private final List/* <Thread> */threads = new ArrayList();
+
+    /**
+     * The number of compile threads that have not reached the end of the
+     * test cases
+     */
+    private int activeCompilers;
+
+    /**
+     * The first failure of any stage
+     */
+    private volatile Throwable failure = null;
+
+    /**
+     * Whether the server was started by this pipeline, and so must be
+     * stopped by it
+     */
+    private volatile boolean serverStarted = false;
+
+    /**
+     * Creates a pipeline that renders test cases with the given executor on
+     * the given server and writes them to the given output directory, using
+     * the configured number of compile and serializer threads
+     * 
+     * @param server
+     *            the embedded server, not yet started
+     * @param testCaseExecutor
+     *            the executor rendering the test cases
+     * @param serializer
+     *            the serializer whose connections must be dropped when the
+     *            server is restarted
+     * @param compileCache
+     *            the cache of compiled test cases; may be null
+     * @param outputDir
+     *            the directory to write the serialized test cases to
+     */
+    public TestPipeline( EmbeddedServer server,
+            TestCaseExecutor testCaseExecutor, TestCaseSerializer serializer,
+            CompileCache compileCache, File outputDir )
+    {
+        this( server, testCaseExecutor, serializer, compileCache, outputDir,
+                Configuration.getInstance().getIntProperty(
+                        Configuration.PRECOMPILE_THREADS,
+                        Runtime.getRuntime().availableProcessors() ),
+                Configuration.getInstance().getIntProperty(
+                        Configuration.SERIALIZER_THREADS,
+                        Runtime.getRuntime().availableProcessors() ) );
+    }
+
+    /**
+     * Creates a pipeline that renders test cases with the given executor on
+     * the given server and writes them to the given output directory
+     * 
+     * @param server
+     *            the embedded server, not yet started
+     * @param testCaseExecutor
+     *            the executor rendering the test cases
+     * @param serializer
+     *            the serializer whose connections must be dropped when the
+     *            server is restarted
+     * @param compileCache
+     *            the cache of compiled test cases; may be null
+     * @param outputDir
+     *            the directory to write the serialized test cases to
+     * @param compileThreads
+     *            the number of compile threads
+     * @param serializerThreads
+     *            the number of serializer threads
+     */
+    public TestPipeline( EmbeddedServer server,
+            TestCaseExecutor testCaseExecutor, TestCaseSerializer serializer,
+            CompileCache compileCache, File outputDir, int compileThreads,
+            int serializerThreads )
+    {
+        this.server = server;
+        this.serializer = serializer;
+        this.compileCache = compileCache;
+
+        this.compileThreads = Math.max( 1, compileThreads );
+        this.precompiler = ( Configuration.getInstance().getBooleanProperty(
+                Configuration.PRECOMPILE_TEST_CASES, true ) ? new Precompiler(
+                testCaseExecutor ) : null );
+        this.pool = new SerializationPool( new PageExecutor(
+                testCaseExecutor ), Math.max( 1,
+                serializerThreads ) );
+
+        this.recyclePolicy = new RecyclePolicy( Configuration.getInstance()
+                .getIntProperty( Configuration.RECYCLE_MAX_REQUESTS, 0 ),
+                Configuration.getInstance().getIntProperty(
+                        Configuration.RECYCLE_MEMORY_THRESHOLD, 0 ),
+                Configuration.getInstance().getIntProperty(
+                        Configuration.RECYCLE_MIN_REQUESTS, 0 ) );
+
+        this.generated = new ArrayBlockingQueue( this.compileThreads
+                * QUEUE_DEPTH_PER_THREAD );
+        this.compiled = new ArrayBlockingQueue( pool.getWorkers()
+                * QUEUE_DEPTH_PER_THREAD );
+        this.activeCompilers = this.compileThreads;
+
+        // create the context root directory for the test cases
+        this.reportOut = new File( outputDir, Configuration.getInstance()
+                .getProperty( Configuration.REPORT_CONTEXT_ROOT ) );
+        this.reportOut.mkdirs();
+    }
+
+    /**
+     * Returns the verdicts of the test cases whose results have been written
+     * to the result sink
+     * 
+     * @return <code>Map&lt;String, Verdict&gt;</code> of test case file name
+     *         to verdict, ordered by name
+     */
+    public Map/* <String, Verdict> */getVerdicts()
+    {
+        synchronized ( verdicts )
+        {
+            return new TreeMap( verdicts );
+        }
+    }
+
+    /**
+     * Sets the sink receiving the result of each test case. Must be set
+     * before any test case is generated.
+     * 
+     * @param resultSink
+     *            the sink to write results to, or null to not write results
+     */
+    public void setResultSink( ResultSink resultSink )
+    {
+        this.resultSink = resultSink;
+    }
+
+    /**
+     * Starts the server and the pipeline stages, now that the web
+     * application can be deployed
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#baseCopied(java.io.File)
+     */
+    public void baseCopied( File outputDir )
+    {
+        LOGGER.fine( "Starting pipeline with " + compileThreads
+                + " compile threads and " + pool.getWorkers()
+                + " serializer threads" );
+
+        for ( int threadIdx = 1; threadIdx <= compileThreads; threadIdx++ )
+        {
+            startThread( "compiler-" + threadIdx, new Runnable()
+            {
+                public void run()
+                {
+                    compileStage();
+                }
+            } );
+        }
+
+        startThread( "dispatcher", new Runnable()
+        {
+            public void run()
+            {
+                dispatchStage();
+            }
+        } );
+    }
+
+    /**
+     * Queues the generated test case to be compiled, blocking if the compile
+     * stage is behind
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#testCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, org.owasp.jsptester.report.TestCaseId)
+     */
+    public void testCaseGenerated( TagInfo tag, File testCase,
+            TestCaseId testId ) throws IOException
+    {
+        put( generated, new TestCaseItem( tag.getTagName(), testCase, testId,
+                null, null ) );
+    }
+
+    /**
+     * Queues the parameterised page to be compiled once and then rendered
+     * for each of its test cases, blocking if the compile stage is behind
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#parameterisedTestCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, java.util.Map)
+     */
+    public void parameterisedTestCaseGenerated( TagInfo tag, File page,
+            Map/* <TestCaseId, String> */testCases ) throws IOException
+    {
+        put( generated, new TestCaseItem( tag.getTagName(), page, null,
+                testCases, null ) );
+    }
+
+    /**
+     * Queues the batch page to be compiled, rendered once and split into its
+     * test cases, blocking if the compile stage is behind
+     * 
+     * @see org.owasp.jsptester.report.TestCaseListener#batchTestCaseGenerated(javax.servlet.jsp.tagext.TagInfo,
+     *      java.io.File, java.util.List)
+     */
+    public void batchTestCaseGenerated( TagInfo tag, File page,
+            List/* <TestCaseId> */testCases ) throws IOException
+    {
+        put( generated, new TestCaseItem( tag.getTagName(), page, null, null,
+                testCases ) );
+    }
+
+    /**
+     * Signals that every test case has been generated and waits for the
+     * pipeline to drain
+     * 
+     * @throws IOException
+     *             if any stage failed
+     */
+    public void finish() throws IOException
+    {
+        LOGGER.entering( TestPipeline.class.getName(), "finish" );
+
+        // one end marker for each compile thread
+        for ( int threadIdx = 0; threadIdx < compileThreads; threadIdx++ )
+        {
+            put( generated, END );
+        }
+
+        joinThreads();
+        checkFailure();
+
+        if ( compileCache != null )
+        {
+            try
+            {
+                compileCache.store();
+            }
+            catch ( IOException ioe )
+            {
+                LOGGER.log( Level.WARNING,
+                        "Unable to cache compiled test cases", ioe );
+            }
+
+            compileCache.logStatistics();
+        }
+
+        LOGGER.exiting( TestPipeline.class.getName(), "finish" );
+    }
+
+    /**
+     * Stops the pipeline and the server, abandoning any test cases still in
+     * flight. Always call once the pipeline is no longer needed.
+     * 
+     * @throws LifecycleException
+     *             if an error occurs stopping the server
+     */
+    public void close() throws LifecycleException
+    {
+        fail( new IOException( "Pipeline closed" ) );
+
+        try
+        {
+            joinThreads();
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.FINE, "Interrupted while closing", ioe );
+        }
+
+        pool.shutdown();
+        recyclePolicy.logStatistics();
+
+        if ( precompiler != null )
+        {
+            precompiler.logStatistics();
+        }
+
+        if ( serverStarted )
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * Restores the given test case from the compile cache, if there is one. A
+     * cache entry that cannot be restored is treated as a miss, so the test
+     * case is compiled as usual rather than failing the run.
+     * 
+     * @param item
+     *            the test case
+     * @return true if the test case was restored from the cache
+     */
+    private boolean restore( TestCaseItem item )
+    {
+        if ( compileCache == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            return compileCache.restore( item.testCase );
+        }
+        catch ( IOException ioe )
+        {
+            LOGGER.log( Level.WARNING, "Unable to restore "
+                    + item.testCase.getName() + " from the compile cache",
+                    ioe );
+            return false;
+        }
+    }
+
+    /**
+     * Takes test cases from the generated queue, restores them from the
+     * compile cache or compiles them, and passes them to the compiled queue
+     */
+    private void compileStage()
+    {
+        try
+        {
+            started.await();
+
+            Object next;
+            while ( ( next = take( generated ) ) != null && next != END )
+            {
+                TestCaseItem item = (TestCaseItem) next;
+
+                serverLock.readLock().lock();
+                try
+                {
+                    boolean restored = restore( item );
+
+                    // the JSPs are compiled directly rather than through the
+                    // faces servlet, which would render them
+                    if ( !restored && precompiler != null )
+                    {
+                        precompiler.compile( item.tagName, item.testCase
+                                .getName() );
+                    }
+                }
+                finally
+                {
+                    serverLock.readLock().unlock();
+                }
+
+                put( compiled, item );
+            }
+
+            // the last compile thread to finish ends the compiled queue
+            boolean last;
+            synchronized ( this )
+            {
+                last = ( --activeCompilers == 0 );
+            }
+
+            if ( last )
+            {
+                put( compiled, END );
+            }
+        }
+        catch ( Throwable t )
+        {
+            fail( t );
+        }
+    }
+
+    /**
+     * Starts the server, then takes test cases from the compiled queue and
+     * submits them to the serialization pool, restarting the server whenever
+     * memory runs low
+     */
+    private void dispatchStage()
+    {
+        try
+        {
+            try
+            {
+                // Start the embedded Tomcat instance, unless it is already
+                // running and shared with other runs
+                if ( !server.isStarted() )
+                {
+                    LOGGER.fine( "Starting server..." );
+                    server.start();
+                    serverStarted = true;
+
+                    LOGGER.fine( "Server started" );
+                }
+            }
+            catch ( LifecycleException le )
+            {
+                // record the failure before releasing the compile threads
+                fail( le );
+                return;
+            }
+            finally
+            {
+                started.countDown();
+            }
+
+            Object next;
+            while ( ( next = take( compiled ) ) != null && next != END )
+            {
+                TestCaseItem item = (TestCaseItem) next;
+
+                // construct the context relative path for the test case
+                String test = Configuration.getInstance().getProperty(
+                        Configuration.REPORT_CONTEXT_ROOT )
+                        + item.testCase.getName();
+                LOGGER.finer( "Using path: " + test );
+
+                if ( item.batch != null )
+                {
+                    // split the rendered page once it has been written
+                    batches.put( new File( reportOut, item.testCase.getName() ),
+                            item.batch );
+                    dispatch( item.tagName, test, item.testCase.getName(),
+                            null );
+                }
+                else if ( item.testCases == null )
+                {
+                    dispatch( item.tagName, test, item.testCase.getName(),
+                            item.testId );
+                }
+                else
+                {
+                    // render the page once for each of its test cases
+                    for ( Iterator/* <Map.Entry<TestCaseId, String>> */itr = item.testCases
+                            .entrySet().iterator(); itr.hasNext(); )
+                    {
+                        Map.Entry/* <TestCaseId, String> */testCase = (Map.Entry) itr
+                                .next();
+                        TestCaseId testId = (TestCaseId) testCase.getKey();
+                        dispatch( item.tagName, test + "?"
+                                + testCase.getValue(), testId.getName(),
+                                testId );
+                    }
+                }
+            }
+
+            // wait for the remaining test cases to be serialized
+            pool.awaitCompletion();
+        }
+        catch ( Throwable t )
+        {
+            fail( t );
+        }
+    }
+
+    /**
+     * Submits a test case to the serialization pool, then restarts the server
+     * if memory runs low
+     * 
+     * @param tagName
+     *            the name of the tag being tested
+     * @param path
+     *            the context relative path of the test case, including any
+     *            query string
+     * @param testCaseName
+     *            the name of the serialized test case file
+     * @param testId
+     *            the test case rendered, or null for a batch page
+     * @throws IOException
+     *             if interrupted while submitting the test case or waiting
+     *             for the pool to drain
+     * @throws LifecycleException
+     *             if the server could not be restarted
+     */
+    private void dispatch( String tagName, String path, String testCaseName,
+            TestCaseId testId ) throws IOException, LifecycleException
+    {
+        File outputFile = new File( reportOut, testCaseName );
+
+        // results name the test case the page renders
+        if ( resultSink != null && testId != null )
+        {
+            testIds.put( outputFile, testId );
+        }
+
+        // serialize the test case
+        pool.submit( tagName, path, outputFile );
+        recyclePolicy.recordRequest();
+
+        /*
+         * To ensure out of memory exceptions do not occur, whenever the loaded
+         * test cases fill up memory, restart the embedded Tomcat server
+         */
+        if ( recyclePolicy.shouldRecycle() )
+        {
+            // stop compiling and let the in-flight test cases finish before
+            // restarting
+            serverLock.writeLock().lock();
+            try
+            {
+                pool.awaitCompletion();
+
+                // replace the server with a fresh instance
+                recyclePolicy.recycle( server );
+
+                // connections to the old server can no longer be reused
+                serializer.closeIdleConnections();
+            }
+            finally
+            {
+                serverLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts a pipeline thread
+     * 
+     * @param name
+     *            the name of the thread
+     * @param stage
+     *            the stage the thread runs
+     */
+    private void startThread( String name, Runnable stage )
+    {
+        Thread thread = new Thread( stage, name );
+        thread.setDaemon( true );
+
+        synchronized ( threads )
+        {
+            threads.add( thread );
+        }
+
+        thread.start();
+    }
+
+    /**
+     * Waits for every pipeline thread to finish
+     * 
+     * @throws IOException
+     *             if interrupted while waiting
+     */
+    private void joinThreads() throws IOException
+    {
+        List/* <Thread> */toJoin;
+        synchronized ( threads )
+        {
+            toJoin = new ArrayList( threads );
+        }
+
+        for ( Iterator/* <Thread> */itr = toJoin.iterator(); itr.hasNext(); )
+        {
+            try
+            {
+                ( (Thread) itr.next() ).join();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while waiting for pipeline" );
+            }
+        }
+    }
+
+    /**
+     * Records the first failure of any stage, which stops the pipeline
+     * 
+     * @param t
+     *            the failure
+     */
+    private synchronized void fail( Throwable t )
+    {
+        if ( failure == null )
+        {
+            LOGGER.log( Level.FINE, "Pipeline stopped", t );
+            failure = t;
+        }
+    }
+
+    /**
+     * Throws the first failure of any stage, if there is one
+     * 
+     * @throws IOException
+     *             if any stage has failed
+     */
+    private void checkFailure() throws IOException
+    {
+        Throwable t = failure;
+
+        if ( t instanceof IOException )
+        {
+            throw (IOException) t;
+        }
+        else if ( t != null )
+        {
+            IOException ioe = new IOException( "Pipeline failed" );
+            ioe.initCause( t );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Adds the given item to the given queue, waiting for space as long as the
+     * pipeline has not failed
+     * 
+     * @param queue
+     *            the queue
+     * @param item
+     *            the item
+     * @throws IOException
+     *             if the pipeline has failed or the thread is interrupted
+     */
+    private void put( BlockingQueue/* <Object> */queue, Object item )
+            throws IOException
+    {
+        try
+        {
+            while ( !queue.offer( item, POLL_INTERVAL, TimeUnit.MILLISECONDS ) )
+            {
+                checkFailure();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while queueing test case" );
+        }
+    }
+
+    /**
+     * Takes the next item from the given queue, waiting as long as the
+     * pipeline has not failed
+     * 
+     * @param queue
+     *            the queue
+     * @return the next item or null if the pipeline has failed
+     * @throws InterruptedException
+     *             if the thread is interrupted
+     */
+    private Object take( BlockingQueue/* <Object> */queue )
+            throws InterruptedException
+    {
+        Object next = null;
+
+        while ( next == null && failure == null )
+        {
+            next = queue.poll( POLL_INTERVAL, TimeUnit.MILLISECONDS );
+        }
+
+        return next;
+    }
+
+    /**
+     * A generated test case moving through the pipeline
+     */
+    private static class TestCaseItem
+    {
+        /**
+         * The name of the tag being tested
+         */
+        private final String tagName;
+
+        /**
+         * The test case file
+         */
+        private final File testCase;
+
+        /**
+         * The test case held by the test case file if it holds a single test
+         * case, otherwise null
+         */
+        private final TestCaseId testId;
+
+        /**
+         * Map&lt;TestCaseId, String&gt; of test case to query string if the
+         * test case file is a parameterised page, otherwise null
+         */
+        private final Map/* <TestCaseId, String> */testCases;
+
+        /**
+         * List&lt;TestCaseId&gt; of the test cases held by the test case file
+         * if it is a batch page, otherwise null
+         */
+        private final List/* <TestCaseId> */batch;
+
+        /**
+         * Creates an item for the given test case
+         * 
+         * @param tagName
+         *            the name of the tag being tested
+         * @param testCase
+         *            the test case file
+         * @param testId
+         *            the test case held by a single test case file, or null
+         * @param testCases
+         *            the test cases rendered by a parameterised page, or null
+         * @param batch
+         *            the test cases held by a batch page, or null
+         */
+        TestCaseItem( String tagName, File testCase, TestCaseId testId,
+                Map/* <TestCaseId, String> */testCases,
+                List/* <TestCaseId> */batch )
+        {
+            this.tagName = tagName;
+            this.testCase = testCase;
+            this.testId = testId;
+            this.testCases = testCases;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Executor that splits each rendered batch page into its test cases as
+     * soon as it has been written, then writes the result of each test case
+     * to the result sink
+     */
+    private class PageExecutor implements TestCaseExecutor
+    {
+        /**
+         * The executor rendering the pages
+         */
+        private final TestCaseExecutor executor;
+
+        /**
+         * Creates an executor finishing the pages rendered by the given
+         * executor
+         * 
+         * @param executor
+         *            the executor rendering the pages
+         */
+        PageExecutor( TestCaseExecutor executor )
+        {
+            this.executor = executor;
+        }
+
+        public int execute( String path, File outputFile ) throws IOException
+        {
+            List/* <TestCaseId> */testCases = (List) batches
+                    .remove( outputFile );
+            TestCaseId testId = (TestCaseId) testIds.remove( outputFile );
+
+            long start = System.currentTimeMillis();
+            int status = executor.execute( path, outputFile );
+            long latency = System.currentTimeMillis() - start;
+
+            if ( testCases != null )
+            {
+                List/* <String> */names = new ArrayList();
+                for ( Iterator/* <TestCaseId> */itr = testCases.iterator(); itr
+                        .hasNext(); )
+                {
+                    names.add( ( (TestCaseId) itr.next() ).getName() );
+                }
+
+                TestCaseBatch.split( outputFile, names );
+            }
+            else if ( testId != null )
+            {
+                testCases = Collections.singletonList( testId );
+            }
+
+            ResultSink sink = resultSink;
+            if ( sink != null && testCases != null )
+            {
+                // the test cases of a batch share the status and latency of
+                // their page
+                for ( Iterator/* <TestCaseId> */itr = testCases.iterator(); itr
+                        .hasNext(); )
+                {
+                    TestCaseId caseId = (TestCaseId) itr.next();
+                    File testCase = new File( outputFile.getParentFile(),
+                            caseId.getName() );
+                    Verdict verdict = verdictEngine.evaluate( testCase );
+                    verdicts.put( caseId.getName(), verdict );
+
+                    sink.write( new TestResult( caseId, verdict, status,
+                            testCase.length(), latency ) );
+                }
+            }
+
+            return status;
+        }
+
+        public boolean precompile( String path ) throws IOException
+        {
+            return executor.precompile( path );
+        }
+    }
+}